@@ -51,9 +51,11 @@ import org.osgi.service.prefs.Preferences;
 
 import com.salesforce.b2eclipse.config.IPreferenceConfiguration;
 import com.salesforce.bazel.eclipse.component.ComponentContext;
+import com.salesforce.bazel.eclipse.component.EclipseBazelWorkspaceContext;
 import com.salesforce.bazel.eclipse.component.EclipseComponentContextInitializer;
 import com.salesforce.bazel.eclipse.logging.EclipseLoggerFacade;
 import com.salesforce.bazel.eclipse.logging.EclipseLoggerFacade.LogLevel;
+import com.salesforce.bazel.sdk.command.shell.StreamPumpExecutor;
 import com.salesforce.bazel.sdk.console.StandardCommandConsoleFactory;
 import com.salesforce.bazel.sdk.init.BazelJavaSDKInit;
 import com.salesforce.bazel.sdk.init.JvmRuleInit;
@@ -130,6 +132,9 @@ public class BazelJdtPlugin extends Plugin {
                 && Objects.nonNull(JavaLanguageServerPlugin.getPreferencesManager())) {
             JavaLanguageServerPlugin.getPreferencesManager().removePreferencesChangeListener(preferencesChangeListener);
         }
+        // stop pinging the Bazel server, and release the threads that pump the output of Bazel commands
+        EclipseBazelWorkspaceContext.getInstance().stopServerWarmer();
+        StreamPumpExecutor.getShared().shutdown();
         super.stop(context);
     }
 
@@ -24,12 +24,15 @@
 package com.salesforce.bazel.sdk.command.test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.mockito.Mockito;
 
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
 import com.salesforce.bazel.sdk.command.BazelProcessBuilder;
 import com.salesforce.bazel.sdk.command.Command;
 import com.salesforce.bazel.sdk.model.BazelLabel;
@@ -42,10 +45,16 @@ public class MockCommand implements Command {
     public List<String> commandTokens;
     public TestOptions testOptions;
     public TestBazelWorkspaceFactory testWorkspaceFactory;
+    public BazelCommandPriority priority = BazelCommandPriority.BUILD;
+    public Consumer<String> stdoutLineConsumer;
+    public Consumer<String> stderrLineConsumer;
 
     // OUTPUTS
     public List<String> outputLines = new ArrayList<>();
     public List<String> errorLines = new ArrayList<>();
+    public long outputByteCount = -1;
+    public long errorByteCount = -1;
+    public int exitCode = 0;
 
     public MockCommand(List<String> commandTokens, TestOptions testOptions,
             TestBazelWorkspaceFactory testWorkspaceFactory) {
@@ -74,7 +83,18 @@ public class MockCommand implements Command {
 
     @Override
     public int run() throws IOException, InterruptedException {
-        return 0;
+        outputByteCount = countBytes(outputLines);
+        errorByteCount = countBytes(errorLines);
+        // the simulated lines are the selected lines, streamed lines are not kept (like a real command)
+        if ((stdoutLineConsumer != null) && (outputLines != null)) {
+            outputLines.forEach(stdoutLineConsumer);
+            outputLines = null;
+        }
+        if ((stderrLineConsumer != null) && (errorLines != null)) {
+            errorLines.forEach(stderrLineConsumer);
+            errorLines = null;
+        }
+        return exitCode;
     }
 
     @Override
@@ -95,6 +115,11 @@ public class MockCommand implements Command {
         return pb;
     }
 
+    @Override
+    public BazelCommandPriority getPriority() {
+        return priority;
+    }
+
     @Override
     public List<String> getSelectedOutputLines() {
         if (outputLines != null) {
@@ -103,8 +128,32 @@ public class MockCommand implements Command {
         return new ArrayList<>();
     }
 
+    @Override
+    public long getOutputByteCount() {
+        return outputByteCount;
+    }
+
+    @Override
+    public long getErrorByteCount() {
+        return errorByteCount;
+    }
+
     // HELPERS
 
+    /**
+     * The simulated lines as the command would have written them, each followed by a line break.
+     */
+    private static long countBytes(List<String> lines) {
+        if (lines == null) {
+            return 0;
+        }
+        long count = 0;
+        for (String line : lines) {
+            count += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        return count;
+    }
+
     protected String findBazelTargetInArgs() {
         // we expect the target to be the last arg, but that is not always the case
         // sometimes there are args after, prefixed by --
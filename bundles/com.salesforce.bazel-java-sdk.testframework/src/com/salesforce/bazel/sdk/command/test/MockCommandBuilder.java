@@ -172,6 +172,9 @@ public class MockCommandBuilder extends CommandBuilder {
         if (mockCommand == null) {
             mockCommand = new MockCustomCommand(args, testOptions, testWorkspaceFactory, simulatedOutputLines);
         }
+        mockCommand.priority = priority;
+        mockCommand.stdoutLineConsumer = stdoutLineConsumer;
+        mockCommand.stderrLineConsumer = stderrLineConsumer;
 
         return mockCommand;
     }
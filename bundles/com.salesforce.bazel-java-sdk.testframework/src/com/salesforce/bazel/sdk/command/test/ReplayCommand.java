@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+import com.salesforce.bazel.sdk.command.BazelProcessBuilder;
+import com.salesforce.bazel.sdk.command.Command;
+import com.salesforce.bazel.sdk.command.shell.RecordedCommand;
+
+/**
+ * A command built by the {@link ReplayCommandBuilder}. The recorded lines are passed through the selectors and
+ * consumers of the caller, as a real command passes the lines written by Bazel.
+ */
+public class ReplayCommand implements Command {
+    private final List<String> args;
+    private final File directory;
+    private final RecordedCommand recordedCommand;
+    private final boolean replayTiming;
+    private final Function<String, String> stdoutSelector;
+    private final Function<String, String> stderrSelector;
+    private final Consumer<String> stdoutLineConsumer;
+    private final Consumer<String> stderrLineConsumer;
+    private final OutputStream stdout;
+    private final OutputStream stderr;
+    private final BazelCommandPriority priority;
+
+    private final List<String> selectedOutputLines = new ArrayList<>();
+    private final List<String> selectedErrorLines = new ArrayList<>();
+    private long outputByteCount = -1;
+    private long errorByteCount = -1;
+    private boolean executed = false;
+
+    ReplayCommand(List<String> args, File directory, RecordedCommand recordedCommand, boolean replayTiming,
+            Function<String, String> stdoutSelector, Function<String, String> stderrSelector,
+            Consumer<String> stdoutLineConsumer, Consumer<String> stderrLineConsumer, OutputStream stdout,
+            OutputStream stderr, BazelCommandPriority priority) {
+        this.args = args;
+        this.directory = directory;
+        this.recordedCommand = recordedCommand;
+        this.replayTiming = replayTiming;
+        this.stdoutSelector = stdoutSelector;
+        this.stderrSelector = stderrSelector;
+        this.stdoutLineConsumer = stdoutLineConsumer;
+        this.stderrLineConsumer = stderrLineConsumer;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.priority = priority;
+    }
+
+    @Override
+    public int run() throws IOException, InterruptedException {
+        if (executed) {
+            throw new IllegalStateException("This command has already been run.");
+        }
+        executed = true;
+        if (replayTiming && (recordedCommand.durationMS > 0)) {
+            Thread.sleep(recordedCommand.durationMS);
+        }
+        errorByteCount = replayLines(RecordedCommand.replaceWorkspacePath(recordedCommand.errorLines, directory, false),
+            stderrSelector, stderrLineConsumer, stderr, selectedErrorLines);
+        outputByteCount = replayLines(
+            RecordedCommand.replaceWorkspacePath(recordedCommand.outputLines, directory, false), stdoutSelector,
+            stdoutLineConsumer, stdout, selectedOutputLines);
+        return recordedCommand.exitCode;
+    }
+
+    /**
+     * Passes the lines on the way SelectOutputStream does, and returns the number of bytes they had in the output.
+     */
+    private static long replayLines(List<String> lines, Function<String, String> selector,
+            Consumer<String> lineConsumer, OutputStream output, List<String> selectedLines) throws IOException {
+        if ((selector == null) && (lineConsumer != null)) {
+            selector = Function.identity();
+        }
+        long byteCount = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            boolean lastLine = i == (lines.size() - 1);
+            if (lastLine && line.isEmpty() && (lineConsumer != null)) {
+                // output that ends with a line break has no last line to stream
+                break;
+            }
+            // the recorded lines were separated by line breaks
+            byte[] lineBytes = (lastLine ? line : line + "\n").getBytes(StandardCharsets.UTF_8);
+            byteCount += lineBytes.length;
+            String selectedLine = (selector != null) ? selector.apply(line) : null;
+            if (selectedLine == null) {
+                if (output != null) {
+                    output.write(lineBytes);
+                }
+            } else if (lineConsumer != null) {
+                lineConsumer.accept(selectedLine);
+            } else {
+                selectedLines.add(selectedLine);
+            }
+        }
+        return byteCount;
+    }
+
+    @Override
+    public List<String> getSelectedErrorLines() {
+        return selectedErrorLines;
+    }
+
+    @Override
+    public List<String> getSelectedOutputLines() {
+        return selectedOutputLines;
+    }
+
+    @Override
+    public BazelProcessBuilder getProcessBuilder() {
+        BazelProcessBuilder builder = new BazelProcessBuilder(args, new HashMap<>());
+        builder.directory(directory);
+        return builder;
+    }
+
+    @Override
+    public BazelCommandPriority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public long getOutputByteCount() {
+        return outputByteCount;
+    }
+
+    @Override
+    public long getErrorByteCount() {
+        return errorByteCount;
+    }
+
+    /**
+     * The recording this command replays.
+     */
+    public RecordedCommand getRecordedCommand() {
+        return recordedCommand;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.salesforce.bazel.sdk.command.Command;
+import com.salesforce.bazel.sdk.command.CommandBuilder;
+import com.salesforce.bazel.sdk.command.shell.RecordedCommand;
+import com.salesforce.bazel.sdk.command.shell.RecordingCommandBuilder;
+import com.salesforce.bazel.sdk.console.CommandConsoleFactory;
+
+/**
+ * A CommandBuilder that serves back the commands captured by a {@link RecordingCommandBuilder}, so that tests and
+ * benchmarks can run against the output of a real workspace without Bazel. Unlike the {@link MockCommandBuilder},
+ * nothing is made up: every command must have been recorded, otherwise build() fails.
+ * <p>
+ * A command is matched by its arguments, the Bazel executable is ignored. If the same command was recorded more than
+ * once, the recordings are served in the order they were made, and the last one is served again once they are used
+ * up. With {@link #setReplayTiming(boolean)} each command takes as long as it did when it was recorded.
+ */
+public class ReplayCommandBuilder extends CommandBuilder {
+
+    private final Map<List<String>, Deque<RecordedCommand>> recordedCommands = new HashMap<>();
+    private boolean replayTiming = false;
+    private int replayedCount = 0;
+
+    public ReplayCommandBuilder(CommandConsoleFactory consoleFactory, File fixtureDirectory) throws IOException {
+        super(consoleFactory);
+        List<File> fixtureFiles = RecordedCommand.listFixtureFiles(fixtureDirectory);
+        if (fixtureFiles.isEmpty()) {
+            throw new IllegalArgumentException("No recorded commands in " + fixtureDirectory.getAbsolutePath());
+        }
+        for (File fixtureFile : fixtureFiles) {
+            RecordedCommand recordedCommand = RecordedCommand.read(fixtureFile);
+            recordedCommands.computeIfAbsent(recordedCommand.args, k -> new ArrayDeque<>()).add(recordedCommand);
+        }
+    }
+
+    /**
+     * If enabled, each replayed command waits for as long as the recorded command ran before it returns its output.
+     * Disabled by default.
+     */
+    public ReplayCommandBuilder setReplayTiming(boolean replayTiming) {
+        this.replayTiming = replayTiming;
+        return this;
+    }
+
+    /**
+     * The number of commands built by this builder.
+     */
+    public synchronized int getReplayedCount() {
+        return replayedCount;
+    }
+
+    @Override
+    protected synchronized Command build_impl() throws IOException {
+        // the Bazel executable differs between machines, it is not part of the recording
+        List<String> bazelArgs = args.isEmpty() ? args : args.subList(1, args.size());
+        List<String> key = RecordedCommand.replaceWorkspacePath(bazelArgs, directory, true);
+        Deque<RecordedCommand> recordings = recordedCommands.get(key);
+        if (recordings == null) {
+            throw new IllegalArgumentException("Bazel command " + key + " was not recorded.");
+        }
+        RecordedCommand recordedCommand = (recordings.size() > 1) ? recordings.poll() : recordings.peek();
+        replayedCount++;
+
+        return new ReplayCommand(new ArrayList<>(args), directory, recordedCommand, replayTiming, stdoutSelector,
+                stderrSelector, stdoutLineConsumer, stderrLineConsumer, stdout, stderr, priority);
+    }
+}
@@ -23,15 +23,18 @@
  */
 package com.salesforce.bazel.sdk.command.test.type;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.salesforce.bazel.sdk.command.internal.BazelWorkspaceAspectProcessor;
 import com.salesforce.bazel.sdk.command.test.MockCommand;
 import com.salesforce.bazel.sdk.command.test.MockCommandSimulatedOutput;
-import com.salesforce.bazel.sdk.command.test.MockCommandSimulatedOutputMatcher;
 import com.salesforce.bazel.sdk.model.BazelLabel;
 import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
 import com.salesforce.bazel.sdk.workspace.test.TestOptions;
@@ -40,6 +43,7 @@ import com.salesforce.bazel.sdk.workspace.test.TestOptions;
  * Simulates a "bazel build //a/b/c" command
  */
 public class MockBuildCommand extends MockCommand {
+    private static final String TARGET_PATTERN_FILE_OPTION = "--target_pattern_file=";
 
     public MockBuildCommand(List<String> commandTokens, TestOptions testOptions,
             TestBazelWorkspaceFactory testWorkspaceFactory) {
@@ -81,41 +85,90 @@ public class MockBuildCommand extends MockCommand {
      * packages, so we need to make sure we only list each once
      */
     void createAspectBuildCommand() {
-        List<MockCommandSimulatedOutput> simulatedOutputLines = new ArrayList<>();
         // TODO this aspect code here is indirect, it should just populate out/err lines directly
         // TODO clean up "Problem adding jar to project" errors seen when running tests from Eclipse, seems to be during aspect phase
         // stderr is a line per path to an aspect json file
 
         // build command looks like: bazel build --override_repository=bazeljavasdk_aspect=/tmp/bef/bazelws/bazel-workspace/tools/aspect ...
-        MockCommandSimulatedOutputMatcher aspectCommandMatcher1 = new MockCommandSimulatedOutputMatcher(1, "build");
-        MockCommandSimulatedOutputMatcher aspectCommandMatcher2 = new MockCommandSimulatedOutputMatcher(
-            BazelWorkspaceAspectProcessor.ASPECTCMD_EXTERNALREPO_ARGINDEX, ".*bazeljavasdk_aspect.*");
-
-        for (String packagePath : testWorkspaceFactory.workspaceDescriptor.aspectFileSets.keySet()) {
-            // the last arg is the package path with the wildcard target (//projects/libs/javalib0:*)
-            // TODO this is returning the same set of aspects for each target in a package
-            String wildcardTarget = BazelLabel.BAZEL_ROOT_SLASHES + packagePath + BazelLabel.BAZEL_COLON + ".*";
-            MockCommandSimulatedOutputMatcher aspectCommandMatcher3 = new MockCommandSimulatedOutputMatcher(
-                BazelWorkspaceAspectProcessor.ASPECTCMD_TARGETLABEL_ARGINDEX, wildcardTarget);
+        // followed by the targets (//projects/libs/javalib0:* //projects/libs/javalib1:*)
+        // TODO this is returning the same set of aspects for each target in a package
+        Set<String> aspectFilePaths = new LinkedHashSet<>();
+        for (String target : findAspectTargetsInArgs()) {
+            String packagePath = new BazelLabel(target).getPackagePath();
+            Set<String> packageAspectFilePaths =
+                    testWorkspaceFactory.workspaceDescriptor.aspectFileSets.get(packagePath);
+            if (packageAspectFilePaths != null) {
+                aspectFilePaths.addAll(packageAspectFilePaths);
+            }
+            if (packagePath.equals(testOptions.failAspectBuildsOfPackage)) {
+                exitCode = 1;
+            }
+        }
+        if (!aspectFilePaths.isEmpty()) {
+            errorLines = new ArrayList<>(aspectFilePaths);
+        }
+        if (testOptions.failAspectBuilds) {
+            exitCode = 1;
+        }
 
-            List<MockCommandSimulatedOutputMatcher> matchers = new ArrayList<>();
-            Collections.addAll(matchers, aspectCommandMatcher1, aspectCommandMatcher2, aspectCommandMatcher3);
+        // if asked for a BEP file, the aspect file paths are reported as a named set of files instead of on stderr
+        String bepOption = BazelWorkspaceAspectProcessor.BUILD_EVENT_JSON_FILE_OPTION;
+        for (String token : commandTokens) {
+            if (token.startsWith(bepOption)) {
+                writeBuildEventsFile(new File(token.substring(bepOption.length())), errorLines);
+                errorLines = new ArrayList<>();
+            }
+        }
+    }
 
-            List<String> aspectFilePathsList =
-                    new ArrayList<>(testWorkspaceFactory.workspaceDescriptor.aspectFileSets.get(packagePath));
-            String nameForLog = "Aspect file set for target: " + wildcardTarget;
-            MockCommandSimulatedOutput aspectOutput =
-                    new MockCommandSimulatedOutput(nameForLog, outputLines, aspectFilePathsList, matchers);
-            simulatedOutputLines.add(aspectOutput);
+    private void writeBuildEventsFile(File bepFile, List<String> aspectFilePaths) {
+        StringBuilder files = new StringBuilder();
+        for (String aspectFilePath : aspectFilePaths) {
+            if (files.length() > 0) {
+                files.append(",");
+            }
+            // Bazel writes file:///abs/path uris
+            String uri = "file://" + new File(aspectFilePath).toURI().getRawPath();
+            files.append("{\"name\":\"").append(new File(aspectFilePath).getName()).append("\",\"uri\":\"")
+                    .append(uri).append("\"}");
         }
-        for (MockCommandSimulatedOutput candidateOutput : simulatedOutputLines) {
-            if (candidateOutput.doesMatch(commandTokens)) {
-                // the output is targeted to this command
-                outputLines = candidateOutput.outputLines;
-                errorLines = candidateOutput.errorLines;
-                break;
+        List<String> events = new ArrayList<>();
+        events.add("{\"id\":{\"namedSet\":{\"id\":\"0\"}},\"namedSetOfFiles\":{\"files\":[" + files + "]}}");
+        for (String target : findAspectTargetsInArgs()) {
+            events.add("{\"id\":{\"targetCompleted\":{\"label\":\"" + target
+                    + "\"}},\"completed\":{\"success\":true}}");
+        }
+        try {
+            Files.write(bepFile.toPath(), events);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    /**
+     * Returns the targets of an aspect build, which follow the aspect options. A --target_pattern_file arg is expanded
+     * to the targets listed in the file.
+     */
+    private List<String> findAspectTargetsInArgs() {
+        List<String> targets = new ArrayList<>();
+        for (int i = BazelWorkspaceAspectProcessor.ASPECTCMD_TARGETLABEL_ARGINDEX; i < commandTokens.size(); i++) {
+            String token = commandTokens.get(i);
+            if (token.startsWith(BazelLabel.BAZEL_ROOT_SLASHES)) {
+                targets.add(token);
+            } else if (token.startsWith(TARGET_PATTERN_FILE_OPTION)) {
+                try {
+                    for (String line : Files.readAllLines(new File(token.substring(TARGET_PATTERN_FILE_OPTION.length()))
+                            .toPath())) {
+                        if (!line.isEmpty()) {
+                            targets.add(line);
+                        }
+                    }
+                } catch (IOException ioe) {
+                    throw new IllegalStateException(ioe);
+                }
             }
         }
+        return targets;
     }
 
     void createCodeBuildCommand() {
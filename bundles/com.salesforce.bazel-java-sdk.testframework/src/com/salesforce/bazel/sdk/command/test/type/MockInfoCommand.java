@@ -30,19 +30,27 @@ import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
 import com.salesforce.bazel.sdk.workspace.test.TestOptions;
 
 /**
- * Simulates an info command (bazel info XYZ) where XYZ is one of a set of descriptors supported by Bazel.
+ * Simulates an info command (bazel info XYZ) where XYZ is one of a set of descriptors supported by Bazel, or the
+ * generic 'bazel info' that lists them all.
  */
 public class MockInfoCommand extends MockCommand {
 
+    public static final String SERVER_PID = "4242";
+
     public MockInfoCommand(List<String> commandTokens, TestOptions testOptions,
             TestBazelWorkspaceFactory testWorkspaceFactory) {
         super(commandTokens, testOptions, testWorkspaceFactory);
 
         if (commandTokens.size() < 3) {
-            // this is just the generic 'bazel info', which is a legal bazel command but it provides a many line response
-            // we probably should not be issuing this command from BEF, we should use the more specific forms instead
-            throw new IllegalArgumentException(
-                    "The plugin issued the command 'bazel info' without a third arg. Please consider using a more specific 'bazel info xyz' command instead.");
+            // this is the generic 'bazel info', which lists every key with its value
+            addSimulatedOutputToCommandStdOut("INFO: Invocation ID: a6809b5e-3fb4-462e-8fcc-2c18575122e7",
+                "bazel-bin: " + testWorkspaceFactory.workspaceDescriptor.dirBazelBin.getAbsolutePath(),
+                "execution_root: " + testWorkspaceFactory.workspaceDescriptor.dirExecRoot.getAbsolutePath(),
+                "output_base: " + testWorkspaceFactory.workspaceDescriptor.outputBaseDirectory.getAbsolutePath(),
+                "output_path: " + testWorkspaceFactory.workspaceDescriptor.dirOutputPath.getAbsolutePath(),
+                "release: release " + testOptions.bazelVersion, "server_pid: " + SERVER_PID,
+                "workspace: " + testWorkspaceFactory.workspaceDescriptor.workspaceRootDirectory.getAbsolutePath());
+            return;
         }
         if ("workspace".equals(commandTokens.get(2))) {
             addSimulatedOutputToCommandStdOut("INFO: Invocation ID: a6809b5e-3fb4-462e-8fcc-2c18575122e7",
@@ -56,6 +64,8 @@ public class MockInfoCommand extends MockCommand {
             addSimulatedOutputToCommandStdOut(testWorkspaceFactory.workspaceDescriptor.dirOutputPath.getAbsolutePath());
         } else if ("bazel-bin".equals(commandTokens.get(2))) {
             addSimulatedOutputToCommandStdOut(testWorkspaceFactory.workspaceDescriptor.dirBazelBin.getAbsolutePath());
+        } else if ("server_pid".equals(commandTokens.get(2))) {
+            addSimulatedOutputToCommandStdOut(SERVER_PID);
         } else {
             throw new IllegalArgumentException("MockInfoCommand does not know how to mock 'bazel info "
                     + commandTokens.get(2) + "'. Please add code to handle this case.");
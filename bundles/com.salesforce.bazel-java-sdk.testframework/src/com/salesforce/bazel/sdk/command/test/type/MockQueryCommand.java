@@ -83,7 +83,7 @@ public class MockQueryCommand extends MockCommand {
                 outputLines.add(outputString);
             }
             addSimulatedOutputToCommandStdOut(outputLines);
-        } else if (queryArg.startsWith("kind('source file', deps")) {
+        } else if (queryArg.startsWith("kind('source file', ")) {
             // QUERY:
             //    kind('source file', deps(//a/b/c:*))
             // RESPONSE:
@@ -95,29 +95,45 @@ public class MockQueryCommand extends MockCommand {
             //    //projects/libs/apple/apple-api:src/main/java/demo/apple/api/Apple.java
             //    //projects/libs/apple/apple-api:BUILD
 
-            int wildcard = queryArg.indexOf("*");
-            String queryPackage = queryArg.substring(27, wildcard - 1);
-            List<String> outputLines = new ArrayList<>();
-
-            List<String> mainSourceFiles =
-                    testWorkspaceFactory.workspaceDescriptor.createdMainSourceFilesForPackages.get(queryPackage);
-            if (mainSourceFiles != null) {
-                for (String mainSourceFile : mainSourceFiles) {
-                    String sourcePath = convertSourceFilePath(queryPackage, mainSourceFile);
-                    outputLines.add(sourcePath);
+            // QUERY (batched):
+            //    kind('source file', set(//a/b/c:* //d/e/f:*))
+            // RESPONSE: the lines of each package, in one output
+
+            List<String> queryPackages = new ArrayList<>();
+            String batchPrefix = "kind('source file', set(";
+            if (queryArg.startsWith(batchPrefix)) {
+                String labels = queryArg.substring(batchPrefix.length(), queryArg.indexOf(")"));
+                for (String label : labels.split(" ")) {
+                    // strip //a/b/c:* to be just 'a/b/c'
+                    queryPackages.add(label.substring(2, label.length() - 2));
                 }
+            } else {
+                int wildcard = queryArg.indexOf("*");
+                queryPackages.add(queryArg.substring(27, wildcard - 1));
             }
-            List<String> testSourceFiles =
-                    testWorkspaceFactory.workspaceDescriptor.createdTestSourceFilesForPackages.get(queryPackage);
-            if (testSourceFiles != null) {
-                for (String testSourceFile : testSourceFiles) {
-                    String sourcePath = convertSourceFilePath(queryPackage, testSourceFile);
-                    outputLines.add(sourcePath);
+
+            List<String> outputLines = new ArrayList<>();
+            for (String queryPackage : queryPackages) {
+                List<String> mainSourceFiles =
+                        testWorkspaceFactory.workspaceDescriptor.createdMainSourceFilesForPackages.get(queryPackage);
+                if (mainSourceFiles != null) {
+                    for (String mainSourceFile : mainSourceFiles) {
+                        String sourcePath = convertSourceFilePath(queryPackage, mainSourceFile);
+                        outputLines.add(sourcePath);
+                    }
+                }
+                List<String> testSourceFiles =
+                        testWorkspaceFactory.workspaceDescriptor.createdTestSourceFilesForPackages.get(queryPackage);
+                if (testSourceFiles != null) {
+                    for (String testSourceFile : testSourceFiles) {
+                        String sourcePath = convertSourceFilePath(queryPackage, testSourceFile);
+                        outputLines.add(sourcePath);
+                    }
                 }
-            }
 
-            // we have to filter out a bunch of internal source file paths (jdk source files, etc) so simulate those here
-            addExtraneousSourceFileLines(queryPackage, outputLines);
+                // we have to filter out a bunch of internal source file paths (jdk source files, etc) so simulate those here
+                addExtraneousSourceFileLines(queryPackage, outputLines);
+            }
 
             addSimulatedOutputToCommandStdOut(outputLines);
         } else {
@@ -150,4 +150,21 @@ public class TestOptions extends HashMap<String, String> {
         return this;
     }
 
+    // simulates an aspect build that fails after reporting the aspect files (e.g. a compile error in a BUILD file);
+    // the flag is read when the command is created, so a test can flip it between invocations
+    public boolean failAspectBuilds = false;
+
+    public TestOptions failAspectBuilds(boolean fail) {
+        failAspectBuilds = fail;
+        return this;
+    }
+
+    // simulates a broken package: an aspect build fails if any of its targets is in this package (e.g. a/b/c)
+    public String failAspectBuildsOfPackage = null;
+
+    public TestOptions failAspectBuildsOfPackage(String packagePath) {
+        failAspectBuildsOfPackage = packagePath;
+        return this;
+    }
+
 }
@@ -1039,7 +1039,8 @@ def intellij_info_aspect_impl(target, ctx, semantics):
     if aspect_ids:
         aspect_hash = hash(".".join(aspect_ids))
         file_name = file_name + "-" + str(aspect_hash)
-    file_name = file_name + ".bzljavasdk-data.json"
+    compact = ctx.var.get("bzljavasdk_aspect_format", "json") == "compact"
+    file_name = file_name + (".bzljavasdk-data.compact" if compact else ".bzljavasdk-data.json")
     ide_info_file = ctx.actions.declare_file(file_name)
 
     target_key = make_target_key(target.label, aspect_ids)
@@ -1073,10 +1074,17 @@ def intellij_info_aspect_impl(target, ctx, semantics):
     if not handled:
         update_sync_output_groups(output_groups, "intellij-info-generic", depset([ide_info_file]))
 
+    # The ide info file alone, without forcing any compile or resolve actions. Used by the Bazel
+    # Java SDK when it only needs the structure of the workspace (AspectOutputMode.STRUCTURE).
+    update_sync_output_groups(output_groups, "bzljavasdk-info", depset([ide_info_file]))
+
     # Output the ide information file.
     info = struct_omit_none(**ide_info)
 #    ctx.actions.write(ide_info_file, info.to_proto())
-    ctx.actions.write(ide_info_file, info.to_json())
+    if compact:
+        ctx.actions.write(ide_info_file, compact_ide_info(ide_info))
+    else:
+        ctx.actions.write(ide_info_file, info.to_json())
 
     # Return providers.
     return struct_omit_none(
@@ -1089,6 +1097,46 @@ def intellij_info_aspect_impl(target, ctx, semantics):
         ),
     )
 
+def _compact_location(location):
+    """Encodes an ArtifactLocation as root<TAB>relative path, both empty if there is no location."""
+    if location == None:
+        return "\t"
+    return getattr(location, "root_execution_path_fragment", "") + "\t" + getattr(location, "relative_path", "")
+
+def _compact_jar_line(tag, jar):
+    return "\t".join([
+        tag,
+        _compact_location(getattr(jar, "jar", None)),
+        _compact_location(getattr(jar, "interface_jar", None)),
+        _compact_location(getattr(jar, "source_jar", None)),
+    ])
+
+def compact_ide_info(ide_info):
+    """Encodes the fields of the ide info read by the Bazel Java SDK in its compact line format.
+
+    The format is documented in AspectTargetInfoFactory.COMPACT_ASPECT_FILENAME_SUFFIX. It is
+    selected with --define=bzljavasdk_aspect_format=compact.
+    """
+    lines = ["bzljavasdk-compact 1"]
+    lines.append("L\t" + ide_info["key"].label)
+    lines.append("K\t" + ide_info["kind_string"])
+    for dep in ide_info["deps"]:
+        lines.append("D\t" + dep.target.label)
+    java_info = ide_info.get("java_ide_info")
+    if java_info:
+        for source in getattr(java_info, "sources", []):
+            lines.append("S\t" + source.relative_path)
+        for jar in getattr(java_info, "jars", []):
+            if jar:
+                lines.append(_compact_jar_line("J", jar))
+        for jar in getattr(java_info, "generated_jars", []):
+            if jar:
+                lines.append(_compact_jar_line("G", jar))
+        main_class = getattr(java_info, "main_class", None)
+        if main_class:
+            lines.append("M\t" + main_class)
+    return "\n".join(lines) + "\n"
+
 def semantics_extra_deps(base, semantics, name):
     if not hasattr(semantics, name):
         return base
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.path.FSPathHelper;
+
+/**
+ * Default batching strategy. The batch size is chosen such that a batch should take about the target wall time, based
+ * on the average time per target observed in previous runs. Batches are also capped so that the command line stays
+ * below the platform limit.
+ * <p>
+ * Wildcard package labels (//a/b/c:*) are batched together, separately from concrete labels, because each one stands
+ * for a whole package and so costs much more than a single target. The time per target is tracked separately for both
+ * kinds.
+ * <p>
+ * Larger batches have a cost when a target is broken: a batch that fails contributes no aspect data at all. The
+ * aspect processor retries a failed batch in smaller batches, so a broken target costs extra invocations rather than
+ * the data of up to {@link #DEFAULT_MAX_BATCH_SIZE} targets.
+ */
+public class AdaptiveAspectBatchingStrategy implements AspectBatchingStrategy {
+    private static final LogHelper LOG = LogHelper.log(AdaptiveAspectBatchingStrategy.class);
+
+    public static final long DEFAULT_TARGET_BATCH_MILLIS = 60000;
+    public static final long DEFAULT_INITIAL_MILLIS_PER_TARGET = 500;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    // Windows limits the whole command line to 32k chars; leave room for the bazel executable and startup options
+    public static final int DEFAULT_MAX_COMMAND_LINE_LENGTH = FSPathHelper.isUnix ? 120000 : 30000;
+
+    // batches this small are dominated by the fixed invocation overhead and say little about the cost per target
+    private static final int MIN_SAMPLE_BATCH_SIZE = 5;
+
+    private final long targetBatchMillis;
+    private final int maxBatchSize;
+    private final int maxCommandLineLength;
+
+    private double millisPerWildcardTarget;
+    private double millisPerConcreteTarget;
+    private boolean hasWildcardSample = false;
+    private boolean hasConcreteSample = false;
+
+    public AdaptiveAspectBatchingStrategy() {
+        this(DEFAULT_TARGET_BATCH_MILLIS, DEFAULT_INITIAL_MILLIS_PER_TARGET, DEFAULT_MAX_BATCH_SIZE,
+                DEFAULT_MAX_COMMAND_LINE_LENGTH);
+    }
+
+    /**
+     * @param targetBatchMillis
+     *            desired wall time of a single batch, which determines how often progress is reported
+     * @param initialMillisPerTarget
+     *            assumed time per target until a run has been observed
+     * @param maxBatchSize
+     *            upper bound on the number of targets in a batch
+     * @param maxCommandLineLength
+     *            upper bound on the number of chars of the command line args
+     */
+    public AdaptiveAspectBatchingStrategy(long targetBatchMillis, long initialMillisPerTarget, int maxBatchSize,
+            int maxCommandLineLength) {
+        if ((targetBatchMillis < 1) || (initialMillisPerTarget < 1) || (maxBatchSize < 1)
+                || (maxCommandLineLength < 1)) {
+            throw new IllegalArgumentException("Aspect batching parameters must be positive.");
+        }
+        this.targetBatchMillis = targetBatchMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.maxCommandLineLength = maxCommandLineLength;
+        millisPerWildcardTarget = initialMillisPerTarget;
+        millisPerConcreteTarget = initialMillisPerTarget;
+    }
+
+    @Override
+    public synchronized List<List<BazelLabel>> createBatches(List<BazelLabel> targets, List<String> fixedArgs) {
+        List<BazelLabel> wildcardTargets = new ArrayList<>();
+        List<BazelLabel> concreteTargets = new ArrayList<>();
+        for (BazelLabel target : targets) {
+            if (target.isConcrete()) {
+                concreteTargets.add(target);
+            } else {
+                wildcardTargets.add(target);
+            }
+        }
+        int fixedLength = 0;
+        for (String arg : fixedArgs) {
+            fixedLength += arg.length() + 1;
+        }
+
+        List<List<BazelLabel>> batches = new ArrayList<>();
+        addBatches(wildcardTargets, getBatchSize(millisPerWildcardTarget), fixedLength, batches);
+        addBatches(concreteTargets, getBatchSize(millisPerConcreteTarget), fixedLength, batches);
+        return batches;
+    }
+
+    @Override
+    public synchronized void batchCompleted(List<BazelLabel> batch, long elapsedMillis) {
+        if (batch.size() < MIN_SAMPLE_BATCH_SIZE) {
+            return;
+        }
+        double observed = (double) elapsedMillis / batch.size();
+        // batches never mix the two kinds, so the first label tells which average to update
+        if (batch.get(0).isConcrete()) {
+            millisPerConcreteTarget = hasConcreteSample ? (millisPerConcreteTarget + observed) / 2 : observed;
+            hasConcreteSample = true;
+        } else {
+            millisPerWildcardTarget = hasWildcardSample ? (millisPerWildcardTarget + observed) / 2 : observed;
+            hasWildcardSample = true;
+        }
+        LOG.debug("Aspect batch of {} targets took {} millis; millis per target is now {} (wildcard) {} (concrete)",
+            batch.size(), elapsedMillis, (long) millisPerWildcardTarget, (long) millisPerConcreteTarget);
+    }
+
+    int getBatchSize(double millisPerTarget) {
+        long size = (long) (targetBatchMillis / Math.max(1.0, millisPerTarget));
+        return (int) Math.max(1, Math.min(maxBatchSize, size));
+    }
+
+    private void addBatches(List<BazelLabel> targets, int batchSize, int fixedLength,
+            List<List<BazelLabel>> batches) {
+        List<BazelLabel> batch = new ArrayList<>();
+        int length = fixedLength;
+        for (BazelLabel target : targets) {
+            int argLength = target.toString().length() + 1;
+            if (!batch.isEmpty() && ((batch.size() >= batchSize) || ((length + argLength) > maxCommandLineLength))) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                length = fixedLength;
+            }
+            batch.add(target);
+            length += argLength;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+    }
+}
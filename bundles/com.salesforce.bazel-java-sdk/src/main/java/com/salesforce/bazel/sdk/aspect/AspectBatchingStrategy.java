@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+/**
+ * Decides how the targets of an aspect run are split into Bazel invocations. Each invocation carries several seconds of
+ * client/server overhead, so fewer and larger batches are faster, while smaller batches give more frequent progress
+ * reporting.
+ * <p>
+ * Set the strategy on the BazelWorkspaceAspectProcessor. The same instance is used for all aspect runs of the
+ * workspace, so a strategy can learn from previous runs via {@link #batchCompleted(List, long)}.
+ */
+public interface AspectBatchingStrategy {
+
+    /**
+     * Splits the targets into batches. Each batch is run as one "bazel build" invocation.
+     *
+     * @param targets
+     *            the targets to run the aspect for
+     * @param fixedArgs
+     *            the args of the command that precede the target args (build verb and aspect options), useful for
+     *            computing the length of the command line
+     */
+    List<List<BazelLabel>> createBatches(List<BazelLabel> targets, List<String> fixedArgs);
+
+    /**
+     * Returns the command line args that select the targets of the batch. By default this is the list of labels.
+     */
+    default List<String> getTargetArgs(List<BazelLabel> batch) throws IOException {
+        List<String> args = new ArrayList<>(batch.size());
+        for (BazelLabel label : batch) {
+            args.add(label.toString());
+        }
+        return args;
+    }
+
+    /**
+     * Called after the invocation for a batch has succeeded. Failed invocations are not reported, as their time says
+     * nothing about the cost of the targets.
+     */
+    default void batchCompleted(List<BazelLabel> batch, long elapsedMillis) {}
+
+    /**
+     * Called once the invocation for a batch has ended, whether it completed, failed or was interrupted. Releases
+     * whatever {@link #getTargetArgs(List)} created for the batch.
+     */
+    default void batchReleased(List<BazelLabel> batch) {}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates statistics about the aspect caches of a workspace: cache hits and misses per caller, the Bazel
+ * invocations that ran the aspect, and how often the last good data had to stand in for a failed run. The cache size
+ * gauges are refreshed by the owner of the caches when the metrics are read. The counters are safe for concurrent
+ * updates.
+ * <p>
+ * The parse cost of the aspect files is tracked separately by {@link AspectParseMetrics}, see
+ * {@link #getParseMetrics()}.
+ */
+public class AspectCacheMetrics {
+
+    private final Map<String, CallerCounts> countsByCaller = new ConcurrentHashMap<>();
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder invocationTargets = new LongAdder();
+    private final LongAdder totalInvocationMillis = new LongAdder();
+    private final LongAccumulator maxInvocationMillis = new LongAccumulator(Long::max, 0L);
+    private volatile long lastInvocationMillis = 0L;
+    private volatile int lastInvocationTargets = 0;
+
+    private final LongAdder lastGoodFallbacks = new LongAdder();
+
+    private volatile int currentCacheEntries = 0;
+    private volatile long currentCacheHeapBytes = 0L;
+    private volatile int lastGoodCacheEntries = 0;
+    private volatile long lastGoodCacheHeapBytes = 0L;
+
+    /**
+     * Hit and miss counts of a single caller.
+     */
+    public static class CallerCounts {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits() + " misses=" + getMisses();
+        }
+    }
+
+    // RECORDING
+
+    public void recordHit(String caller) {
+        getCallerCounts(caller).hits.increment();
+    }
+
+    public void recordMiss(String caller) {
+        getCallerCounts(caller).misses.increment();
+    }
+
+    /**
+     * Records one Bazel invocation (one batch) of the aspect.
+     */
+    public void recordInvocation(int targetCount, long elapsedMillis) {
+        invocations.increment();
+        invocationTargets.add(targetCount);
+        totalInvocationMillis.add(elapsedMillis);
+        maxInvocationMillis.accumulate(elapsedMillis);
+        lastInvocationMillis = elapsedMillis;
+        lastInvocationTargets = targetCount;
+    }
+
+    /**
+     * Records a target that was served from the last good cache because the aspect failed to run.
+     */
+    public void recordLastGoodFallback() {
+        lastGoodFallbacks.increment();
+    }
+
+    /**
+     * Updates the cache size gauges. Called by the owner of the caches.
+     */
+    public void updateCacheSizes(int currentEntries, long currentHeapBytes, int lastGoodEntries,
+            long lastGoodHeapBytes) {
+        currentCacheEntries = currentEntries;
+        currentCacheHeapBytes = currentHeapBytes;
+        lastGoodCacheEntries = lastGoodEntries;
+        lastGoodCacheHeapBytes = lastGoodHeapBytes;
+    }
+
+    /**
+     * Estimates the heap used by the passed cache values, in the same way as {@link AspectLastGoodCache}. Values and
+     * infos that are shared by several cache entries (e.g. the closures of a wildcard load) are only counted once.
+     */
+    public static long estimateHeapBytes(Collection<Set<AspectTargetInfo>> cacheValues) {
+        return AspectLastGoodCache.estimateWeight(cacheValues);
+    }
+
+    // GETTERS
+
+    public long getHits() {
+        long hits = 0L;
+        for (CallerCounts counts : countsByCaller.values()) {
+            hits += counts.getHits();
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0L;
+        for (CallerCounts counts : countsByCaller.values()) {
+            misses += counts.getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the hit and miss counts per caller, sorted by caller.
+     */
+    public Map<String, CallerCounts> getCountsByCaller() {
+        return new TreeMap<>(countsByCaller);
+    }
+
+    public long getInvocationCount() {
+        return invocations.sum();
+    }
+
+    public long getInvocationTargetCount() {
+        return invocationTargets.sum();
+    }
+
+    public long getTotalInvocationMillis() {
+        return totalInvocationMillis.sum();
+    }
+
+    public long getMaxInvocationMillis() {
+        return maxInvocationMillis.get();
+    }
+
+    public long getLastInvocationMillis() {
+        return lastInvocationMillis;
+    }
+
+    public int getLastInvocationTargetCount() {
+        return lastInvocationTargets;
+    }
+
+    public long getLastGoodFallbacks() {
+        return lastGoodFallbacks.sum();
+    }
+
+    public int getCurrentCacheEntries() {
+        return currentCacheEntries;
+    }
+
+    /**
+     * Rough estimate of the heap used by the current cache, see {@link #estimateHeapBytes(Collection)}.
+     */
+    public long getCurrentCacheHeapBytes() {
+        return currentCacheHeapBytes;
+    }
+
+    public int getLastGoodCacheEntries() {
+        return lastGoodCacheEntries;
+    }
+
+    public long getLastGoodCacheHeapBytes() {
+        return lastGoodCacheHeapBytes;
+    }
+
+    /**
+     * The bytes of aspect data read and the time spent parsing them. These are shared by all workspaces.
+     */
+    public AspectParseMetrics getParseMetrics() {
+        return AspectTargetInfoFactory.getParseMetrics();
+    }
+
+    /**
+     * Resets the counters. The cache size gauges are left alone, they are refreshed on the next read.
+     */
+    public void reset() {
+        countsByCaller.clear();
+        invocations.reset();
+        invocationTargets.reset();
+        totalInvocationMillis.reset();
+        maxInvocationMillis.reset();
+        lastInvocationMillis = 0L;
+        lastInvocationTargets = 0;
+        lastGoodFallbacks.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + " misses=" + getMisses() + " invocations=" + getInvocationCount()
+                + " invocationTargets=" + getInvocationTargetCount() + " totalInvocationMillis="
+                + getTotalInvocationMillis() + " maxInvocationMillis=" + getMaxInvocationMillis()
+                + " lastGoodFallbacks=" + getLastGoodFallbacks() + " currentCacheEntries=" + getCurrentCacheEntries()
+                + " currentCacheHeapBytes=" + getCurrentCacheHeapBytes() + " lastGoodCacheEntries="
+                + getLastGoodCacheEntries() + " lastGoodCacheHeapBytes=" + getLastGoodCacheHeapBytes() + " parse=["
+                + getParseMetrics() + "]";
+    }
+
+    // INTERNAL
+
+    private CallerCounts getCallerCounts(String caller) {
+        return countsByCaller.computeIfAbsent(caller == null ? "" : caller, c -> new CallerCounts());
+    }
+}
@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+/**
+ * Bounded cache of the last good Aspect results per label. It backs the compile error fallback of the
+ * BazelWorkspaceAspectProcessor: if the Aspect fails for a target, the last result that loaded successfully is used
+ * instead.
+ * <p>
+ * Entries are evicted in least recently used order once either the number of entries or the estimated heap use exceeds
+ * its limit. The estimate counts each distinct {@link AspectTargetInfo} once, as the closures of the entries share most
+ * of their infos. If a spill directory is set, an evicted entry is written to disk by a background thread, along with a
+ * copy of each aspect data file in its closure, and is loaded back from there when it is needed again. Without a spill
+ * directory evicted entries are dropped.
+ */
+public class AspectLastGoodCache {
+    private static final LogHelper LOG = LogHelper.log(AspectLastGoodCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_WEIGHT_BYTES = 64L * 1024 * 1024;
+
+    // rough per entry cost of the map entry and set, and cost of the set slots of each distinct AspectTargetInfo; the
+    // info itself is weighed by its content, see AspectTargetInfo.estimateHeapBytes()
+    static final long ENTRY_WEIGHT_BYTES = 128;
+    static final long SET_SLOT_WEIGHT_BYTES = 32;
+
+    // writes the evicted entries of all caches, so that eviction does no file IO on the thread that loads aspects
+    private static final ThreadPoolExecutor spillExecutor =
+            new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "AspectLastGoodSpill");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        spillExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private int maxEntries;
+    private long maxWeightBytes;
+    private long weightBytes = 0;
+
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<BazelLabel, Set<AspectTargetInfo>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // number of entries that hold each distinct set and info, so that shared values are weighed once
+    private final Map<Set<AspectTargetInfo>, Integer> setReferences = new IdentityHashMap<>();
+    private final Map<AspectTargetInfo, Integer> infoReferences = new IdentityHashMap<>();
+
+    private File spillDirectory;
+    private final Map<BazelLabel, File> spilledEntries = new HashMap<>();
+    // evicted entries that the spill thread has not written yet, they are served from here until then
+    private final LinkedHashMap<BazelLabel, Set<AspectTargetInfo>> pendingSpills = new LinkedHashMap<>();
+    private boolean spillScheduled = false;
+
+    // held by the spill thread while it writes an entry, guards the copies of the aspect data files and the file ids
+    private final Object spillLock = new Object();
+    // copies of the aspect data files, shared by the spilled entries; key is the label path of the target
+    private final Map<String, SpilledTarget> spilledTargets = new HashMap<>();
+    private int nextSpillFileId = 0;
+
+    public AspectLastGoodCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT_BYTES);
+    }
+
+    public AspectLastGoodCache(int maxEntries, long maxWeightBytes) {
+        setLimits(maxEntries, maxWeightBytes);
+    }
+
+    /**
+     * Changes the limits of the cache, evicting entries right away if they are exceeded.
+     */
+    public synchronized void setLimits(int maxEntries, long maxWeightBytes) {
+        if ((maxEntries < 1) || (maxWeightBytes < 1)) {
+            throw new IllegalArgumentException("The last good aspect cache limits must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxWeightBytes;
+        evict();
+    }
+
+    /**
+     * Enables writing evicted entries to the passed directory. Files in the directory left over from an earlier session
+     * are deleted, as they are not indexed anymore. Pass null to disable spilling.
+     */
+    public synchronized void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        spilledEntries.clear();
+        pendingSpills.clear();
+        synchronized (spillLock) {
+            spilledTargets.clear();
+            if (spillDirectory != null) {
+                spillDirectory.mkdirs();
+                File[] staleFiles = spillDirectory.listFiles();
+                if (staleFiles != null) {
+                    for (File staleFile : staleFiles) {
+                        staleFile.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized Set<AspectTargetInfo> get(BazelLabel label) {
+        Set<AspectTargetInfo> infos = entries.get(label);
+        if (infos == null) {
+            infos = pendingSpills.remove(label);
+            if (infos == null) {
+                File spillFile = spilledEntries.remove(label);
+                if (spillFile != null) {
+                    infos = loadSpilledEntry(label, spillFile);
+                }
+            }
+            if (infos != null) {
+                put(label, infos);
+            }
+        }
+        return infos;
+    }
+
+    public synchronized void put(BazelLabel label, Set<AspectTargetInfo> infos) {
+        Set<AspectTargetInfo> previous = entries.put(label, infos);
+        if (previous != null) {
+            removeWeight(previous);
+        }
+        addWeight(infos);
+        pendingSpills.remove(label);
+        File spillFile = spilledEntries.remove(label);
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+        evict();
+    }
+
+    /**
+     * Number of entries held in memory.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of entries that have been written to disk.
+     */
+    public synchronized int spilledSize() {
+        return spilledEntries.size();
+    }
+
+    /**
+     * Estimated heap use of the entries held in memory.
+     */
+    public synchronized long getWeightBytes() {
+        return weightBytes;
+    }
+
+    /**
+     * Waits until the evicted entries have been written to disk.
+     */
+    synchronized void waitForSpills() throws InterruptedException {
+        while (spillScheduled) {
+            wait();
+        }
+    }
+
+    /**
+     * Estimates the heap used by the passed cache values, in the same way as the cache weighs its entries: each value
+     * costs {@link #ENTRY_WEIGHT_BYTES}, and each distinct info among all values is weighed once by its content.
+     */
+    static long estimateWeight(Collection<Set<AspectTargetInfo>> cacheValues) {
+        Set<Set<AspectTargetInfo>> countedSets = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<AspectTargetInfo> countedInfos = Collections.newSetFromMap(new IdentityHashMap<>());
+        long weight = 0L;
+        for (Set<AspectTargetInfo> infos : cacheValues) {
+            weight += ENTRY_WEIGHT_BYTES;
+            if (countedSets.add(infos)) {
+                for (AspectTargetInfo info : infos) {
+                    if (countedInfos.add(info)) {
+                        weight += weigh(info);
+                    }
+                }
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Weight of one distinct info: its set slots plus the estimate of its content.
+     */
+    static long weigh(AspectTargetInfo info) {
+        return SET_SLOT_WEIGHT_BYTES + info.estimateHeapBytes();
+    }
+
+    // INTERNAL
+
+    private void addWeight(Set<AspectTargetInfo> infos) {
+        weightBytes += ENTRY_WEIGHT_BYTES;
+        if (setReferences.merge(infos, 1, Integer::sum) == 1) {
+            for (AspectTargetInfo info : infos) {
+                if (infoReferences.merge(info, 1, Integer::sum) == 1) {
+                    weightBytes += weigh(info);
+                }
+            }
+        }
+    }
+
+    private void removeWeight(Set<AspectTargetInfo> infos) {
+        weightBytes -= ENTRY_WEIGHT_BYTES;
+        if (release(setReferences, infos)) {
+            for (AspectTargetInfo info : infos) {
+                if (release(infoReferences, info)) {
+                    weightBytes -= weigh(info);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops one reference to the key, and returns true if it was the last one.
+     */
+    private static <K> boolean release(Map<K, Integer> references, K key) {
+        Integer count = references.get(key);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            references.remove(key);
+            return true;
+        }
+        references.put(key, count - 1);
+        return false;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<BazelLabel, Set<AspectTargetInfo>>> iter = entries.entrySet().iterator();
+        // always keep the most recent entry, even if it is over the weight limit on its own
+        while ((entries.size() > 1) && ((entries.size() > maxEntries) || (weightBytes > maxWeightBytes))) {
+            Map.Entry<BazelLabel, Set<AspectTargetInfo>> eldest = iter.next();
+            iter.remove();
+            removeWeight(eldest.getValue());
+            if (spillDirectory != null) {
+                pendingSpills.put(eldest.getKey(), eldest.getValue());
+                if (!spillScheduled) {
+                    spillScheduled = true;
+                    spillExecutor.execute(this::writePendingSpills);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on the spill thread, and writes the pending entries one at a time without holding the cache lock.
+     */
+    private void writePendingSpills() {
+        while (true) {
+            BazelLabel label;
+            Set<AspectTargetInfo> infos;
+            File directory;
+            synchronized (this) {
+                if (pendingSpills.isEmpty() || (spillDirectory == null)) {
+                    spillScheduled = false;
+                    notifyAll();
+                    return;
+                }
+                Map.Entry<BazelLabel, Set<AspectTargetInfo>> pending = pendingSpills.entrySet().iterator().next();
+                label = pending.getKey();
+                infos = pending.getValue();
+                directory = spillDirectory;
+            }
+
+            File entryFile = writeSpilledEntry(directory, label, infos);
+
+            synchronized (this) {
+                // the entry may have been loaded back, replaced or discarded while it was written
+                boolean stillPending = pendingSpills.get(label) == infos;
+                if (stillPending) {
+                    pendingSpills.remove(label);
+                }
+                if (stillPending && (entryFile != null) && directory.equals(spillDirectory)) {
+                    spilledEntries.put(label, entryFile);
+                } else if (entryFile != null) {
+                    entryFile.delete();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private File writeSpilledEntry(File directory, BazelLabel label, Set<AspectTargetInfo> infos) {
+        // check all files first, so that nothing is copied for an entry that cannot be spilled
+        for (AspectTargetInfo info : infos) {
+            File aspectDataFile = info.getAspectDataFile();
+            if ((aspectDataFile == null) || !aspectDataFile.isFile()) {
+                LOG.info("Last good aspect data for {} is dropped, the aspect file for {} is not available.", label,
+                    info.getLabelPath());
+                return null;
+            }
+        }
+
+        synchronized (spillLock) {
+            JSONArray targetsArray = new JSONArray();
+            try {
+                for (AspectTargetInfo info : infos) {
+                    File aspectDataFile = info.getAspectDataFile();
+                    SpilledTarget target = spilledTargets.get(info.getLabelPath());
+                    if (target == null) {
+                        target = new SpilledTarget(new File(directory, "target-" + nextSpillFileId++ + ".data"));
+                        spilledTargets.put(info.getLabelPath(), target);
+                    }
+                    // the newest copy wins, it is the latest known good result for that target
+                    if (!target.isCopyOf(aspectDataFile)) {
+                        target.copyFrom(aspectDataFile);
+                    }
+
+                    JSONArray targetArray = new JSONArray();
+                    targetArray.add(aspectDataFile.getAbsolutePath());
+                    targetArray.add(target.copy.getName());
+                    targetsArray.add(targetArray);
+                }
+                JSONObject entryObject = new JSONObject();
+                entryObject.put("label", label.getLabelPath());
+                entryObject.put("targets", targetsArray);
+                File entryFile = new File(directory, "entry-" + nextSpillFileId++ + ".json");
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(entryFile), StandardCharsets.UTF_8)) {
+                    entryObject.writeJSONString(writer);
+                }
+                return entryFile;
+            } catch (IOException ioe) {
+                LOG.error("Could not write the last good aspect data for {} to disk", ioe, label);
+                return null;
+            }
+        }
+    }
+
+    private Set<AspectTargetInfo> loadSpilledEntry(BazelLabel label, File entryFile) {
+        JSONParser jsonParser = new JSONParser();
+        try {
+            JSONObject entryObject;
+            try (Reader reader = new FileReader(entryFile, StandardCharsets.UTF_8)) {
+                entryObject = (JSONObject) jsonParser.parse(reader);
+            }
+            Set<AspectTargetInfo> infos = new HashSet<>();
+            for (Object targetObj : (JSONArray) entryObject.get("targets")) {
+                JSONArray target = (JSONArray) targetObj;
+                File aspectDataFile = new File((String) target.get(0));
+                File targetFile = new File(spillDirectory, (String) target.get(1));
+                // keep the original location, so the info looks the same as when it was loaded from Bazel's output
+                AspectTargetInfo info = AspectTargetInfoFactory.loadAspectFile(aspectDataFile, targetFile, jsonParser);
+                if (info == null) {
+                    return null;
+                }
+                infos.add(info);
+            }
+            LOG.info("Loaded last good aspect data for {} from disk", label);
+            return infos;
+        } catch (Exception anyE) {
+            LOG.error("Could not read the last good aspect data for {} from disk", anyE, label);
+            return null;
+        } finally {
+            entryFile.delete();
+        }
+    }
+
+    /**
+     * The copy of an aspect data file in the spill directory, along with the stamp of the file it was copied from.
+     */
+    private static class SpilledTarget {
+        final File copy;
+        String sourcePath;
+        long sourceLastModified;
+        long sourceLength;
+
+        SpilledTarget(File copy) {
+            this.copy = copy;
+        }
+
+        boolean isCopyOf(File source) {
+            return source.getAbsolutePath().equals(sourcePath) && (source.lastModified() == sourceLastModified)
+                    && (source.length() == sourceLength) && copy.isFile();
+        }
+
+        /**
+         * Replaces the copy through a temporary file, so that an entry being loaded never reads a partial copy.
+         */
+        void copyFrom(File source) throws IOException {
+            long lastModified = source.lastModified();
+            long length = source.length();
+            File tempCopy = new File(copy.getPath() + ".tmp");
+            Files.copy(source.toPath(), tempCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempCopy.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            sourcePath = source.getAbsolutePath();
+            sourceLastModified = lastModified;
+            sourceLength = length;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+/**
+ * Selects which output groups of the aspect are built when aspect data is requested. The aspect data files have the
+ * same content in both modes, the modes differ in what else Bazel has to build.
+ */
+public enum AspectOutputMode {
+
+    /**
+     * Builds the aspect data files and the jars of the targets and their direct deps, so the jar paths in the data can
+     * be put on a classpath.
+     */
+    FULL("intellij-info-generic,intellij-info-java-direct-deps,intellij-resolve-java-direct-deps"),
+
+    /**
+     * Builds only the aspect data files. Labels, kinds, deps, sources and jar paths are available, but the jars may
+     * not exist yet. Much cheaper than {@link #FULL} on a cold workspace, and enough to compute the structure and
+     * order of the projects.
+     */
+    STRUCTURE("intellij-info-generic,bzljavasdk-info-direct-deps");
+
+    private final String outputGroups;
+
+    private AspectOutputMode(String outputGroups) {
+        this.outputGroups = outputGroups;
+    }
+
+    /**
+     * The value of the --output_groups option for this mode.
+     */
+    public String getOutputGroups() {
+        return outputGroups;
+    }
+}
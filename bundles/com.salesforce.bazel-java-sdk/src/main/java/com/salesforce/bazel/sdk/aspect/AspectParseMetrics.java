@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates timing data for the parsing of aspect JSON files. Parsing may happen on several worker threads at once
+ * (see {@link AspectTargetInfoFactory#setParallelism(int)}) so the counters are safe for concurrent updates.
+ */
+public class AspectParseMetrics {
+
+    private final LongAdder filesParsed = new LongAdder();
+    private final LongAdder bytesParsed = new LongAdder();
+    private final LongAdder totalParseNanos = new LongAdder();
+    private final LongAccumulator maxParseNanos = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * Records the parse of a single aspect file.
+     */
+    public void recordParse(long fileSizeBytes, long elapsedNanos) {
+        filesParsed.increment();
+        bytesParsed.add(fileSizeBytes);
+        totalParseNanos.add(elapsedNanos);
+        maxParseNanos.accumulate(elapsedNanos);
+    }
+
+    public long getFilesParsed() {
+        return filesParsed.sum();
+    }
+
+    public long getBytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    /**
+     * Sum of the per-file parse times. When parsing in parallel this will be larger than the elapsed wall time.
+     */
+    public long getTotalParseMillis() {
+        return totalParseNanos.sum() / 1000000L;
+    }
+
+    public long getMaxParseMillis() {
+        return maxParseNanos.get() / 1000000L;
+    }
+
+    public long getAverageParseMicros() {
+        long count = filesParsed.sum();
+        return count == 0 ? 0 : (totalParseNanos.sum() / count) / 1000L;
+    }
+
+    public void reset() {
+        filesParsed.reset();
+        bytesParsed.reset();
+        totalParseNanos.reset();
+        maxParseNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "files=" + getFilesParsed() + " bytes=" + getBytesParsed() + " totalParseMillis="
+                + getTotalParseMillis() + " maxParseMillis=" + getMaxParseMillis() + " avgParseMicros="
+                + getAverageParseMicros();
+    }
+}
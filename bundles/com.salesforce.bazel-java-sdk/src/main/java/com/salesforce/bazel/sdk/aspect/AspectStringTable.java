@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Symbol table for the strings held by {@link AspectTargetInfo} instances. Labels, rule kinds, source paths and jar
+ * paths repeat across many aspect files (every target names its deps, and every jar path shares its output root), but
+ * the JSON parser creates a new String for each occurrence. Passing them through this table makes all infos share one
+ * instance per distinct value.
+ * <p>
+ * The table holds its strings weakly, so a string is dropped once no loaded info references it anymore, and the table
+ * does not need to be cleared when aspect data is flushed. The table is split into segments so that the parser threads
+ * rarely contend for the same lock.
+ */
+public class AspectStringTable {
+    private static final int SEGMENT_COUNT = 16;
+
+    // key and value are the same instance; the value is a weak reference too, so it does not keep the key alive
+    private final List<Map<String, WeakReference<String>>> segments = new ArrayList<>(SEGMENT_COUNT);
+    private volatile boolean enabled = true;
+
+    public AspectStringTable() {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments.add(new WeakHashMap<>());
+        }
+    }
+
+    /**
+     * Returns the shared instance equal to the passed string. Null is passed through.
+     */
+    public String intern(String value) {
+        if ((value == null) || !enabled) {
+            return value;
+        }
+        Map<String, WeakReference<String>> segment = segmentFor(value);
+        synchronized (segment) {
+            WeakReference<String> existingRef = segment.get(value);
+            String existing = existingRef != null ? existingRef.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            segment.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    /**
+     * Returns a right sized copy of the passed list with each element interned.
+     */
+    public List<String> internAll(List<String> values) {
+        List<String> interned = new ArrayList<>(values.size());
+        for (String value : values) {
+            interned.add(intern(value));
+        }
+        return interned;
+    }
+
+    /**
+     * Interning is enabled by default. When disabled, {@link #intern(String)} returns its argument.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of distinct strings in the table that are still referenced.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, WeakReference<String>> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Map<String, WeakReference<String>> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Map<String, WeakReference<String>> segmentFor(String value) {
+        int hash = value.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1));
+    }
+}
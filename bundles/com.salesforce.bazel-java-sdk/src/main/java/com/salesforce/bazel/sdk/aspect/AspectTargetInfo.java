@@ -68,6 +68,14 @@ import com.salesforce.bazel.sdk.model.BazelLabel;
  */
 public class AspectTargetInfo {
 
+    // object header and fields of an info, and of a File
+    protected static final long OBJECT_HEAP_BYTES = 64;
+    // array backed list without its elements, and the reference to each element
+    protected static final long LIST_HEAP_BYTES = 40;
+    protected static final long REFERENCE_HEAP_BYTES = 8;
+    // string header, array header and hash, the characters are added on top
+    private static final long STRING_HEAP_BYTES = 40;
+
     protected final File aspectDataFile; // full path to the file on the file system
     protected final String workspaceRelativePath; // relative path on the filesystem within the workspace
     protected final List<String> deps;
@@ -146,6 +154,40 @@ public class AspectTargetInfo {
         return sources;
     }
 
+    /**
+     * Rough estimate of the heap retained by this info, computed from the lengths of its strings and the sizes of its
+     * lists. Strings that are shared with other infos are counted in full, so the estimate errs on the high side.
+     */
+    public long estimateHeapBytes() {
+        long bytes = OBJECT_HEAP_BYTES;
+        bytes += estimateHeapBytes(aspectDataFile == null ? null : aspectDataFile.getPath());
+        bytes += estimateHeapBytes(workspaceRelativePath);
+        bytes += estimateHeapBytes(kind);
+        bytes += estimateHeapBytes(label);
+        bytes += estimateHeapBytes(deps);
+        bytes += estimateHeapBytes(sources);
+        return bytes;
+    }
+
+    protected static long estimateHeapBytes(String value) {
+        if (value == null) {
+            return 0L;
+        }
+        // compact strings store latin-1 text in one byte per character
+        return STRING_HEAP_BYTES + value.length();
+    }
+
+    protected static long estimateHeapBytes(List<String> values) {
+        if (values == null) {
+            return 0L;
+        }
+        long bytes = LIST_HEAP_BYTES;
+        for (String value : values) {
+            bytes += REFERENCE_HEAP_BYTES + estimateHeapBytes(value);
+        }
+        return bytes;
+    }
+
     protected AspectTargetInfo(File aspectDataFile, String workspaceRelativePath, String kind, String label,
             List<String> deps, List<String> sources) {
         this.aspectDataFile = aspectDataFile;
@@ -33,18 +33,27 @@
  */
 package com.salesforce.bazel.sdk.aspect;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectOutputJarSet;
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectTargetInfo;
 import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectTargetInfoFactoryProvider;
 import com.salesforce.bazel.sdk.logging.LogHelper;
 
@@ -57,7 +66,40 @@ public class AspectTargetInfoFactory {
     private static final LogHelper LOG = LogHelper.log(AspectTargetInfoFactory.class);
     public static final String ASPECT_FILENAME_SUFFIX = ".bzljavasdk-data.json";
 
+    /**
+     * Suffix of the files written by the aspect in compact mode (--define=bzljavasdk_aspect_format=compact). Instead of
+     * the full JSON document, the aspect writes only the fields used by {@link JVMAspectTargetInfo}, one per line:
+     *
+     * <pre>
+     * bzljavasdk-compact 1
+     * L&lt;TAB&gt;label
+     * K&lt;TAB&gt;kind
+     * D&lt;TAB&gt;dep label
+     * S&lt;TAB&gt;source relative path
+     * J&lt;TAB&gt;jar root&lt;TAB&gt;jar path&lt;TAB&gt;ijar root&lt;TAB&gt;ijar path&lt;TAB&gt;srcjar root&lt;TAB&gt;srcjar path
+     * G&lt;TAB&gt;same as J, for generated jars
+     * M&lt;TAB&gt;main class
+     * </pre>
+     *
+     * The D, S, J and G lines repeat once per value. An empty jar path marks a missing jar. See compact_ide_info() in
+     * aspect/intellij_info_impl.bzl for the writer.
+     */
+    public static final String COMPACT_ASPECT_FILENAME_SUFFIX = ".bzljavasdk-data.compact";
+    static final String COMPACT_FORMAT_HEADER = "bzljavasdk-compact 1";
+
+    // TODO the build_file_artifact_location field should be parsed correctly, see loadAspectFromJson
+    private static final String BUILD_FILE_ARTIFACT_LOCATION = "test";
+
     protected static List<AspectTargetInfoFactoryProvider> providers = new ArrayList<>();
+
+    // below this many files the fork-join overhead is not worth it
+    private static final int PARALLEL_THRESHOLD = 32;
+    private static final int PARALLEL_LEAF_SIZE = 16;
+    private static volatile int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static ForkJoinPool forkJoinPool;
+    private static final AspectParseMetrics parseMetrics = new AspectParseMetrics();
+    private static final AspectStringTable stringTable = new AspectStringTable();
+
     static {
         providers.add(new JVMAspectTargetInfoFactoryProvider());
     }
@@ -88,11 +130,43 @@ public class AspectTargetInfoFactory {
     /**
      * Constructs a map of label -> {@link AspectTargetInfo} from a list of files, parsing each files into a
      * {@link JSONObject} and then converting that {@link JSONObject} to an {@link AspectTargetInfo} object.
+     * <p>
+     * Large lists are parsed in parallel on a fork-join pool (see {@link #setParallelism(int)}); the returned map is
+     * the same as if the files had been parsed one by one in list order.
      */
     public static Map<String, AspectTargetInfo> loadAspectFiles(List<File> aspectFiles) {
+        long startTimeMS = System.currentTimeMillis();
+        AspectTargetInfo[] buildInfos;
+        int workers = parallelism;
+        if (workers > 1 && aspectFiles.size() >= PARALLEL_THRESHOLD) {
+            buildInfos = getForkJoinPool(workers).invoke(new LoadAspectFilesTask(aspectFiles, 0, aspectFiles.size()));
+        } else {
+            buildInfos = new AspectTargetInfo[aspectFiles.size()];
+            JSONParser jsonParser = new JSONParser();
+            for (int i = 0; i < buildInfos.length; i++) {
+                buildInfos[i] = loadAspectFile(aspectFiles.get(i), jsonParser);
+            }
+        }
+
+        Map<String, AspectTargetInfo> infos = mergeAspectTargetInfos(aspectFiles, buildInfos);
+        if (!aspectFiles.isEmpty()) {
+            LOG.info("Parsed {} aspect files in {} millis (parallelism {}); cumulative parse metrics: {}",
+                aspectFiles.size(), System.currentTimeMillis() - startTimeMS, workers, parseMetrics);
+        }
+        return infos;
+    }
+
+    /**
+     * Builds the label -> {@link AspectTargetInfo} map from parse results, where buildInfos[i] is the result for
+     * aspectFiles[i]. The merge is done sequentially in list order, so that duplicate labels resolve the same way
+     * regardless of how the files were parsed.
+     */
+    static Map<String, AspectTargetInfo> mergeAspectTargetInfos(List<File> aspectFiles,
+            AspectTargetInfo[] buildInfos) {
         Map<String, AspectTargetInfo> infos = new HashMap<>();
-        for (File aspectFile : aspectFiles) {
-            AspectTargetInfo buildInfo = loadAspectFile(aspectFile);
+        for (int i = 0; i < buildInfos.length; i++) {
+            AspectTargetInfo buildInfo = buildInfos[i];
+            File aspectFile = aspectFiles.get(i);
             if (buildInfo == null) {
                 // bug in the aspect parsing code
                 LOG.error("The aspect file could not be parsed for aspect path {}", aspectFile.getAbsolutePath());
@@ -116,29 +190,163 @@ public class AspectTargetInfoFactory {
      * {@link JSONObject} and then converting that {@link JSONObject} to an {@link AspectTargetInfo} object.
      */
     public static AspectTargetInfo loadAspectFile(File aspectFile) {
+        return loadAspectFile(aspectFile, new JSONParser());
+    }
+
+    /**
+     * Same as {@link #loadAspectFile(File)} but reuses the passed parser. JSONParser is not thread safe, so the caller
+     * must not share the parser across threads.
+     */
+    static AspectTargetInfo loadAspectFile(File aspectFile, JSONParser jsonParser) {
+        return loadAspectFile(aspectFile, aspectFile, jsonParser);
+    }
+
+    /**
+     * Loads the aspect data of aspectDataFile from a copy of it in contentFile. The format is chosen by the name of
+     * aspectDataFile, and the returned info reports aspectDataFile as its location.
+     */
+    static AspectTargetInfo loadAspectFile(File aspectDataFile, File contentFile, JSONParser jsonParser) {
         AspectTargetInfo targetInfo = null;
-        JSONParser jsonParser = new JSONParser();
-
-        if (aspectFile.exists()) {
-            JSONObject jsonObject = null;
-            try {
-                jsonObject = (JSONObject) jsonParser.parse(new FileReader(aspectFile));
-            } catch (Exception je) {
-                LOG.error("JSON file {} has illegal characters: {}", aspectFile.getAbsolutePath(),
-                    aspectFile.getAbsolutePath());
-                throw new IllegalArgumentException(je);
-            }
-            targetInfo = loadAspectFromJson(aspectFile, jsonObject, jsonParser);
+
+        if (contentFile.exists()) {
+            long startNanos = System.nanoTime();
+            if (isCompactAspectFile(aspectDataFile.getName())) {
+                try {
+                    // the files are small, reading them whole avoids the buffers of a reader
+                    String content = new String(Files.readAllBytes(contentFile.toPath()), StandardCharsets.UTF_8);
+                    targetInfo = loadAspectFromCompact(aspectDataFile, content);
+                } catch (IOException ioe) {
+                    LOG.error("Compact aspect file {} could not be read", ioe, contentFile.getAbsolutePath());
+                    throw new IllegalArgumentException(ioe);
+                }
+            } else {
+                JSONObject jsonObject = null;
+                try (Reader reader = new BufferedReader(new FileReader(contentFile))) {
+                    jsonObject = (JSONObject) jsonParser.parse(reader);
+                } catch (Exception je) {
+                    LOG.error("JSON file {} has illegal characters: {}", contentFile.getAbsolutePath(),
+                        contentFile.getAbsolutePath());
+                    throw new IllegalArgumentException(je);
+                }
+                targetInfo = loadAspectFromJson(aspectDataFile, jsonObject, jsonParser);
+            }
+            parseMetrics.recordParse(contentFile.length(), System.nanoTime() - startNanos);
             if (targetInfo != null) {
                 LOG.info("Loaded aspect for target {} from file {}", targetInfo.label,
                     targetInfo.aspectDataFile.getAbsolutePath());
             }
         } else {
-            LOG.error("Aspect JSON file {} is missing.", aspectFile.getAbsolutePath());
+            LOG.error("Aspect JSON file {} is missing.", contentFile.getAbsolutePath());
         }
         return targetInfo;
     }
 
+    /**
+     * Returns true if the path names a data file written by the aspect, in either the JSON or the compact format.
+     */
+    public static boolean isAspectFile(String path) {
+        return path.endsWith(ASPECT_FILENAME_SUFFIX) || isCompactAspectFile(path);
+    }
+
+    static boolean isCompactAspectFile(String path) {
+        return path.endsWith(COMPACT_ASPECT_FILENAME_SUFFIX);
+    }
+
+    // PARALLEL LOADING
+
+    /**
+     * Sets the number of worker threads used to parse aspect files. A value of 1 disables parallel parsing. Defaults
+     * to the number of available processors.
+     */
+    public static void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Aspect parsing parallelism must be at least 1, was " + parallelism);
+        }
+        AspectTargetInfoFactory.parallelism = parallelism;
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Timing data for all aspect files parsed by this factory since startup (or the last reset of the metrics).
+     */
+    public static AspectParseMetrics getParseMetrics() {
+        return parseMetrics;
+    }
+
+    /**
+     * The table that the labels, kinds and paths of the loaded infos are interned into. It is shared by all workspaces,
+     * and drops a string once no loaded info references it.
+     */
+    public static AspectStringTable getStringTable() {
+        return stringTable;
+    }
+
+    /**
+     * The pool that aspect files are parsed on, sized by {@link #setParallelism(int)}.
+     */
+    static ForkJoinPool getParsePool() {
+        return getForkJoinPool(parallelism);
+    }
+
+    private static synchronized ForkJoinPool getForkJoinPool(int workers) {
+        if (forkJoinPool == null || forkJoinPool.getParallelism() != workers) {
+            // the previous pool is not shut down, since another thread may be about to invoke a task on it; its
+            // workers are daemon threads that exit on their own once the pool has been idle for a while
+            forkJoinPool = new ForkJoinPool(workers, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("AspectParser-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return forkJoinPool;
+    }
+
+    /**
+     * Parses a range of the file list, splitting the range in half until it is small enough to parse directly. Each
+     * worker thread uses its own parser.
+     */
+    private static class LoadAspectFilesTask extends RecursiveTask<AspectTargetInfo[]> {
+        private static final long serialVersionUID = 1L;
+        private static final ThreadLocal<JSONParser> workerParser = ThreadLocal.withInitial(JSONParser::new);
+
+        private final List<File> aspectFiles;
+        private final int from;
+        private final int to;
+
+        LoadAspectFilesTask(List<File> aspectFiles, int from, int to) {
+            this.aspectFiles = aspectFiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected AspectTargetInfo[] compute() {
+            if ((to - from) <= PARALLEL_LEAF_SIZE) {
+                JSONParser jsonParser = workerParser.get();
+                AspectTargetInfo[] buildInfos = new AspectTargetInfo[to - from];
+                for (int i = from; i < to; i++) {
+                    buildInfos[i - from] = loadAspectFile(aspectFiles.get(i), jsonParser);
+                }
+                return buildInfos;
+            }
+            int middle = (from + to) >>> 1;
+            LoadAspectFilesTask left = new LoadAspectFilesTask(aspectFiles, from, middle);
+            LoadAspectFilesTask right = new LoadAspectFilesTask(aspectFiles, middle, to);
+            left.fork();
+            AspectTargetInfo[] rightInfos = right.compute();
+            AspectTargetInfo[] leftInfos = left.join();
+
+            AspectTargetInfo[] buildInfos = new AspectTargetInfo[to - from];
+            System.arraycopy(leftInfos, 0, buildInfos, 0, leftInfos.length);
+            System.arraycopy(rightInfos, 0, buildInfos, leftInfos.length, rightInfos.length);
+            return buildInfos;
+        }
+    }
+
     // INTERNAL
 
     static AspectTargetInfo loadAspectFromJson(File aspectDataFile, JSONObject aspectObject, JSONParser jsonParser) {
@@ -147,14 +355,14 @@ public class AspectTargetInfoFactory {
         try {
             List<String> deps = loadDeps(aspectObject);
 
-            String build_file_artifact_location = "test";//aspectObject.getString("build_file_artifact_location"); // TODO this field should be parsed correctly
-            String kind = (String) aspectObject.get("kind_string");
+            String build_file_artifact_location = BUILD_FILE_ARTIFACT_LOCATION;//aspectObject.getString("build_file_artifact_location"); // TODO this field should be parsed correctly
+            String kind = stringTable.intern((String) aspectObject.get("kind_string"));
             if (kind == null) {
                 LOG.error(
                     "Aspect file {} is missing the kind_string property; this is likely a data file created by an older version of the aspect",
                     aspectDataFile);
             }
-            String label = loadLabel(aspectObject);
+            String label = stringTable.intern(loadLabel(aspectObject));
 
             for (AspectTargetInfoFactoryProvider provider : providers) {
                 info = provider.buildAspectTargetInfo(aspectDataFile, aspectObject, jsonParser,
@@ -173,6 +381,93 @@ public class AspectTargetInfoFactory {
         return info;
     }
 
+    /**
+     * Decodes the compact format (see {@link #COMPACT_ASPECT_FILENAME_SUFFIX}) straight into the info, without
+     * building an intermediate document tree. The compact format only carries the fields of
+     * {@link JVMAspectTargetInfo}, so the registered providers are not consulted.
+     */
+    static AspectTargetInfo loadAspectFromCompact(File aspectDataFile, String content) {
+        int headerEnd = content.indexOf('\n');
+        if ((headerEnd < 0) || !COMPACT_FORMAT_HEADER.equals(content.substring(0, headerEnd))) {
+            throw new IllegalArgumentException("Aspect file " + aspectDataFile.getAbsolutePath()
+                    + " does not start with the expected header [" + COMPACT_FORMAT_HEADER + "]");
+        }
+        String label = null;
+        String kind = null;
+        String mainClass = null;
+        List<String> deps = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        List<JVMAspectOutputJarSet> jars = new ArrayList<>();
+        List<JVMAspectOutputJarSet> generatedJars = new ArrayList<>();
+
+        // values are cut straight out of the content, the lines themselves are never materialized
+        int lineStart = headerEnd + 1;
+        while (lineStart < content.length()) {
+            int lineEnd = content.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = content.length();
+            }
+            int valueStart = lineStart + 2;
+            if ((valueStart <= lineEnd) && (content.charAt(lineStart + 1) == '\t')) {
+                switch (content.charAt(lineStart)) {
+                case 'L':
+                    label = stringTable.intern(content.substring(valueStart, lineEnd));
+                    break;
+                case 'K':
+                    kind = stringTable.intern(content.substring(valueStart, lineEnd));
+                    break;
+                case 'D':
+                    deps.add(stringTable.intern(content.substring(valueStart, lineEnd)));
+                    break;
+                case 'S':
+                    sources.add(stringTable.intern(content.substring(valueStart, lineEnd)));
+                    break;
+                case 'J':
+                    jars.add(decodeCompactJarSet(content, valueStart, lineEnd));
+                    break;
+                case 'G':
+                    generatedJars.add(decodeCompactJarSet(content, valueStart, lineEnd));
+                    break;
+                case 'M':
+                    mainClass = content.substring(valueStart, lineEnd);
+                    break;
+                default:
+                    // written by a newer aspect, skip it
+                    break;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (kind == null) {
+            LOG.error("Compact aspect file {} is missing the kind", aspectDataFile);
+        }
+        return new JVMAspectTargetInfo(aspectDataFile, BUILD_FILE_ARTIFACT_LOCATION, kind, label, deps, sources, jars,
+                generatedJars, mainClass);
+    }
+
+    // jar root<TAB>jar path<TAB>ijar root<TAB>ijar path<TAB>srcjar root<TAB>srcjar path, between start and end
+    private static JVMAspectOutputJarSet decodeCompactJarSet(String content, int start, int end) {
+        String[] paths = new String[3];
+        for (int i = 0; i < paths.length; i++) {
+            int rootEnd = content.indexOf('\t', start);
+            if ((rootEnd < 0) || (rootEnd >= end)) {
+                break;
+            }
+            int pathEnd = content.indexOf('\t', rootEnd + 1);
+            if ((pathEnd < 0) || (pathEnd > end)) {
+                pathEnd = end;
+            }
+            if (pathEnd > (rootEnd + 1)) {
+                String relPath = content.substring(rootEnd + 1, pathEnd);
+                // joined the same way as JVMAspectOutputJarSet does for the JSON format
+                String path = rootEnd > start ? content.substring(start, rootEnd) + File.separator + relPath : relPath;
+                paths[i] = stringTable.intern(path);
+            }
+            start = pathEnd + 1;
+        }
+        return new JVMAspectOutputJarSet(paths[0], paths[1], paths[2]);
+    }
+
     private static String loadLabel(JSONObject aspectObject) throws Exception {
         String label = null;
 
@@ -200,7 +495,7 @@ public class AspectTargetInfoFactory {
                 if (targetObj != null) {
                     Object labelObj = targetObj.get("label");
                     if (labelObj != null) {
-                        list.add(labelObj.toString());
+                        list.add(stringTable.intern(labelObj.toString()));
                     }
                 }
             }
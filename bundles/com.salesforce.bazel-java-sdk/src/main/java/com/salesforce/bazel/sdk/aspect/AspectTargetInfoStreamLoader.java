@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.parser.JSONParser;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Loads aspect files while Bazel is still running. Aspect file paths are submitted as soon as they are reported by
+ * Bazel, and are handed through a bounded queue to workers that parse them into {@link AspectTargetInfo} instances.
+ * The parse cost is thereby hidden behind the execution time of the Bazel build.
+ * <p>
+ * The workers are tasks on the shared aspect parsing pool of {@link AspectTargetInfoFactory}, so a load does not start
+ * threads of its own. A worker drains the queue and ends when it is empty; submitting a file starts a new worker if
+ * fewer than the configured number are running.
+ * <p>
+ * The result of {@link #finish()} is the same map that {@link AspectTargetInfoFactory#loadAspectFilePaths(List)} would
+ * produce for the submitted paths, in submission order. An instance is used for a single load and then discarded.
+ */
+public class AspectTargetInfoStreamLoader {
+    private static final LogHelper LOG = LogHelper.log(AspectTargetInfoStreamLoader.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final ThreadLocal<JSONParser> workerParser = ThreadLocal.withInitial(JSONParser::new);
+
+    private final int workerCount;
+    private final BlockingQueue<File> queue;
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final Set<String> submittedPaths = ConcurrentHashMap.newKeySet();
+    private final List<File> submittedFiles = Collections.synchronizedList(new ArrayList<>());
+    private final Map<File, AspectTargetInfo> loadedInfos = new ConcurrentHashMap<>();
+    private final long startTimeMS = System.currentTimeMillis();
+
+    // number of submitted files that have not been loaded yet, guarded by this
+    private int pendingCount = 0;
+
+    private volatile RuntimeException failure;
+    private volatile boolean done = false;
+    private volatile boolean cancelled = false;
+
+    public AspectTargetInfoStreamLoader(int workerCount, int queueCapacity) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is required, was " + workerCount);
+        }
+        this.workerCount = workerCount;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Queues an aspect file for loading. Empty and already submitted paths are ignored, so it is safe to submit the
+     * complete list of paths once the command finishes even if some were already streamed. Blocks if the queue is
+     * full.
+     */
+    public void submit(String aspectFilePath) throws InterruptedException {
+        if (done) {
+            throw new IllegalStateException("Aspect files cannot be submitted after the load has finished.");
+        }
+        if (aspectFilePath.isEmpty() || !submittedPaths.add(aspectFilePath)) {
+            return;
+        }
+        File aspectFile = new File(aspectFilePath);
+        submittedFiles.add(aspectFile);
+        synchronized (this) {
+            pendingCount++;
+        }
+        try {
+            queue.put(aspectFile);
+        } catch (InterruptedException ie) {
+            // forget the path so that it can be submitted again
+            submittedFiles.remove(aspectFile);
+            submittedPaths.remove(aspectFilePath);
+            fileDone();
+            throw ie;
+        }
+        if (reserveWorker()) {
+            AspectTargetInfoFactory.getParsePool().execute(this::runWorker);
+        }
+    }
+
+    /**
+     * Waits for all submitted files to be loaded and returns the map of label -> {@link AspectTargetInfo}. If loading
+     * any file failed, the first failure is rethrown.
+     */
+    public Map<String, AspectTargetInfo> finish() throws InterruptedException {
+        if (done) {
+            throw new IllegalStateException("The aspect load has already finished.");
+        }
+        done = true;
+        synchronized (this) {
+            while (pendingCount > 0) {
+                wait();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        List<File> aspectFiles = new ArrayList<>(submittedFiles);
+        AspectTargetInfo[] buildInfos = new AspectTargetInfo[aspectFiles.size()];
+        for (int i = 0; i < buildInfos.length; i++) {
+            buildInfos[i] = loadedInfos.get(aspectFiles.get(i));
+        }
+        if (!aspectFiles.isEmpty()) {
+            LOG.info("Streamed {} aspect files in {} millis (workers {}); cumulative parse metrics: {}",
+                aspectFiles.size(), System.currentTimeMillis() - startTimeMS, workerCount,
+                AspectTargetInfoFactory.getParseMetrics());
+        }
+        return AspectTargetInfoFactory.mergeAspectTargetInfos(aspectFiles, buildInfos);
+    }
+
+    /**
+     * Leaves the passed (already submitted) files out of the result of {@link #finish()}, for example because they were
+     * reported by a Bazel command that then failed. A file that is submitted again afterwards is loaded again.
+     */
+    public void discard(Collection<String> aspectFilePaths) {
+        for (String aspectFilePath : aspectFilePaths) {
+            if (submittedPaths.remove(aspectFilePath)) {
+                submittedFiles.remove(new File(aspectFilePath));
+            }
+        }
+    }
+
+    /**
+     * Abandons the load, for example because the Bazel command failed. Pending files are dropped and the workers end
+     * after the file they are loading. Does nothing if the load has already finished.
+     */
+    public void cancel() {
+        if (done) {
+            return;
+        }
+        done = true;
+        cancelled = true;
+        queue.clear();
+    }
+
+    private boolean reserveWorker() {
+        while (true) {
+            int active = activeWorkers.get();
+            if (active >= workerCount) {
+                return false;
+            }
+            if (activeWorkers.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void runWorker() {
+        JSONParser jsonParser = workerParser.get();
+        while (true) {
+            File aspectFile = queue.poll();
+            if (aspectFile == null) {
+                activeWorkers.decrementAndGet();
+                // a file queued between the poll and the decrement did not start a worker if all were active
+                if (queue.isEmpty() || !reserveWorker()) {
+                    return;
+                }
+                continue;
+            }
+            if (cancelled) {
+                return;
+            }
+            // after a failure keep draining so that submitters are not blocked, the result will not be used
+            if (failure == null) {
+                try {
+                    AspectTargetInfo info = AspectTargetInfoFactory.loadAspectFile(aspectFile, jsonParser);
+                    if (info != null) {
+                        loadedInfos.put(aspectFile, info);
+                    }
+                } catch (RuntimeException anyE) {
+                    if (failure == null) {
+                        failure = anyE;
+                    }
+                }
+            }
+            fileDone();
+        }
+    }
+
+    private synchronized void fileDone() {
+        pendingCount--;
+        if (pendingCount == 0) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+/**
+ * Computes the transitive closure of every {@link AspectTargetInfo} of an aspect run in a single pass over the whole
+ * dependency graph, instead of walking the graph once per requested label.
+ * <p>
+ * Each target gets an integer id. The strongly connected components of the graph are found with Tarjan's algorithm,
+ * which completes a component only after all components it depends on. In that order the reachable set of each
+ * component is the union of the sets of its dependencies, stored as a {@link BitSet} indexed by target id. The closure
+ * sets handed out are unmodifiable views over those bits, so they are cheap to create and share.
+ * <p>
+ * The closure of a target is the set of targets reachable through its deps, not including the target itself, except
+ * for java_test and java_import targets which are included in their own closure. Deps that have no
+ * {@link AspectTargetInfo} are ignored, along with everything below them.
+ */
+public class AspectTransitiveClosureEngine {
+    private static final LogHelper LOG = LogHelper.log(AspectTransitiveClosureEngine.class);
+
+    private final List<AspectTargetInfo> infos;
+    private final Map<AspectTargetInfo, Integer> idByInfo = new IdentityHashMap<>();
+    private final Map<BazelLabel, AspectTargetInfo> infoByLabel = new HashMap<>();
+    private final Map<String, List<AspectTargetInfo>> infosByPackagePath = new HashMap<>();
+    private final Map<BazelLabel, AspectTargetInfo> depNameToTargetInfo;
+    private final Set<AspectTargetInfo> allInfos;
+
+    // computed on the first closure request
+    private int[][] deps;
+    private int[] componentOfId;
+    private BitSet[] reachableByComponent;
+    private final Map<AspectTargetInfo, Set<AspectTargetInfo>> closureCache = new IdentityHashMap<>();
+
+    public AspectTransitiveClosureEngine(Map<BazelLabel, AspectTargetInfo> depNameToTargetInfo) {
+        this.depNameToTargetInfo = depNameToTargetInfo;
+        infos = new ArrayList<>(depNameToTargetInfo.values());
+        for (int id = 0; id < infos.size(); id++) {
+            AspectTargetInfo info = infos.get(id);
+            idByInfo.put(info, id);
+            BazelLabel label = new BazelLabel(info.getLabelPath());
+            infoByLabel.put(label, info);
+            infosByPackagePath.computeIfAbsent(label.getPackagePath(), p -> new ArrayList<>()).add(info);
+        }
+        allInfos = Collections.unmodifiableSet(new HashSet<>(infos));
+    }
+
+    /**
+     * Returns the target info whose label equals the passed label, or null.
+     */
+    public AspectTargetInfo getTargetInfo(BazelLabel label) {
+        return infoByLabel.get(label);
+    }
+
+    /**
+     * Returns the target infos whose label is in the passed package.
+     */
+    public List<AspectTargetInfo> getTargetInfosInPackage(String packagePath) {
+        List<AspectTargetInfo> packageInfos = infosByPackagePath.get(packagePath);
+        return packageInfos == null ? Collections.emptyList() : Collections.unmodifiableList(packageInfos);
+    }
+
+    /**
+     * Returns all target infos of the graph.
+     */
+    public Set<AspectTargetInfo> getAllTargetInfos() {
+        return allInfos;
+    }
+
+    /**
+     * Returns the transitive closure of the passed target info, which must be part of the graph. The returned set is
+     * unmodifiable.
+     */
+    public synchronized Set<AspectTargetInfo> getTransitiveClosure(AspectTargetInfo aspectTargetInfo) {
+        Set<AspectTargetInfo> closure = closureCache.get(aspectTargetInfo);
+        if (closure != null) {
+            return closure;
+        }
+        Integer id = idByInfo.get(aspectTargetInfo);
+        if (id == null) {
+            throw new IllegalArgumentException(
+                    "Target " + aspectTargetInfo.getLabelPath() + " is not part of the aspect dependency graph.");
+        }
+        if (reachableByComponent == null) {
+            computeReachability();
+        }
+
+        // now add this aspect to the transitive closure if test or import (TODO why?)
+        boolean includeSelf = "java_test".equals(aspectTargetInfo.getKind())
+                || "java_import".equals(aspectTargetInfo.getKind());
+        closure = new ClosureSet(reachableByComponent[componentOfId[id]], id, includeSelf, infos, idByInfo);
+        closureCache.put(aspectTargetInfo, closure);
+        return closure;
+    }
+
+    /**
+     * Unmodifiable view of a closure, backed by the bits of the target's component. The members of a component share
+     * the same bits, so no per target copy is made.
+     */
+    private static class ClosureSet extends AbstractSet<AspectTargetInfo> {
+        private final BitSet bits;
+        private final int selfId;
+        private final boolean includeSelf;
+        private final List<AspectTargetInfo> infos;
+        private final Map<AspectTargetInfo, Integer> idByInfo;
+        private final int size;
+
+        ClosureSet(BitSet bits, int selfId, boolean includeSelf, List<AspectTargetInfo> infos,
+                Map<AspectTargetInfo, Integer> idByInfo) {
+            this.bits = bits;
+            this.selfId = selfId;
+            this.includeSelf = includeSelf;
+            this.infos = infos;
+            this.idByInfo = idByInfo;
+            // the component bits always include the target itself
+            size = bits.cardinality() - (includeSelf ? 0 : 1);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Integer id = idByInfo.get(o);
+            if (id == null) {
+                return false;
+            }
+            return id == selfId ? includeSelf : bits.get(id);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<AspectTargetInfo> iterator() {
+            return new Iterator<AspectTargetInfo>() {
+                private int next = advance(bits.nextSetBit(0));
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public AspectTargetInfo next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    AspectTargetInfo info = infos.get(next);
+                    next = advance(bits.nextSetBit(next + 1));
+                    return info;
+                }
+
+                private int advance(int id) {
+                    if ((id == selfId) && !includeSelf) {
+                        return bits.nextSetBit(id + 1);
+                    }
+                    return id;
+                }
+            };
+        }
+    }
+
+    // INTERNAL
+
+    private void computeReachability() {
+        long startTimeMS = System.currentTimeMillis();
+        resolveDeps();
+
+        int count = infos.size();
+        componentOfId = new int[count];
+        List<BitSet> reachable = new ArrayList<>();
+
+        // iterative Tarjan, to not overflow the stack on deep graphs
+        int[] index = new int[count];
+        int[] lowLink = new int[count];
+        int[] nextDep = new int[count];
+        boolean[] onStack = new boolean[count];
+        Arrays.fill(index, -1);
+        int[] sccStack = new int[count];
+        int sccStackSize = 0;
+        int[] callStack = new int[count];
+        int nextIndex = 0;
+
+        for (int root = 0; root < count; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int callStackSize = 0;
+            callStack[callStackSize++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            sccStack[sccStackSize++] = root;
+            onStack[root] = true;
+
+            while (callStackSize > 0) {
+                int node = callStack[callStackSize - 1];
+                if (nextDep[node] < deps[node].length) {
+                    int dep = deps[node][nextDep[node]++];
+                    if (index[dep] == -1) {
+                        index[dep] = lowLink[dep] = nextIndex++;
+                        sccStack[sccStackSize++] = dep;
+                        onStack[dep] = true;
+                        callStack[callStackSize++] = dep;
+                    } else if (onStack[dep]) {
+                        lowLink[node] = Math.min(lowLink[node], index[dep]);
+                    }
+                    continue;
+                }
+
+                callStackSize--;
+                if (callStackSize > 0) {
+                    int parent = callStack[callStackSize - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+                if (lowLink[node] != index[node]) {
+                    continue;
+                }
+
+                // node is the root of a component; all components it depends on are already complete
+                int component = reachable.size();
+                int firstMember = sccStackSize - 1;
+                while (sccStack[firstMember] != node) {
+                    firstMember--;
+                }
+                // the set holds the members themselves (in a cycle each member reaches the others) plus everything
+                // reachable from them, so that it can be or'ed directly into the sets of dependent components
+                BitSet bits = new BitSet();
+                for (int i = firstMember; i < sccStackSize; i++) {
+                    int member = sccStack[i];
+                    componentOfId[member] = component;
+                    bits.set(member);
+                }
+                for (int i = firstMember; i < sccStackSize; i++) {
+                    for (int dep : deps[sccStack[i]]) {
+                        // deps still on the stack are members of this component, all others are complete
+                        if (!onStack[dep]) {
+                            bits.or(reachable.get(componentOfId[dep]));
+                        }
+                    }
+                }
+                for (int i = firstMember; i < sccStackSize; i++) {
+                    onStack[sccStack[i]] = false;
+                }
+                reachable.add(bits);
+                sccStackSize = firstMember;
+            }
+        }
+
+        reachableByComponent = reachable.toArray(new BitSet[0]);
+        LOG.info("Computed the transitive closure of {} aspect targets ({} components) in {} millis", count,
+            reachableByComponent.length, System.currentTimeMillis() - startTimeMS);
+    }
+
+    private void resolveDeps() {
+        // resolve each distinct dep label once, instead of once per edge
+        Map<String, Integer> idByDepName = new HashMap<>();
+        deps = new int[infos.size()][];
+        for (int id = 0; id < infos.size(); id++) {
+            List<String> depNames = infos.get(id).getDeps();
+            int[] depIds = new int[depNames.size()];
+            int depCount = 0;
+            for (String depName : depNames) {
+                Integer depId = idByDepName.get(depName);
+                if (depId == null) {
+                    AspectTargetInfo dep = depNameToTargetInfo.get(new BazelLabel(depName));
+                    if (dep == null) {
+                        LOG.info("No AspectTargetInfo exists for " + depName
+                                + "; it and its descendents are excluded from analysis.");
+                        depId = -1;
+                    } else {
+                        depId = idByInfo.get(dep);
+                    }
+                    idByDepName.put(depName, depId);
+                }
+                if (depId >= 0) {
+                    depIds[depCount++] = depId;
+                }
+            }
+            deps[id] = depCount == depIds.length ? depIds : Arrays.copyOf(depIds, depCount);
+        }
+    }
+}
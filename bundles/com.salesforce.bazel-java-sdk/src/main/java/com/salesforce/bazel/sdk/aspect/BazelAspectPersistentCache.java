@@ -0,0 +1,586 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.util.BazelConstants;
+import com.salesforce.bazel.sdk.workspace.BuildFileSupport;
+
+/**
+ * On disk cache of the aspect results for a workspace, which survives restarts of the tool. It backs the in-memory
+ * caches of the BazelWorkspaceAspectProcessor so that the aspect does not need to be run again for every imported
+ * target after a restart.
+ * <p>
+ * For each requested label, the cache file records the labels in its transitive closure along with the aspect data file
+ * that Bazel wrote for each of them. The aspect data files stay where Bazel put them (in the output base), on a cache hit
+ * they are simply parsed again. An entry is keyed by the label plus a digest of the BUILD file of each workspace package
+ * in the closure, the .bzl files those BUILD files load, and the version of the aspect.
+ * <p>
+ * The cache file is loaded lazily on the first lookup. An entry is only discarded when its digest no longer matches, or
+ * if one of its aspect data files has disappeared (e.g. after a 'bazel clean').
+ * <p>
+ * During a session the file is written by a background thread with {@link #scheduleSave()}, so that lookups do not
+ * wait for it; the changes made while it writes are saved together by its next write. {@link #save()} writes it right
+ * away, which is meant for shutdown.
+ */
+public class BazelAspectPersistentCache {
+    private static final LogHelper LOG = LogHelper.log(BazelAspectPersistentCache.class);
+
+    /**
+     * Default file name for the cache file, within the directory provided by the tool.
+     */
+    public static final String CACHE_FILENAME = "bzljavasdk-aspect-cache.json";
+
+    // bump this if the layout of the cache file changes
+    private static final long FORMAT_VERSION = 1;
+
+    // writes the cache files of all workspaces, so that the thread that loaded the aspects does not wait for it
+    private static final ThreadPoolExecutor saveExecutor =
+            new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "BazelAspectPersistentCacheSave");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        saveExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final File cacheFile;
+    private final File workspaceRootDirectory;
+    private final String aspectVersion;
+
+    private boolean loaded = false;
+    private boolean dirty = false;
+    private boolean saveScheduled = false;
+
+    // the file is written outside of the cache lock, a snapshot is only written if it is newer than the file
+    private final Object fileLock = new Object();
+    private long snapshotCount = 0;
+    private long writtenSnapshot = 0;
+
+    /**
+     * Cache entries. key=label path (//a/b/c:*), value=the digest and transitive closure for that label
+     */
+    private final Map<String, CacheEntry> entries = new HashMap<>();
+
+    /**
+     * Location of the aspect data file for every label referenced by an entry. key=label path, value=absolute path
+     */
+    private final Map<String, String> aspectFilePaths = new HashMap<>();
+
+    /**
+     * Aspect data files that have already been parsed during this session. These are shared across entries, since the
+     * closures of labels overlap heavily.
+     */
+    private final Map<String, AspectTargetInfo> loadedTargetInfos = new HashMap<>();
+
+    /**
+     * Digests of the BUILD (and loaded .bzl) files of each package, reused as long as none of the files has changed.
+     */
+    private final Map<String, PackageDigest> packageDigests = new HashMap<>();
+
+    public BazelAspectPersistentCache(File cacheFile, File workspaceRootDirectory, String aspectVersion) {
+        this.cacheFile = cacheFile;
+        this.workspaceRootDirectory = workspaceRootDirectory;
+        this.aspectVersion = aspectVersion;
+    }
+
+    /**
+     * Returns the cached transitive closure of aspect infos for the passed label, or null if there is no valid entry.
+     * An entry with a stale digest is discarded.
+     */
+    public synchronized Set<AspectTargetInfo> get(BazelLabel label) {
+        ensureLoaded();
+
+        String labelPath = label.getLabelPath();
+        CacheEntry entry = entries.get(labelPath);
+        if (entry == null) {
+            return null;
+        }
+        String currentDigest = computeDigest(entry.packages);
+        if (!currentDigest.equals(entry.digest)) {
+            LOG.info("Persistent aspect cache entry for {} is stale, discarding it.", labelPath);
+            entries.remove(labelPath);
+            dirty = true;
+            return null;
+        }
+
+        Set<AspectTargetInfo> infos = new HashSet<>();
+        for (String closureLabel : entry.closure) {
+            AspectTargetInfo info = loadTargetInfo(closureLabel);
+            if (info == null) {
+                LOG.info("Persistent aspect cache entry for {} references a missing aspect file for {}.", labelPath,
+                    closureLabel);
+                return null;
+            }
+            infos.add(info);
+        }
+        return Collections.unmodifiableSet(infos);
+    }
+
+    /**
+     * Stores the transitive closure of aspect infos for the passed label. The entry is written to disk on the next call
+     * to save().
+     */
+    public synchronized void put(BazelLabel label, Set<AspectTargetInfo> infos) {
+        ensureLoaded();
+
+        Set<String> packages = new TreeSet<>();
+        packages.add(label.getPackagePath());
+        List<String> closure = new ArrayList<>();
+        for (AspectTargetInfo info : infos) {
+            String infoLabel = info.getLabelPath();
+            if ((infoLabel == null) || (info.getAspectDataFile() == null)) {
+                // we can't reload this info later, so we can't persist the closure
+                return;
+            }
+            BazelLabel bazelLabel = new BazelLabel(infoLabel);
+            if (!bazelLabel.isExternalRepoLabel()) {
+                packages.add(bazelLabel.getPackagePath());
+            }
+            closure.add(infoLabel);
+        }
+        for (AspectTargetInfo info : infos) {
+            aspectFilePaths.put(info.getLabelPath(), info.getAspectDataFile().getAbsolutePath());
+            loadedTargetInfos.put(info.getLabelPath(), info);
+        }
+
+        CacheEntry entry = new CacheEntry(computeDigest(packages), new ArrayList<>(packages), closure);
+        entries.put(label.getLabelPath(), entry);
+        dirty = true;
+    }
+
+    /**
+     * Number of entries in the cache.
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache to disk on the background thread, if anything changed since it was loaded or last saved.
+     * Returns immediately.
+     */
+    public synchronized void scheduleSave() {
+        if (!dirty || saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        saveExecutor.execute(this::runScheduledSaves);
+    }
+
+    /**
+     * Writes the cache to disk now, if anything changed since it was loaded or last saved. Meant for shutdown, during a
+     * session use {@link #scheduleSave()}.
+     */
+    public void save() {
+        JSONObject rootObject;
+        long snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            rootObject = takeSnapshot();
+            snapshot = snapshotCount;
+        }
+        if (!writeSnapshot(rootObject, snapshot)) {
+            synchronized (this) {
+                // try again with the next save
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Waits until the scheduled writes are done.
+     */
+    synchronized void waitForSave() throws InterruptedException {
+        while (saveScheduled) {
+            wait();
+        }
+    }
+
+    /**
+     * Runs on the save thread, until no change is left to write.
+     */
+    private void runScheduledSaves() {
+        while (true) {
+            JSONObject rootObject;
+            long snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    saveScheduled = false;
+                    notifyAll();
+                    return;
+                }
+                rootObject = takeSnapshot();
+                snapshot = snapshotCount;
+            }
+            if (!writeSnapshot(rootObject, snapshot)) {
+                synchronized (this) {
+                    // try again with the next save, rather than spin on a file that cannot be written
+                    dirty = true;
+                    saveScheduled = false;
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    // called with the cache lock held
+    private JSONObject takeSnapshot() {
+        // labels are written once in a table, entries refer to them by index to keep the file small
+        Map<String, Integer> labelIndexes = new HashMap<>();
+        JSONArray targetsArray = new JSONArray();
+        JSONObject entriesObject = new JSONObject();
+        for (Map.Entry<String, CacheEntry> mapEntry : entries.entrySet()) {
+            CacheEntry entry = mapEntry.getValue();
+            JSONArray closureArray = new JSONArray();
+            for (String closureLabel : entry.closure) {
+                Integer index = labelIndexes.get(closureLabel);
+                if (index == null) {
+                    index = targetsArray.size();
+                    labelIndexes.put(closureLabel, index);
+                    JSONArray target = new JSONArray();
+                    target.add(closureLabel);
+                    target.add(aspectFilePaths.get(closureLabel));
+                    targetsArray.add(target);
+                }
+                closureArray.add(index);
+            }
+            JSONArray packagesArray = new JSONArray();
+            packagesArray.addAll(entry.packages);
+
+            JSONObject entryObject = new JSONObject();
+            entryObject.put("digest", entry.digest);
+            entryObject.put("packages", packagesArray);
+            entryObject.put("closure", closureArray);
+            entriesObject.put(mapEntry.getKey(), entryObject);
+        }
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("format", FORMAT_VERSION);
+        rootObject.put("aspectVersion", aspectVersion);
+        rootObject.put("workspace", workspaceRootDirectory.getAbsolutePath());
+        rootObject.put("targets", targetsArray);
+        rootObject.put("entries", entriesObject);
+
+        dirty = false;
+        snapshotCount++;
+        return rootObject;
+    }
+
+    // returns false if the file could not be written
+    private boolean writeSnapshot(JSONObject rootObject, long snapshot) {
+        synchronized (fileLock) {
+            if (snapshot <= writtenSnapshot) {
+                // a newer snapshot has been written in the meantime
+                return true;
+            }
+            // write to a temp file and then move it into place, so that a crash mid-write can't corrupt the cache
+            File tempFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+            try {
+                cacheFile.getParentFile().mkdirs();
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                    rootObject.writeJSONString(writer);
+                }
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                writtenSnapshot = snapshot;
+                LOG.info("Wrote {} entries to the persistent aspect cache {}",
+                    ((JSONObject) rootObject.get("entries")).size(), cacheFile.getAbsolutePath());
+                return true;
+            } catch (IOException ioe) {
+                LOG.error("Could not write the persistent aspect cache {}", ioe, cacheFile.getAbsolutePath());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Computes a version string for the aspect, from the contents of the aspect files. If the aspect changes (e.g. a
+     * new version of the tool is installed) all cache entries become invalid.
+     */
+    public static String computeAspectVersion(BazelAspectLocation aspectLocation) {
+        MessageDigest digest = newDigest();
+        if (aspectLocation != null) {
+            digest.update(String.valueOf(aspectLocation.getAspectLabel()).getBytes(StandardCharsets.UTF_8));
+            File aspectDirectory = aspectLocation.getAspectDirectory();
+            File[] aspectFiles = aspectDirectory == null ? null : aspectDirectory.listFiles(File::isFile);
+            if (aspectFiles != null) {
+                Arrays.sort(aspectFiles);
+                for (File aspectFile : aspectFiles) {
+                    digestFile(digest, aspectFile);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    // INTERNALS
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!cacheFile.exists()) {
+            return;
+        }
+
+        long startTimeMS = System.currentTimeMillis();
+        try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+            JSONObject rootObject = (JSONObject) new JSONParser().parse(reader);
+            Object format = rootObject.get("format");
+            if (!(format instanceof Long) || ((Long) format != FORMAT_VERSION)) {
+                LOG.info("Persistent aspect cache {} has an unknown format, ignoring it.", cacheFile.getAbsolutePath());
+                return;
+            }
+            if (!aspectVersion.equals(rootObject.get("aspectVersion"))
+                    || !workspaceRootDirectory.getAbsolutePath().equals(rootObject.get("workspace"))) {
+                LOG.info("Persistent aspect cache {} was written for a different aspect or workspace, ignoring it.",
+                    cacheFile.getAbsolutePath());
+                return;
+            }
+
+            List<String> targetLabels = new ArrayList<>();
+            for (Object targetObject : (JSONArray) rootObject.get("targets")) {
+                JSONArray target = (JSONArray) targetObject;
+                String targetLabel = (String) target.get(0);
+                targetLabels.add(targetLabel);
+                aspectFilePaths.put(targetLabel, (String) target.get(1));
+            }
+
+            JSONObject entriesObject = (JSONObject) rootObject.get("entries");
+            for (Map.Entry<String, Object> mapEntry : entriesObject.entrySet()) {
+                JSONObject entryObject = (JSONObject) mapEntry.getValue();
+                List<String> packages = new ArrayList<>();
+                for (Object packagePath : (JSONArray) entryObject.get("packages")) {
+                    packages.add((String) packagePath);
+                }
+                List<String> closure = new ArrayList<>();
+                for (Object index : (JSONArray) entryObject.get("closure")) {
+                    closure.add(targetLabels.get(((Long) index).intValue()));
+                }
+                entries.put(mapEntry.getKey(), new CacheEntry((String) entryObject.get("digest"), packages, closure));
+            }
+            LOG.info("Loaded {} entries from the persistent aspect cache {} in {} millis", entries.size(),
+                cacheFile.getAbsolutePath(), System.currentTimeMillis() - startTimeMS);
+        } catch (Exception anyE) {
+            // a corrupt cache is not fatal, we just run the aspect again
+            LOG.error("Could not read the persistent aspect cache {}, ignoring it.", anyE, cacheFile.getAbsolutePath());
+            entries.clear();
+            aspectFilePaths.clear();
+        }
+    }
+
+    private AspectTargetInfo loadTargetInfo(String label) {
+        AspectTargetInfo info = loadedTargetInfos.get(label);
+        if (info != null) {
+            return info;
+        }
+        String aspectFilePath = aspectFilePaths.get(label);
+        if (aspectFilePath == null) {
+            return null;
+        }
+        File aspectFile = new File(aspectFilePath);
+        if (!aspectFile.exists()) {
+            return null;
+        }
+        try {
+            info = AspectTargetInfoFactory.loadAspectFile(aspectFile);
+        } catch (IllegalArgumentException iae) {
+            // the file has been rewritten with something we can't read
+            return null;
+        }
+        if (info != null) {
+            loadedTargetInfos.put(label, info);
+        }
+        return info;
+    }
+
+    private String computeDigest(Collection<String> packages) {
+        MessageDigest digest = newDigest();
+        digest.update(aspectVersion.getBytes(StandardCharsets.UTF_8));
+        for (String packagePath : packages) {
+            digest.update(packagePath.getBytes(StandardCharsets.UTF_8));
+            digest.update(getPackageDigest(packagePath).getBytes(StandardCharsets.UTF_8));
+        }
+        return toHex(digest.digest());
+    }
+
+    private String getPackageDigest(String packagePath) {
+        PackageDigest packageDigest = packageDigests.get(packagePath);
+        if ((packageDigest != null) && packageDigest.isCurrent()) {
+            return packageDigest.digest;
+        }
+
+        // find the candidate BUILD files, and the .bzl files they (transitively) load from within this workspace;
+        // candidates that do not exist are kept as inputs so that creating them later is detected
+        Set<File> inputFiles = new LinkedHashSet<>();
+        File packageDirectory = new File(workspaceRootDirectory, packagePath);
+        for (String buildFileName : BazelConstants.BUILD_FILE_NAMES) {
+            File buildFile = new File(packageDirectory, buildFileName);
+            collectInputFiles(buildFile, packagePath, inputFiles);
+        }
+
+        MessageDigest digest = newDigest();
+        for (File inputFile : inputFiles) {
+            digest.update(inputFile.getPath().getBytes(StandardCharsets.UTF_8));
+            if (inputFile.exists()) {
+                digest.update((byte) 1);
+                digestFile(digest, inputFile);
+            } else {
+                digest.update((byte) 0);
+            }
+        }
+        packageDigest = new PackageDigest(toHex(digest.digest()), new ArrayList<>(inputFiles));
+        packageDigests.put(packagePath, packageDigest);
+        return packageDigest.digest;
+    }
+
+    private void collectInputFiles(File file, String packagePath, Set<File> inputFiles) {
+        if (!inputFiles.add(file) || !file.exists()) {
+            return;
+        }
+        for (String loadedLabel : BuildFileSupport.getLoadedBzlLabels(file)) {
+            if (loadedLabel.startsWith(BazelLabel.BAZEL_EXTERNALREPO_AT)) {
+                // .bzl files from external repositories change when the WORKSPACE changes, which we don't track
+                continue;
+            }
+            String loadedPackagePath = packagePath;
+            String loadedFileName = loadedLabel;
+            int colonIndex = loadedLabel.indexOf(BazelLabel.BAZEL_COLON);
+            if (colonIndex >= 0) {
+                if (loadedLabel.startsWith(BazelLabel.BAZEL_ROOT_SLASHES)) {
+                    loadedPackagePath = loadedLabel.substring(2, colonIndex);
+                }
+                loadedFileName = loadedLabel.substring(colonIndex + 1);
+            }
+            File loadedFile = new File(new File(workspaceRootDirectory, loadedPackagePath), loadedFileName);
+            collectInputFiles(loadedFile, loadedPackagePath, inputFiles);
+        }
+    }
+
+    private static void digestFile(MessageDigest digest, File file) {
+        try {
+            digest.update(Files.readAllBytes(file.toPath()));
+        } catch (IOException ioe) {
+            // an unreadable file will just produce a digest mismatch later
+            LOG.error("Could not read file {} to compute its digest", ioe, file.getAbsolutePath());
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            // SHA-256 is required to be present in every JVM
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static class CacheEntry {
+        final String digest;
+        final List<String> packages;
+        final List<String> closure;
+
+        CacheEntry(String digest, List<String> packages, List<String> closure) {
+            this.digest = digest;
+            this.packages = packages;
+            this.closure = closure;
+        }
+    }
+
+    private static class PackageDigest {
+        final String digest;
+        final List<File> inputFiles;
+        final long[] stamps;
+
+        PackageDigest(String digest, List<File> inputFiles) {
+            this.digest = digest;
+            this.inputFiles = inputFiles;
+            stamps = computeStamps(inputFiles);
+        }
+
+        /**
+         * The digest is current if none of the input files has been touched, created or deleted since the digest was
+         * computed. The inputs include the candidate files that did not exist, and new loads can only be introduced by
+         * modifying an input file, so checking the inputs is sufficient.
+         */
+        boolean isCurrent() {
+            return Arrays.equals(stamps, computeStamps(inputFiles));
+        }
+
+        private static long[] computeStamps(List<File> files) {
+            long[] stamps = new long[files.size() * 2];
+            for (int i = 0; i < files.size(); i++) {
+                stamps[i * 2] = files.get(i).lastModified();
+                stamps[(i * 2) + 1] = files.get(i).length();
+            }
+            return stamps;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+/**
+ * Runs the aspect for all targets in a single invocation, passing the targets in a file via --target_pattern_file so
+ * that the command line length limit does not apply. Intended for very large imports. Requires a Bazel version that
+ * supports --target_pattern_file.
+ */
+public class TargetPatternFileAspectBatchingStrategy extends SingleInvocationAspectBatchingStrategy {
+    private static final LogHelper LOG = LogHelper.log(TargetPatternFileAspectBatchingStrategy.class);
+
+    // the pattern file of each batch that is running, aspect runs of the workspace may overlap
+    private final Map<List<BazelLabel>, File> patternFiles = new IdentityHashMap<>();
+
+    @Override
+    public synchronized List<String> getTargetArgs(List<BazelLabel> batch) throws IOException {
+        List<String> lines = new ArrayList<>(batch.size());
+        for (BazelLabel label : batch) {
+            lines.add(label.toString());
+        }
+        File patternFile = File.createTempFile("bzljavasdk-aspect-targets", ".txt");
+        patternFile.deleteOnExit();
+        Files.write(patternFile.toPath(), lines, StandardCharsets.UTF_8);
+        patternFiles.put(batch, patternFile);
+        LOG.info("Wrote {} aspect targets to pattern file {}", lines.size(), patternFile.getAbsolutePath());
+
+        return Collections.singletonList("--target_pattern_file=" + patternFile.getAbsolutePath());
+    }
+
+    @Override
+    public synchronized void batchReleased(List<BazelLabel> batch) {
+        File patternFile = patternFiles.remove(batch);
+        if ((patternFile != null) && !patternFile.delete()) {
+            LOG.info("Could not delete aspect target pattern file {}", patternFile.getAbsolutePath());
+        }
+    }
+}
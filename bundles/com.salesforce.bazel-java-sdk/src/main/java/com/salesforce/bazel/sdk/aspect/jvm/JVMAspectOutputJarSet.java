@@ -38,6 +38,8 @@ import java.util.Objects;
 
 import org.json.simple.JSONObject;
 
+import com.salesforce.bazel.sdk.aspect.AspectTargetInfoFactory;
+
 /**
  * A structure containing the set of jar files (interface, class and source jars) generated by a JVM rule target
  * (java_library).
@@ -48,36 +50,32 @@ public final class JVMAspectOutputJarSet {
     private String srcjar; // source_jar
 
     public JVMAspectOutputJarSet(JSONObject arrayObj) {
-        JSONObject jarObj = (JSONObject) arrayObj.get("jar");
-        if (jarObj != null) {
-            String relPath = (String) jarObj.get("relative_path");
-            String base = (String) jarObj.get("root_execution_path_fragment");
-            if (base != null && !base.isEmpty()) {
-                jar = base + File.separator + relPath;
-            } else {
-                jar = relPath;
-            }
-        }
-        JSONObject ijarObj = (JSONObject) arrayObj.get("interface_jar");
-        if (ijarObj != null) {
-            String base = (String) ijarObj.get("root_execution_path_fragment");
-            String relPath = (String) ijarObj.get("relative_path");
-            if (base != null && !base.isEmpty()) {
-                ijar = base + File.separator + relPath;
-            } else {
-                ijar = relPath;
-            }
+        jar = loadPath(arrayObj, "jar");
+        ijar = loadPath(arrayObj, "interface_jar");
+        srcjar = loadPath(arrayObj, "source_jar");
+    }
+
+    public JVMAspectOutputJarSet(String jar, String ijar, String srcjar) {
+        this.jar = jar;
+        this.ijar = ijar;
+        this.srcjar = srcjar;
+    }
+
+    private static String loadPath(JSONObject arrayObj, String key) {
+        JSONObject pathObj = (JSONObject) arrayObj.get(key);
+        if (pathObj == null) {
+            return null;
         }
-        JSONObject sjarObj = (JSONObject) arrayObj.get("source_jar");
-        if (sjarObj != null) {
-            String base = (String) sjarObj.get("root_execution_path_fragment");
-            String relPath = (String) sjarObj.get("relative_path");
-            if (base != null && !base.isEmpty()) {
-                srcjar = base + File.separator + relPath;
-            } else {
-                srcjar = relPath;
-            }
+        String base = (String) pathObj.get("root_execution_path_fragment");
+        String relPath = (String) pathObj.get("relative_path");
+        String path;
+        if (base != null && !base.isEmpty()) {
+            path = base + File.separator + relPath;
+        } else {
+            path = relPath;
         }
+        // a target is often loaded more than once, e.g. for its wildcard and its concrete label
+        return AspectTargetInfoFactory.getStringTable().intern(path);
     }
 
     @Override
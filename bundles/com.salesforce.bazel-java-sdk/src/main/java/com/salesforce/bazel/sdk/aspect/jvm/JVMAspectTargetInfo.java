@@ -42,6 +42,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
+import com.salesforce.bazel.sdk.aspect.AspectTargetInfoFactory;
 
 /**
  * The subclass of AspectTargetInfo for JVM based rules.
@@ -94,6 +95,18 @@ public class JVMAspectTargetInfo extends AspectTargetInfo {
         }
     }
 
+    /**
+     * Creates the info from already decoded fields, used for aspect formats other than JSON.
+     */
+    public JVMAspectTargetInfo(File aspectDataFile, String workspaceRelativePath, String kind, String label,
+            List<String> deps, List<String> sources, List<JVMAspectOutputJarSet> jars,
+            List<JVMAspectOutputJarSet> generatedJars, String mainClass) {
+        super(aspectDataFile, workspaceRelativePath, kind, label, deps, sources);
+        this.jars = jars;
+        this.generatedJars = generatedJars;
+        this.mainClass = mainClass;
+    }
+
     /**
      * List of jars generated by annotations processors when building this target.
      */
@@ -126,7 +139,7 @@ public class JVMAspectTargetInfo extends AspectTargetInfo {
                 JSONObject sourceObj = (JSONObject) sourceObject;
                 Object pathObj = sourceObj.get("relative_path");
                 if (pathObj != null) {
-                    list.add(pathObj.toString());
+                    list.add(AspectTargetInfoFactory.getStringTable().intern(pathObj.toString()));
                 }
             }
         }
@@ -145,12 +158,36 @@ public class JVMAspectTargetInfo extends AspectTargetInfo {
 
         JSONArray array = (JSONArray) arrayObject;
         for (Object jarSet : array) {
-            JSONObject jarSetObject = (JSONObject) jsonParser.parse(jarSet.toString());
+            JSONObject jarSetObject;
+            if (jarSet instanceof JSONObject) {
+                // already parsed, no need to serialize and parse it again
+                jarSetObject = (JSONObject) jarSet;
+            } else {
+                jarSetObject = (JSONObject) jsonParser.parse(jarSet.toString());
+            }
             jarList.add(new JVMAspectOutputJarSet(jarSetObject));
         }
         return jarList;
     }
 
+    @Override
+    public long estimateHeapBytes() {
+        return super.estimateHeapBytes() + estimateHeapBytes(mainClass) + estimateJarsHeapBytes(jars)
+                + estimateJarsHeapBytes(generatedJars);
+    }
+
+    private static long estimateJarsHeapBytes(List<JVMAspectOutputJarSet> jarSets) {
+        if (jarSets == null) {
+            return 0L;
+        }
+        long bytes = LIST_HEAP_BYTES;
+        for (JVMAspectOutputJarSet jarSet : jarSets) {
+            bytes += REFERENCE_HEAP_BYTES + OBJECT_HEAP_BYTES + estimateHeapBytes(jarSet.getJar())
+                    + estimateHeapBytes(jarSet.getInterfaceJar()) + estimateHeapBytes(jarSet.getSrcJar());
+        }
+        return bytes;
+    }
+
     @Override
     public String toString() {
         StringBuffer builder = new StringBuffer();
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.bep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import com.salesforce.bazel.sdk.bep.event.BEPEvent;
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Bazel build event protocol stream (BEP) that follows a single BEP json file while Bazel is writing it. Unlike
+ * {@link BazelBuildEventsPollingFileStream}, which reparses the whole file when it changes, this stream remembers how
+ * far it has read and only parses the lines appended since then. Events are therefore published while the build is
+ * still running, which makes it the right stream for a Bazel command started by the tool itself with the
+ * --build_event_json_file option.
+ * <p>
+ * After creation, subscribe and then start the stream by calling activateStream(). Call closeStream() once the Bazel
+ * command has finished, which publishes the remaining events and stops the poller thread.
+ */
+public class BazelBuildEventsTailingFileStream extends BazelBuildEventStream {
+    private static final LogHelper LOG = LogHelper.log(BazelBuildEventsTailingFileStream.class);
+
+    public static final long DEFAULT_POLL_INTERVAL_MS = 250;
+
+    private final File bepFile;
+    private final long pollIntervalMS;
+
+    private long readOffset = 0L;
+    private int eventIndex = 0;
+    private Thread filePoller = null;
+    private volatile boolean closed = false;
+
+    public BazelBuildEventsTailingFileStream(File bepFile) {
+        this(bepFile, DEFAULT_POLL_INTERVAL_MS);
+    }
+
+    public BazelBuildEventsTailingFileStream(File bepFile, long pollIntervalMS) {
+        this.bepFile = bepFile;
+        this.pollIntervalMS = pollIntervalMS;
+    }
+
+    // PUBLIC API
+
+    @Override
+    public synchronized void activateStream() {
+        super.activateStream();
+        if ((filePoller == null) && !closed) {
+            filePoller = new Thread(this::pollFile, "BEPTailingFileStream-" + bepFile.getName());
+            filePoller.setDaemon(true);
+            filePoller.start();
+        }
+    }
+
+    /**
+     * Stops following the file, after publishing the events that were written since the last poll. The stream cannot
+     * be activated again.
+     */
+    public void closeStream() throws InterruptedException {
+        Thread poller;
+        synchronized (this) {
+            closed = true;
+            poller = filePoller;
+        }
+        if (poller != null) {
+            poller.interrupt();
+            poller.join();
+        }
+        readNewEvents();
+    }
+
+    /**
+     * Parses the complete lines that were appended to the file since the last read, and publishes the events to the
+     * subscribers. A trailing partial line is left for the next read. Returns the number of events read.
+     */
+    public synchronized int readNewEvents() {
+        if (!bepFile.exists()) {
+            return 0;
+        }
+        int eventCount = 0;
+        try (RandomAccessFile file = new RandomAccessFile(bepFile, "r")) {
+            long length = file.length();
+            if (length < readOffset) {
+                // Bazel truncates the file when a new build starts
+                LOG.info("BEP file [{}] was truncated, reading it from the start.", bepFile.getAbsolutePath());
+                readOffset = 0L;
+                eventIndex = 0;
+            }
+            if (length == readOffset) {
+                return 0;
+            }
+            byte[] bytes = new byte[(int) (length - readOffset)];
+            file.seek(readOffset);
+            file.readFully(bytes);
+
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                String eventString = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                lineStart = i + 1;
+                if (eventString.isEmpty()) {
+                    continue;
+                }
+                BEPEvent event = BazelBuildEventTypeManager.parseEvent(eventString, eventIndex++);
+                if (event != null) {
+                    event.processed();
+                    publishEventToSubscribers(event);
+                    eventCount++;
+                }
+            }
+            readOffset += lineStart;
+        } catch (IOException ioe) {
+            LOG.error("error reading BEP events file [{}]", ioe, bepFile.getAbsolutePath());
+        }
+        return eventCount;
+    }
+
+    // INTERNAL
+
+    private void pollFile() {
+        while (!closed) {
+            try {
+                Thread.sleep(pollIntervalMS);
+            } catch (InterruptedException ie) {
+                // closed, the final read is done by closeStream()
+                return;
+            }
+            if (!paused) {
+                readNewEvents();
+            }
+        }
+    }
+}
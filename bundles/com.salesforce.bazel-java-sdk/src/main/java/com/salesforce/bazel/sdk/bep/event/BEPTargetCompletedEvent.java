@@ -46,6 +46,7 @@ public class BEPTargetCompletedEvent extends BEPEvent {
 
     public static final String NAME = "targetCompleted";
 
+    private String label;
     private String failureMessage;
     private String failureSpawnCode;
     private int failureSpawnExitCode;
@@ -55,6 +56,14 @@ public class BEPTargetCompletedEvent extends BEPEvent {
     public BEPTargetCompletedEvent(String rawEvent, int index, JSONObject eventObj) {
         super(NAME, rawEvent, index, eventObj);
 
+        JSONObject idDetail = (JSONObject) eventObj.get("id");
+        if (idDetail != null) {
+            JSONObject targetDetail = (JSONObject) idDetail.get(NAME);
+            if (targetDetail != null) {
+                label = decodeStringFromJsonObject(targetDetail.get("label"));
+            }
+        }
+
         JSONObject completedDetail = (JSONObject) eventObj.get("completed");
         if (completedDetail != null) {
             parseDetails(completedDetail);
@@ -63,6 +72,13 @@ public class BEPTargetCompletedEvent extends BEPEvent {
 
     // GETTERS
 
+    /**
+     * The label of the completed target (e.g. //foo:foo), or null if the event does not identify it.
+     */
+    public String getLabel() {
+        return label;
+    }
+
     public String getFailureMessage() {
         return failureMessage;
     }
@@ -155,9 +171,9 @@ public class BEPTargetCompletedEvent extends BEPEvent {
 
     @Override
     public String toString() {
-        return "BEPTargetCompletedEvent [failureMessage=" + failureMessage + ", failureSpawnCode=" + failureSpawnCode
-                + ", failureSpawnExitCode=" + failureSpawnExitCode + ", success=" + success + ", importantOutput="
-                + importantOutput + ", index=" + index + ", eventType=" + eventType + ", isProcessed=" + isProcessed
+        return "BEPTargetCompletedEvent [label=" + label + ", failureMessage=" + failureMessage + ", failureSpawnCode="
+                + failureSpawnCode + ", failureSpawnExitCode=" + failureSpawnExitCode + ", success=" + success
+                + ", importantOutput=" + importantOutput + ", index=" + index + ", eventType=" + eventType + ", isProcessed=" + isProcessed
                 + ", isLastMessage=" + isLastMessage + ", isError=" + isError + "]";
     }
 
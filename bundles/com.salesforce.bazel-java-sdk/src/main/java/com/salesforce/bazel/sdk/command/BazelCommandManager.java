@@ -127,9 +127,15 @@ public class BazelCommandManager {
 
     /**
      * Set the path to the Bazel binary. Allows the user to override the default via the Preferences ui.
+     * <p>
+     * A different binary may be a different Bazel version, so the <i>bazel info</i> values of the workspaces are
+     * forgotten.
      */
     public synchronized void setBazelExecutablePath(String bazelExectuablePath) {
         BazelWorkspaceCommandRunner.setBazelExecutablePath(bazelExectuablePath);
+        for (BazelWorkspaceCommandRunner workspaceCommandRunner : workspaceCommandRunners.values()) {
+            workspaceCommandRunner.getWorkspaceInfoService().invalidate();
+        }
     }
 
     /**
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command;
+
+/**
+ * The urgency of a Bazel command. When commands wait for the Bazel server, the more urgent ones run first, so that a
+ * request the user is waiting on (e.g. the classpath of the open editor) does not queue behind background work such as
+ * building the type index.
+ * <p>
+ * Commands that are issued from code that does not say otherwise run with {@link #BUILD}. To run a block of code with
+ * a different priority, enter a scope on the thread:
+ *
+ * <pre>
+ * try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+ *     // Bazel commands issued here are scheduled as background work
+ * }
+ * </pre>
+ */
+public enum BazelCommandPriority {
+
+    /**
+     * The user is waiting for the result.
+     */
+    INTERACTIVE,
+
+    /**
+     * Regular work, such as builds and project imports.
+     */
+    BUILD,
+
+    /**
+     * Work that nobody is waiting for, which may be postponed or cancelled.
+     */
+    BACKGROUND;
+
+    private static final ThreadLocal<BazelCommandPriority> CURRENT = ThreadLocal.withInitial(() -> BUILD);
+
+    /**
+     * The priority of the Bazel commands issued by the current thread.
+     */
+    public static BazelCommandPriority current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Issues the Bazel commands of the current thread with this priority, until the returned scope is closed.
+     */
+    public Scope enter() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    /**
+     * Restores the previous priority of the thread when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final BazelCommandPriority previous;
+
+        private Scope(BazelCommandPriority previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            CURRENT.set(previous);
+        }
+    }
+}
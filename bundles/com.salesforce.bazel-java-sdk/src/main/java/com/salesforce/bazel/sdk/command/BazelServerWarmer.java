@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+/**
+ * Gets the Bazel server of a workspace ready before the user needs it, and optionally keeps it from shutting down
+ * when idle.
+ * <p>
+ * The first Bazel command after the tool starts pays for the server startup and for loading the packages into the
+ * server. {@link #warmup(Collection)} pays that cost up front, with {@link BazelCommandPriority#BACKGROUND} priority so
+ * that real work overtakes it: it pings the server (see {@link BazelWorkspaceCommandRunner#pingBazelServer()}) and
+ * then queries the targets of the passed packages, which also fills the BUILD file cache of the runner.
+ * <p>
+ * Bazel shuts its server down after a period without commands (<i>--max_idle_secs</i>, three hours by default). With a
+ * keep-alive interval set, the server is pinged whenever no command ran for that long.
+ */
+public class BazelServerWarmer {
+    private static final LogHelper LOG = LogHelper.log(BazelServerWarmer.class);
+
+    private static final AtomicInteger TIMER_THREAD_COUNT = new AtomicInteger();
+
+    private final BazelWorkspaceCommandRunner commandRunner;
+
+    private ScheduledExecutorService keepAliveTimer = null;
+    private ScheduledFuture<?> keepAliveTask = null;
+    private long lastSeenScheduledCount = 0;
+    private final AtomicInteger pingCount = new AtomicInteger();
+
+    public BazelServerWarmer(BazelWorkspaceCommandRunner commandRunner) {
+        this.commandRunner = commandRunner;
+    }
+
+    /**
+     * Starts the Bazel server and loads the passed packages into it. Runs the commands as background work, and returns
+     * when they are done.
+     *
+     * @param packageLabels
+     *            labels of the packages to load (any target of the package will do), may be empty
+     */
+    @SuppressWarnings("try") // the priority scope is only entered and closed
+    public void warmup(Collection<BazelLabel> packageLabels)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+            long startTimeMS = System.currentTimeMillis();
+            String serverPid = ping();
+            LOG.info("Bazel server (pid {}) is up after {} millis", serverPid,
+                System.currentTimeMillis() - startTimeMS);
+
+            if (!packageLabels.isEmpty()) {
+                // all targets of each package, e.g. //a/b => //a/b:*
+                Set<BazelLabel> wildcardLabels = new LinkedHashSet<>();
+                for (BazelLabel packageLabel : packageLabels) {
+                    wildcardLabels.add(
+                        new BazelLabel(packageLabel.getPackagePath(), BazelLabel.BAZEL_WILDCARD_ALLTARGETS_STAR));
+                }
+                startTimeMS = System.currentTimeMillis();
+                commandRunner.queryBazelTargetsInBuildFile(wildcardLabels);
+                LOG.info("Loaded {} packages into the Bazel server in {} millis", wildcardLabels.size(),
+                    System.currentTimeMillis() - startTimeMS);
+            }
+        }
+    }
+
+    /**
+     * Pings the Bazel server whenever no command ran for the passed interval. Zero or less turns the keep-alive off.
+     * The interval should be well below the idle timeout of the server.
+     */
+    public synchronized void setKeepAliveInterval(long interval, TimeUnit unit) {
+        if (keepAliveTask != null) {
+            keepAliveTask.cancel(false);
+            keepAliveTask = null;
+        }
+        if (interval <= 0) {
+            return;
+        }
+        if (keepAliveTimer == null) {
+            keepAliveTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "BazelKeepAlive-" + TIMER_THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        lastSeenScheduledCount = commandRunner.getCommandScheduler().getScheduledCount();
+        keepAliveTask = keepAliveTimer.scheduleWithFixedDelay(this::keepAlive, interval, interval, unit);
+        LOG.info("Bazel server keep-alive every {} {}", interval, unit);
+    }
+
+    /**
+     * Stops the keep-alive. The warmer can not be used afterwards.
+     */
+    public synchronized void stop() {
+        if (keepAliveTimer != null) {
+            keepAliveTimer.shutdownNow();
+            keepAliveTimer = null;
+            keepAliveTask = null;
+        }
+    }
+
+    /**
+     * The number of times the server was pinged, for statistics.
+     */
+    public int getPingCount() {
+        return pingCount.get();
+    }
+
+    // INTERNALS
+
+    private String ping() throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        pingCount.incrementAndGet();
+        return commandRunner.pingBazelServer();
+    }
+
+    @SuppressWarnings("try") // the priority scope is only entered and closed
+    private void keepAlive() {
+        // any command resets the idle timer of the server, a ping is only needed if nothing ran since the last check
+        long scheduledCount = commandRunner.getCommandScheduler().getScheduledCount();
+        if (scheduledCount != lastSeenScheduledCount) {
+            lastSeenScheduledCount = scheduledCount;
+            return;
+        }
+        try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+            ping();
+            LOG.debug("Pinged the idle Bazel server");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception anyE) {
+            // the next tick tries again
+            LOG.error("Could not ping the Bazel server", anyE);
+        }
+        lastSeenScheduledCount = commandRunner.getCommandScheduler().getScheduledCount();
+    }
+}
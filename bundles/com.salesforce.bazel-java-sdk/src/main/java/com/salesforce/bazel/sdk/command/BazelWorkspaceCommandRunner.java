@@ -48,12 +48,18 @@ import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import com.salesforce.bazel.sdk.aspect.AspectCacheMetrics;
+import com.salesforce.bazel.sdk.aspect.AspectOutputMode;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
 import com.salesforce.bazel.sdk.aspect.BazelAspectLocation;
 import com.salesforce.bazel.sdk.command.internal.BazelCommandExecutor;
+import com.salesforce.bazel.sdk.command.internal.BazelCommandScheduler;
+import com.salesforce.bazel.sdk.command.internal.BazelCommandResultCache;
+import com.salesforce.bazel.sdk.command.internal.BazelCommandTelemetry;
 import com.salesforce.bazel.sdk.command.internal.BazelQueryHelper;
 import com.salesforce.bazel.sdk.command.internal.BazelVersionChecker;
 import com.salesforce.bazel.sdk.command.internal.BazelWorkspaceAspectProcessor;
+import com.salesforce.bazel.sdk.command.internal.BazelWorkspaceInfoService;
 import com.salesforce.bazel.sdk.console.CommandConsoleFactory;
 import com.salesforce.bazel.sdk.logging.LogHelper;
 import com.salesforce.bazel.sdk.model.BazelBuildFile;
@@ -134,6 +140,11 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      */
     private final BazelQueryHelper bazelQueryHelper;
 
+    /**
+     * Helper for running and caching bazel info commands.
+     */
+    private final BazelWorkspaceInfoService workspaceInfoService;
+
     /**
      * Helper for running version checks of the configured Bazel executable.
      */
@@ -145,11 +156,17 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      */
     private List<String> buildOptions = Collections.emptyList();
 
-    // CACHES
+    /**
+     * Cache for the output of read-only commands (query, cquery, info), checked against a stamp of the build files of
+     * the workspace.
+     */
+    private final BazelCommandResultCache commandResultCache;
 
     /**
      * This is to cache the last query and return the query result without actually computing it. This is required
-     * because computeUnresolvedPath tries to compute the bazel query multiple time
+     * because computeUnresolvedPath tries to compute the bazel query multiple time. The queries passed here (tests(),
+     * attr() etc) depend on the source files matched by globs, which the stamp of the result cache does not cover, so
+     * they are only remembered in memory until the next BUILD file change.
      */
     private String query;
     private List<String> queryResults;
@@ -170,6 +187,8 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
         bazelWorkspaceRootDirectory = null;
         aspectHelper = null;
         bazelQueryHelper = null;
+        workspaceInfoService = null;
+        commandResultCache = null;
     }
 
     /**
@@ -184,10 +203,13 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
         bazelWorkspaceRootDirectory = bazelWorkspaceRoot;
         this.commandBuilder = commandBuilder;
         bazelCommandExecutor = new BazelCommandExecutor(bazelExecutable, commandBuilder);
+        commandResultCache = new BazelCommandResultCache(bazelWorkspaceRoot);
+        bazelCommandExecutor.setResultCache(commandResultCache);
 
         aspectHelper = new BazelWorkspaceAspectProcessor(this, aspectLocation, bazelCommandExecutor);
         bazelVersionChecker = new BazelVersionChecker(this.commandBuilder);
         bazelQueryHelper = new BazelQueryHelper(bazelCommandExecutor);
+        workspaceInfoService = new BazelWorkspaceInfoService(bazelCommandExecutor, bazelWorkspaceRoot);
     }
 
     // WORKSPACE CONFIG
@@ -205,21 +227,8 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      */
     @Override
     public File computeBazelWorkspaceExecRoot() {
-
         if (bazelExecRootDirectory == null) {
-            try {
-                List<String> argBuilder = new ArrayList<>();
-                argBuilder.add("info");
-                argBuilder.add("execution_root");
-
-                List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory,
-                    null, argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
-                outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
-                bazelExecRootDirectory = new File(String.join("", outputLines));
-                bazelExecRootDirectory = getCanonicalFileSafely(bazelExecRootDirectory);
-            } catch (Exception anyE) {
-                throw new IllegalStateException(anyE);
-            }
+            bazelExecRootDirectory = getInfoLocation(BazelWorkspaceInfoService.KEY_EXECUTION_ROOT);
         }
         return bazelExecRootDirectory;
     }
@@ -263,19 +272,7 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
     @Override
     public File computeBazelWorkspaceOutputBase() {
         if (bazelOutputBaseDirectory == null) {
-            try {
-                List<String> argBuilder = new ArrayList<>();
-                argBuilder.add("info");
-                argBuilder.add("output_base");
-
-                List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory,
-                    null, argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
-                outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
-                bazelOutputBaseDirectory = new File(String.join("", outputLines));
-                bazelOutputBaseDirectory = getCanonicalFileSafely(bazelOutputBaseDirectory);
-            } catch (Exception anyE) {
-                throw new IllegalStateException(anyE);
-            }
+            bazelOutputBaseDirectory = getInfoLocation(BazelWorkspaceInfoService.KEY_OUTPUT_BASE);
         }
         return bazelOutputBaseDirectory;
     }
@@ -287,23 +284,57 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
     @Override
     public File computeBazelWorkspaceBin() {
         if (bazelBinDirectory == null) {
-            try {
-                List<String> argBuilder = new ArrayList<>();
-                argBuilder.add("info");
-                argBuilder.add("bazel-bin");
-
-                List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory,
-                    null, argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
-                outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
-                bazelBinDirectory = new File(String.join("", outputLines));
-                bazelBinDirectory = getCanonicalFileSafely(bazelBinDirectory);
-            } catch (Exception anyE) {
-                throw new IllegalStateException(anyE);
-            }
+            bazelBinDirectory = getInfoLocation(BazelWorkspaceInfoService.KEY_BAZEL_BIN);
         }
         return bazelBinDirectory;
     }
 
+    /**
+     * Keeps the <i>bazel info</i> values of the workspace in the passed directory, so that they do not need to be
+     * computed again after a restart.
+     */
+    public void enablePersistentWorkspaceInfo(File directory) {
+        workspaceInfoService.enablePersistence(directory);
+    }
+
+    /**
+     * Runs a cheap command (<i>bazel info server_pid</i>) that starts the Bazel server of the workspace if it is not
+     * running, and resets its idle timer if it is. The result is never cached. Returns the pid of the server, or null
+     * if Bazel did not print one.
+     */
+    public String pingBazelServer()
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        List<String> argBuilder = new ArrayList<>();
+        argBuilder.add("info");
+        argBuilder.add("server_pid");
+        List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
+            argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
+        outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
+        return outputLines.isEmpty() ? null : outputLines.get(0).trim();
+    }
+
+    /**
+     * Keeps the cached output of read-only commands in the passed directory, so that an unchanged workspace does not
+     * need to run them again after a restart.
+     */
+    public void enablePersistentCommandResultCache(File directory) {
+        commandResultCache.enablePersistence(directory);
+    }
+
+    /**
+     * The cache for the output of read-only commands (query, cquery, info) of this workspace.
+     */
+    public BazelCommandResultCache getCommandResultCache() {
+        return commandResultCache;
+    }
+
+    /**
+     * The service that answers the <i>bazel info</i> questions for this workspace.
+     */
+    public BazelWorkspaceInfoService getWorkspaceInfoService() {
+        return workspaceInfoService;
+    }
+
     /**
      * Returns the explicitly set options in the workspace config files (.bazelrc et al). This gathers the data from the
      * announce_rc option in Bazel.
@@ -362,30 +393,46 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      * Returns the list of targets found in the BUILD file for the given label. Uses Bazel Query to build the list. This
      * operation is cached internally, so repeated calls in the same label are cheap.
      * <p>
+     * Not synchronized, the query helper guards its cache itself, so that a background query that waits for the
+     * Bazel server (see {@link BazelServerWarmer}) does not block the other operations of this runner.
      *
      * @param labels
      *            the labels to query
      */
-    public synchronized Collection<BazelBuildFile> queryBazelTargetsInBuildFile(Collection<BazelLabel> labels)
+    public Collection<BazelBuildFile> queryBazelTargetsInBuildFile(Collection<BazelLabel> labels)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
         return bazelQueryHelper.queryBazelTargetsInBuildFile(bazelWorkspaceRootDirectory, labels);
     }
 
     /**
-     * Returns the list of source files that are used to build a target. Uses Bazel Query to build the list.
+     * Returns the list of source files that are used to build a target. Uses Bazel Query to build the list. Not
+     * synchronized, so that concurrent calls for the same target can share one query.
      */
-    public synchronized Collection<String> querySourceFilesForTarget(File bazelWorkspaceRootDirectory,
+    public Collection<String> querySourceFilesForTarget(File bazelWorkspaceRootDirectory,
             BazelLabel bazelLabel)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
         return bazelQueryHelper.querySourceFilesForTarget(bazelWorkspaceRootDirectory, bazelLabel);
     }
 
+    /**
+     * Returns the source files of each of the passed packages (//a/b:*), querying many packages with one Bazel
+     * command. Only the files owned by each package are returned.
+     */
+    public Map<BazelLabel, Collection<String>> querySourceFilesForPackages(File bazelWorkspaceRootDirectory,
+            Collection<BazelLabel> packageLabels)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        return bazelQueryHelper.querySourceFilesForPackages(bazelWorkspaceRootDirectory, packageLabels);
+    }
+
     /**
      * @param bazelPackageName
      *            the label path that identifies the package where the BUILD file lives (//projects/libs/foo)
      */
     public synchronized void flushQueryCache(BazelLabel bazelPackageLabel) {
         bazelQueryHelper.flushCache(bazelPackageLabel);
+        query = null;
+        // a BUILD file changed, the next lookup in the result cache must not trust the remembered stamp
+        commandResultCache.getWorkspaceFingerprint().invalidate();
     }
 
     /**
@@ -458,7 +505,7 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      *
      * @throws BazelCommandLineToolConfigurationException
      */
-    public synchronized Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfoForPackages(
+    public Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfoForPackages(
             Collection<BazelPackageLocation> targetPackages, String caller)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
         List<BazelLabel> targetLabels = new ArrayList<>();
@@ -487,31 +534,42 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      * @return Mapping of the requested label to its AspectTargetInfo instances
      * @throws BazelCommandLineToolConfigurationException
      */
-    public synchronized Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<String> targetLabels,
+    public Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<String> targetLabels,
             String caller) throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
+        return getAspectTargetInfos(targetLabels, caller, AspectOutputMode.FULL);
+    }
+
+    /**
+     * Same as {@link #getAspectTargetInfos(Collection, String)}, with a choice of what Bazel builds besides the aspect
+     * data. {@link AspectOutputMode#STRUCTURE} skips building the jars, which is enough to compute the project
+     * structure and order; the jars are built by the first full request for the targets, e.g. for a classpath.
+     */
+    public Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<String> targetLabels, String caller,
+            AspectOutputMode mode) throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+
         Collection<BazelLabel> labels = targetLabels.stream().map(BazelLabel::new).collect(Collectors.toList());
-        return aspectHelper.getAspectTargetInfos(labels, caller);
+        return aspectHelper.getAspectTargetInfos(labels, caller, mode);
     }
 
     /**
      * Clear the entire AspectTargetInfo cache. This flushes the dependency graph for the workspace.
      */
-    public synchronized void flushAspectInfoCache() {
+    public void flushAspectInfoCache() {
         aspectHelper.flushAspectInfoCache();
     }
 
     /**
      * Clear the AspectTargetInfo cache for the passed target. This flushes the dependency graph for that target.
      */
-    public synchronized void flushAspectInfoCache(String target) {
+    public void flushAspectInfoCache(String target) {
         aspectHelper.flushAspectInfoCache(new BazelLabel(target));
     }
 
     /**
      * Clear the AspectTargetInfo cache for the passed targets. This flushes the dependency graph for those targets.
      */
-    public synchronized void flushAspectInfoCache(Set<String> targets) {
+    public void flushAspectInfoCache(Set<String> targets) {
         Set<BazelLabel> labels = targets.stream().map(BazelLabel::new).collect(Collectors.toSet());
         aspectHelper.flushAspectInfoCache(labels);
     }
@@ -520,13 +578,83 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
      * Clear the AspectTargetInfo cache for the passed package. This flushes the dependency graph for any target that
      * contains the package name.
      */
-    public synchronized Set<String> flushAspectInfoCacheForPackage(String packageName) {
+    public Set<String> flushAspectInfoCacheForPackage(String packageName) {
         BazelLabel packageLabel = new BazelLabel(packageName);
         Set<BazelLabel> flushedPackages = aspectHelper.flushAspectInfoCacheForPackage(packageLabel);
         LOG.info("Flushed aspect cache for package: " + packageLabel);
         return flushedPackages.stream().map(BazelLabel::getPackagePath).collect(Collectors.toSet());
     }
 
+    /**
+     * Clear the AspectTargetInfo cache for the passed package, as {@link #flushAspectInfoCacheForPackage(String)} does,
+     * and run the aspect again for the flushed labels only. Returns the reloaded aspect data.
+     */
+    public Map<BazelLabel, Set<AspectTargetInfo>> reloadAspectInfoCacheForPackage(String packageName, String caller)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        return aspectHelper.reloadAspectInfoCacheForPackage(new BazelLabel(packageName), caller);
+    }
+
+    /**
+     * Enables the on disk cache of the AspectTargetInfo data, so that aspect results survive restarts. The cache file
+     * is written into the passed directory, which should be a metadata area owned by the tool.
+     */
+    public void enablePersistentAspectCache(File cacheDirectory) {
+        aspectHelper.enablePersistentCache(cacheDirectory);
+    }
+
+    /**
+     * Writes the on disk cache of the AspectTargetInfo data now. During a session it is written in the background, so
+     * the tool should call this when it shuts down.
+     */
+    public void savePersistentAspectCache() {
+        aspectHelper.savePersistentCache();
+    }
+
+    /**
+     * Makes the aspect write the compact data format instead of JSON, which is smaller and faster to load.
+     */
+    public void setCompactAspectFormat(boolean compactAspectFormat) {
+        aspectHelper.setCompactAspectFormat(compactAspectFormat);
+    }
+
+    /**
+     * Returns the hit, miss, invocation and size statistics of the AspectTargetInfo caches of this workspace.
+     */
+    public AspectCacheMetrics getAspectCacheMetrics() {
+        return aspectHelper.getCacheMetrics();
+    }
+
+    /**
+     * Makes the aspect runs read their output files from the Build Event Protocol instead of scraping stderr.
+     */
+    public void setBuildEventOutputs(boolean buildEventOutputs) {
+        aspectHelper.setBuildEventOutputs(buildEventOutputs);
+    }
+
+    /**
+     * Returns the scheduler that runs the Bazel commands of this workspace, which reports the queue depth and wait
+     * times of the commands.
+     */
+    public BazelCommandScheduler getCommandScheduler() {
+        return bazelCommandExecutor.getScheduler();
+    }
+
+    /**
+     * Returns the record of the recent Bazel commands of this workspace, which can be exported as JSON or CSV for
+     * performance bug reports.
+     */
+    public BazelCommandTelemetry getCommandTelemetry() {
+        return bazelCommandExecutor.getTelemetry();
+    }
+
+    /**
+     * Runs query commands on a second Bazel server with the passed output base, so that they do not wait for the
+     * builds of the workspace. The second server has its own caches. Pass null to disable.
+     */
+    public void setQueryOutputBase(File queryOutputBase) {
+        bazelCommandExecutor.getScheduler().setQueryOutputBase(queryOutputBase);
+    }
+
     /**
      * Access to the low level aspect collaborator. Visible for tests.
      */
@@ -583,14 +711,7 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
 
     public File getBazelGeneratedFilesFolder() {
         try {
-            List<String> argBuilder = new ArrayList<>();
-            argBuilder.add("info");
-            argBuilder.add("bazel-genfiles");
-
-            List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
-                argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
-            outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
-            return new File(String.join("", outputLines));
+            return workspaceInfoService.getLocation(BazelWorkspaceInfoService.KEY_BAZEL_GENFILES);
         } catch (Exception exc) {
             throw new IllegalStateException(exc);
         }
@@ -612,6 +733,17 @@ public class BazelWorkspaceCommandRunner implements BazelWorkspaceMetadataStrate
 
     // HELPERS
 
+    /**
+     * All locations come from a single <i>bazel info</i> invocation, see {@link BazelWorkspaceInfoService}.
+     */
+    private File getInfoLocation(String key) {
+        try {
+            return getCanonicalFileSafely(workspaceInfoService.getLocation(key));
+        } catch (Exception anyE) {
+            throw new IllegalStateException(anyE);
+        }
+    }
+
     private static class ErrorOutputSelector implements Function<String, String> {
 
         private boolean keep = false;
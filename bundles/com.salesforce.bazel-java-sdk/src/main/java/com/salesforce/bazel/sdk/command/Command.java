@@ -61,4 +61,27 @@ public interface Command {
      */
     BazelProcessBuilder getProcessBuilder();
 
+    /**
+     * Returns the priority the command was scheduled with.
+     *
+     * @see {@link CommandBuilder#setPriority(BazelCommandPriority)}
+     */
+    default BazelCommandPriority getPriority() {
+        return BazelCommandPriority.BUILD;
+    }
+
+    /**
+     * Returns the number of bytes the command wrote to the standard output stream, or -1 if it is not known.
+     */
+    default long getOutputByteCount() {
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes the command wrote to the standard error stream, or -1 if it is not known.
+     */
+    default long getErrorByteCount() {
+        return -1;
+    }
+
 }
\ No newline at end of file
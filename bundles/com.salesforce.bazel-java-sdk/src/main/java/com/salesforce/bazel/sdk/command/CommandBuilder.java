@@ -29,6 +29,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.salesforce.bazel.sdk.console.CommandConsoleFactory;
@@ -39,7 +40,8 @@ import com.salesforce.bazel.sdk.util.WorkProgressMonitor;
  * methods in BazelWorkspaceCommandRunner that will create the commands for you.
  * <p>
  * Specific implementations include the ShellCommandBuilder (which creates actual shell invocations) and the
- * MockCommandBuilder (for running functional tests that simulate shell invocations).
+ * MockCommandBuilder (for running functional tests that simulate shell invocations). The RecordingCommandBuilder
+ * captures the commands run by another builder, which the ReplayCommandBuilder of the test framework serves back.
  * <p>
  * As currently implemented, this class is not thread-safe. Meaning a single builder is stateful and can only build one
  * command object at a time. Invoking build() clears the state and makes the builder ready for the next command to
@@ -54,9 +56,12 @@ public abstract class CommandBuilder {
     protected OutputStream stderr = null;
     protected Function<String, String> stdoutSelector;
     protected Function<String, String> stderrSelector;
+    protected Consumer<String> stdoutLineConsumer;
+    protected Consumer<String> stderrLineConsumer;
     protected final CommandConsoleFactory consoleFactory;
     protected WorkProgressMonitor progressMonitor;
     protected long timeoutMS;
+    protected BazelCommandPriority priority;
 
     protected CommandBuilder(final CommandConsoleFactory consoleFactory) {
         this.consoleFactory = consoleFactory;
@@ -74,10 +79,13 @@ public abstract class CommandBuilder {
         this.stderr = null;
         this.stdoutSelector = null;
         this.stderrSelector = null;
+        this.stdoutLineConsumer = null;
+        this.stderrLineConsumer = null;
         this.progressMonitor = null;
 
         // TODO make Bazel command timeout configurable
         this.timeoutMS = 100000; // default timeout
+        this.priority = BazelCommandPriority.BUILD;
     }
 
     /**
@@ -172,6 +180,30 @@ public abstract class CommandBuilder {
         return this;
     }
 
+    /**
+     * Set a sink for the lines selected from the standard output stream, so that they can be processed while the
+     * program is still running.
+     *
+     * <p>
+     * Selected lines (see {@link #setStdoutLineSelector(Function)}, all lines are selected if there is no selector) are
+     * passed to the consumer one at a time, in order, as soon as they are complete. They are not stored, so
+     * {@link Command#getSelectedOutputLines()} stays empty and the memory needed does not grow with the output. The
+     * consumer is called on the thread that reads the output of the program.
+     */
+    public CommandBuilder setStdoutLineConsumer(Consumer<String> consumer) {
+        this.stdoutLineConsumer = consumer;
+        return this;
+    }
+
+    /**
+     * Set a sink for the lines selected from the standard error stream. See
+     * {@link #setStdoutLineConsumer(Consumer)}, {@link Command#getSelectedErrorLines()} stays empty.
+     */
+    public CommandBuilder setStderrLineConsumer(Consumer<String> consumer) {
+        this.stderrLineConsumer = consumer;
+        return this;
+    }
+
     /**
      * Provide an optional progress monitor.
      */
@@ -188,6 +220,18 @@ public abstract class CommandBuilder {
         return this;
     }
 
+    /**
+     * Set the priority of the command, which is {@link BazelCommandPriority#BUILD} by default.
+     */
+    public CommandBuilder setPriority(BazelCommandPriority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public CommandConsoleFactory getConsoleFactory() {
+        return consoleFactory;
+    }
+
     /**
      * Build a Command object.
      */
@@ -39,10 +39,14 @@ package com.salesforce.bazel.sdk.command.internal;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
 import com.salesforce.bazel.sdk.command.Command;
 import com.salesforce.bazel.sdk.command.CommandBuilder;
 import com.salesforce.bazel.sdk.logging.LogHelper;
@@ -50,12 +54,19 @@ import com.salesforce.bazel.sdk.util.WorkProgressMonitor;
 
 /**
  * Utility class that understands how to run Command objects and collect output from them.
+ * <p>
+ * Commands are not serialized by this class, they are handed to a {@link BazelCommandScheduler} which knows which
+ * commands conflict on the Bazel server lock. Each command is scheduled with the {@link BazelCommandPriority} of the
+ * calling thread, and is recorded in the {@link BazelCommandTelemetry} of the executor.
  */
 public class BazelCommandExecutor {
     static final LogHelper LOG = LogHelper.log(BazelCommandExecutor.class);
 
     private final File bazelExecutable;
     private final CommandBuilder commandBuilder;
+    private final BazelCommandScheduler scheduler = new BazelCommandScheduler();
+    private final BazelCommandTelemetry telemetry = new BazelCommandTelemetry();
+    private volatile BazelCommandResultCache resultCache = null;
     public static final long TIMEOUT_INFINITE = 0L;
 
     public BazelCommandExecutor(File bazelExecutable, CommandBuilder commandBuilder) {
@@ -63,62 +74,228 @@ public class BazelCommandExecutor {
         this.commandBuilder = commandBuilder;
     }
 
+    /**
+     * The Bazel executable that this executor launches.
+     */
+    File getBazelExecutable() {
+        return bazelExecutable;
+    }
+
+    /**
+     * The scheduler that runs the commands of this executor, for configuration and statistics.
+     */
+    public BazelCommandScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The record of the recent commands of this executor.
+     */
+    public BazelCommandTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Sets the cache that {@link #runReadOnlyBazelCommand(File, WorkProgressMonitor, List, long)} answers from, null
+     * turns caching off.
+     */
+    public void setResultCache(BazelCommandResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public BazelCommandResultCache getResultCache() {
+        return resultCache;
+    }
+
     // WHEN INTERESTING OUTPUT IS ON STDOUT...
 
-    public synchronized List<String> runBazelAndGetOutputLines(File workingDirectory,
-            WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector, long timeoutMS)
+    public List<String> runBazelAndGetOutputLines(File workingDirectory, WorkProgressMonitor progressMonitor,
+            List<String> args, Function<String, String> selector, long timeoutMS)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
-        CommandBuilder builder =
-                getConfiguredCommandBuilder(ConsoleType.WORKSPACE, workingDirectory, progressMonitor, args, timeoutMS);
-        Command command = builder.setStdoutLineSelector(selector).build();
-        command.run();
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(ConsoleType.WORKSPACE, workingDirectory,
+                    progressMonitor, laneArgs, timeoutMS, priority);
+                command = builder.setStdoutLineSelector(selector).build();
+            }
+            recording.run(command);
 
-        return command.getSelectedOutputLines();
+            return command.getSelectedOutputLines();
+        });
     }
 
-    public synchronized List<String> runBazelAndGetOuputLines(ConsoleType consoleType, File workingDirectory,
+    public List<String> runBazelAndGetOuputLines(ConsoleType consoleType, File workingDirectory,
             WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector, long timeoutMS)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
-        CommandBuilder builder =
-                getConfiguredCommandBuilder(consoleType, workingDirectory, progressMonitor, args, timeoutMS);
-        Command command = builder.setStdoutLineSelector(selector).build();
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(consoleType, workingDirectory, progressMonitor,
+                    laneArgs, timeoutMS, priority);
+                command = builder.setStdoutLineSelector(selector).build();
+            }
 
-        int exitCode = command.run();
-        if (exitCode == 0) {
-            return command.getSelectedOutputLines();
+            int exitCode = recording.run(command);
+            if (exitCode == 0) {
+                return command.getSelectedOutputLines();
+            }
+            LOG.error("Command [{}] failed with this exit code: {}", laneArgs, exitCode);
+            return new ArrayList<>();
+        });
+    }
+
+    /**
+     * Runs a command that does not change anything (query, cquery, info) and returns all of its stdout lines. If a
+     * {@link BazelCommandResultCache} is set and the workspace did not change since the same command last ran, the
+     * cached lines are returned without running Bazel. Failed commands are not cached. Callers that ask for the same
+     * command while it runs share its output, see
+     * {@link BazelCommandScheduler#coalesce(Object, BazelCommandScheduler.CoalescedWork)}.
+     */
+    public List<String> runReadOnlyBazelCommand(File workingDirectory, WorkProgressMonitor progressMonitor,
+            List<String> args, long timeoutMS)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+
+        if (!BazelCommandResultCache.isCacheable(args)) {
+            return runBazelAndGetOutputLines(workingDirectory, progressMonitor, args, t -> t, timeoutMS);
+        }
+        BazelCommandResultCache cache = resultCache;
+        if (cache != null) {
+            List<String> cachedLines = cache.get(args);
+            if (cachedLines != null) {
+                return new ArrayList<>(cachedLines);
+            }
         }
-        LOG.error("Command [{}] failed with this exit code: {}", args, exitCode);
-        return new ArrayList<>();
+
+        List<Object> coalesceKey = Arrays.asList("readOnly", workingDirectory, new ArrayList<>(args));
+        List<String> sharedLines = scheduler.coalesce(coalesceKey, () -> {
+            // taken before the command runs, so that a change made while it runs invalidates the entry
+            String fingerprint = (cache != null) ? cache.getWorkspaceFingerprint().getFingerprint() : null;
+
+            BazelCommandPriority priority = BazelCommandPriority.current();
+            BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+            return scheduler.schedule(args, priority, laneArgs -> {
+                Command command;
+                synchronized (commandBuilder) {
+                    CommandBuilder builder = getConfiguredCommandBuilder(ConsoleType.WORKSPACE, workingDirectory,
+                        progressMonitor, laneArgs, timeoutMS, priority);
+                    command = builder.setStdoutLineSelector(t -> t).build();
+                }
+                int exitCode = recording.run(command);
+                List<String> outputLines = Collections.unmodifiableList(command.getSelectedOutputLines());
+                if (exitCode != 0) {
+                    LOG.error("Command [{}] failed with this exit code: {}", laneArgs, exitCode);
+                } else if (cache != null) {
+                    cache.put(args, fingerprint, outputLines);
+                }
+                return outputLines;
+            });
+        });
+        // every caller gets its own copy of the shared output
+        return new ArrayList<>(sharedLines);
     }
 
     // WHEN INTERESTING OUTPUT IS ON STDERR...
 
-    public synchronized List<String> runBazelAndGetErrorLines(File directory, WorkProgressMonitor progressMonitor,
+    public List<String> runBazelAndGetErrorLines(File directory, WorkProgressMonitor progressMonitor,
             List<String> args, Function<String, String> selector, long timeoutMS)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
-        CommandBuilder builder =
-                getConfiguredCommandBuilder(ConsoleType.WORKSPACE, directory, progressMonitor, args, timeoutMS);
-        Command command = builder.setStderrLineSelector(selector).build();
-        command.run();
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(ConsoleType.WORKSPACE, directory,
+                    progressMonitor, laneArgs, timeoutMS, priority);
+                command = builder.setStderrLineSelector(selector).build();
+            }
+            recording.run(command);
 
-        return command.getSelectedErrorLines();
+            return command.getSelectedErrorLines();
+        });
     }
 
-    public synchronized List<String> runBazelAndGetErrorLines(ConsoleType consoleType, File directory,
+    public List<String> runBazelAndGetErrorLines(ConsoleType consoleType, File directory,
             WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector, long timeoutMS)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
-        CommandBuilder builder = getConfiguredCommandBuilder(consoleType, directory, progressMonitor, args, timeoutMS);
-        Command command = builder.setStderrLineSelector(selector).build();
-        int exitCode = command.run();
-        if (exitCode == 0) {
-            return command.getSelectedErrorLines();
-        }
-        LOG.error("Command [{}] failed with this exit code: {}", args, exitCode);
-        return new ArrayList<>();
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(consoleType, directory, progressMonitor, laneArgs,
+                    timeoutMS, priority);
+                command = builder.setStderrLineSelector(selector).build();
+            }
+            int exitCode = recording.run(command);
+            if (exitCode == 0) {
+                return command.getSelectedErrorLines();
+            }
+            LOG.error("Command [{}] failed with this exit code: {}", laneArgs, exitCode);
+            return new ArrayList<>();
+        });
+    }
+
+    // WHEN OUTPUT IS PROCESSED AS IT ARRIVES...
+
+    /**
+     * Runs the command and passes the stdout lines picked by the selector (all lines if the selector is null) to the
+     * consumer while the command runs, without collecting them. Returns the exit code of the command.
+     */
+    public int runBazelAndStreamOutputLines(ConsoleType consoleType, File workingDirectory,
+            WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector,
+            Consumer<String> lineConsumer, long timeoutMS)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(consoleType, workingDirectory, progressMonitor,
+                    laneArgs, timeoutMS, priority);
+                command = builder.setStdoutLineSelector(selector).setStdoutLineConsumer(lineConsumer).build();
+            }
+            int exitCode = recording.run(command);
+            if (exitCode != 0) {
+                LOG.error("Command [{}] failed with this exit code: {}", laneArgs, exitCode);
+            }
+            return exitCode;
+        });
+    }
+
+    /**
+     * Runs the command and passes the stderr lines picked by the selector (all lines if the selector is null) to the
+     * consumer while the command runs, without collecting them. Returns the exit code of the command.
+     */
+    public int runBazelAndStreamErrorLines(ConsoleType consoleType, File directory,
+            WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector,
+            Consumer<String> lineConsumer, long timeoutMS)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        BazelCommandTelemetry.Recording recording = telemetry.start(args, priority);
+        return scheduler.schedule(args, priority, laneArgs -> {
+            Command command;
+            synchronized (commandBuilder) {
+                CommandBuilder builder = getConfiguredCommandBuilder(consoleType, directory, progressMonitor,
+                    laneArgs, timeoutMS, priority);
+                command = builder.setStderrLineSelector(selector).setStderrLineConsumer(lineConsumer).build();
+            }
+            int exitCode = recording.run(command);
+            if (exitCode != 0) {
+                LOG.error("Command [{}] failed with this exit code: {}", laneArgs, exitCode);
+            }
+            return exitCode;
+        });
     }
 
     // HELPERS
@@ -139,14 +316,18 @@ public class BazelCommandExecutor {
 
     // INTERNAL
 
+    /**
+     * Configures the shared command builder. The builder is stateful, so callers hold its monitor until build().
+     */
     private CommandBuilder getConfiguredCommandBuilder(ConsoleType type, File directory,
-            WorkProgressMonitor progressMonitor, List<String> args, long timeoutMS)
+            WorkProgressMonitor progressMonitor, List<String> args, long timeoutMS, BazelCommandPriority priority)
             throws BazelCommandLineToolConfigurationException {
 
         String consoleName = type.getConsoleName(directory);
 
         return commandBuilder.setConsoleName(consoleName).setDirectory(directory).setTimeout(timeoutMS)
-                .addArguments(bazelExecutable.getAbsolutePath()).addArguments(args).setProgressMonitor(progressMonitor);
+                .addArguments(bazelExecutable.getAbsolutePath()).addArguments(args).setProgressMonitor(progressMonitor)
+                .setPriority(priority);
     }
 
 }
@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Caches the output of read-only Bazel commands (query, cquery, info) for a workspace. An entry is keyed by the
+ * argument list of the command, and is only valid as long as the {@link BazelWorkspaceFingerprint} of the workspace is
+ * the same as when the command ran. The least recently used entries are evicted once the cache holds
+ * {@link #setMaxEntries(int) max entries}.
+ * <p>
+ * If persistence is enabled with {@link #enablePersistence(File)}, the entries are also written to disk, so that after
+ * a restart an unchanged workspace does not need to run the commands again. The file is written by a background thread,
+ * and the entries added while it writes are persisted together by its next write.
+ */
+public class BazelCommandResultCache {
+    private static final LogHelper LOG = LogHelper.log(BazelCommandResultCache.class);
+
+    /**
+     * Default file name for the persisted entries, within the directory provided by the tool.
+     */
+    public static final String CACHE_FILENAME = "bzljavasdk-command-cache.json";
+
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+
+    private static final Set<String> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList("query", "cquery", "info"));
+
+    // bump this if the layout of the file changes
+    private static final long FORMAT_VERSION = 1;
+
+    // writes the persisted copies of all caches, so that a command does not wait for the file to be rewritten
+    private static final ThreadPoolExecutor persistExecutor =
+            new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "BazelCommandResultCachePersist");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        persistExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final File bazelWorkspaceRootDirectory;
+    private final BazelWorkspaceFingerprint workspaceFingerprint;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private File cacheFile = null;
+
+    /**
+     * The cached results, key=command args; in access order so that the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<List<String>, CachedResult> results = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, CachedResult> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private int hitCount = 0;
+    private int missCount = 0;
+
+    // entries changed since the persist thread last took a snapshot
+    private boolean persistPending = false;
+    private boolean persistScheduled = false;
+    // bumped by invalidate(), a write of an older snapshot must not replace the deleted file
+    private int persistGeneration = 0;
+
+    public BazelCommandResultCache(File bazelWorkspaceRootDirectory) {
+        this(bazelWorkspaceRootDirectory, new BazelWorkspaceFingerprint(bazelWorkspaceRootDirectory));
+    }
+
+    public BazelCommandResultCache(File bazelWorkspaceRootDirectory, BazelWorkspaceFingerprint workspaceFingerprint) {
+        this.bazelWorkspaceRootDirectory = bazelWorkspaceRootDirectory;
+        this.workspaceFingerprint = workspaceFingerprint;
+    }
+
+    /**
+     * Answers true if the command does not change anything, and so its output only depends on the state of the
+     * workspace.
+     */
+    public static boolean isCacheable(List<String> args) {
+        for (String arg : args) {
+            if (!arg.startsWith("-")) {
+                return READ_ONLY_COMMANDS.contains(arg);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The stamp of the workspace that the entries are checked against.
+     */
+    public BazelWorkspaceFingerprint getWorkspaceFingerprint() {
+        return workspaceFingerprint;
+    }
+
+    /**
+     * Persists the entries in the passed directory, and loads the entries persisted there by an earlier session.
+     */
+    public synchronized void enablePersistence(File directory) {
+        cacheFile = new File(directory, CACHE_FILENAME);
+        LOG.info("Persistent command result cache enabled at {}", cacheFile.getAbsolutePath());
+        readPersisted();
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one entry, was " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        while (results.size() > maxEntries) {
+            results.remove(results.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Returns the cached output lines of the command, or null if there is no entry for the command or the workspace
+     * changed since the entry was added.
+     */
+    public List<String> get(List<String> args) {
+        // computed before taking the lock, it may walk the workspace
+        String fingerprint = workspaceFingerprint.getFingerprint();
+        synchronized (this) {
+            CachedResult result = results.get(args);
+            if ((result != null) && !result.fingerprint.equals(fingerprint)) {
+                results.remove(args);
+                result = null;
+            }
+            if (result == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            LOG.debug("Command result cache hit for {}", args);
+            return result.outputLines;
+        }
+    }
+
+    /**
+     * Adds the output lines of a command. The fingerprint must be the one obtained before the command ran, so that a
+     * change made while the command was running is not hidden.
+     */
+    public synchronized void put(List<String> args, String fingerprint, List<String> outputLines) {
+        results.put(Collections.unmodifiableList(new ArrayList<>(args)),
+            new CachedResult(fingerprint, Collections.unmodifiableList(new ArrayList<>(outputLines))));
+        schedulePersist();
+    }
+
+    /**
+     * Forgets all entries, and deletes the persisted copy.
+     */
+    public synchronized void invalidate() {
+        results.clear();
+        persistPending = false;
+        persistGeneration++;
+        if ((cacheFile != null) && cacheFile.exists() && !cacheFile.delete()) {
+            LOG.info("Could not delete the persisted command result cache {}", cacheFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Waits until the entries have been written to disk.
+     */
+    synchronized void waitForPersist() throws InterruptedException {
+        while (persistScheduled) {
+            wait();
+        }
+    }
+
+    public synchronized int getSize() {
+        return results.size();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    // INTERNALS
+
+    private static class CachedResult {
+        final String fingerprint;
+        final List<String> outputLines;
+
+        CachedResult(String fingerprint, List<String> outputLines) {
+            this.fingerprint = fingerprint;
+            this.outputLines = outputLines;
+        }
+    }
+
+    private void readPersisted() {
+        if ((cacheFile == null) || !cacheFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+            JSONObject rootObject = (JSONObject) new JSONParser().parse(reader);
+            Object format = rootObject.get("format");
+            if (!(format instanceof Long) || ((Long) format != FORMAT_VERSION)
+                    || !bazelWorkspaceRootDirectory.getAbsolutePath().equals(rootObject.get("workspace"))) {
+                LOG.info("Persisted command result cache {} is for a different workspace or format, ignoring it.",
+                    cacheFile.getAbsolutePath());
+                return;
+            }
+            // stale entries are kept, they are dropped when they are looked up
+            JSONArray entriesArray = (JSONArray) rootObject.get("entries");
+            for (Object entryObject : entriesArray) {
+                JSONObject entry = (JSONObject) entryObject;
+                List<String> args = toStringList((JSONArray) entry.get("args"));
+                List<String> outputLines = toStringList((JSONArray) entry.get("lines"));
+                results.put(Collections.unmodifiableList(args),
+                    new CachedResult((String) entry.get("fingerprint"), Collections.unmodifiableList(outputLines)));
+            }
+            LOG.info("Loaded {} command results from {}", results.size(), cacheFile.getAbsolutePath());
+        } catch (Exception anyE) {
+            // a corrupt file is not fatal, the commands just run again
+            LOG.error("Could not read the persisted command result cache {}, ignoring it.", anyE,
+                cacheFile.getAbsolutePath());
+            results.clear();
+        }
+    }
+
+    private static List<String> toStringList(JSONArray array) {
+        List<String> strings = new ArrayList<>(array.size());
+        for (Object element : array) {
+            strings.add((String) element);
+        }
+        return strings;
+    }
+
+    private void schedulePersist() {
+        if (cacheFile == null) {
+            return;
+        }
+        persistPending = true;
+        if (!persistScheduled) {
+            persistScheduled = true;
+            persistExecutor.execute(this::writePersisted);
+        }
+    }
+
+    /**
+     * Runs on the persist thread. The snapshot is taken under the cache lock, the file is written without it.
+     */
+    private void writePersisted() {
+        while (true) {
+            JSONObject rootObject;
+            File file;
+            int generation;
+            synchronized (this) {
+                if (!persistPending || (cacheFile == null)) {
+                    persistScheduled = false;
+                    notifyAll();
+                    return;
+                }
+                persistPending = false;
+                rootObject = toJSON();
+                file = cacheFile;
+                generation = persistGeneration;
+            }
+
+            // write to a temp file and then move it into place, so that a crash mid-write can't corrupt the file
+            File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+            try {
+                file.getParentFile().mkdirs();
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                    rootObject.writeJSONString(writer);
+                }
+                synchronized (this) {
+                    if (generation == persistGeneration) {
+                        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } else {
+                        tempFile.delete();
+                    }
+                }
+            } catch (IOException ioe) {
+                LOG.error("Could not write the persisted command result cache {}", ioe, file.getAbsolutePath());
+            }
+        }
+    }
+
+    private JSONObject toJSON() {
+        // in access order, so that the recency survives a restart
+        JSONArray entriesArray = new JSONArray();
+        for (Map.Entry<List<String>, CachedResult> result : results.entrySet()) {
+            JSONObject entry = new JSONObject();
+            JSONArray argsArray = new JSONArray();
+            argsArray.addAll(result.getKey());
+            JSONArray linesArray = new JSONArray();
+            linesArray.addAll(result.getValue().outputLines);
+            entry.put("args", argsArray);
+            entry.put("fingerprint", result.getValue().fingerprint);
+            entry.put("lines", linesArray);
+            entriesArray.add(entry);
+        }
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("format", FORMAT_VERSION);
+        rootObject.put("workspace", bazelWorkspaceRootDirectory.getAbsolutePath());
+        rootObject.put("entries", entriesArray);
+        return rootObject;
+    }
+}
@@ -0,0 +1,456 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Schedules the Bazel commands of a workspace according to the Bazel server lock they need. A command waits for its
+ * lane, and then runs, on the thread of its caller, so a burst of waiting commands does not cost more threads than
+ * callers.
+ * <p>
+ * The Bazel server of an output base runs one command at a time, and a client that finds the server busy blocks
+ * without telling us why. So commands are not handed to Bazel until their lane is free: all commands of the workspace
+ * output base share one lane and run one after another. Waiting commands run in the order of their
+ * {@link BazelCommandPriority}, and in the order they were scheduled within a priority, so queued background work is
+ * postponed whenever an interactive request arrives. Queued background work can also be cancelled, either explicitly
+ * with {@link #cancelQueued(BazelCommandPriority)} or each time an interactive command has to wait, see
+ * {@link #setCancelBackgroundOnInteractive(boolean)}. A command that is already running is never cancelled by this
+ * class. If a secondary output base
+ * is configured with {@link #setQueryOutputBase(File)}, query commands are redirected to it and get their own lane, so
+ * that a cheap query does not wait behind a long build. The secondary Bazel server has its own caches, which makes
+ * the first query on it slower; that is why the redirect is off by default.
+ * <p>
+ * Concurrent callers that need the same result can share one run with {@link #coalesce(Object, CoalescedWork)},
+ * instead of each starting a Bazel process that waits for the previous one.
+ * <p>
+ * The queue depth and the time commands spend waiting for their lane are tracked for diagnostics.
+ */
+public class BazelCommandScheduler {
+    private static final LogHelper LOG = LogHelper.log(BazelCommandScheduler.class);
+
+    static final String OUTPUT_BASE_OPTION = "--output_base=";
+
+    // Bazel commands that may run on the secondary output base
+    private static final String QUERY_COMMAND = "query";
+
+    /**
+     * The work to run once the lane is free. The passed arguments are the Bazel arguments to use, which may have been
+     * adjusted for the lane.
+     */
+    public interface CommandTask<T> {
+        T run(List<String> laneArgs)
+                throws IOException, InterruptedException, BazelCommandLineToolConfigurationException;
+    }
+
+    /**
+     * Work that may be shared by concurrent callers, see {@link #coalesce(Object, CoalescedWork)}.
+     */
+    public interface CoalescedWork<T> {
+        T run() throws IOException, InterruptedException, BazelCommandLineToolConfigurationException;
+    }
+
+    private final Lane serverLane = new Lane("server");
+    private final Lane queryLane = new Lane("query");
+    private volatile File queryOutputBase = null;
+    private volatile boolean cancelBackgroundOnInteractive = false;
+    private final AtomicLong ticketSequence = new AtomicLong();
+    // key is the coalesce key and the priority of the caller that runs the work
+    private final ConcurrentHashMap<List<Object>, CompletableFuture<Object>> inFlightRuns = new ConcurrentHashMap<>();
+
+    private final AtomicInteger runningCount = new AtomicInteger();
+    private final LongAdder scheduledCount = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAccumulator maxWaitMillis = new LongAccumulator(Long::max, 0L);
+    private final LongAdder cancelledCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    // CONFIG
+
+    /**
+     * Redirects query commands to a second Bazel server with the passed output base, so that they can run alongside
+     * the builds of the workspace. Pass null to run queries on the workspace output base again.
+     */
+    public void setQueryOutputBase(File queryOutputBase) {
+        this.queryOutputBase = queryOutputBase;
+    }
+
+    public File getQueryOutputBase() {
+        return queryOutputBase;
+    }
+
+    /**
+     * If enabled, the background commands waiting in a lane are cancelled when an interactive command is scheduled on
+     * it and cannot run right away. The cancelled commands fail with a {@link CancellationException}, and it is up to
+     * their callers to schedule the work again later. When disabled (the default), background commands are only
+     * postponed.
+     */
+    public void setCancelBackgroundOnInteractive(boolean cancelBackgroundOnInteractive) {
+        this.cancelBackgroundOnInteractive = cancelBackgroundOnInteractive;
+    }
+
+    public boolean isCancelBackgroundOnInteractive() {
+        return cancelBackgroundOnInteractive;
+    }
+
+    // SCHEDULING
+
+    /**
+     * Runs the task with the priority of the calling thread, see {@link BazelCommandPriority#current()}.
+     */
+    public <T> T schedule(List<String> args, CommandTask<T> task)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        return schedule(args, BazelCommandPriority.current(), task);
+    }
+
+    /**
+     * Runs the task on the calling thread once the lane of the Bazel command is free and no more urgent command is
+     * waiting for it. If the calling thread is interrupted while it waits, the task is withdrawn from the lane. If the
+     * task is cancelled while it waits for the lane, a {@link CancellationException} is thrown.
+     */
+    public <T> T schedule(List<String> args, BazelCommandPriority priority, CommandTask<T> task)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        File outputBase = queryOutputBase;
+        boolean redirect = (outputBase != null) && QUERY_COMMAND.equals(getBazelCommand(args));
+        Lane lane = redirect ? queryLane : serverLane;
+        List<String> laneArgs = args;
+        if (redirect) {
+            // the output base is a startup option, it goes before the command
+            laneArgs = new ArrayList<>(args.size() + 1);
+            laneArgs.add(OUTPUT_BASE_OPTION + outputBase.getAbsolutePath());
+            laneArgs.addAll(args);
+        }
+        long scheduledTimeMS = System.currentTimeMillis();
+        scheduledCount.increment();
+
+        Ticket ticket = new Ticket(priority, ticketSequence.incrementAndGet());
+        boolean mustWait = lane.enqueue(ticket);
+        if (mustWait && (priority == BazelCommandPriority.INTERACTIVE) && cancelBackgroundOnInteractive) {
+            int cancelled = lane.cancelWaiting(BazelCommandPriority.BACKGROUND);
+            if (cancelled > 0) {
+                cancelledCount.add(cancelled);
+                LOG.info("Cancelled {} queued background Bazel commands in favor of {}", cancelled, laneArgs);
+            }
+        }
+
+        lane.acquire(ticket);
+        try {
+            long waitMillis = System.currentTimeMillis() - scheduledTimeMS;
+            totalWaitMillis.add(waitMillis);
+            maxWaitMillis.accumulate(waitMillis);
+            if (waitMillis > 1000) {
+                LOG.info("Bazel command {} waited {} millis for the {} lane ({})", laneArgs, waitMillis, lane.name,
+                    priority);
+            }
+            runningCount.incrementAndGet();
+            try {
+                return task.run(laneArgs);
+            } finally {
+                runningCount.decrementAndGet();
+            }
+        } finally {
+            lane.release();
+        }
+    }
+
+    /**
+     * Runs the work, unless work with an equal key is already in flight, in which case the caller waits for that work
+     * and gets its result (or its failure) instead. The key must capture everything the result depends on, typically
+     * the Bazel arguments and how the output is turned into the result. The result object is shared by all callers of
+     * a coalesced run, so it must not be modified by them.
+     * <p>
+     * A caller only attaches to a run of its own priority (see {@link BazelCommandPriority#current()}) or a more urgent
+     * one, so that an interactive request is never held up by an identical background run that is still queued behind
+     * other work.
+     * <p>
+     * If the run that a caller attached to was cancelled while waiting for its lane (see
+     * {@link #cancelQueued(BazelCommandPriority)}), the caller runs the work itself.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T coalesce(Object key, CoalescedWork<T> work)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        BazelCommandPriority priority = BazelCommandPriority.current();
+        while (true) {
+            CompletableFuture<Object> inFlightRun = null;
+            for (BazelCommandPriority runPriority : BazelCommandPriority.values()) {
+                if ((inFlightRun != null) || (runPriority.compareTo(priority) > 0)) {
+                    break;
+                }
+                inFlightRun = inFlightRuns.get(Arrays.asList(key, runPriority));
+            }
+            if (inFlightRun == null) {
+                List<Object> ownKey = Arrays.asList(key, priority);
+                CompletableFuture<Object> ownRun = new CompletableFuture<>();
+                inFlightRun = inFlightRuns.putIfAbsent(ownKey, ownRun);
+                if (inFlightRun == null) {
+                    try {
+                        T result = work.run();
+                        ownRun.complete(result);
+                        return result;
+                    } catch (Throwable anyT) {
+                        ownRun.completeExceptionally(anyT);
+                        throw anyT;
+                    } finally {
+                        inFlightRuns.remove(ownKey, ownRun);
+                    }
+                }
+            }
+            coalescedCount.increment();
+            LOG.debug("Coalescing Bazel work {} with the run in flight", key);
+            try {
+                return (T) inFlightRun.get();
+            } catch (ExecutionException ee) {
+                if (ee.getCause() instanceof CancellationException) {
+                    // not coalesced after all
+                    coalescedCount.decrement();
+                    LOG.info("Coalesced Bazel work {} was cancelled, running it again", key);
+                    continue;
+                }
+                throw rethrowCause(ee);
+            }
+        }
+    }
+
+    /**
+     * Cancels the commands of the passed priority that are waiting for a lane. Their callers get a
+     * {@link CancellationException}. Commands that are already running are not affected.
+     *
+     * @return the number of cancelled commands
+     */
+    public int cancelQueued(BazelCommandPriority priority) {
+        int cancelled = serverLane.cancelWaiting(priority) + queryLane.cancelWaiting(priority);
+        if (cancelled > 0) {
+            cancelledCount.add(cancelled);
+            LOG.info("Cancelled {} queued {} Bazel commands", cancelled, priority);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Returns the Bazel command (e.g. build, query) of the arguments, which is the first argument that is not a
+     * startup option. Returns null if there is none.
+     */
+    static String getBazelCommand(List<String> args) {
+        for (String arg : args) {
+            if (!arg.startsWith("-")) {
+                return arg;
+            }
+        }
+        return null;
+    }
+
+    // STATISTICS
+
+    /**
+     * The number of commands that are waiting for their lane.
+     */
+    public int getQueueDepth() {
+        return serverLane.getWaitingCount(null) + queryLane.getWaitingCount(null);
+    }
+
+    /**
+     * The number of commands of the passed priority that are waiting for their lane.
+     */
+    public int getQueueDepth(BazelCommandPriority priority) {
+        return serverLane.getWaitingCount(priority) + queryLane.getWaitingCount(priority);
+    }
+
+    public int getRunningCount() {
+        return runningCount.get();
+    }
+
+    public long getScheduledCount() {
+        return scheduledCount.sum();
+    }
+
+    public long getTotalWaitMillis() {
+        return totalWaitMillis.sum();
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.sum();
+    }
+
+    /**
+     * The number of calls that got the result of an identical run in flight instead of running Bazel themselves.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "queueDepth=" + getQueueDepth() + " running=" + getRunningCount() + " scheduled="
+                + getScheduledCount() + " totalWaitMillis=" + getTotalWaitMillis() + " maxWaitMillis="
+                + getMaxWaitMillis() + " cancelled=" + getCancelledCount() + " coalesced=" + getCoalescedCount();
+    }
+
+    // INTERNAL
+
+    private static RuntimeException rethrowCause(ExecutionException ee)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        Throwable cause = ee.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+        }
+        if (cause instanceof BazelCommandLineToolConfigurationException) {
+            throw (BazelCommandLineToolConfigurationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * A place in the queue of a lane.
+     */
+    private static class Ticket {
+        private final BazelCommandPriority priority;
+        private final long sequence;
+        // guarded by the lane
+        private boolean cancelled = false;
+
+        Ticket(BazelCommandPriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Ticket> TICKET_ORDER =
+            Comparator.comparing((Ticket ticket) -> ticket.priority).thenComparingLong(ticket -> ticket.sequence);
+
+    /**
+     * Runs one command at a time, the most urgent first and in the order the commands arrived within a priority.
+     */
+    private static class Lane {
+        private final String name;
+        private final PriorityQueue<Ticket> waiting = new PriorityQueue<>(TICKET_ORDER);
+        private boolean busy = false;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Queues the ticket and returns true if it will have to wait.
+         */
+        synchronized boolean enqueue(Ticket ticket) {
+            boolean mustWait = busy || !waiting.isEmpty();
+            waiting.add(ticket);
+            return mustWait;
+        }
+
+        synchronized void acquire(Ticket ticket) throws InterruptedException {
+            try {
+                while (!ticket.cancelled && (busy || (waiting.peek() != ticket))) {
+                    wait();
+                }
+            } catch (InterruptedException ie) {
+                withdraw(ticket);
+                throw ie;
+            }
+            if (ticket.cancelled) {
+                throw new CancellationException(
+                        "The " + ticket.priority + " Bazel command was cancelled before it could run.");
+            }
+            waiting.poll();
+            busy = true;
+        }
+
+        synchronized void withdraw(Ticket ticket) {
+            ticket.cancelled = true;
+            if (waiting.remove(ticket)) {
+                // the next waiter may be at the head now
+                notifyAll();
+            }
+        }
+
+        synchronized int cancelWaiting(BazelCommandPriority priority) {
+            int cancelled = 0;
+            for (Iterator<Ticket> it = waiting.iterator(); it.hasNext();) {
+                Ticket ticket = it.next();
+                if (ticket.priority == priority) {
+                    ticket.cancelled = true;
+                    it.remove();
+                    cancelled++;
+                }
+            }
+            if (cancelled > 0) {
+                notifyAll();
+            }
+            return cancelled;
+        }
+
+        synchronized void release() {
+            busy = false;
+            notifyAll();
+        }
+
+        /**
+         * The number of waiting commands of the passed priority, or of all priorities if null.
+         */
+        synchronized int getWaitingCount(BazelCommandPriority priority) {
+            if (priority == null) {
+                return waiting.size();
+            }
+            int count = 0;
+            for (Ticket ticket : waiting) {
+                if (ticket.priority == priority) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+import com.salesforce.bazel.sdk.command.Command;
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Keeps a record of the most recent Bazel commands of a workspace: what ran, who asked for it, how long it waited for
+ * its lane and ran, how it exited and how much output it wrote. The records are held in a bounded ring, the oldest
+ * record is dropped once {@link #setCapacity(int) capacity} records are held.
+ * <p>
+ * The records can be exported as JSON or CSV with {@link #exportJson()}, {@link #exportCsv()} or
+ * {@link #writeReport(File)}, to be attached to performance bug reports.
+ */
+public class BazelCommandTelemetry {
+    private static final LogHelper LOG = LogHelper.log(BazelCommandTelemetry.class);
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    /**
+     * The exit code recorded for a command that did not finish, because it failed to start or was interrupted.
+     */
+    public static final int EXIT_CODE_NOT_FINISHED = -1;
+
+    static final String CSV_HEADER = "timestamp,verb,targetCount,priority,queueWaitMillis,executionMillis,exitCode,"
+            + "stdoutBytes,stderrBytes,caller";
+
+    // every command is asked for through the runner, query helper, aspect processor etc of this package, so the
+    // caller is the first frame outside of it
+    private static final String PLUMBING_PACKAGE_PREFIX = "com.salesforce.bazel.sdk.command.";
+
+    private static final String TARGET_PATTERN_FILE_OPTION = "--target_pattern_file=";
+
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+    private int capacity = DEFAULT_CAPACITY;
+    private long recordedCount = 0;
+
+    // CONFIG
+
+    /**
+     * Sets the number of records to keep. Zero turns the recording off.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative, was " + capacity);
+        }
+        this.capacity = capacity;
+        while (records.size() > capacity) {
+            records.removeFirst();
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    // RECORDING
+
+    /**
+     * Starts the record of a command, before it is scheduled. The calling thread must be the thread that asked for
+     * the command, as the caller is taken from its stack. The targets are counted now, while a target pattern file of
+     * the command still exists.
+     */
+    public Recording start(List<String> args, BazelCommandPriority priority) {
+        return new Recording(args, countTargets(args), priority, findCaller());
+    }
+
+    synchronized void add(Record record) {
+        recordedCount++;
+        if (capacity == 0) {
+            return;
+        }
+        if (records.size() >= capacity) {
+            records.removeFirst();
+        }
+        records.addLast(record);
+    }
+
+    /**
+     * Returns the held records, the oldest first.
+     */
+    public synchronized List<Record> getRecords() {
+        return new ArrayList<>(records);
+    }
+
+    /**
+     * The number of commands recorded since this instance was created, including those that were dropped from the
+     * ring.
+     */
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    public synchronized void clear() {
+        records.clear();
+    }
+
+    // EXPORT
+
+    /**
+     * Returns the held records as a JSON array of objects, the oldest first.
+     */
+    @SuppressWarnings("unchecked")
+    public String exportJson() {
+        JSONArray recordsArray = new JSONArray();
+        for (Record record : getRecords()) {
+            JSONObject recordObject = new JSONObject();
+            recordObject.put("timestamp", record.timestampMS);
+            recordObject.put("verb", record.verb);
+            recordObject.put("targetCount", record.targetCount);
+            recordObject.put("priority", record.priority.name());
+            recordObject.put("queueWaitMillis", record.queueWaitMS);
+            recordObject.put("executionMillis", record.executionMS);
+            recordObject.put("exitCode", record.exitCode);
+            recordObject.put("stdoutBytes", record.stdoutBytes);
+            recordObject.put("stderrBytes", record.stderrBytes);
+            recordObject.put("caller", record.caller);
+            recordsArray.add(recordObject);
+        }
+        return recordsArray.toJSONString();
+    }
+
+    /**
+     * Returns the held records as CSV with a header line, the oldest first.
+     */
+    public String exportCsv() {
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append("\n");
+        for (Record record : getRecords()) {
+            csv.append(record.timestampMS).append(',');
+            csv.append(csvField(record.verb)).append(',');
+            csv.append(record.targetCount).append(',');
+            csv.append(record.priority.name()).append(',');
+            csv.append(record.queueWaitMS).append(',');
+            csv.append(record.executionMS).append(',');
+            csv.append(record.exitCode).append(',');
+            csv.append(record.stdoutBytes).append(',');
+            csv.append(record.stderrBytes).append(',');
+            csv.append(csvField(record.caller)).append("\n");
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Writes the held records to the file, as CSV if the file name ends with <i>.csv</i> and as JSON otherwise.
+     */
+    public void writeReport(File reportFile) throws IOException {
+        String report = reportFile.getName().endsWith(".csv") ? exportCsv() : exportJson();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            writer.write(report);
+        }
+        LOG.info("Wrote the telemetry of {} Bazel commands to {}", getRecords().size(), reportFile.getAbsolutePath());
+    }
+
+    // INTERNAL
+
+    /**
+     * Returns the number of target patterns in the arguments of the command. Query expressions can name several
+     * patterns in one argument, so the label roots are counted. The patterns of a --target_pattern_file are the lines
+     * of the file.
+     */
+    static int countTargets(List<String> args) {
+        int count = 0;
+        boolean verbSeen = false;
+        for (String arg : args) {
+            if (arg.startsWith(TARGET_PATTERN_FILE_OPTION)) {
+                count += countTargetPatternLines(new File(arg.substring(TARGET_PATTERN_FILE_OPTION.length())));
+                continue;
+            }
+            if (arg.startsWith("-")) {
+                continue;
+            }
+            if (!verbSeen) {
+                verbSeen = true;
+                continue;
+            }
+            for (int index = arg.indexOf("//"); index >= 0; index = arg.indexOf("//", index + 2)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countTargetPatternLines(File patternFile) {
+        try {
+            // same as Bazel, blank lines and # comments are not patterns
+            return (int) Files.readAllLines(patternFile.toPath(), StandardCharsets.UTF_8).stream().map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#")).count();
+        } catch (IOException ioe) {
+            LOG.debug("Could not count the targets in pattern file {}", patternFile.getAbsolutePath());
+            return 0;
+        }
+    }
+
+    private static String findCaller() {
+        Optional<StackWalker.StackFrame> callerFrame = STACK_WALKER.walk(frames -> frames
+                .filter(frame -> !frame.getClassName().startsWith(PLUMBING_PACKAGE_PREFIX)).findFirst());
+        if (callerFrame.isEmpty()) {
+            return "";
+        }
+        String className = callerFrame.get().getClassName();
+        return className.substring(className.lastIndexOf('.') + 1) + "." + callerFrame.get().getMethodName();
+    }
+
+    private static String csvField(String value) {
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0)) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * A command that has been scheduled. Run the command with {@link #run(Command)} from the scheduled task, which
+     * adds the record once the command is done.
+     */
+    public class Recording {
+        private final List<String> args;
+        private final int targetCount;
+        private final BazelCommandPriority priority;
+        private final String caller;
+        private final long scheduledTimeMS = System.currentTimeMillis();
+
+        Recording(List<String> args, int targetCount, BazelCommandPriority priority, String caller) {
+            this.args = args;
+            this.targetCount = targetCount;
+            this.priority = priority;
+            this.caller = caller;
+        }
+
+        public int run(Command command) throws IOException, InterruptedException {
+            long startTimeMS = System.currentTimeMillis();
+            int exitCode = EXIT_CODE_NOT_FINISHED;
+            try {
+                exitCode = command.run();
+                return exitCode;
+            } finally {
+                long endTimeMS = System.currentTimeMillis();
+                add(new Record(scheduledTimeMS, BazelCommandScheduler.getBazelCommand(args), targetCount,
+                        priority, startTimeMS - scheduledTimeMS, endTimeMS - startTimeMS, exitCode,
+                        command.getOutputByteCount(), command.getErrorByteCount(), caller));
+            }
+        }
+    }
+
+    /**
+     * The telemetry of one Bazel command. Byte counts are -1 if the command does not know them.
+     */
+    public static class Record {
+        public final long timestampMS;
+        public final String verb;
+        public final int targetCount;
+        public final BazelCommandPriority priority;
+        public final long queueWaitMS;
+        public final long executionMS;
+        public final int exitCode;
+        public final long stdoutBytes;
+        public final long stderrBytes;
+        public final String caller;
+
+        public Record(long timestampMS, String verb, int targetCount, BazelCommandPriority priority, long queueWaitMS,
+                long executionMS, int exitCode, long stdoutBytes, long stderrBytes, String caller) {
+            this.timestampMS = timestampMS;
+            this.verb = (verb != null) ? verb : "";
+            this.targetCount = targetCount;
+            this.priority = priority;
+            this.queueWaitMS = queueWaitMS;
+            this.executionMS = executionMS;
+            this.exitCode = exitCode;
+            this.stdoutBytes = stdoutBytes;
+            this.stderrBytes = stderrBytes;
+            this.caller = (caller != null) ? caller : "";
+        }
+
+        @Override
+        public String toString() {
+            return verb + " targets=" + targetCount + " priority=" + priority + " queueWaitMillis=" + queueWaitMS
+                    + " executionMillis=" + executionMS + " exitCode=" + exitCode + " stdoutBytes=" + stdoutBytes
+                    + " stderrBytes=" + stderrBytes + " caller=" + caller;
+        }
+    }
+}
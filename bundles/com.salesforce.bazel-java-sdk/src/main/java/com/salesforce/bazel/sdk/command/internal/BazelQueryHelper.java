@@ -26,6 +26,7 @@ package com.salesforce.bazel.sdk.command.internal;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
@@ -57,7 +59,22 @@ public class BazelQueryHelper {
      */
     private final BazelCommandExecutor bazelCommandExecutor;
 
+    /**
+     * The parsed BUILD files by package, valid for the workspace fingerprint in buildFileCacheFingerprint.
+     */
     private final Map<BazelLabel, BazelBuildFile> buildFileCache = new HashMap<>();
+    private String buildFileCacheFingerprint = null;
+    // bumped when cached build files are dropped, a query that started before must not cache its (stale) result
+    private long buildFileCacheGeneration = 0;
+
+    /**
+     * The number of packages in one source file query of {@link #querySourceFilesForPackages(File, Collection)}, which
+     * keeps the command line within the limits of the OS.
+     */
+    public static final int SOURCE_FILE_QUERY_BATCH_SIZE = 200;
+
+    // Bazel exits with this code if --keep_going skipped some packages
+    private static final int EXIT_CODE_PARTIAL_RESULT = 3;
 
     public BazelQueryHelper(BazelCommandExecutor bazelCommandExecutor) {
         this.bazelCommandExecutor = bazelCommandExecutor;
@@ -81,15 +98,15 @@ public class BazelQueryHelper {
             String directoryPath = f.toURI().relativize(bazelWorkspaceRootDirectory.toURI()).getPath();
             argBuilder.add(directoryPath + "/..."); // $SLASH_OK bazel path, not fs path
         }
-        return bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, progressMonitor, argBuilder,
-            t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
+        return bazelCommandExecutor.runReadOnlyBazelCommand(bazelWorkspaceRootDirectory, progressMonitor, argBuilder,
+            BazelCommandExecutor.TIMEOUT_INFINITE);
     }
 
     /**
      * Returns the list of targets, with type data, found in a BUILD files for the given package. Uses Bazel Query to
-     * build the list.
+     * build the list. The cache is only locked while it is read and filled, not while the query runs.
      */
-    public synchronized Collection<BazelBuildFile> queryBazelTargetsInBuildFile(File bazelWorkspaceRootDirectory,
+    public Collection<BazelBuildFile> queryBazelTargetsInBuildFile(File bazelWorkspaceRootDirectory,
             Collection<BazelLabel> bazelLabels)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
@@ -100,38 +117,97 @@ public class BazelQueryHelper {
         Collection<BazelLabel> cacheMisses = new HashSet<>();
         Collection<BazelBuildFile> buildFiles = new HashSet<>();
         Map<BazelLabel, Collection<BazelLabel>> packageToLabels = BazelLabelUtil.groupByPackage(bazelLabels);
-
-        for (BazelLabel pack : packageToLabels.keySet()) {
-            BazelBuildFile buildFile = buildFileCache.get(pack);
-            if (buildFile == null) {
-                cacheMisses.addAll(packageToLabels.get(pack));
-                LOG.info("Build file cache miss, package: " + pack);
-            } else {
-                buildFiles.add(buildFile);
-                LOG.info("Build file cache hit, package: " + pack);
+        long generation;
+        synchronized (this) {
+            validateBuildFileCache();
+            generation = buildFileCacheGeneration;
+            for (BazelLabel pack : packageToLabels.keySet()) {
+                BazelBuildFile buildFile = buildFileCache.get(pack);
+                if (buildFile == null) {
+                    cacheMisses.addAll(packageToLabels.get(pack));
+                    LOG.info("Build file cache miss, package: " + pack);
+                } else {
+                    buildFiles.add(buildFile);
+                    LOG.info("Build file cache hit, package: " + pack);
+                }
             }
         }
 
         if (!cacheMisses.isEmpty()) {
-            Collection<BazelBuildFile> loadedBuildFiles = runLabelQuery(cacheMisses, bazelWorkspaceRootDirectory);
+            Collection<BazelBuildFile> loadedBuildFiles =
+                    runLabelQuery(cacheMisses, bazelWorkspaceRootDirectory, generation);
             buildFiles.addAll(loadedBuildFiles);
         }
         return buildFiles;
     }
 
     /**
-     * Returns the list of source files that are used to build a target. Uses Bazel Query to build the list.
+     * Returns the list of source files that are used to build a target. Uses Bazel Query to build the list. Concurrent
+     * calls for the same target share one query.
      */
-    public synchronized Collection<String> querySourceFilesForTarget(File bazelWorkspaceRootDirectory,
-            BazelLabel bazelLabel)
+    public Collection<String> querySourceFilesForTarget(File bazelWorkspaceRootDirectory, BazelLabel bazelLabel)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
-        Collection<String> sourceFilePaths = runSourceFileQuery(bazelLabel, bazelWorkspaceRootDirectory);
-        return sourceFilePaths;
+        List<Object> coalesceKey = Arrays.asList("sourceFiles", bazelWorkspaceRootDirectory, bazelLabel.getLabelPath());
+        Collection<String> sourceFilePaths = bazelCommandExecutor.getScheduler().coalesce(coalesceKey,
+            () -> runSourceFileQuery(bazelLabel, bazelWorkspaceRootDirectory));
+        // every caller gets its own copy of the shared result
+        return new HashSet<>(sourceFilePaths);
     }
 
-    public void flushCache(BazelLabel bazelPackageName) {
+    /**
+     * Returns the source files of many packages, with one Bazel query per {@link #SOURCE_FILE_QUERY_BATCH_SIZE}
+     * packages instead of one per package. The passed labels are package labels (//a/b:*), the result has an entry for
+     * each of them. Each source file is attributed to the package that owns it, which is part of its label, so unlike
+     * {@link #querySourceFilesForTarget(File, BazelLabel)} the files that a package gets from its dependencies in other
+     * packages are not included.
+     * <p>
+     * The query runs with --keep_going, so a broken package only loses its own files. If the query fails entirely, an
+     * IOException is thrown.
+     */
+    public Map<BazelLabel, Collection<String>> querySourceFilesForPackages(File bazelWorkspaceRootDirectory,
+            Collection<BazelLabel> packageLabels)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+
+        Map<BazelLabel, Collection<String>> sourceFilesByPackage = new HashMap<>();
+        List<BazelLabel> batch = new ArrayList<>();
+        for (BazelLabel packageLabel : packageLabels) {
+            batch.add(packageLabel);
+            if (batch.size() == SOURCE_FILE_QUERY_BATCH_SIZE) {
+                sourceFilesByPackage.putAll(runBatchedSourceFileQuery(batch, bazelWorkspaceRootDirectory));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            sourceFilesByPackage.putAll(runBatchedSourceFileQuery(batch, bazelWorkspaceRootDirectory));
+        }
+        return sourceFilesByPackage;
+    }
+
+    /**
+     * Drops the parsed BUILD files if the workspace changed since they were queried. The explicit flushes only cover
+     * changes that the tool was told about, a BUILD file edited outside the tool is caught here. Called with the lock
+     * of this helper held.
+     */
+    private void validateBuildFileCache() {
+        BazelCommandResultCache resultCache = bazelCommandExecutor.getResultCache();
+        if (resultCache == null) {
+            return;
+        }
+        String fingerprint = resultCache.getWorkspaceFingerprint().getFingerprint();
+        if (!fingerprint.equals(buildFileCacheFingerprint)) {
+            if (!buildFileCache.isEmpty()) {
+                LOG.info("Workspace changed, dropping {} cached build files", buildFileCache.size());
+                buildFileCache.clear();
+            }
+            buildFileCacheFingerprint = fingerprint;
+            buildFileCacheGeneration++;
+        }
+    }
+
+    public synchronized void flushCache(BazelLabel bazelPackageName) {
         BazelLabel pack = bazelPackageName.getPackageLabel();
+        buildFileCacheGeneration++;
         BazelBuildFile previousValue = buildFileCache.remove(pack);
         if (previousValue != null) {
             LOG.info("Build file cache flush, package " + pack);
@@ -142,7 +218,7 @@ public class BazelQueryHelper {
 
     // runs label query and populates cache, returns loaded BazelBuildFile instances
     private Collection<BazelBuildFile> runLabelQuery(Collection<BazelLabel> bazelLabels,
-            File bazelWorkspaceRootDirectory)
+            File bazelWorkspaceRootDirectory, long generation)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
         String labels = bazelLabels.stream().map(BazelLabel::getLabelPath).collect(Collectors.joining(" "));
 
@@ -153,24 +229,24 @@ public class BazelQueryHelper {
         argBuilder.add("kind(rule, set(" + labels + "))");
         argBuilder.add("--output");
         argBuilder.add("label_kind");
-        List<String> resultLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
-            argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
 
         // Sample Output:  (format: rule_type 'rule' label)
         // java_binary rule //projects/libs/apple/apple-api:apple-main
         // java_test rule //projects/libs/apple/apple-api:apple-api-test2
         // java_library rule //projects/libs/apple/apple-api:apple-api
 
-        Map<BazelLabel, String> labelToRuleType = new HashMap<>();
-        for (String resultLine : resultLines) {
-            String[] tokens = resultLine.split(" ");
-            if (tokens.length != 3) {
-                continue;
-            }
-            String ruleType = tokens[0];
-            String targetLabel = tokens[2];
-            labelToRuleType.put(new BazelLabel(targetLabel), ruleType);
-        }
+        // the lines are parsed as Bazel prints them, the output itself is not collected
+        Map<BazelLabel, String> labelToRuleType = new ConcurrentHashMap<>();
+        bazelCommandExecutor.runBazelAndStreamOutputLines(ConsoleType.WORKSPACE, bazelWorkspaceRootDirectory, null,
+            argBuilder, null, resultLine -> {
+                String[] tokens = resultLine.split(" ");
+                if (tokens.length != 3) {
+                    return;
+                }
+                String ruleType = tokens[0];
+                String targetLabel = tokens[2];
+                labelToRuleType.put(new BazelLabel(targetLabel), ruleType);
+            }, BazelCommandExecutor.TIMEOUT_INFINITE);
 
         Set<BazelLabel> unprocessed = new HashSet<>(BazelLabelUtil.groupByPackage(bazelLabels).keySet());
 
@@ -178,10 +254,10 @@ public class BazelQueryHelper {
                 BazelLabelUtil.groupByPackage(labelToRuleType.keySet());
 
         Collection<BazelBuildFile> buildFiles = new HashSet<>();
+        Map<BazelLabel, BazelBuildFile> loadedBuildFiles = new HashMap<>();
         for (BazelLabel pack : packageToLabel.keySet()) {
             BazelBuildFile buildFile = new BazelBuildFile(pack.getLabelPath());
-            buildFileCache.put(pack, buildFile);
-            LOG.info("Build file cache put, package: " + pack);
+            loadedBuildFiles.put(pack, buildFile);
             buildFiles.add(buildFile);
             unprocessed.remove(pack);
             for (BazelLabel target : packageToLabel.get(pack)) {
@@ -192,11 +268,17 @@ public class BazelQueryHelper {
 
         // some packages may not have any targets - they need to be accounted for
         for (BazelLabel pack : unprocessed) {
-            BazelBuildFile buildFile = new BazelBuildFile(pack.getLabelPath());
-            buildFileCache.put(pack, buildFile);
-            LOG.info("Build file cache put (no targets) package: " + pack);
+            loadedBuildFiles.put(pack, new BazelBuildFile(pack.getLabelPath()));
         }
 
+        synchronized (this) {
+            if (generation == buildFileCacheGeneration) {
+                buildFileCache.putAll(loadedBuildFiles);
+                LOG.info("Build file cache put, packages: " + loadedBuildFiles.keySet());
+            } else {
+                LOG.info("Build file cache was flushed while querying, the results are not cached.");
+            }
+        }
         return buildFiles;
     }
 
@@ -210,8 +292,6 @@ public class BazelQueryHelper {
         List<String> argBuilder = new ArrayList<>();
         argBuilder.add("query");
         argBuilder.add("kind('source file', deps(" + bazelLabel + "))");
-        List<String> resultLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
-            argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
 
         // Sample Output:  (notice the cruft we don't want)
         // @local_jdk//:bin/javap
@@ -221,25 +301,80 @@ public class BazelQueryHelper {
         // //apple-api:source/dev/demo/apple/api/Apple.java
         // //apple-api:BUILD
 
-        Set<String> sourceFilePaths = new HashSet<>();
-        for (String resultLine : resultLines) {
-            resultLine = resultLine.trim();
-            if (!resultLine.startsWith(BazelLabel.BAZEL_ROOT_SLASHES)) {
-                // this isn't a source file
-                continue;
-            }
-            // we only want the path after the colon
-            //  //apple-api:source/dev/demo/apple/api/AppleOrchard.java => source/dev/demo/apple/api/AppleOrchard.java
-            int colonIndex = resultLine.indexOf(":");
-            if (colonIndex != -1) {
+        // the lines are parsed as Bazel prints them, the output itself is not collected
+        Set<String> sourceFilePaths = ConcurrentHashMap.newKeySet();
+        bazelCommandExecutor.runBazelAndStreamOutputLines(ConsoleType.WORKSPACE, bazelWorkspaceRootDirectory, null,
+            argBuilder, null, resultLine -> {
+                resultLine = resultLine.trim();
+                if (!resultLine.startsWith(BazelLabel.BAZEL_ROOT_SLASHES)) {
+                    // this isn't a source file
+                    return;
+                }
+                // we only want the path after the colon
+                //  //apple-api:source/dev/demo/apple/api/AppleOrchard.java
+                //    => source/dev/demo/apple/api/AppleOrchard.java
+                int colonIndex = resultLine.indexOf(":");
+                if (colonIndex != -1) {
+                    String sourcePath = resultLine.substring(colonIndex + 1);
+                    if (!BazelBuildFile.isBuildFile(sourcePath)) {
+                        sourceFilePaths.add(sourcePath);
+                        LOG.info("  {}", sourcePath);
+                    }
+                }
+            }, BazelCommandExecutor.TIMEOUT_INFINITE);
+        return sourceFilePaths;
+    }
+
+    // runs one source file query for all of the packages, returns the source files by package
+    private Map<BazelLabel, Collection<String>> runBatchedSourceFileQuery(List<BazelLabel> packageLabels,
+            File bazelWorkspaceRootDirectory)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        String labels = packageLabels.stream().map(BazelLabel::getLabelPath).collect(Collectors.joining(" "));
+
+        // bazel query 'kind("source file", set(//apple-api:* //banana-api:*))' --keep_going
+        // only the files owned by the packages are wanted, so there is no deps() that would pull in the transitive
+        // closure of every package in the batch
+
+        List<String> argBuilder = new ArrayList<>();
+        argBuilder.add("query");
+        argBuilder.add("kind('source file', set(" + labels + "))");
+        argBuilder.add("--keep_going");
+
+        // the files are collected by the package path in their label
+        //  //apple-api:source/dev/demo/apple/api/AppleOrchard.java
+        //    => apple-api, source/dev/demo/apple/api/AppleOrchard.java
+        Map<String, Set<String>> sourceFilesByPackagePath = new ConcurrentHashMap<>();
+        for (BazelLabel packageLabel : packageLabels) {
+            sourceFilesByPackagePath.put(packageLabel.getPackagePath(), ConcurrentHashMap.newKeySet());
+        }
+        int exitCode = bazelCommandExecutor.runBazelAndStreamOutputLines(ConsoleType.WORKSPACE,
+            bazelWorkspaceRootDirectory, null, argBuilder, null, resultLine -> {
+                resultLine = resultLine.trim();
+                if (!resultLine.startsWith(BazelLabel.BAZEL_ROOT_SLASHES)) {
+                    // this isn't a source file of the workspace
+                    return;
+                }
+                int colonIndex = resultLine.indexOf(":");
+                if (colonIndex == -1) {
+                    return;
+                }
+                Set<String> sourceFilePaths = sourceFilesByPackagePath.get(resultLine.substring(2, colonIndex));
                 String sourcePath = resultLine.substring(colonIndex + 1);
-                if (!BazelBuildFile.isBuildFile(sourcePath)) {
+                if ((sourceFilePaths != null) && !BazelBuildFile.isBuildFile(sourcePath)) {
                     sourceFilePaths.add(sourcePath);
-                    LOG.info("  {}", sourcePath);
                 }
-            }
+            }, BazelCommandExecutor.TIMEOUT_INFINITE);
+        if ((exitCode != 0) && (exitCode != EXIT_CODE_PARTIAL_RESULT)) {
+            throw new IOException("The source file query for " + packageLabels.size()
+                    + " packages failed with exit code " + exitCode);
         }
-        return sourceFilePaths;
+
+        Map<BazelLabel, Collection<String>> sourceFilesByPackage = new HashMap<>();
+        for (BazelLabel packageLabel : packageLabels) {
+            sourceFilesByPackage.put(packageLabel, sourceFilesByPackagePath.get(packageLabel.getPackagePath()));
+        }
+        LOG.info("Queried the source files of {} packages with one query", packageLabels.size());
+        return sourceFilesByPackage;
     }
 
 }
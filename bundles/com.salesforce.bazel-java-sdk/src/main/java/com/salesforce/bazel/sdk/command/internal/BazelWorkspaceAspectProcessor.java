@@ -25,22 +25,45 @@ package com.salesforce.bazel.sdk.command.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
+import com.salesforce.bazel.sdk.aspect.AdaptiveAspectBatchingStrategy;
+import com.salesforce.bazel.sdk.aspect.AspectBatchingStrategy;
+import com.salesforce.bazel.sdk.aspect.AspectCacheMetrics;
+import com.salesforce.bazel.sdk.aspect.AspectLastGoodCache;
+import com.salesforce.bazel.sdk.aspect.AspectOutputMode;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfoFactory;
+import com.salesforce.bazel.sdk.aspect.AspectTargetInfoStreamLoader;
+import com.salesforce.bazel.sdk.aspect.AspectTransitiveClosureEngine;
 import com.salesforce.bazel.sdk.aspect.BazelAspectLocation;
+import com.salesforce.bazel.sdk.aspect.BazelAspectPersistentCache;
+import com.salesforce.bazel.sdk.bep.BazelBuildEventSubscriber;
+import com.salesforce.bazel.sdk.bep.BazelBuildEventsTailingFileStream;
+import com.salesforce.bazel.sdk.bep.event.BEPEvent;
+import com.salesforce.bazel.sdk.bep.event.BEPFileUri;
+import com.salesforce.bazel.sdk.bep.event.BEPNamedSetEvent;
+import com.salesforce.bazel.sdk.bep.event.BEPTargetCompletedEvent;
 import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
 import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
 import com.salesforce.bazel.sdk.logging.LogHelper;
@@ -49,6 +72,11 @@ import com.salesforce.bazel.sdk.model.BazelLabel;
 /**
  * Manages running, collecting, and caching all of the build info aspects for a specific workspace.
  * <p>
+ * This class is thread-safe without a global lock. Cache hits are served from concurrent maps without locking. Each
+ * missing label gets a future in {@link #inFlightLoads}, so concurrent callers asking for the same label wait for the
+ * same Bazel invocation. Misses that are pending at the same moment are merged into one batched invocation, see
+ * {@link #runPendingLoads(String)}.
+ * <p>
  * TODO this belongs in an sdk.aspect package, not buried down in command.internal
  */
 public class BazelWorkspaceAspectProcessor {
@@ -56,6 +84,7 @@ public class BazelWorkspaceAspectProcessor {
 
     private final BazelWorkspaceCommandRunner bazelWorkspaceCommandRunner;
     private final BazelCommandExecutor bazelCommandExecutor;
+    private final BazelAspectLocation aspectLocation;
 
     /**
      * These arguments are added to all "bazel build" commands that run for aspect processing. This is public so that
@@ -63,25 +92,92 @@ public class BazelWorkspaceAspectProcessor {
      */
     public List<String> aspectOptions;
 
+    /**
+     * Splits the targets of an aspect run into Bazel invocations. Adaptive strategies learn from earlier runs, so the
+     * instance lives as long as this processor.
+     */
+    private volatile AspectBatchingStrategy batchingStrategy = new AdaptiveAspectBatchingStrategy();
+
+    /**
+     * A failed batch loses the aspect data of all of its targets, so a failed batch larger than this is retried in two
+     * halves, until the broken targets are in batches of at most this size. The default is the historical fixed batch
+     * size, so that a broken target never costs more targets than it did before batches could grow. Each split costs
+     * an extra invocation, which is cheap since Bazel has already analyzed the targets of the failed batch.
+     */
+    static final int DEFAULT_FAILED_BATCH_RETRY_SIZE = 25;
+    volatile int failedBatchRetrySize = DEFAULT_FAILED_BATCH_RETRY_SIZE;
+    private volatile boolean compactAspectFormat = false;
+    private volatile boolean buildEventOutputs = false;
+
     /**
      * Cache of the Aspect data for each target. key=String target (//a/b/c) value=Set<AspectTargetInfo> data that came
      * from running the aspect.
      *
      * This cache includes wildcard (//a/b/c:*) targets and concrete targets.
      */
-    final Map<BazelLabel, Set<AspectTargetInfo>> aspectInfoCache_current = new HashMap<>();
+    final Map<BazelLabel, Set<AspectTargetInfo>> aspectInfoCache_current = new ConcurrentHashMap<>();
 
     /**
      * Cache of the Aspect data for each target. key=String target (//a/b/c) value=AspectTargetInfo data that came from
-     * running the aspect. This cache is never cleared and is used for cases in which the developer introduces a compile
-     * error into the package, such that the Aspect will fail to run.
+     * running the aspect. This cache is not flushed and is used for cases in which the developer introduces a compile
+     * error into the package, such that the Aspect will fail to run. It is bounded, see
+     * {@link #setLastGoodCacheLimits(int, long)}; evicted entries are kept on disk if the persistent cache is enabled.
      */
-    final Map<BazelLabel, Set<AspectTargetInfo>> aspectInfoCache_lastgood = new HashMap<>();
+    final AspectLastGoodCache aspectInfoCache_lastgood = new AspectLastGoodCache();
+
+    /**
+     * Optional on disk cache of the Aspect data, which survives restarts. It is consulted when a target is not found in
+     * the current cache. This is null unless enabled with {@link #enablePersistentCache(File)}.
+     */
+    volatile BazelAspectPersistentCache aspectInfoCache_persistent = null;
 
     /**
      * Tracks the number of cache hits for getAspectTargetInfos() invocations.
      */
-    int numberCacheHits = 0;
+    volatile int numberCacheHits = 0;
+    private static final AtomicIntegerFieldUpdater<BazelWorkspaceAspectProcessor> NUMBER_CACHE_HITS =
+            AtomicIntegerFieldUpdater.newUpdater(BazelWorkspaceAspectProcessor.class, "numberCacheHits");
+
+    /**
+     * Hit, miss, invocation and fallback statistics of the caches, see {@link #getCacheMetrics()}.
+     */
+    private final AspectCacheMetrics cacheMetrics = new AspectCacheMetrics();
+
+    /**
+     * Loads that have been requested but not completed yet. A caller that misses the cache for a label that is in this
+     * map waits on the existing future instead of starting another Bazel invocation.
+     */
+    final Map<BazelLabel, AspectLoad> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * Futures of labels that have not been handed to a Bazel invocation yet. Guarded by itself.
+     */
+    private final Map<BazelLabel, AspectLoad> pendingLoads = new LinkedHashMap<>();
+
+    /**
+     * Labels in the current cache that were loaded with {@link AspectOutputMode#STRUCTURE}, so their jars may not have
+     * been built. A {@link AspectOutputMode#FULL} request for one of them runs the aspect again.
+     */
+    final Set<BazelLabel> unresolvedLabels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Reverse dependency index of the current cache. key=package path, value=cached labels whose aspect data includes
+     * a target of that package. A change to a package makes all of these stale. Labels that have since been evicted may
+     * linger in the values, which only costs a no-op removal on the next flush of the package.
+     */
+    final Map<String, Set<BazelLabel>> dependentLabelsByPackage = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes the aspect Bazel invocations. Bazel itself runs one command at a time per workspace, so waiting here
+     * costs nothing, and it lets the misses of the waiting callers accumulate into one batch.
+     */
+    private final Object loadLock = new Object();
+
+    /**
+     * Incremented by every flush, so that a load that was started before a flush does not put its (possibly stale)
+     * results into the current cache.
+     */
+    private final AtomicLong cacheGeneration = new AtomicLong();
 
     // CTORS
 
@@ -90,10 +186,24 @@ public class BazelWorkspaceAspectProcessor {
     public static final int ASPECTCMD_EXTERNALREPO_ARGINDEX = 2;
     public static final int ASPECTCMD_TARGETLABEL_ARGINDEX = 11;
 
+    // replaced according to the AspectOutputMode of the run
+    static final String OUTPUT_GROUPS_OPTION = "--output_groups=";
+
+    // read by the aspect through ctx.var, see compact_ide_info() in intellij_info_impl.bzl
+    static final String COMPACT_ASPECT_FORMAT_OPTION = "--define=bzljavasdk_aspect_format=compact";
+
+    // scrapes the aspect outputs from stderr, replaced by the BEP file option when buildEventOutputs is enabled
+    static final String SHOW_ARTIFACTS_OPTION = "--experimental_show_artifacts";
+    public static final String BUILD_EVENT_JSON_FILE_OPTION = "--build_event_json_file=";
+
+    // subdirectory of the persistent cache directory that holds evicted last good entries
+    static final String LASTGOOD_SPILL_DIRNAME = "bzljavasdk-aspect-lastgood";
+
     public BazelWorkspaceAspectProcessor(BazelWorkspaceCommandRunner bazelWorkspaceCommandRunner,
             BazelAspectLocation aspectLocation, BazelCommandExecutor bazelCommandExecutor) {
         this.bazelWorkspaceCommandRunner = bazelWorkspaceCommandRunner;
         this.bazelCommandExecutor = bazelCommandExecutor;
+        this.aspectLocation = aspectLocation;
 
         aspectOptions = null;
         if (aspectLocation != null) {
@@ -101,11 +211,10 @@ public class BazelWorkspaceAspectProcessor {
             aspectOptions.add("--override_repository=bazeljavasdk_aspect=" + aspectLocation.getAspectDirectory());
             aspectOptions.add("--aspects=@bazeljavasdk_aspect" + aspectLocation.getAspectLabel());
             aspectOptions.add("-k");
-            aspectOptions.add(
-                "--output_groups=intellij-info-generic,intellij-info-java-direct-deps,intellij-resolve-java-direct-deps");
+            aspectOptions.add(OUTPUT_GROUPS_OPTION + AspectOutputMode.FULL.getOutputGroups());
             aspectOptions.add("--nobuild_event_binary_file_path_conversion");
             aspectOptions.add("--noexperimental_run_validations");
-            aspectOptions.add("--experimental_show_artifacts");
+            aspectOptions.add(SHOW_ARTIFACTS_OPTION);
             aspectOptions.add("--curses=no");
             aspectOptions.add("--progress_in_terminal_title=no");
         }
@@ -119,6 +228,74 @@ public class BazelWorkspaceAspectProcessor {
         this.aspectOptions = aspectOptions;
     }
 
+    /**
+     * Replaces the strategy that splits the targets of an aspect run into Bazel invocations. The default is
+     * {@link AdaptiveAspectBatchingStrategy}.
+     */
+    public void setBatchingStrategy(AspectBatchingStrategy batchingStrategy) {
+        this.batchingStrategy = batchingStrategy;
+    }
+
+    /**
+     * Makes the aspect write its per target data in the compact line format instead of JSON (see
+     * {@link AspectTargetInfoFactory#COMPACT_ASPECT_FILENAME_SUFFIX}). The compact files are a fraction of the size and
+     * are decoded without building a JSON tree, but only carry the fields used by JVM targets. Off by default.
+     */
+    public void setCompactAspectFormat(boolean compactAspectFormat) {
+        this.compactAspectFormat = compactAspectFormat;
+    }
+
+    /**
+     * Makes the aspect runs report their output files through the Build Event Protocol (a --build_event_json_file
+     * written by Bazel) instead of the >>> artifact lines on stderr. The BEP file is followed while Bazel writes it, so
+     * the aspect files of a named set are loaded as soon as the set is reported. Off by default.
+     */
+    public void setBuildEventOutputs(boolean buildEventOutputs) {
+        this.buildEventOutputs = buildEventOutputs;
+    }
+
+    /**
+     * Enables the on disk cache of Aspect data, so that the Aspect does not need to be run again for every target after
+     * a restart. The cache file is written into the passed directory, which should be a tool specific metadata area.
+     */
+    public void enablePersistentCache(File cacheDirectory) {
+        File cacheFile = new File(cacheDirectory, BazelAspectPersistentCache.CACHE_FILENAME);
+        String aspectVersion = BazelAspectPersistentCache.computeAspectVersion(aspectLocation);
+        aspectInfoCache_persistent = new BazelAspectPersistentCache(cacheFile,
+                bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory(), aspectVersion);
+        aspectInfoCache_lastgood.setSpillDirectory(new File(cacheDirectory, LASTGOOD_SPILL_DIRNAME));
+        LOG.info("Persistent aspect cache enabled at {}", cacheFile.getAbsolutePath());
+    }
+
+    /**
+     * Writes the on disk cache of Aspect data now, instead of waiting for the background write. Call this at shutdown.
+     */
+    public void savePersistentCache() {
+        BazelAspectPersistentCache persistentCache = aspectInfoCache_persistent;
+        if (persistentCache != null) {
+            persistentCache.save();
+        }
+    }
+
+    /**
+     * Bounds the cache of last good Aspect data, which is the fallback when the Aspect fails to run for a target. The
+     * least recently used entries are evicted once either limit is exceeded. The weight is a rough estimate of the heap
+     * used by the cache entries.
+     */
+    public void setLastGoodCacheLimits(int maxEntries, long maxWeightBytes) {
+        aspectInfoCache_lastgood.setLimits(maxEntries, maxWeightBytes);
+    }
+
+    /**
+     * Returns the statistics of the aspect caches of this workspace, with the cache size gauges refreshed.
+     */
+    public AspectCacheMetrics getCacheMetrics() {
+        cacheMetrics.updateCacheSizes(aspectInfoCache_current.size(),
+            AspectCacheMetrics.estimateHeapBytes(aspectInfoCache_current.values()), aspectInfoCache_lastgood.size(),
+            aspectInfoCache_lastgood.getWeightBytes());
+        return cacheMetrics;
+    }
+
     /**
      * Runs the analysis of the given list of targets using the build information Bazel Aspect and returns a map of
      * {@link AspectTargetInfo}-s (key is the label of the target) containing the parsed form of the JSON file created
@@ -132,13 +309,30 @@ public class BazelWorkspaceAspectProcessor {
      *
      * @throws BazelCommandLineToolConfigurationException
      */
-    public synchronized Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<BazelLabel> targets,
+    public Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<BazelLabel> targets,
             String caller) throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        return getAspectTargetInfos(targets, caller, AspectOutputMode.FULL);
+    }
+
+    /**
+     * Same as {@link #getAspectTargetInfos(Collection, String)}, but with the choice of what Bazel builds along with the
+     * aspect data. Use {@link AspectOutputMode#STRUCTURE} when the jars are not needed yet, e.g. to order the projects
+     * of an import; a later {@link AspectOutputMode#FULL} request for the same targets then builds the jars.
+     */
+    public Map<BazelLabel, Set<AspectTargetInfo>> getAspectTargetInfos(Collection<BazelLabel> targets, String caller,
+            AspectOutputMode mode) throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
 
         Map<BazelLabel, Set<AspectTargetInfo>> resultMap = new LinkedHashMap<>();
-        Collection<BazelLabel> cacheMisses = populateFromCache(targets, resultMap, caller);
+        Collection<BazelLabel> cacheMisses = populateFromCache(targets, resultMap, caller, mode);
         if (!cacheMisses.isEmpty()) {
-            loadTargetInfos(cacheMisses, resultMap, caller);
+            Map<BazelLabel, AspectLoad> futures = requestLoads(cacheMisses, caller, mode);
+            runPendingLoads(caller);
+            for (BazelLabel label : cacheMisses) {
+                Set<AspectTargetInfo> atis = awaitLoad(futures.get(label));
+                if (atis != null) {
+                    resultMap.put(label, atis);
+                }
+            }
         }
         return resultMap;
     }
@@ -146,36 +340,62 @@ public class BazelWorkspaceAspectProcessor {
     /**
      * Clear the entire AspectTargetInfo cache. This flushes the dependency graph for the workspace.
      */
-    public synchronized void flushAspectInfoCache() {
+    public void flushAspectInfoCache() {
+        cacheGeneration.incrementAndGet();
         aspectInfoCache_current.clear();
+        unresolvedLabels.clear();
+        dependentLabelsByPackage.clear();
+        // loads in flight keep going for their current callers, but new callers start over
+        inFlightLoads.clear();
     }
 
     /**
      * Clear the AspectTargetInfo cache for the passed target. This flushes the dependency graph for those target.
      */
-    public synchronized void flushAspectInfoCache(BazelLabel target) {
+    public void flushAspectInfoCache(BazelLabel target) {
+        cacheGeneration.incrementAndGet();
         // the target may not even be in cache, that is ok, just try to remove it from both current and wildcard caches
         // if the target exists in either it will get flushed
         aspectInfoCache_current.remove(target);
+        unresolvedLabels.remove(target);
+        inFlightLoads.remove(target);
     }
 
     /**
      * Clear the AspectTargetInfo cache for the passed targets. This flushes the dependency graph for those targets.
      */
-    public synchronized void flushAspectInfoCache(Set<BazelLabel> targets) {
+    public void flushAspectInfoCache(Set<BazelLabel> targets) {
+        cacheGeneration.incrementAndGet();
         for (BazelLabel target : targets) {
             // the target may not even be in cache, that is ok, just try to remove it from both current and wildcard caches
             // if the target exists in either it will get flushed
             aspectInfoCache_current.remove(target);
+            unresolvedLabels.remove(target);
+            inFlightLoads.remove(target);
         }
     }
 
     /**
      * Clear the AspectTargetInfo cache for the passed package. This flushes the dependency graph for any target that
-     * contains the package name.
+     * contains the package name, and for every cached label whose transitive closure includes a target of the package.
+     * The cache entries of unrelated labels are kept. Returns the flushed labels.
      */
-    public synchronized Set<BazelLabel> flushAspectInfoCacheForPackage(BazelLabel bazelPackage) {
+    public Set<BazelLabel> flushAspectInfoCacheForPackage(BazelLabel bazelPackage) {
         Set<BazelLabel> flushedTargets = new LinkedHashSet<>();
+        cacheGeneration.incrementAndGet();
+        inFlightLoads.keySet().removeIf(key -> key.getPackagePath().equals(bazelPackage.getPackagePath()));
+
+        // the labels that depend on the package, their closures hold the stale aspect data of the package
+        Set<BazelLabel> dependentLabels = dependentLabelsByPackage.remove(bazelPackage.getPackagePath());
+        if (dependentLabels != null) {
+            for (BazelLabel dependentLabel : dependentLabels) {
+                inFlightLoads.remove(dependentLabel);
+                unresolvedLabels.remove(dependentLabel);
+                if (aspectInfoCache_current.remove(dependentLabel) != null) {
+                    flushedTargets.add(dependentLabel);
+                }
+            }
+        }
 
         // the target may not even be in cache, that is ok, just try to remove it from both current and wildcard caches
         // if the target exists in either it will get flushed
@@ -185,83 +405,329 @@ public class BazelWorkspaceAspectProcessor {
             if (key.getPackagePath().equals(bazelPackage.getPackagePath())) {
                 flushedTargets.add(key);
                 iter.remove();
+                unresolvedLabels.remove(key);
             }
         }
+        LOG.info("Flushed {} cached aspect labels for a change to package {}", flushedTargets.size(),
+            bazelPackage.getPackagePath());
         return flushedTargets;
     }
 
+    /**
+     * Flushes the package as {@link #flushAspectInfoCacheForPackage(BazelLabel)} does, then runs the aspect again for
+     * exactly the flushed labels, so that the cache is warm again when the dependent projects ask for it. Labels that
+     * were only loaded for their structure are reloaded the same way.
+     */
+    public Map<BazelLabel, Set<AspectTargetInfo>> reloadAspectInfoCacheForPackage(BazelLabel bazelPackage,
+            String caller) throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        List<BazelLabel> structureLabels = new ArrayList<>(unresolvedLabels);
+        Set<BazelLabel> flushedTargets = flushAspectInfoCacheForPackage(bazelPackage);
+        List<BazelLabel> fullLabels = new ArrayList<>(flushedTargets);
+        fullLabels.removeAll(structureLabels);
+        structureLabels.retainAll(flushedTargets);
+
+        Map<BazelLabel, Set<AspectTargetInfo>> reloaded = new LinkedHashMap<>();
+        if (!fullLabels.isEmpty()) {
+            reloaded.putAll(getAspectTargetInfos(fullLabels, caller, AspectOutputMode.FULL));
+        }
+        if (!structureLabels.isEmpty()) {
+            reloaded.putAll(getAspectTargetInfos(structureLabels, caller, AspectOutputMode.STRUCTURE));
+        }
+        return reloaded;
+    }
+
     // INTERNALS
 
     /**
      * Populates the specified resultMap from cache. Returns the cache misses.
      */
-    private synchronized Collection<BazelLabel> populateFromCache(Collection<BazelLabel> labels,
-            Map<BazelLabel, Set<AspectTargetInfo>> resultMap, String caller) {
+    private Collection<BazelLabel> populateFromCache(Collection<BazelLabel> labels,
+            Map<BazelLabel, Set<AspectTargetInfo>> resultMap, String caller, AspectOutputMode mode) {
         List<BazelLabel> cacheMisses = new ArrayList<>();
         for (BazelLabel target : labels) {
             String logstr = getLogStr(target, caller);
-            Set<AspectTargetInfo> aspectInfos = aspectInfoCache_current.get(target);
-            if (aspectInfos == null) {
+            Set<AspectTargetInfo> aspectInfos = getCachedTargetInfos(target, mode);
+            BazelAspectPersistentCache persistentCache = aspectInfoCache_persistent;
+            if ((aspectInfos == null) && (persistentCache != null)) {
+                aspectInfos = persistentCache.get(target);
+                if (aspectInfos != null) {
+                    LOG.info("Aspect data found in persistent cache for: " + target + logstr);
+                    indexDependentLabels(Collections.singletonMap(target, aspectInfos));
+                    aspectInfoCache_current.put(target, aspectInfos);
+                    // only full results are persisted
+                    unresolvedLabels.remove(target);
+                    aspectInfoCache_lastgood.put(target, aspectInfos);
+                }
+            }
+            if ((aspectInfos == null) && (mode == AspectOutputMode.FULL) && unresolvedLabels.contains(target)) {
+                LOG.info("Aspect data found in cache, but its jars have not been built for: " + target + logstr);
+                cacheMisses.add(target);
+                cacheMetrics.recordMiss(caller);
+            } else if (aspectInfos == null) {
                 LOG.info("Aspect data not found in cache for: " + target + logstr);
                 cacheMisses.add(target);
+                cacheMetrics.recordMiss(caller);
             } else {
                 LOG.info("Aspect data found in cache for: " + target + logstr);
                 resultMap.put(target, aspectInfos);
-                numberCacheHits++;
+                NUMBER_CACHE_HITS.incrementAndGet(this);
+                cacheMetrics.recordHit(caller);
             }
         }
         return cacheMisses;
     }
 
-    private synchronized void loadTargetInfos(Collection<BazelLabel> cacheMisses,
-            Map<BazelLabel, Set<AspectTargetInfo>> resultMap, String caller)
+    /**
+     * Returns the cached infos of the label if they satisfy the mode, or null.
+     */
+    private Set<AspectTargetInfo> getCachedTargetInfos(BazelLabel label, AspectOutputMode mode) {
+        if ((mode == AspectOutputMode.FULL) && unresolvedLabels.contains(label)) {
+            return null;
+        }
+        return aspectInfoCache_current.get(label);
+    }
+
+    /**
+     * Returns a future for each passed label. Labels that are not already being loaded by another caller are queued
+     * for the next Bazel invocation. A load in another mode is joined only if it builds at least as much as requested.
+     */
+    private Map<BazelLabel, AspectLoad> requestLoads(Collection<BazelLabel> cacheMisses, String caller,
+            AspectOutputMode mode) {
+        Map<BazelLabel, AspectLoad> futures = new HashMap<>();
+        synchronized (pendingLoads) {
+            for (BazelLabel label : cacheMisses) {
+                AspectLoad future = inFlightLoads.get(label);
+                if ((future != null) && future.satisfies(mode)) {
+                    LOG.info("Aspect data is already being loaded for: " + label + getLogStr(label, caller));
+                } else {
+                    Set<AspectTargetInfo> aspectInfos = getCachedTargetInfos(label, mode);
+                    if (aspectInfos != null) {
+                        // another caller finished loading it after our cache lookup
+                        future = new AspectLoad(mode);
+                        future.complete(aspectInfos);
+                    } else {
+                        future = new AspectLoad(mode);
+                        AspectLoad superseded = pendingLoads.put(label, future);
+                        if (superseded != null) {
+                            // a structure load that has not started yet, the full load serves its callers too
+                            future.whenComplete((infos, failure) -> {
+                                if (failure != null) {
+                                    superseded.completeExceptionally(failure);
+                                } else {
+                                    superseded.complete(infos);
+                                }
+                            });
+                        }
+                        inFlightLoads.put(label, future);
+                    }
+                }
+                futures.put(label, future);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Runs one Bazel invocation for all pending labels, including those queued by other callers while the previous
+     * invocation was running. If another caller already took the pending labels, this waits for that invocation. The
+     * invocation builds the jars if any of the pending loads needs them.
+     */
+    private void runPendingLoads(String caller) {
+        synchronized (loadLock) {
+            Map<BazelLabel, AspectLoad> batchFutures;
+            synchronized (pendingLoads) {
+                batchFutures = new LinkedHashMap<>(pendingLoads);
+                pendingLoads.clear();
+            }
+            if (batchFutures.isEmpty()) {
+                return;
+            }
+            List<BazelLabel> batch = new ArrayList<>(batchFutures.keySet());
+            AspectOutputMode mode = AspectOutputMode.STRUCTURE;
+            for (AspectLoad future : batchFutures.values()) {
+                if (future.mode == AspectOutputMode.FULL) {
+                    mode = AspectOutputMode.FULL;
+                    break;
+                }
+            }
+
+            Map<BazelLabel, Set<AspectTargetInfo>> loaded = new HashMap<>();
+            Throwable failure = null;
+            try {
+                loadTargetInfos(batch, loaded, caller, mode);
+            } catch (Throwable anyT) {
+                failure = anyT;
+            }
+            for (BazelLabel label : batch) {
+                AspectLoad future = batchFutures.get(label);
+                // a flush may already have removed it, or replaced it with the future of a newer load
+                inFlightLoads.remove(label, future);
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(loaded.get(label));
+                }
+            }
+        }
+    }
+
+    private static Set<AspectTargetInfo> awaitLoad(CompletableFuture<Set<AspectTargetInfo>> future)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof BazelCommandLineToolConfigurationException) {
+                throw (BazelCommandLineToolConfigurationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
 
-        LOG.info("Starting generation of Aspect files for " + cacheMisses.size() + " packages.");
-        List<String> discoveredAspectFilePaths = generateAspectTargetInfoFiles(cacheMisses);
-        LOG.info("Finished generation of Aspect files for " + cacheMisses.size() + " packages.");
+    private void loadTargetInfos(Collection<BazelLabel> cacheMisses,
+            Map<BazelLabel, Set<AspectTargetInfo>> resultMap, String caller, AspectOutputMode mode)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        long generation = cacheGeneration.get();
 
-        Map<BazelLabel, AspectTargetInfo> aspectInfos = loadAspectFilePaths(discoveredAspectFilePaths);
+        LOG.info("Starting generation of Aspect files for " + cacheMisses.size() + " packages.");
+        Map<BazelLabel, AspectTargetInfo> aspectInfos;
+        // the aspect files are parsed on worker threads as Bazel reports them, while later chunks are still building
+        AspectTargetInfoStreamLoader streamLoader = new AspectTargetInfoStreamLoader(
+                AspectTargetInfoFactory.getParallelism(), AspectTargetInfoStreamLoader.DEFAULT_QUEUE_CAPACITY);
+        try {
+            List<String> discoveredAspectFilePaths = generateAspectTargetInfoFiles(cacheMisses, mode, streamLoader);
+            LOG.info("Finished generation of Aspect files for " + cacheMisses.size() + " packages.");
+            aspectInfos = toBazelLabelMap(discoveredAspectFilePaths, streamLoader.finish());
+        } finally {
+            // no-op if the load finished normally
+            streamLoader.cancel();
+        }
 
         if (aspectInfos.isEmpty()) {
             // We were not able to load any aspects, this generally indicates some sort of error condition;
             // it could be because the user introduced a compile error in it and the Aspect wont run.
-            // In this case use the last known good result of the Aspect for that target and hope for the best. The lastgood cache is never
-            // cleared, so if the Aspect ran correctly at least once since the IDE started it should be here (but possibly out of date depending
-            // on what changes were introduced along with the compile error)
+            // In this case use the last known good result of the Aspect for that target and hope for the best. The lastgood cache is not
+            // flushed, so if the Aspect ran correctly at least once since the IDE started it should be here, unless it was evicted without
+            // a spill directory (and possibly out of date depending on what changes were introduced along with the compile error)
             for (BazelLabel label : cacheMisses) {
                 Set<AspectTargetInfo> lastgood = aspectInfoCache_lastgood.get(label);
                 if (lastgood == null) {
                     LOG.info("Aspect execution failed (all) for target: {}", getLogStr(label, caller));
                 } else {
                     resultMap.put(label, lastgood);
+                    cacheMetrics.recordLastGoodFallback();
                 }
             }
         } else {
             Map<BazelLabel, Set<AspectTargetInfo>> owningLabelToAspectInfos = new HashMap<>();
+            // the closures are computed once for the whole graph and shared between the requested labels
+            AspectTransitiveClosureEngine closureEngine = new AspectTransitiveClosureEngine(aspectInfos);
             for (BazelLabel label : cacheMisses) {
-                Map<BazelLabel, Set<AspectTargetInfo>> m = assignAspectsToOwningLabel(label, aspectInfos);
+                Map<BazelLabel, Set<AspectTargetInfo>> m = assignAspectsToOwningLabel(label, closureEngine);
                 owningLabelToAspectInfos.putAll(m);
             }
+            // the persistent cache has no notion of the mode, so it only holds full results
+            BazelAspectPersistentCache persistentCache =
+                    mode == AspectOutputMode.FULL ? aspectInfoCache_persistent : null;
             for (BazelLabel label : owningLabelToAspectInfos.keySet()) {
                 Set<AspectTargetInfo> infos = owningLabelToAspectInfos.get(label);
-                aspectInfoCache_current.put(label, infos);
                 aspectInfoCache_lastgood.put(label, infos);
+                if (persistentCache != null) {
+                    persistentCache.put(label, infos);
+                }
                 LOG.info("Aspect data loaded for target: " + label + getLogStr(label, caller));
             }
+            // a flush during the Bazel invocation means the results may already be out of date
+            if (cacheGeneration.get() == generation) {
+                if (mode == AspectOutputMode.FULL) {
+                    unresolvedLabels.removeAll(owningLabelToAspectInfos.keySet());
+                } else {
+                    unresolvedLabels.addAll(owningLabelToAspectInfos.keySet());
+                }
+                // indexed first, so that a concurrent flush of a package finds the new entries
+                indexDependentLabels(owningLabelToAspectInfos);
+                aspectInfoCache_current.putAll(owningLabelToAspectInfos);
+            } else {
+                LOG.info("Aspect cache was flushed while loading, the results are not cached.");
+            }
+            if (persistentCache != null) {
+                // written on a background thread, lookups in the persistent cache do not wait for the file
+                persistentCache.scheduleSave();
+            }
             for (BazelLabel label : cacheMisses) {
-                // since we just populated the caches above, we should now find results
-                // this could be done in the loop above, but this is good sanity
-                Set<AspectTargetInfo> atis = aspectInfoCache_current.get(label);
+                Set<AspectTargetInfo> atis = owningLabelToAspectInfos.get(label);
                 if (atis == null) {
-                    LOG.error("Aspect execution failed (single) for target: " + label + getLogStr(label, caller));
-                    atis = Collections.emptySet();
+                    // e.g. the batch of the label failed while other batches built
+                    atis = aspectInfoCache_lastgood.get(label);
+                    if (atis == null) {
+                        LOG.error("Aspect execution failed (single) for target: " + label + getLogStr(label, caller));
+                        atis = Collections.emptySet();
+                    } else {
+                        cacheMetrics.recordLastGoodFallback();
+                    }
                 }
                 resultMap.put(label, atis);
             }
         }
     }
 
+    /**
+     * Records the packages in the aspect data of each entry in the reverse dependency index. A wildcard label is
+     * indexed by the closures of the targets in its package, not by its value, which holds every info of the load that
+     * produced it.
+     */
+    private void indexDependentLabels(Map<BazelLabel, Set<AspectTargetInfo>> entries) {
+        Map<String, List<Set<AspectTargetInfo>>> closuresByPackage = new HashMap<>();
+        for (Map.Entry<BazelLabel, Set<AspectTargetInfo>> entry : entries.entrySet()) {
+            if (entry.getKey().isConcrete()) {
+                closuresByPackage.computeIfAbsent(entry.getKey().getPackagePath(), k -> new ArrayList<>())
+                        .add(entry.getValue());
+            }
+        }
+
+        // closures are shared between entries, each only needs to be walked once
+        Map<Set<AspectTargetInfo>, Set<String>> packagesOfInfos = new IdentityHashMap<>();
+        for (Map.Entry<BazelLabel, Set<AspectTargetInfo>> entry : entries.entrySet()) {
+            BazelLabel label = entry.getKey();
+            List<Set<AspectTargetInfo>> closures = label.isConcrete() ? Collections.singletonList(entry.getValue())
+                    : closuresByPackage.getOrDefault(label.getPackagePath(), Collections.emptyList());
+            for (Set<AspectTargetInfo> closure : closures) {
+                for (String packagePath : packagesOfInfos.computeIfAbsent(closure, this::getWorkspacePackagePaths)) {
+                    addDependentLabel(packagePath, label);
+                }
+            }
+            // the label always depends on its own package
+            addDependentLabel(label.getPackagePath(), label);
+        }
+    }
+
+    private Set<String> getWorkspacePackagePaths(Set<AspectTargetInfo> infos) {
+        Set<String> packagePaths = new HashSet<>();
+        for (AspectTargetInfo info : infos) {
+            // external targets do not change with the packages of the workspace
+            if (!info.getLabel().isExternalRepoLabel()) {
+                packagePaths.add(info.getLabel().getPackagePath());
+            }
+        }
+        return packagePaths;
+    }
+
+    private void addDependentLabel(String packagePath, BazelLabel label) {
+        dependentLabelsByPackage.computeIfAbsent(packagePath, k -> ConcurrentHashMap.newKeySet()).add(label);
+    }
+
     /**
      * This method creates and returns a mapping of a Label to the AspectTargetInfo (ATI) instances belonging to that
      * Label. These ATI instances are the transitive closure of ATIs referenced by the mapped Label.
@@ -283,160 +749,199 @@ public class BazelWorkspaceAspectProcessor {
      * of ATIs for t2
      */
     private static Map<BazelLabel, Set<AspectTargetInfo>> assignAspectsToOwningLabel(BazelLabel requestingLabel,
-            Map<BazelLabel, AspectTargetInfo> depNameToTargetInfo) {
+            AspectTransitiveClosureEngine closureEngine) {
         Map<BazelLabel, Set<AspectTargetInfo>> transitivesClosures = new HashMap<>();
 
         // find starting point, based on target - this is trivial, but we also support wildcard
         // targets (so that we can run a single bazal build cmd and get all aspects)
-        for (AspectTargetInfo ati : depNameToTargetInfo.values()) {
-            BazelLabel currentLabel = new BazelLabel(ati.getLabelPath());
-            if (requestingLabel.isConcrete()) {
-                if (requestingLabel.equals(currentLabel)) {
-                    Set<AspectTargetInfo> allDeps = getTransitiveClosure(ati, depNameToTargetInfo);
-                    transitivesClosures.put(new BazelLabel(ati.getLabelPath()), allDeps);
-                }
-            } else {
-                // all targets in the requested package qualify
-                if (currentLabel.getPackagePath().equals(requestingLabel.getPackagePath())) {
-                    Set<AspectTargetInfo> allDeps = getTransitiveClosure(ati, depNameToTargetInfo);
-                    transitivesClosures.put(new BazelLabel(ati.getLabelPath()), allDeps);
-                }
+        if (requestingLabel.isConcrete()) {
+            AspectTargetInfo ati = closureEngine.getTargetInfo(requestingLabel);
+            if (ati != null) {
+                transitivesClosures.put(new BazelLabel(ati.getLabelPath()), closureEngine.getTransitiveClosure(ati));
+            }
+        } else {
+            // all targets in the requested package qualify
+            for (AspectTargetInfo ati : closureEngine.getTargetInfosInPackage(requestingLabel.getPackagePath())) {
+                transitivesClosures.put(new BazelLabel(ati.getLabelPath()), closureEngine.getTransitiveClosure(ati));
             }
-        }
 
-        if (!requestingLabel.isConcrete()) {
             // also return a mapping of wildcard target -> all AspectTargetInfo instances
-            transitivesClosures.put(requestingLabel, new HashSet<>(depNameToTargetInfo.values()));
+            transitivesClosures.put(requestingLabel, closureEngine.getAllTargetInfos());
         }
 
         return transitivesClosures;
 
     }
 
-    private static Set<AspectTargetInfo> getTransitiveClosure(AspectTargetInfo aspectTargetInfo,
-            Map<BazelLabel, AspectTargetInfo> depNameToTargetInfo) {
-        Set<AspectTargetInfo> allDeps = new HashSet<>();
-        List<AspectTargetInfo> queue = new ArrayList<>();
-        Set<String> skippedLabels = new HashSet<>();
-        Set<String> visitedLabels = new HashSet<>();
-        queue.add(aspectTargetInfo);
-        while (!queue.isEmpty()) {
-            AspectTargetInfo ati = queue.remove(0);
-
-            String thisLabel = ati.getLabelPath();
-            if (visitedLabels.contains(thisLabel)) {
-                // we have already visited this dependency (through another path) just skip it
-                continue;
-            }
-            visitedLabels.add(thisLabel);
-
-            if (ati != aspectTargetInfo) {
-                allDeps.add(ati);
-            }
-            List<String> depLabels = ati.getDeps();
-            for (String label : depLabels) {
-                if (skippedLabels.contains(label)) {
-                    // this is a dep that is not something we work with, so we ignore it
-                    continue;
-                }
-                if (visitedLabels.contains(label)) {
-                    // we have already visited this dependency (through another path) just skip it
-                    continue;
-                }
-
-                BazelLabel depLabel = new BazelLabel(label);
-                AspectTargetInfo dep = depNameToTargetInfo.get(depLabel);
-                if (dep == null) {
-                    LOG.info("No AspectTargetInfo exists for " + label
-                            + "; it and its descendents are excluded from analysis.");
-                    skippedLabels.add(label);
-                } else {
-                    queue.add(dep);
-                }
-            }
-        }
-
-        // now add this aspect to the transitive closure if test or import (TODO why?) 
-        if ("java_test".equals(aspectTargetInfo.getKind())) {
-            allDeps.add(aspectTargetInfo);
-        } else if ("java_import".equals(aspectTargetInfo.getKind())) {
-            allDeps.add(aspectTargetInfo);
-        }
-
-        return Collections.unmodifiableSet(allDeps);
-    }
-
     /**
      * Runs the Aspect for the list of passed targets. Returns the list of file paths to the output artifacts created by
      * the Aspects.
      *
      * @throws BazelCommandLineToolConfigurationException
      */
-    private synchronized List<String> generateAspectTargetInfoFiles(Collection<BazelLabel> targets)
+    private List<String> generateAspectTargetInfoFiles(Collection<BazelLabel> targets, AspectOutputMode mode,
+            AspectTargetInfoStreamLoader streamLoader)
             throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
         if (targets.isEmpty()) {
             throw new IllegalArgumentException("Parameter [targets] cannot be empty.");
         }
         File bazelWorkspaceRootDirectory = bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory();
 
-        BazelLabel[] targetsArray = targets.toArray(new BazelLabel[] {});
-        int lastValidTargetIndex = targets.size() - 1;
-        int currentTargetIndex = 0;
         List<String> listOfGeneratedFilePaths = new ArrayList<>();
+        File bepFile = null;
+        if (buildEventOutputs) {
+            bepFile = File.createTempFile("bzljavasdk-aspect-bep", ".json");
+        }
+        List<String> fixedArgs = new ArrayList<>();
+        fixedArgs.add("build");
+        for (String aspectOption : aspectOptions) {
+            // keeps the position of the options, the test framework looks for args by index
+            if (aspectOption.startsWith(OUTPUT_GROUPS_OPTION)) {
+                aspectOption = OUTPUT_GROUPS_OPTION + mode.getOutputGroups();
+            } else if ((bepFile != null) && aspectOption.equals(SHOW_ARTIFACTS_OPTION)) {
+                aspectOption = BUILD_EVENT_JSON_FILE_OPTION + bepFile.getAbsolutePath();
+            }
+            fixedArgs.add(aspectOption);
+        }
+        if ((bepFile != null) && !fixedArgs.contains(BUILD_EVENT_JSON_FILE_OPTION + bepFile.getAbsolutePath())) {
+            fixedArgs.add(BUILD_EVENT_JSON_FILE_OPTION + bepFile.getAbsolutePath());
+        }
+        if (compactAspectFormat) {
+            fixedArgs.add(COMPACT_ASPECT_FORMAT_OPTION);
+        }
 
         // run the aspect generation for the target labels, we want to minimize the number of bazel invocations
-        // because there is a few seconds of overhead for each invocation, but we only do 25 at a time so we get
-        // progress log messages along the way
-        while (currentTargetIndex <= lastValidTargetIndex) {
-            int startTargetIndex = currentTargetIndex;
-            List<String> args = new ArrayList<>();
-            args.add("build");
-            args.addAll(aspectOptions);
-            for (int i = 0; i < 25; i++) {
-                if (currentTargetIndex > lastValidTargetIndex) {
-                    break;
-                }
-                String label = targetsArray[currentTargetIndex].toString();
-                currentTargetIndex++;
-                args.add(label);
-            }
+        // because there is a few seconds of overhead for each invocation, but the batching strategy may split them
+        // so we get progress log messages along the way
+        Deque<List<BazelLabel>> batches =
+                new ArrayDeque<>(batchingStrategy.createBatches(new ArrayList<>(targets), fixedArgs));
+        int startTargetIndex = 0;
+        int batchNumber = 0;
+        while (!batches.isEmpty()) {
+            List<BazelLabel> batch = batches.removeFirst();
+            batchNumber++;
+            List<String> args = new ArrayList<>(fixedArgs);
+            args.addAll(batchingStrategy.getTargetArgs(batch));
 
-            // Strip out the artifact list, keeping the xyz.bzljavasdk-data.json files (located in subdirs in the bazel-out path)
+            // Strip out the artifact list, keeping the xyz.bzljavasdk-data.* files (located in subdirs in the bazel-out path)
             // Line must start with >>> and end with the aspect file suffix
             LOG.info("Running command to generate aspect file for labels indexed [" + startTargetIndex + "] through ["
-                    + (startTargetIndex + 25) + "] out of the total [" + (lastValidTargetIndex + 1) + "]");
+                    + (startTargetIndex + batch.size() - 1) + "] out of the total [" + targets.size() + "] (batch "
+                    + batchNumber + ", " + batches.size() + " more to run)");
+            startTargetIndex += batch.size();
+            // a large batch prints a line per output file, so the lines are only of interest when debugging
             Function<String, String> filter = (t) -> {
-                LOG.info("Aspect output line: " + t);
-                String r = null;
-                if (t.startsWith(">>>")) {
-                    if (t.endsWith(AspectTargetInfoFactory.ASPECT_FILENAME_SUFFIX)) {
-                        LOG.info("  Aspect output (json file): {}", t);
-                        r = t.substring(3);
-                    } else {
-                        LOG.info("  Aspect output (ignored): {}", t);
-                        r = null;
-                    }
-                } else {
-                    LOG.info("  Aspect output (ignored): {}", t);
-                    r = null;
+                if (t.startsWith(">>>") && AspectTargetInfoFactory.isAspectFile(t)) {
+                    LOG.debug("Aspect output (data file): {}", t);
+                    return t.substring(3);
                 }
-                return r;
+                LOG.debug("Aspect output (ignored): {}", t);
+                return null;
             };
 
-            List<String> partialListOfGeneratedFilePaths =
-                    bazelCommandExecutor.runBazelAndGetErrorLines(ConsoleType.WORKSPACE, bazelWorkspaceRootDirectory,
-                        null, args, filter, BazelCommandExecutor.TIMEOUT_INFINITE);
+            long batchStartTimeMS = System.currentTimeMillis();
+            List<String> partialListOfGeneratedFilePaths = new ArrayList<>();
+            int exitCode;
+            try {
+                if (bepFile != null) {
+                    exitCode = runAspectBuildWithEvents(bazelWorkspaceRootDirectory, args, bepFile, streamLoader,
+                        partialListOfGeneratedFilePaths);
+                } else {
+                    // the selected paths are handed to the loader while Bazel is still printing the rest
+                    List<String> streamedPaths = Collections.synchronizedList(new ArrayList<>());
+                    exitCode = bazelCommandExecutor.runBazelAndStreamErrorLines(ConsoleType.WORKSPACE,
+                        bazelWorkspaceRootDirectory, null, args, filter, aspectFilePath -> {
+                            streamedPaths.add(aspectFilePath);
+                            try {
+                                streamLoader.submit(aspectFilePath);
+                            } catch (InterruptedException ie) {
+                                // the path is submitted again after the command finishes
+                                Thread.currentThread().interrupt();
+                            }
+                        }, BazelCommandExecutor.TIMEOUT_INFINITE);
+                    partialListOfGeneratedFilePaths.addAll(streamedPaths);
+                }
+            } finally {
+                // also after a failure, so that the strategy can clean up
+                batchingStrategy.batchReleased(batch);
+            }
+            long batchElapsedMS = System.currentTimeMillis() - batchStartTimeMS;
+            cacheMetrics.recordInvocation(batch.size(), batchElapsedMS);
+            if (exitCode != 0) {
+                // the files reported before the failure may be stale outputs of targets that did not build, so a
+                // failed batch contributes no aspect data and its targets fall back to the last good results
+                // files of shared dependencies that an earlier batch built are still good
+                partialListOfGeneratedFilePaths.removeAll(new HashSet<>(listOfGeneratedFilePaths));
+                streamLoader.discard(partialListOfGeneratedFilePaths);
+                partialListOfGeneratedFilePaths.clear();
+                // the time of a failed build says nothing about the cost of the targets, so the strategy is not told
+                if (batch.size() > failedBatchRetrySize) {
+                    // retry in halves, so that the targets that do build still get their aspect data
+                    int half = batch.size() / 2;
+                    batches.addFirst(new ArrayList<>(batch.subList(half, batch.size())));
+                    batches.addFirst(new ArrayList<>(batch.subList(0, half)));
+                    startTargetIndex -= batch.size();
+                    LOG.warn("Aspect build of batch {} ({} targets) failed with exit code {}, retrying it in two "
+                            + "smaller batches.", batchNumber, batch.size(), exitCode);
+                } else {
+                    LOG.error("Aspect build of batch {} failed with exit code {}, its aspect files are not used.",
+                        batchNumber, exitCode);
+                }
+                continue;
+            }
+            batchingStrategy.batchCompleted(batch, batchElapsedMS);
             listOfGeneratedFilePaths.addAll(partialListOfGeneratedFilePaths);
+            // picks up any path the consumer did not stream; already streamed paths are ignored by the loader
+            for (String aspectFilePath : partialListOfGeneratedFilePaths) {
+                streamLoader.submit(aspectFilePath);
+            }
         }
         return listOfGeneratedFilePaths;
     }
 
+    /**
+     * Runs one aspect batch with the Build Event Protocol file option, and follows the file while Bazel writes it. The
+     * aspect files of each named set of files are submitted to the stream loader as soon as the set is reported, and
+     * added to the passed list. Returns the exit code of the build.
+     */
+    private int runAspectBuildWithEvents(File bazelWorkspaceRootDirectory, List<String> args, File bepFile,
+            AspectTargetInfoStreamLoader streamLoader, List<String> aspectFilePaths)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        AspectBuildEventCollector collector = new AspectBuildEventCollector(streamLoader);
+        BazelBuildEventsTailingFileStream eventStream = new BazelBuildEventsTailingFileStream(bepFile);
+        Set<String> eventTypes = new HashSet<>(Arrays.asList(BEPNamedSetEvent.NAME, BEPTargetCompletedEvent.NAME));
+        eventStream.subscribe(collector, eventTypes, false);
+        eventStream.activateStream();
+        try {
+            // the outputs come from the BEP file, stderr is only of interest when debugging
+            Function<String, String> filter = (t) -> {
+                LOG.debug("Aspect output line: {}", t);
+                return null;
+            };
+            return bazelCommandExecutor.runBazelAndStreamErrorLines(ConsoleType.WORKSPACE,
+                bazelWorkspaceRootDirectory, null, args, filter, line -> {}, BazelCommandExecutor.TIMEOUT_INFINITE);
+        } finally {
+            eventStream.closeStream();
+            // the file of this batch must not be mistaken for the output of the next one
+            bepFile.delete();
+            aspectFilePaths.addAll(collector.getAspectFilePaths());
+        }
+    }
+
     private static String getLogStr(BazelLabel target, String caller) {
         return " [target=" + target + ", src=" + caller + "]";
     }
 
     public static Map<BazelLabel, AspectTargetInfo> loadAspectFilePaths(List<String> aspectFilePaths)
             throws IOException, InterruptedException {
+        if (aspectFilePaths.size() == 0) {
+            return toBazelLabelMap(aspectFilePaths, Collections.emptyMap());
+        }
+        return toBazelLabelMap(aspectFilePaths, AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths));
+    }
+
+    private static Map<BazelLabel, AspectTargetInfo> toBazelLabelMap(List<String> aspectFilePaths,
+            Map<String, AspectTargetInfo> lToAtis) {
         Map<BazelLabel, AspectTargetInfo> bzToAtis = new HashMap<>();
 
         if (aspectFilePaths.size() == 0) {
@@ -446,7 +951,6 @@ public class BazelWorkspaceAspectProcessor {
             return bzToAtis;
         }
 
-        Map<String, AspectTargetInfo> lToAtis = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths);
         if (lToAtis.isEmpty()) {
             LOG.error("No aspect files were parsed successfully. Aspect file list size: " + aspectFilePaths.size());
             return bzToAtis;
@@ -464,4 +968,62 @@ public class BazelWorkspaceAspectProcessor {
         }
         return bzToAtis;
     }
+
+    /**
+     * The future of a load, along with the mode it runs in.
+     */
+    static final class AspectLoad extends CompletableFuture<Set<AspectTargetInfo>> {
+        final AspectOutputMode mode;
+
+        AspectLoad(AspectOutputMode mode) {
+            this.mode = mode;
+        }
+
+        boolean satisfies(AspectOutputMode requestedMode) {
+            return (mode == AspectOutputMode.FULL) || (requestedMode == AspectOutputMode.STRUCTURE);
+        }
+    }
+
+    /**
+     * Collects the aspect files reported by the named sets of files of a BEP stream, and logs the targets that failed.
+     * Events are published on the poller thread of the stream.
+     */
+    static final class AspectBuildEventCollector implements BazelBuildEventSubscriber {
+        private final AspectTargetInfoStreamLoader streamLoader;
+        private final Set<String> aspectFilePaths = Collections.synchronizedSet(new LinkedHashSet<>());
+
+        AspectBuildEventCollector(AspectTargetInfoStreamLoader streamLoader) {
+            this.streamLoader = streamLoader;
+        }
+
+        @Override
+        public void onEvent(BEPEvent event) {
+            if (event instanceof BEPNamedSetEvent) {
+                for (BEPFileUri fileUri : ((BEPNamedSetEvent) event).getFiles()) {
+                    String path = fileUri.getFile().getAbsolutePath();
+                    if (AspectTargetInfoFactory.isAspectFile(path) && aspectFilePaths.add(path)) {
+                        LOG.debug("  Aspect output (data file): {}", path);
+                        try {
+                            streamLoader.submit(path);
+                        } catch (InterruptedException ie) {
+                            // the path is still returned, and submitted after the command finishes
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            } else if (event instanceof BEPTargetCompletedEvent) {
+                BEPTargetCompletedEvent completedEvent = (BEPTargetCompletedEvent) event;
+                if (!completedEvent.isSuccess()) {
+                    LOG.info("Aspect build failed for target {}: {}", completedEvent.getLabel(),
+                        completedEvent.getFailureMessage());
+                }
+            }
+        }
+
+        List<String> getAspectFilePaths() {
+            synchronized (aspectFilePaths) {
+                return new ArrayList<>(aspectFilePaths);
+            }
+        }
+    }
 }
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * A cheap stamp of the files that define the build of a workspace: BUILD, .bzl, WORKSPACE and .bazelrc files. The
+ * stamp is derived from the path, size and modification time of each of those files, the file contents are never
+ * read. If the stamp is unchanged, the result of a read-only Bazel command (query, cquery, info) is assumed to be
+ * unchanged as well.
+ * <p>
+ * The first stamp walks the workspace to find the build definition files, skipping the directories listed in
+ * .bazelignore, hidden directories, node_modules and the bazel-* links. Later stamps only stat the files found by the
+ * walk and the directories it visited; the workspace is walked again only if one of those directories changed (a file
+ * was added, removed or renamed in it). A stamp is remembered for a while (see {@link #setMaxAgeMS(long)}). Callers
+ * that know that a build file changed, for example from a resource change listener, should call {@link #invalidate()}
+ * so that the next stamp walks the workspace right away.
+ */
+public class BazelWorkspaceFingerprint {
+    private static final LogHelper LOG = LogHelper.log(BazelWorkspaceFingerprint.class);
+
+    public static final long DEFAULT_MAX_AGE_MS = 10000;
+
+    private final File bazelWorkspaceRootDirectory;
+    private long maxAgeMS = DEFAULT_MAX_AGE_MS;
+
+    private String fingerprint = null;
+    private long computedTimeMS = 0;
+    private int computeCount = 0;
+    private int walkCount = 0;
+
+    // found by the last walk, null if the workspace needs to be walked
+    private List<Path> buildDefinitionFiles = null;
+    private Map<Path, FileTime> walkedDirectories = null;
+
+    public BazelWorkspaceFingerprint(File bazelWorkspaceRootDirectory) {
+        this.bazelWorkspaceRootDirectory = bazelWorkspaceRootDirectory;
+    }
+
+    /**
+     * How long a computed stamp is trusted before the files are checked again. Zero means it is computed for every
+     * call.
+     */
+    public synchronized void setMaxAgeMS(long maxAgeMS) {
+        this.maxAgeMS = maxAgeMS;
+    }
+
+    /**
+     * Returns the current stamp of the workspace.
+     */
+    public synchronized String getFingerprint() {
+        long nowMS = System.currentTimeMillis();
+        if ((fingerprint == null) || ((nowMS - computedTimeMS) >= maxAgeMS)) {
+            fingerprint = compute();
+            computedTimeMS = System.currentTimeMillis();
+            computeCount++;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Forgets the remembered stamp, the next call to {@link #getFingerprint()} walks the workspace.
+     */
+    public synchronized void invalidate() {
+        fingerprint = null;
+        buildDefinitionFiles = null;
+        walkedDirectories = null;
+    }
+
+    /**
+     * The number of times the stamp was computed, for statistics.
+     */
+    public synchronized int getComputeCount() {
+        return computeCount;
+    }
+
+    /**
+     * The number of times the workspace was walked, for statistics.
+     */
+    public synchronized int getWalkCount() {
+        return walkCount;
+    }
+
+    /**
+     * Answers true if the file name is one of the files that can change the outcome of a query.
+     */
+    public static boolean isBuildDefinitionFile(String fileName) {
+        switch (fileName) {
+        case "BUILD":
+        case "BUILD.bazel":
+        case "WORKSPACE":
+        case "WORKSPACE.bazel":
+        case "WORKSPACE.bzlmod":
+        case "MODULE.bazel":
+        case ".bazelrc":
+        case ".bazelversion":
+        case ".bazelignore":
+            return true;
+        default:
+            return fileName.endsWith(".bzl");
+        }
+    }
+
+    // INTERNALS
+
+    private String compute() {
+        long startTimeMS = System.currentTimeMillis();
+        Path rootPath = bazelWorkspaceRootDirectory.toPath();
+        if ((buildDefinitionFiles == null) || directoriesChanged()) {
+            try {
+                walk(rootPath);
+            } catch (IOException ioe) {
+                // an unreadable workspace gets a stamp that matches nothing cached before
+                LOG.error("Could not compute the fingerprint of workspace {}", ioe,
+                    bazelWorkspaceRootDirectory.getAbsolutePath());
+                invalidate();
+                return "unreadable-" + System.nanoTime();
+            }
+        }
+
+        long combinedHash = 0L;
+        for (Path file : buildDefinitionFiles) {
+            long fileHash = mix(rootPath.relativize(file).toString().hashCode());
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                fileHash = mix(fileHash ^ attrs.lastModifiedTime().toMillis());
+                fileHash = mix(fileHash ^ attrs.size());
+            } catch (IOException ioe) {
+                // deleted since the walk
+                fileHash = mix(fileHash ^ -1L);
+            }
+            // the walk order is not defined, so the file hashes are combined in an order independent way
+            combinedHash += fileHash;
+        }
+        String computed = Long.toHexString(buildDefinitionFiles.size()) + "-" + Long.toHexString(combinedHash);
+        LOG.debug("Computed workspace fingerprint {} from {} files in {} millis", computed,
+            buildDefinitionFiles.size(), System.currentTimeMillis() - startTimeMS);
+        return computed;
+    }
+
+    /**
+     * Answers true if an entry was added to, removed from or renamed in one of the directories of the last walk.
+     */
+    private boolean directoriesChanged() {
+        for (Map.Entry<Path, FileTime> directory : walkedDirectories.entrySet()) {
+            try {
+                if (!Files.getLastModifiedTime(directory.getKey()).equals(directory.getValue())) {
+                    return true;
+                }
+            } catch (IOException ioe) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void walk(Path rootPath) throws IOException {
+        Set<Path> ignoredDirectories = readBazelIgnore(rootPath);
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> directories = new HashMap<>();
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(rootPath)) {
+                    // hidden directories (.git etc), the bazel-* convenience links and package manager trees hold
+                    // no build definitions
+                    String name = dir.getFileName().toString();
+                    if (name.startsWith(".") || name.startsWith("bazel-") || name.equals("node_modules")
+                            || ignoredDirectories.contains(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                directories.put(dir, attrs.lastModifiedTime());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isBuildDefinitionFile(file.getFileName().toString())) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        buildDefinitionFiles = files;
+        walkedDirectories = directories;
+        walkCount++;
+    }
+
+    /**
+     * Reads the directories that Bazel is told to ignore, one workspace relative path per line.
+     */
+    private static Set<Path> readBazelIgnore(Path rootPath) {
+        Set<Path> ignoredDirectories = new HashSet<>();
+        Path bazelIgnore = rootPath.resolve(".bazelignore");
+        if (!Files.isRegularFile(bazelIgnore)) {
+            return ignoredDirectories;
+        }
+        try {
+            for (String line : Files.readAllLines(bazelIgnore, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    ignoredDirectories.add(rootPath.resolve(line).normalize());
+                }
+            }
+        } catch (IOException ioe) {
+            LOG.error("Could not read {}, no directories are ignored.", ioe, bazelIgnore);
+        }
+        return ignoredDirectories;
+    }
+
+    // the finalizer of the SplitMix64 generator, spreads the bits of the input over the whole long
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
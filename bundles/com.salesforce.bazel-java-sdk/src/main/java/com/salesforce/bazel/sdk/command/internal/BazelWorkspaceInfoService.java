@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Answers <i>bazel info</i> questions for a workspace (execution root, output base, bazel-bin, etc).
+ * <p>
+ * Each <i>bazel info xyz</i> invocation costs a round trip to the Bazel server, so instead this service runs
+ * <i>bazel info</i> once without a key, which prints every key/value pair, and answers all later questions from that
+ * output. Keys that the full listing does not include are still fetched with <i>bazel info xyz</i>, and remembered.
+ * <p>
+ * If persistence is enabled with {@link #enablePersistence(File)}, the values are also written to disk, so that after a
+ * restart no Bazel invocation is needed at all. A persisted copy is only trusted if it was written for the same
+ * workspace, by the same Bazel executable, with the same WORKSPACE/.bazelrc/.bazelversion files (see
+ * {@link #computeStamp()}), and the output base and execution root it names still exist. Note that some values (heap sizes, the server
+ * pid) are a snapshot of the Bazel server at the time of the call; the locations are what this service is meant for.
+ */
+public class BazelWorkspaceInfoService {
+    private static final LogHelper LOG = LogHelper.log(BazelWorkspaceInfoService.class);
+
+    /**
+     * Default file name for the persisted values, within the directory provided by the tool.
+     */
+    public static final String INFO_FILENAME = "bzljavasdk-workspace-info.json";
+
+    public static final String KEY_EXECUTION_ROOT = "execution_root";
+    public static final String KEY_OUTPUT_BASE = "output_base";
+    public static final String KEY_BAZEL_BIN = "bazel-bin";
+    public static final String KEY_BAZEL_GENFILES = "bazel-genfiles";
+
+    // bump this if the layout of the file changes
+    private static final long FORMAT_VERSION = 2;
+
+    /**
+     * Workspace files that change what <i>bazel info</i> prints: the output base follows the startup options in the
+     * rc file, and bazelisk picks the Bazel version from .bazelversion.
+     */
+    private static final String[] STAMPED_WORKSPACE_FILES =
+            { "WORKSPACE", "WORKSPACE.bazel", ".bazelrc", ".bazelversion" };
+
+    private final BazelCommandExecutor bazelCommandExecutor;
+    private final File bazelWorkspaceRootDirectory;
+    private File infoFile = null;
+
+    /**
+     * The info values, key=info key, value=info value. Null until loaded.
+     */
+    private Map<String, String> values = null;
+
+    public BazelWorkspaceInfoService(BazelCommandExecutor bazelCommandExecutor, File bazelWorkspaceRootDirectory) {
+        this.bazelCommandExecutor = bazelCommandExecutor;
+        this.bazelWorkspaceRootDirectory = bazelWorkspaceRootDirectory;
+    }
+
+    /**
+     * Persists the info values in the passed directory, and uses a persisted copy if there is a valid one.
+     */
+    public synchronized void enablePersistence(File directory) {
+        infoFile = new File(directory, INFO_FILENAME);
+        LOG.info("Persistent workspace info enabled at {}", infoFile.getAbsolutePath());
+    }
+
+    /**
+     * Returns the value of the passed <i>bazel info</i> key, or null if Bazel does not know the key.
+     */
+    public synchronized String getValue(String key)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        ensureLoaded();
+        String value = values.get(key);
+        if ((value == null) && !values.containsKey(key)) {
+            // not part of the full listing, e.g. a key that Bazel only prints when asked for
+            value = runBazelInfo(key);
+            values.put(key, value);
+            persist();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the location for the passed <i>bazel info</i> key.
+     *
+     * @throws IllegalStateException
+     *             if Bazel does not know the key
+     */
+    public File getLocation(String key)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        String value = getValue(key);
+        if ((value == null) || value.isEmpty()) {
+            throw new IllegalStateException("Bazel did not provide a value for 'bazel info " + key + "'");
+        }
+        return new File(value);
+    }
+
+    /**
+     * Returns all values that are known at this point, running <i>bazel info</i> if needed.
+     */
+    public synchronized Map<String, String> getValues()
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        ensureLoaded();
+        return Collections.unmodifiableMap(new TreeMap<>(values));
+    }
+
+    /**
+     * Forgets the values, and deletes the persisted copy. The next question runs <i>bazel info</i> again.
+     */
+    public synchronized void invalidate() {
+        values = null;
+        if ((infoFile != null) && infoFile.exists() && !infoFile.delete()) {
+            LOG.info("Could not delete the persisted workspace info {}", infoFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Computes the stamp that a persisted copy must match: the size and modification time of the Bazel executable and
+     * of the {@link #STAMPED_WORKSPACE_FILES}. Replacing the Bazel binary (or its bazelisk version file) or editing the
+     * workspace config produces a different stamp.
+     */
+    Map<String, String> computeStamp() {
+        Map<String, String> stamp = new TreeMap<>();
+        File bazelExecutable = bazelCommandExecutor.getBazelExecutable();
+        stamp.put("bazel", bazelExecutable.getAbsolutePath() + "@" + stampOf(bazelExecutable));
+        for (String name : STAMPED_WORKSPACE_FILES) {
+            stamp.put(name, stampOf(new File(bazelWorkspaceRootDirectory, name)));
+        }
+        return stamp;
+    }
+
+    /**
+     * Parses the output of <i>bazel info</i> (without a key), which is one <i>key: value</i> line per key.
+     */
+    public static Map<String, String> parseInfoLines(List<String> outputLines) {
+        Map<String, String> parsed = new TreeMap<>();
+        for (String line : outputLines) {
+            int separator = line.indexOf(": ");
+            if ((separator <= 0) || line.startsWith("INFO:") || line.startsWith("WARNING:")) {
+                continue;
+            }
+            parsed.put(line.substring(0, separator).trim(), line.substring(separator + 2).trim());
+        }
+        return parsed;
+    }
+
+    // INTERNALS
+
+    private void ensureLoaded() throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        if (values != null) {
+            return;
+        }
+        Map<String, String> persisted = readPersisted();
+        if (persisted != null) {
+            values = persisted;
+            return;
+        }
+
+        long startTimeMS = System.currentTimeMillis();
+        List<String> argBuilder = new ArrayList<>();
+        argBuilder.add("info");
+        List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
+            argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
+        values = parseInfoLines(outputLines);
+        LOG.info("Loaded {} bazel info values in {} millis", values.size(), System.currentTimeMillis() - startTimeMS);
+        persist();
+    }
+
+    private String runBazelInfo(String key)
+            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+        List<String> argBuilder = new ArrayList<>();
+        argBuilder.add("info");
+        argBuilder.add(key);
+        List<String> outputLines = bazelCommandExecutor.runBazelAndGetOutputLines(bazelWorkspaceRootDirectory, null,
+            argBuilder, t -> t, BazelCommandExecutor.TIMEOUT_INFINITE);
+        outputLines = BazelCommandExecutor.stripInfoLines(outputLines);
+        return outputLines.isEmpty() ? null : String.join("", outputLines);
+    }
+
+    private Map<String, String> readPersisted() {
+        if ((infoFile == null) || !infoFile.exists()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(infoFile), StandardCharsets.UTF_8)) {
+            JSONObject rootObject = (JSONObject) new JSONParser().parse(reader);
+            Object format = rootObject.get("format");
+            if (!(format instanceof Long) || ((Long) format != FORMAT_VERSION)
+                    || !bazelWorkspaceRootDirectory.getAbsolutePath().equals(rootObject.get("workspace"))) {
+                LOG.info("Persisted workspace info {} is for a different workspace or format, ignoring it.",
+                    infoFile.getAbsolutePath());
+                return null;
+            }
+            if (!computeStamp().equals(rootObject.get("stamp"))) {
+                LOG.info("The Bazel executable or workspace config changed since {} was written, ignoring it.",
+                    infoFile.getAbsolutePath());
+                return null;
+            }
+            Map<String, String> persisted = new TreeMap<>();
+            JSONObject valuesObject = (JSONObject) rootObject.get("values");
+            for (Object mapEntry : valuesObject.entrySet()) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) mapEntry;
+                persisted.put((String) entry.getKey(), (String) entry.getValue());
+            }
+
+            // a 'bazel clean --expunge' or a moved output_user_root invalidates the locations
+            for (String key : new String[] { KEY_OUTPUT_BASE, KEY_EXECUTION_ROOT }) {
+                String location = persisted.get(key);
+                if ((location == null) || !new File(location).exists()) {
+                    LOG.info("Persisted workspace info {} names a missing {}, ignoring it.", infoFile.getAbsolutePath(),
+                        key);
+                    return null;
+                }
+            }
+            LOG.info("Loaded {} bazel info values from {}", persisted.size(), infoFile.getAbsolutePath());
+            return persisted;
+        } catch (Exception anyE) {
+            // a corrupt file is not fatal, we just run bazel info again
+            LOG.error("Could not read the persisted workspace info {}, ignoring it.", anyE, infoFile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    private void persist() {
+        if (infoFile == null) {
+            return;
+        }
+        JSONObject valuesObject = new JSONObject();
+        valuesObject.putAll(values);
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("format", FORMAT_VERSION);
+        rootObject.put("workspace", bazelWorkspaceRootDirectory.getAbsolutePath());
+        JSONObject stampObject = new JSONObject();
+        stampObject.putAll(computeStamp());
+        rootObject.put("stamp", stampObject);
+        rootObject.put("values", valuesObject);
+
+        // write to a temp file and then move it into place, so that a crash mid-write can't corrupt the file
+        File tempFile = new File(infoFile.getParentFile(), infoFile.getName() + ".tmp");
+        try {
+            infoFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+                rootObject.writeJSONString(writer);
+            }
+            Files.move(tempFile.toPath(), infoFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            LOG.error("Could not write the persisted workspace info {}", ioe, infoFile.getAbsolutePath());
+        }
+    }
+
+    private static String stampOf(File file) {
+        if (!file.isFile()) {
+            return "absent";
+        }
+        return file.length() + ":" + file.lastModified();
+    }
+}
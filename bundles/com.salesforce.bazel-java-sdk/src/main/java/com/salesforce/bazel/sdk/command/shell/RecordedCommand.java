@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A Bazel command captured by the {@link RecordingCommandBuilder}: its arguments, the lines it wrote to stdout and
+ * stderr, its exit code and how long it ran. Each command is stored as one JSON file in a fixture directory, so that
+ * it can be served back without Bazel.
+ * <p>
+ * The lines are those that the {@link SelectOutputStream} passed to the selectors, so the output of the command is the
+ * lines joined with line breaks: if the output ended with a line break, the last line is empty.
+ * <p>
+ * The arguments do not include the Bazel executable, which differs between machines. The absolute path of the
+ * workspace is replaced with {@link #WORKSPACE_TOKEN} in the arguments and the output, so that a fixture can be
+ * replayed against a workspace at another location. Other absolute paths (e.g. of the output base) are kept as they
+ * are, and files that the command wrote are not captured.
+ */
+public class RecordedCommand {
+    public static final String WORKSPACE_TOKEN = "${workspace}";
+
+    public static final String FIXTURE_FILE_PREFIX = "bazel-command-";
+    public static final String FIXTURE_FILE_SUFFIX = ".json";
+
+    // bump this if the layout of the file changes
+    private static final long FORMAT_VERSION = 1;
+
+    public final List<String> args;
+    public final List<String> outputLines;
+    public final List<String> errorLines;
+    public final int exitCode;
+    public final long durationMS;
+
+    public RecordedCommand(List<String> args, List<String> outputLines, List<String> errorLines, int exitCode,
+            long durationMS) {
+        this.args = Collections.unmodifiableList(new ArrayList<>(args));
+        this.outputLines = Collections.unmodifiableList(new ArrayList<>(outputLines));
+        this.errorLines = Collections.unmodifiableList(new ArrayList<>(errorLines));
+        this.exitCode = exitCode;
+        this.durationMS = durationMS;
+    }
+
+    /**
+     * Returns the name of the fixture file of the command with the passed sequence number. The names sort in the order
+     * the commands were recorded.
+     */
+    public static String getFixtureFileName(int sequence) {
+        return FIXTURE_FILE_PREFIX + String.format("%06d", sequence) + FIXTURE_FILE_SUFFIX;
+    }
+
+    /**
+     * Returns the fixture files in the directory, in the order the commands were recorded.
+     */
+    public static List<File> listFixtureFiles(File fixtureDirectory) {
+        File[] files = fixtureDirectory.listFiles((dir, name) -> name.startsWith(FIXTURE_FILE_PREFIX)
+                && name.endsWith(FIXTURE_FILE_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Replaces the absolute path of the workspace with {@link #WORKSPACE_TOKEN}, or the token with the path if
+     * <code>toToken</code> is false.
+     */
+    public static List<String> replaceWorkspacePath(List<String> lines, File workspaceDirectory, boolean toToken) {
+        String workspacePath = workspaceDirectory.getAbsolutePath();
+        String from = toToken ? workspacePath : WORKSPACE_TOKEN;
+        String to = toToken ? WORKSPACE_TOKEN : workspacePath;
+        List<String> replaced = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            replaced.add(line.replace(from, to));
+        }
+        return replaced;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void write(File fixtureFile) throws IOException {
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("format", FORMAT_VERSION);
+        rootObject.put("args", toJSONArray(args));
+        rootObject.put("exitCode", exitCode);
+        rootObject.put("durationMillis", durationMS);
+        rootObject.put("stdout", toJSONArray(outputLines));
+        rootObject.put("stderr", toJSONArray(errorLines));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(fixtureFile), StandardCharsets.UTF_8)) {
+            rootObject.writeJSONString(writer);
+        }
+    }
+
+    public static RecordedCommand read(File fixtureFile) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(fixtureFile), StandardCharsets.UTF_8)) {
+            JSONObject rootObject = (JSONObject) new JSONParser().parse(reader);
+            Object format = rootObject.get("format");
+            if (!(format instanceof Long) || ((Long) format != FORMAT_VERSION)) {
+                throw new IOException("Recorded command " + fixtureFile.getAbsolutePath() + " has an unknown format");
+            }
+            return new RecordedCommand(toStringList((JSONArray) rootObject.get("args")),
+                    toStringList((JSONArray) rootObject.get("stdout")),
+                    toStringList((JSONArray) rootObject.get("stderr")),
+                    ((Long) rootObject.get("exitCode")).intValue(), (Long) rootObject.get("durationMillis"));
+        } catch (ParseException | ClassCastException | NullPointerException badFileE) {
+            throw new IOException("Recorded command " + fixtureFile.getAbsolutePath() + " could not be parsed",
+                    badFileE);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray toJSONArray(List<String> strings) {
+        JSONArray array = new JSONArray();
+        array.addAll(strings);
+        return array;
+    }
+
+    private static List<String> toStringList(JSONArray array) {
+        List<String> strings = new ArrayList<>(array.size());
+        for (Object element : array) {
+            strings.add((String) element);
+        }
+        return strings;
+    }
+
+    @Override
+    public String toString() {
+        return args + " exitCode=" + exitCode + " durationMillis=" + durationMS + " stdoutLines="
+                + outputLines.size() + " stderrLines=" + errorLines.size();
+    }
+}
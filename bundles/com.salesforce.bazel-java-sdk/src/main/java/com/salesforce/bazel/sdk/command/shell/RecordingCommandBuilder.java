@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+import com.salesforce.bazel.sdk.command.BazelProcessBuilder;
+import com.salesforce.bazel.sdk.command.Command;
+import com.salesforce.bazel.sdk.command.CommandBuilder;
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * A CommandBuilder that runs the commands with another builder (typically a {@link ShellCommandBuilder}) and records
+ * each command that is run as a {@link RecordedCommand} in a fixture directory. The commands behave exactly as they
+ * would without recording, the selectors and consumers of the caller see the same lines.
+ * <p>
+ * The fixtures can be served back by the ReplayCommandBuilder of the test framework, so that tests and benchmarks can
+ * run against the captured output of a real workspace without Bazel.
+ */
+public class RecordingCommandBuilder extends CommandBuilder {
+    private static final LogHelper LOG = LogHelper.log(RecordingCommandBuilder.class);
+
+    private final CommandBuilder delegate;
+    private final File fixtureDirectory;
+    private final AtomicInteger sequence;
+
+    public RecordingCommandBuilder(CommandBuilder delegate, File fixtureDirectory) {
+        super(delegate.getConsoleFactory());
+        this.delegate = delegate;
+        this.fixtureDirectory = fixtureDirectory;
+        fixtureDirectory.mkdirs();
+        // add to the fixtures of an earlier recording
+        sequence = new AtomicInteger(RecordedCommand.listFixtureFiles(fixtureDirectory).size());
+    }
+
+    public File getFixtureDirectory() {
+        return fixtureDirectory;
+    }
+
+    @Override
+    protected Command build_impl() throws IOException {
+        List<String> outputLines = Collections.synchronizedList(new ArrayList<>());
+        List<String> errorLines = Collections.synchronizedList(new ArrayList<>());
+
+        delegate.setConsoleName(consoleName).setDirectory(directory).addArguments(args).setStandardOutput(stdout)
+                .setStandardError(stderr)
+                .setStdoutLineSelector(recordingSelector(outputLines, stdoutSelector, stdoutLineConsumer))
+                .setStderrLineSelector(recordingSelector(errorLines, stderrSelector, stderrLineConsumer))
+                .setStdoutLineConsumer(stdoutLineConsumer).setStderrLineConsumer(stderrLineConsumer)
+                .setProgressMonitor(progressMonitor).setTimeout(timeoutMS).setPriority(priority);
+        Command command = delegate.build();
+
+        return new RecordingCommand(command, new ArrayList<>(args), directory, outputLines, errorLines,
+                sequence.incrementAndGet());
+    }
+
+    /**
+     * Returns a selector that records every line, and then selects it as the caller's selector would have.
+     */
+    private static Function<String, String> recordingSelector(List<String> recordedLines,
+            Function<String, String> selector, Consumer<String> lineConsumer) {
+        // a consumer without a selector selects every line, see SelectOutputStream
+        Function<String, String> callerSelector =
+                ((selector == null) && (lineConsumer != null)) ? Function.identity() : selector;
+        return line -> {
+            recordedLines.add(line);
+            return (callerSelector != null) ? callerSelector.apply(line) : null;
+        };
+    }
+
+    private class RecordingCommand implements Command {
+        private final Command command;
+        private final List<String> args;
+        private final File directory;
+        private final List<String> outputLines;
+        private final List<String> errorLines;
+        private final int commandSequence;
+
+        RecordingCommand(Command command, List<String> args, File directory, List<String> outputLines,
+                List<String> errorLines, int commandSequence) {
+            this.command = command;
+            this.args = args;
+            this.directory = directory;
+            this.outputLines = outputLines;
+            this.errorLines = errorLines;
+            this.commandSequence = commandSequence;
+        }
+
+        @Override
+        public int run() throws IOException, InterruptedException {
+            long startTimeMS = System.currentTimeMillis();
+            int exitCode = command.run();
+            long durationMS = System.currentTimeMillis() - startTimeMS;
+
+            // the Bazel executable is not part of the recording
+            List<String> bazelArgs = args.isEmpty() ? args : args.subList(1, args.size());
+            // copying the synchronized lists takes their locks
+            RecordedCommand recordedCommand = new RecordedCommand(
+                    RecordedCommand.replaceWorkspacePath(bazelArgs, directory, true),
+                    RecordedCommand.replaceWorkspacePath(new ArrayList<>(outputLines), directory, true),
+                    RecordedCommand.replaceWorkspacePath(new ArrayList<>(errorLines), directory, true), exitCode,
+                    durationMS);
+            File fixtureFile = new File(fixtureDirectory, RecordedCommand.getFixtureFileName(commandSequence));
+            try {
+                recordedCommand.write(fixtureFile);
+            } catch (IOException ioe) {
+                // the recording is a side product, it must not fail the command
+                LOG.error("Could not record Bazel command {} to {}", ioe, args, fixtureFile.getAbsolutePath());
+            }
+            return exitCode;
+        }
+
+        @Override
+        public List<String> getSelectedErrorLines() {
+            return command.getSelectedErrorLines();
+        }
+
+        @Override
+        public List<String> getSelectedOutputLines() {
+            return command.getSelectedOutputLines();
+        }
+
+        @Override
+        public BazelProcessBuilder getProcessBuilder() {
+            return command.getProcessBuilder();
+        }
+
+        @Override
+        public BazelCommandPriority getPriority() {
+            return command.getPriority();
+        }
+
+        @Override
+        public long getOutputByteCount() {
+            return command.getOutputByteCount();
+        }
+
+        @Override
+        public long getErrorByteCount() {
+            return command.getErrorByteCount();
+        }
+    }
+}
@@ -36,27 +36,39 @@
 
 package com.salesforce.bazel.sdk.command.shell;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
  * A wrapper output stream to output part of the result to a given output and extracting the other part with a selector
  * function. The other part is return as a list of string.
+ * <p>
+ * Bazel can write hundreds of MB to this stream, so the bulk {@link #write(byte[], int, int)} scans for line breaks in
+ * place: a line that arrives in one write is decoded and forwarded straight from the caller's buffer, and only the
+ * bytes of a line that spans writes are copied into a reusable buffer. Each line is decoded once.
  */
 public class SelectOutputStream extends OutputStream {
+    private static final int INITIAL_LINE_CAPACITY = 256;
+    private static final int MAX_RETAINED_LINE_CAPACITY = 64 * 1024;
 
     private final OutputStream output;
     private final Function<String, String> selector;
+    private final Consumer<String> lineConsumer;
     private boolean closed = false;
-    private final List<String> lines = new LinkedList<>();
-    private final List<String> outputLines = new LinkedList<>();
-    private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    private final List<String> lines = new ArrayList<>();
+    private final List<String> outputLines = new ArrayList<>();
+
+    // the start of the current line, when it spans more than one write
+    private byte[] pending = new byte[INITIAL_LINE_CAPACITY];
+    private int pendingLength = 0;
+    private long byteCount = 0;
 
     /**
      * Create a SelectOutputStream. <code>output<code> is the output stream where non-selected lines
@@ -70,40 +82,122 @@ public class SelectOutputStream extends OutputStream {
      * will be discarded. If <code>selector</code> is null, all lines will be considered as unselected.
      */
     public SelectOutputStream(OutputStream output, Function<String, String> selector) {
+        this(output, selector, null);
+    }
+
+    /**
+     * Create a SelectOutputStream that passes the selected lines to <code>lineConsumer</code> as they arrive, instead
+     * of storing them. If <code>selector</code> is null, all lines are selected.
+     */
+    public SelectOutputStream(OutputStream output, Function<String, String> selector,
+            Consumer<String> lineConsumer) {
         super();
         this.output = output;
-        this.selector = selector;
+        this.selector = ((selector == null) && (lineConsumer != null)) ? Function.identity() : selector;
+        this.lineConsumer = lineConsumer;
     }
 
     @Override
     public void write(int b) throws IOException {
-        if (closed) {
-            throw new IllegalStateException("Attempted to write on a closed stream");
-        }
+        checkOpen();
+        byteCount++;
         byte b0 = (byte) b;
+        appendPending(b0);
         if (b0 == '\n') {
-            select(true);
-        } else {
-            stream.write(b);
+            selectPending(true);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        Objects.checkFromIndexSize(off, len, b.length);
+        byteCount += len;
+        int end = off + len;
+        int lineStart = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] != '\n') {
+                continue;
+            }
+            if (pendingLength == 0) {
+                // the whole line is in the caller's buffer, followed by its line break
+                select(b, lineStart, i - lineStart, true);
+            } else {
+                appendPending(b, lineStart, (i + 1) - lineStart);
+                selectPending(true);
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < end) {
+            appendPending(b, lineStart, end - lineStart);
         }
     }
 
-    private void select(boolean appendNewLine) throws UnsupportedEncodingException, IOException {
+    /**
+     * Handles one line. If <code>appendNewLine</code> is true, the byte that follows the line is its line break.
+     */
+    private void select(byte[] bytes, int offset, int length, boolean appendNewLine) throws IOException {
+        int outputLength = appendNewLine ? length + 1 : length;
+        String outputLine = null;
         String line = null;
         if (selector != null) {
-            line = selector.apply(stream.toString(StandardCharsets.UTF_8.name()));
+            String text;
+            if (output != null) {
+                // decode once, the unselected line is kept with its line break
+                outputLine = new String(bytes, offset, outputLength, StandardCharsets.UTF_8);
+                text = appendNewLine ? outputLine.substring(0, outputLine.length() - 1) : outputLine;
+            } else {
+                text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            }
+            line = selector.apply(text);
         }
 
         if (line != null) {
-            lines.add(line);
+            if (lineConsumer != null) {
+                lineConsumer.accept(line);
+            } else {
+                lines.add(line);
+            }
         } else if (output != null) {
-            if (appendNewLine) {
-                stream.write('\n');
+            output.write(bytes, offset, outputLength);
+            if (outputLine == null) {
+                outputLine = new String(bytes, offset, outputLength, StandardCharsets.UTF_8);
             }
-            output.write(stream.toByteArray());
-            outputLines.add(stream.toString(StandardCharsets.UTF_8.name()));
+            outputLines.add(outputLine);
+        }
+    }
+
+    private void selectPending(boolean appendNewLine) throws IOException {
+        int length = appendNewLine ? pendingLength - 1 : pendingLength;
+        pendingLength = 0;
+        select(pending, 0, length, appendNewLine);
+        if (pending.length > MAX_RETAINED_LINE_CAPACITY) {
+            // do not hold on to the buffer of an unusually long line
+            pending = new byte[INITIAL_LINE_CAPACITY];
+        }
+    }
+
+    private void appendPending(byte b) {
+        ensurePendingCapacity(pendingLength + 1);
+        pending[pendingLength++] = b;
+    }
+
+    private void appendPending(byte[] bytes, int offset, int length) {
+        ensurePendingCapacity(pendingLength + length);
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private void ensurePendingCapacity(int capacity) {
+        if (capacity > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(capacity, pending.length * 2));
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Attempted to write on a closed stream");
         }
-        stream.reset();
     }
 
     @Override
@@ -112,7 +206,10 @@ public class SelectOutputStream extends OutputStream {
             throw new IllegalStateException("Attempted to close a closed stream");
         }
         super.close();
-        select(false);
+        if ((pendingLength > 0) || (lineConsumer == null)) {
+            // output that ends with a line break has no last line to push
+            selectPending(false);
+        }
         closed = true;
     }
 
@@ -123,6 +220,13 @@ public class SelectOutputStream extends OutputStream {
         return lines;
     }
 
+    /**
+     * Returns the number of bytes written to this stream, selected or not.
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
     /**
      * Returns the list of output lines.
      */
@@ -38,13 +38,18 @@ package com.salesforce.bazel.sdk.command.shell;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
 import com.salesforce.bazel.sdk.command.BazelProcessBuilder;
 import com.salesforce.bazel.sdk.command.Command;
 import com.salesforce.bazel.sdk.command.CommandBuilder;
@@ -80,6 +85,7 @@ public final class ShellCommand implements Command {
     private final SelectOutputStream stdout;
     private final SelectOutputStream stderr;
     private final WorkProgressMonitor progressMonitor;
+    private final BazelCommandPriority priority;
 
     // TODO ShellCommand timeouts are not usable; if a command times out subsequent commands hang, etc.
     // https://github.com/salesforce/bazel-eclipse/issues/191
@@ -88,8 +94,9 @@ public final class ShellCommand implements Command {
     private boolean executed = false;
 
     ShellCommand(CommandConsole console, File directory, List<String> args, Function<String, String> stdoutSelector,
-            Function<String, String> stderrSelector, OutputStream stdout, OutputStream stderr,
-            WorkProgressMonitor progressMonitor, long timeoutMS) {
+            Function<String, String> stderrSelector, Consumer<String> stdoutLineConsumer,
+            Consumer<String> stderrLineConsumer, OutputStream stdout, OutputStream stderr,
+            WorkProgressMonitor progressMonitor, long timeoutMS, BazelCommandPriority priority) {
         this.directory = directory;
         this.args = args;
         if (console != null) {
@@ -100,11 +107,16 @@ public final class ShellCommand implements Command {
                 stderr = console.createErrorStream();
             }
         }
-        this.stderr = new SelectOutputStream(stderr, stderrSelector);
-        this.stdout = new SelectOutputStream(stdout, stdoutSelector);
+        this.stderr = new SelectOutputStream(stderr, stderrSelector, stderrLineConsumer);
+        this.stdout = new SelectOutputStream(stdout, stdoutSelector, stdoutLineConsumer);
         this.progressMonitor = progressMonitor;
         this.timeoutMS = timeoutMS;
+        this.priority = priority;
+    }
 
+    @Override
+    public BazelCommandPriority getPriority() {
+        return priority;
     }
 
     /**
@@ -158,15 +170,12 @@ public final class ShellCommand implements Command {
         boolean success = false;
 
         try {
-            Thread err = copyStream(process.getErrorStream(), stderr);
-            Thread out = copyStream(process.getInputStream(), stdout);
+            StreamPumpExecutor pumps = StreamPumpExecutor.getShared();
+            Future<Void> err = pumps.pump(process.getErrorStream(), stderr);
+            Future<Void> out = pumps.pump(process.getInputStream(), stdout);
             int exitCode = process.waitFor();
-            if (err != null) {
-                err.join(timeoutMS);
-            }
-            if (out != null) {
-                out.join(timeoutMS);
-            }
+            awaitPump(err);
+            awaitPump(out);
             success = exitCode == 0;
             return exitCode;
         } catch (InterruptedException interrupted) {
@@ -215,40 +224,23 @@ public final class ShellCommand implements Command {
         } catch (Exception ignore) {}
     }
 
-    private static class CopyStreamRunnable implements Runnable {
-        private final InputStream inputStream;
-        private final OutputStream outputStream;
-
-        CopyStreamRunnable(InputStream inputStream, OutputStream outputStream) {
-            this.inputStream = inputStream;
-            this.outputStream = outputStream;
-        }
-
-        @Override
-        public void run() {
-            byte[] buffer = new byte[4096];
-            int read;
-            try {
-                while ((read = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, read);
-                }
-            } catch (Exception ex) {
-                LOG.error("Error writing command stream to the channel.", ex);
-                // we simply terminate the thread on exceptions
+    /**
+     * Waits for a pump to copy the rest of the process output, for at most the timeout of the command.
+     */
+    private void awaitPump(Future<Void> pump) throws InterruptedException {
+        try {
+            if (timeoutMS > 0) {
+                pump.get(timeoutMS, TimeUnit.MILLISECONDS);
+            } else {
+                pump.get();
             }
+        } catch (TimeoutException te) {
+            LOG.info("The output of the command was not fully read within {} millis", timeoutMS);
+        } catch (ExecutionException ee) {
+            // the pump logs its own failures
         }
     }
 
-    // Launch a thread to copy all data from inputStream to outputStream
-    private static Thread copyStream(InputStream inputStream, OutputStream outputStream) {
-        if (outputStream != null) {
-            Thread t = new Thread(new CopyStreamRunnable(inputStream, outputStream), "CopyStream");
-            t.start();
-            return t;
-        }
-        return null;
-    }
-
     /**
      * Returns the list of lines selected from the standard error stream. Lines printed to the standard error stream by
      * the executed command can be filtered to be added to that list.
@@ -271,6 +263,16 @@ public final class ShellCommand implements Command {
         return stdout.getLines();
     }
 
+    @Override
+    public long getOutputByteCount() {
+        return stdout.getByteCount();
+    }
+
+    @Override
+    public long getErrorByteCount() {
+        return stderr.getByteCount();
+    }
+
     /**
      * Returns a {@link CommandBuilder} object to use to create a {@link ShellCommand} object.
      */
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.salesforce.bazel.sdk.logging.LogHelper;
+
+/**
+ * Copies the output streams of the processes started by {@link ShellCommand} to their destinations.
+ * <p>
+ * Each command needs two pumps (stdout and stderr) for as long as the process runs, and a classpath refresh across
+ * hundreds of projects runs thousands of short commands, so the pumps share an executor instead of starting two
+ * threads per command. On a JVM with virtual threads each pump gets a virtual thread. Otherwise the pumps run on a
+ * pool of reusable daemon threads; a pump can never be queued (the process would block on a full pipe), so when the
+ * pool is exhausted, or after {@link #shutdown()}, the pump gets a dedicated thread as before.
+ * <p>
+ * The copy buffers are recycled between pumps.
+ */
+public class StreamPumpExecutor {
+    private static final LogHelper LOG = LogHelper.log(StreamPumpExecutor.class);
+
+    public static final int DEFAULT_MAX_POOL_THREADS = 32;
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETAINED_BUFFERS = 16;
+
+    private static final StreamPumpExecutor SHARED = new StreamPumpExecutor(true, DEFAULT_MAX_POOL_THREADS);
+    private static final AtomicInteger PUMP_THREAD_COUNT = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final LongAdder dedicatedThreadCount = new LongAdder();
+
+    /**
+     * The executor used by all shell commands. Shut it down when the host application stops.
+     */
+    public static StreamPumpExecutor getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param useVirtualThreads
+     *            use virtual threads if the JVM supports them
+     * @param maxPoolThreads
+     *            the maximum number of pooled pump threads, when virtual threads are not used
+     */
+    public StreamPumpExecutor(boolean useVirtualThreads, int maxPoolThreads) {
+        ExecutorService virtualExecutor = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtualThreads = true;
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(0, maxPoolThreads, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), StreamPumpExecutor::newPumpThread);
+            executor = pool;
+            virtualThreads = false;
+        }
+    }
+
+    /**
+     * Starts copying the input stream to the output stream, until the input stream is exhausted. The returned task
+     * completes when the copy is done.
+     */
+    public FutureTask<Void> pump(InputStream inputStream, OutputStream outputStream) {
+        FutureTask<Void> task = new FutureTask<>(() -> copy(inputStream, outputStream), null);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ree) {
+            dedicatedThreadCount.increment();
+            newPumpThread(task).start();
+        }
+        return task;
+    }
+
+    /**
+     * Stops accepting pumps on the executor; pumps that are running finish their copy. Later pumps get dedicated
+     * threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        buffers.clear();
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * The number of pumps that did not fit on the executor and were given a dedicated thread.
+     */
+    public long getDedicatedThreadCount() {
+        return dedicatedThreadCount.sum();
+    }
+
+    // INTERNAL
+
+    private void copy(InputStream inputStream, OutputStream outputStream) {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        int read;
+        try {
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+        } catch (Exception ex) {
+            LOG.error("Error writing command stream to the channel.", ex);
+            // we simply terminate the pump on exceptions
+        } finally {
+            if (buffers.size() < MAX_RETAINED_BUFFERS) {
+                buffers.offer(buffer);
+            }
+        }
+    }
+
+    private static Thread newPumpThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "CopyStream-" + PUMP_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively, as the SDK targets Java 11.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception anyE) {
+            // older JVM, or virtual threads are a preview feature that is not enabled
+            return null;
+        }
+    }
+}
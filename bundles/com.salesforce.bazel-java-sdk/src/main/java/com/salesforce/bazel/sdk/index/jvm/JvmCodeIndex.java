@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
 import com.salesforce.bazel.sdk.index.CodeIndex;
 import com.salesforce.bazel.sdk.index.CodeIndexEntry;
 import com.salesforce.bazel.sdk.index.jvm.jar.JarIdentiferResolver;
@@ -83,6 +84,7 @@ public class JvmCodeIndex extends CodeIndex {
     /**
      * Builds an index for an entire workspace, which can be a very expensive operation.
      */
+    @SuppressWarnings("try") // the priority scope is only entered and closed
     public static synchronized JvmCodeIndex buildWorkspaceIndex(BazelWorkspace bazelWorkspace,
             BazelExternalJarRuleManager externalJarRuleManager, List<File> additionalJarLocations,
             WorkProgressMonitor progressMonitor) {
@@ -92,27 +94,31 @@ public class JvmCodeIndex extends CodeIndex {
         }
         LOG.info("Building the type index for workspace {}, this may take some time...", bazelWorkspace.getName());
 
-        index = new JvmCodeIndex();
-        List<File> locations = new ArrayList<>();
-
-        // for each jar downloading rule type in the workspace, add the appropriate local directories of the downloaded jars
-        List<BazelExternalJarRuleType> ruleTypes = externalJarRuleManager.findInUseExternalJarRuleTypes(bazelWorkspace);
-        for (BazelExternalJarRuleType ruleType : ruleTypes) {
-            List<File> ruleSpecificLocations = ruleType.getDownloadedJarLocations(bazelWorkspace);
-            locations.addAll(ruleSpecificLocations);
-        }
-
-        // add internal location (jars built by the bazel workspace
-        addInternalLocations(index, locations);
-
-        // add the additional directories the user wants to search
-        if (additionalJarLocations != null) {
-            locations.addAll(additionalJarLocations);
-        }
-
-        // now build the index
-        for (File location : locations) {
-            processLocation(bazelWorkspace, externalJarRuleManager, index, location, progressMonitor);
+        // nobody waits on the index, so the Bazel commands it needs must not hold up interactive requests
+        try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+            index = new JvmCodeIndex();
+            List<File> locations = new ArrayList<>();
+
+            // for each jar downloading rule type in the workspace, add the appropriate local directories of the downloaded jars
+            List<BazelExternalJarRuleType> ruleTypes =
+                    externalJarRuleManager.findInUseExternalJarRuleTypes(bazelWorkspace);
+            for (BazelExternalJarRuleType ruleType : ruleTypes) {
+                List<File> ruleSpecificLocations = ruleType.getDownloadedJarLocations(bazelWorkspace);
+                locations.addAll(ruleSpecificLocations);
+            }
+
+            // add internal location (jars built by the bazel workspace
+            addInternalLocations(index, locations);
+
+            // add the additional directories the user wants to search
+            if (additionalJarLocations != null) {
+                locations.addAll(additionalJarLocations);
+            }
+
+            // now build the index
+            for (File location : locations) {
+                processLocation(bazelWorkspace, externalJarRuleManager, index, location, progressMonitor);
+            }
         }
 
         workspaceIndices.put(bazelWorkspace.getName(), index);
@@ -27,7 +27,9 @@ import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
@@ -80,6 +82,42 @@ public class BazelQueryProjectStructureStrategy extends ProjectStructureStrategy
         return structure;
     }
 
+    /**
+     * Runs one source file query for many packages, instead of one query per package. If the batched query fails, the
+     * packages are analyzed one at a time.
+     */
+    @Override
+    public Map<BazelPackageLocation, ProjectStructure> doStructureAnalysis(BazelWorkspace bazelWorkspace,
+            Collection<BazelPackageLocation> packageNodes, BazelWorkspaceCommandRunner commandRunner) {
+
+        File workspaceRootDir = bazelWorkspace.getBazelWorkspaceRootDirectory();
+        Map<BazelPackageLocation, BazelLabel> packageLabels = new LinkedHashMap<>();
+        for (BazelPackageLocation packageNode : packageNodes) {
+            String labelPath =
+                    packageNode.getBazelPackageFSRelativePath().replaceAll(FSPathHelper.WINDOWS_BACKSLASH_REGEX, "/");
+            packageLabels.put(packageNode, new BazelLabel(labelPath, BazelLabel.BAZEL_WILDCARD_ALLTARGETS_STAR));
+        }
+
+        Map<BazelLabel, Collection<String>> queryResults =
+                runBazelQueryForSourceFiles(workspaceRootDir, packageLabels.values(), commandRunner);
+        if (queryResults == null) {
+            LOG.info("Querying the {} packages for source files one at a time.", packageLabels.size());
+            return super.doStructureAnalysis(bazelWorkspace, packageNodes, commandRunner);
+        }
+
+        Map<BazelPackageLocation, ProjectStructure> results = new LinkedHashMap<>();
+        for (Map.Entry<BazelPackageLocation, BazelLabel> packageLabel : packageLabels.entrySet()) {
+            String packageRelPath = packageLabel.getKey().getBazelPackageFSRelativePath();
+            File packageDir = new File(workspaceRootDir, packageRelPath);
+            ProjectStructure structure = processQueryResults(packageRelPath, packageDir, packageLabel.getValue(),
+                queryResults.get(packageLabel.getValue()));
+            if (structure != null) {
+                results.put(packageLabel.getKey(), structure);
+            }
+        }
+        return results;
+    }
+
     // INTERNALS
 
     protected ProjectStructure processQueryResults(String packageRelPath, File packageDir, BazelLabel packageLabel,
@@ -196,6 +234,17 @@ public class BazelQueryProjectStructureStrategy extends ProjectStructureStrategy
         return results;
     }
 
+    protected Map<BazelLabel, Collection<String>> runBazelQueryForSourceFiles(File workspaceRootDir,
+            Collection<BazelLabel> packageLabels, BazelWorkspaceCommandRunner commandRunner) {
+        Map<BazelLabel, Collection<String>> results = null;
+        try {
+            results = commandRunner.querySourceFilesForPackages(workspaceRootDir, packageLabels);
+        } catch (Exception anyE) {
+            LOG.error("Failed querying {} packages for source files.", anyE, packageLabels.size());
+        }
+        return results;
+    }
+
     /**
      * Splits the source path into the basePath and relativeSrcPath. src/main/java/com/salesforce/foo => src/main/java,
      * com/salesforce/foo
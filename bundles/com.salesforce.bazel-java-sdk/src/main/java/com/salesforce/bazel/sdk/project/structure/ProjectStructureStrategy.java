@@ -24,7 +24,10 @@
 package com.salesforce.bazel.sdk.project.structure;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
 import com.salesforce.bazel.sdk.lang.jvm.MavenProjectStructureStrategy;
@@ -85,6 +88,36 @@ public abstract class ProjectStructureStrategy {
         return result;
     }
 
+    /**
+     * Determines the structure of many packages at once, which lets strategies that run Bazel commands (such as the
+     * Bazel Query strategy) batch them. Each package is passed to the strategies in order until one recognizes it, as
+     * in {@link #determineProjectStructure(BazelWorkspace, BazelPackageLocation, BazelWorkspaceCommandRunner)}. The
+     * packages that no strategy recognized are missing from the returned map.
+     */
+    public static Map<BazelPackageLocation, ProjectStructure> determineProjectStructures(
+            BazelWorkspace bazelWorkspace, Collection<BazelPackageLocation> packageNodes,
+            BazelWorkspaceCommandRunner commandRunner) {
+        Map<BazelPackageLocation, ProjectStructure> results = new LinkedHashMap<>();
+        List<BazelPackageLocation> remainingPackageNodes = new ArrayList<>(packageNodes);
+
+        for (ProjectStructureStrategy strategy : ProjectStructureStrategy.projectStructureStrategies) {
+            if (!strategy.enabled || remainingPackageNodes.isEmpty()) {
+                continue;
+            }
+            Map<BazelPackageLocation, ProjectStructure> strategyResults =
+                    strategy.doStructureAnalysis(bazelWorkspace, remainingPackageNodes, commandRunner);
+            for (Map.Entry<BazelPackageLocation, ProjectStructure> strategyResult : strategyResults.entrySet()) {
+                if (strategyResult.getValue() != null) {
+                    LOG.info("Package {} file layout was processed by the {}",
+                        strategyResult.getKey().getBazelPackageFSRelativePath(), strategy.getClass().getName());
+                    results.put(strategyResult.getKey(), strategyResult.getValue());
+                    remainingPackageNodes.remove(strategyResult.getKey());
+                }
+            }
+        }
+        return results;
+    }
+
     // INSTANCES
 
     /**
@@ -114,4 +147,21 @@ public abstract class ProjectStructureStrategy {
      */
     public abstract ProjectStructure doStructureAnalysis(BazelWorkspace bazelWorkspace,
             BazelPackageLocation packageNode, BazelWorkspaceCommandRunner commandRunner);
+
+    /**
+     * Inspect many projects and determine their structure. Returns the structure of each project that this strategy
+     * is suited to analyze. The default implementation analyzes one project at a time, strategies that can do better
+     * for many projects (e.g. by batching Bazel commands) override it.
+     */
+    public Map<BazelPackageLocation, ProjectStructure> doStructureAnalysis(BazelWorkspace bazelWorkspace,
+            Collection<BazelPackageLocation> packageNodes, BazelWorkspaceCommandRunner commandRunner) {
+        Map<BazelPackageLocation, ProjectStructure> results = new LinkedHashMap<>();
+        for (BazelPackageLocation packageNode : packageNodes) {
+            ProjectStructure result = doStructureAnalysis(bazelWorkspace, packageNode, commandRunner);
+            if (result != null) {
+                results.put(packageNode, result);
+            }
+        }
+        return results;
+    }
 }
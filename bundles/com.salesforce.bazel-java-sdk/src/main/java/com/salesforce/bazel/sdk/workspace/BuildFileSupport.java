@@ -39,7 +39,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.salesforce.bazel.sdk.logging.LogHelper;
 import com.salesforce.bazel.sdk.model.BazelTargetKind;
@@ -50,6 +56,9 @@ import com.salesforce.bazel.sdk.model.BazelTargetKind;
 public class BuildFileSupport {
     static final LogHelper LOG = LogHelper.log(BuildFileSupport.class);
 
+    // matches the first argument of a load() statement: load("//tools/build:defs.bzl", "java_thing")
+    private static final Pattern LOAD_STATEMENT_PATTERN = Pattern.compile("load\\(\\s*[\"']([^\"']+)[\"']");
+
     /**
      * Parses a File, presumed to be a Bazel BUILD file, looking for indications that it contains rules kinds that are
      * registered with the SDK (and therefore interesting).
@@ -103,4 +112,30 @@ public class BuildFileSupport {
         }
         return false;
     }
+
+    /**
+     * Parses a File, presumed to be a Bazel BUILD or .bzl file, and returns the labels of the .bzl files it loads. The
+     * labels are returned as written in the file (e.g. //tools/build:defs.bzl, :local.bzl, @rules_jvm//:defs.bzl).
+     *
+     * @param buildFile
+     * @return the list of loaded .bzl labels, empty if the file does not exist or cannot be read
+     */
+    public static List<String> getLoadedBzlLabels(File buildFile) {
+        List<String> loadedLabels = new ArrayList<>();
+
+        if (!buildFile.exists() || !buildFile.canRead()) {
+            return loadedLabels;
+        }
+
+        try {
+            String contents = new String(Files.readAllBytes(buildFile.toPath()), StandardCharsets.UTF_8);
+            Matcher matcher = LOAD_STATEMENT_PATTERN.matcher(contents);
+            while (matcher.find()) {
+                loadedLabels.add(matcher.group(1));
+            }
+        } catch (IOException e) {
+            LOG.error(e.getMessage(), e);
+        }
+        return loadedLabels;
+    }
 }
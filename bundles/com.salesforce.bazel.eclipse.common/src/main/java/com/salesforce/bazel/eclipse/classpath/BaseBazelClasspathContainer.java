@@ -52,6 +52,7 @@ import org.osgi.service.prefs.BackingStoreException;
 import com.salesforce.bazel.eclipse.runtime.api.JavaCoreHelper;
 import com.salesforce.bazel.eclipse.runtime.api.ResourceHelper;
 import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
 import com.salesforce.bazel.sdk.lang.jvm.BazelJvmClasspathResponse;
 import com.salesforce.bazel.sdk.lang.jvm.JvmClasspathEntry;
 import com.salesforce.bazel.sdk.logging.LogHelper;
@@ -131,8 +132,11 @@ public abstract class BaseBazelClasspathContainer implements IClasspathContainer
         List<IClasspathEntry> eclipseClasspathEntries = new ArrayList<>();
         synchronized (this) {
 
-            // the Java SDK will produce a list of logical classpath entries
-            computedClasspath = computeClasspath();
+            // the Java SDK will produce a list of logical classpath entries; JDT is waiting on them, so the Bazel
+            // commands this takes should not queue behind background work
+            try (BazelCommandPriority.Scope scope = BazelCommandPriority.INTERACTIVE.enter()) {
+                computedClasspath = computeClasspath();
+            }
 
             // convert the logical entries into concrete Eclipse entries
             for (JvmClasspathEntry entry : computedClasspath.jvmClasspathEntries) {
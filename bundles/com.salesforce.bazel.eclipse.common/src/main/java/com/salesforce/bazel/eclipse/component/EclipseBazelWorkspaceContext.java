@@ -1,10 +1,22 @@
 package com.salesforce.bazel.eclipse.component;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.salesforce.bazel.eclipse.activator.Activator;
+import com.salesforce.bazel.eclipse.preferences.BazelPreferenceKeys;
+import com.salesforce.bazel.eclipse.runtime.api.PreferenceStoreHelper;
+import com.salesforce.bazel.sdk.command.BazelServerWarmer;
 import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
 import com.salesforce.bazel.sdk.logging.LogHelper;
+import com.salesforce.bazel.sdk.model.BazelLabel;
 import com.salesforce.bazel.sdk.model.BazelWorkspace;
+import com.salesforce.bazel.sdk.project.BazelProject;
+import com.salesforce.bazel.sdk.project.BazelProjectManager;
 
 public class EclipseBazelWorkspaceContext {
     private static final LogHelper LOG = LogHelper.log(EclipseBazelWorkspaceContext.class);
@@ -18,6 +30,12 @@ public class EclipseBazelWorkspaceContext {
      * Runs bazel commands in the loaded workspace.
      */
     private BazelWorkspaceCommandRunner bazelWorkspaceCommandRunner;
+    /**
+     * Starts the Bazel server of the loaded workspace ahead of time, and keeps it alive if configured.
+     */
+    private BazelServerWarmer serverWarmer;
+
+    private static final String SERVER_WARMUP_JOB_NAME = "Bazel server warmup";
 
     private EclipseBazelWorkspaceContext() {
         bazelWorkspace = null;
@@ -58,6 +76,106 @@ public class EclipseBazelWorkspaceContext {
         BazelWorkspaceCommandRunner commandRunner = getWorkspaceCommandRunner();
         getBazelWorkspace().setBazelWorkspaceMetadataStrategy(commandRunner);
         getBazelWorkspace().setBazelWorkspaceCommandRunner(commandRunner);
+
+        // keep aspect results, bazel info values and query results in the plugin state area, so that they survive
+        // restarts of Eclipse
+        Activator activator = Activator.getDefault();
+        if ((commandRunner != null) && (activator != null)) {
+            commandRunner.enablePersistentAspectCache(activator.getStateLocation().toFile());
+            commandRunner.enablePersistentWorkspaceInfo(activator.getStateLocation().toFile());
+            commandRunner.enablePersistentCommandResultCache(activator.getStateLocation().toFile());
+        }
+        if (commandRunner != null) {
+            startServerWarmer(commandRunner);
+        }
+    }
+
+    /**
+     * Starts the Bazel server of the workspace in a background job, so that the first real command does not pay for
+     * the server startup, and applies the keep-alive preference.
+     */
+    private synchronized void startServerWarmer(BazelWorkspaceCommandRunner commandRunner) {
+        stopServerWarmer();
+        PreferenceStoreHelper prefs = ComponentContext.getInstance().getPreferenceStoreHelper();
+        if ((prefs != null) && prefs.getBoolean(BazelPreferenceKeys.DISABLE_SERVER_WARMUP)) {
+            LOG.info("The Bazel server warmup is disabled.");
+            return;
+        }
+        BazelServerWarmer warmer = new BazelServerWarmer(commandRunner);
+        serverWarmer = warmer;
+        long keepAliveMinutes = getKeepAliveMinutes(prefs);
+        if (keepAliveMinutes > 0) {
+            warmer.setKeepAliveInterval(keepAliveMinutes, TimeUnit.MINUTES);
+        }
+
+        Job warmupJob = Job.create(SERVER_WARMUP_JOB_NAME, monitor -> {
+            try {
+                warmer.warmup(getImportedPackageLabels());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (Exception anyE) {
+                // not fatal, the first real command starts the server instead
+                LOG.error("The Bazel server warmup failed.", anyE);
+            }
+        });
+        warmupJob.setSystem(true);
+        warmupJob.schedule();
+    }
+
+    /**
+     * Stops the keep-alive of the Bazel server, if there is one.
+     */
+    public synchronized void stopServerWarmer() {
+        if (serverWarmer != null) {
+            serverWarmer.stop();
+            serverWarmer = null;
+        }
+    }
+
+    /**
+     * Writes the aspect cache in the plugin state area now, rather than leaving it to the background write. Called when
+     * the plugin stops.
+     */
+    public void savePersistentCaches() {
+        BazelWorkspaceCommandRunner commandRunner = bazelWorkspaceCommandRunner;
+        if (commandRunner != null) {
+            commandRunner.savePersistentAspectCache();
+        }
+    }
+
+    private static long getKeepAliveMinutes(PreferenceStoreHelper prefs) {
+        if (prefs == null) {
+            return 0;
+        }
+        String keepAliveMinutes = prefs.getString(BazelPreferenceKeys.SERVER_KEEPALIVE_MINUTES_PREF_NAME);
+        if ((keepAliveMinutes == null) || keepAliveMinutes.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(keepAliveMinutes.trim());
+        } catch (NumberFormatException nfe) {
+            LOG.error("Invalid value for preference {}: {}", nfe,
+                BazelPreferenceKeys.SERVER_KEEPALIVE_MINUTES_PREF_NAME, keepAliveMinutes);
+            return 0;
+        }
+    }
+
+    /**
+     * The packages of the projects that are already imported, which are the ones the user is going to work on.
+     */
+    private static List<BazelLabel> getImportedPackageLabels() {
+        List<BazelLabel> packageLabels = new ArrayList<>();
+        BazelProjectManager projectManager = ComponentContext.getInstance().getProjectManager();
+        if (projectManager == null) {
+            return packageLabels;
+        }
+        for (BazelProject project : projectManager.getAllProjects()) {
+            String packageLabel = projectManager.getBazelLabelForProject(project);
+            if ((packageLabel != null) && !packageLabel.isEmpty()) {
+                packageLabels.add(new BazelLabel(packageLabel));
+            }
+        }
+        return packageLabels;
     }
 
     /**
@@ -98,6 +216,7 @@ public class EclipseBazelWorkspaceContext {
      */
     public void resetBazelWorkspace() {
         // now forget about the workspace
+        stopServerWarmer();
         bazelWorkspace = null;
         bazelWorkspaceCommandRunner = null;
     }
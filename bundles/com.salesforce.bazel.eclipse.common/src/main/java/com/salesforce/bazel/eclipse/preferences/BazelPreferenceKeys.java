@@ -68,6 +68,13 @@ public class BazelPreferenceKeys {
         defaultValues.put(GLOBALCLASSPATH_SEARCH_PREF_NAME, "true");
     }
 
+    // Bazel shuts its server down when no command ran for a while (--max_idle_secs), and the next command then pays
+    // for the server startup. If set to a number of minutes, BEF pings the server whenever it was idle that long.
+    public static final String SERVER_KEEPALIVE_MINUTES_PREF_NAME = "SERVER_KEEPALIVE_MINUTES";
+    static {
+        defaultValues.put(SERVER_KEEPALIVE_MINUTES_PREF_NAME, "0");
+    }
+
     // *********************************************************************
     // BREAK GLASS PREFS (emergency feature flags to disable certain features in case of issues)
     // Naming convention: these should all started with the token DISABLE_
@@ -80,10 +87,14 @@ public class BazelPreferenceKeys {
     // We have an optimization for quickly determining the location of source files by using known conventions,
     // but some workspaces may have structures that confuse this optimization.
     public static final String PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME = "PROJECTSTRUCTUREOPTIMIZATIONS_ENABLED";
+    // When a workspace is opened, BEF starts the Bazel server in the background so that the first real command does
+    // not wait for it. This flag disables the warmup.
+    public static final String DISABLE_SERVER_WARMUP = "DISABLE_SERVER_WARMUP";
 
     static {
         defaultValues.put(DISABLE_UNRESOLVE_WORKSPACEFILE_SOFTLINK, "false");
         defaultValues.put(PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME, "true");
+        defaultValues.put(DISABLE_SERVER_WARMUP, "false");
     }
 
     // *********************************************************************
@@ -99,10 +110,11 @@ public class BazelPreferenceKeys {
     // prefs that have string values
     public static final String[] ALL_STRING_PREFS =
             new String[] { BAZEL_PATH_PREF_NAME, EXTERNAL_JAR_CACHE_PATH_PREF_NAME,
-                    BAZEL_DEFAULT_WORKSPACE_PATH_PREF_NAME, PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME };
+                    BAZEL_DEFAULT_WORKSPACE_PATH_PREF_NAME, PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME,
+                    SERVER_KEEPALIVE_MINUTES_PREF_NAME };
 
     // prefs that have boolean values
     public static final String[] ALL_BOOLEAN_PREFS = new String[] { GLOBALCLASSPATH_SEARCH_PREF_NAME,
-            DISABLE_UNRESOLVE_WORKSPACEFILE_SOFTLINK, PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME };
+            DISABLE_UNRESOLVE_WORKSPACEFILE_SOFTLINK, PROJECTSTRUCTUREOPTIMIZATIONS_PREF_NAME, DISABLE_SERVER_WARMUP };
 
 }
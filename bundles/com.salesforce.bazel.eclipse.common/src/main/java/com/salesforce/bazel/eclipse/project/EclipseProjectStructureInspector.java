@@ -25,6 +25,8 @@ package com.salesforce.bazel.eclipse.project;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.Collection;
+import java.util.Map;
 
 import com.salesforce.bazel.sdk.command.BazelCommandManager;
 import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
@@ -56,31 +58,51 @@ public class EclipseProjectStructureInspector {
 
         if (result != null) {
             // we found some source paths
+            addPackageDetails(packageNode, result);
+        }
 
-            File workspaceRootDir = packageNode.getWorkspaceRootDirectory();
-            String bazelPackageFSRelativePath = packageNode.getBazelPackageFSRelativePath();
-            File packageDir = new File(workspaceRootDir, bazelPackageFSRelativePath);
+        return result;
+    }
 
-            // we dont do much for proto files (at least, not currently, see #60) so only
-            // check for proto files if we already have other source files
-            //   https://github.com/salesforce/bazel-eclipse/issues/60
-            // proto files are generally in the toplevel folder (not a Maven convention, but common), lets check for those now
-            // eventually we should use bazel query for these as well
-            // TODO I don't think we need this anymore, we now surface all files in the root of package automatically
-            if (packageDir.list(new ProtoFileFilter()).length > 0) {
-                result.mainResourceDirFSPaths.add(packageNode.getBazelPackageFSRelativePath());
-            }
+    /**
+     * Computes the structure of many packages at once, so that the Bazel queries needed by the structure strategies
+     * can be batched. Packages with no recognizable structure are missing from the returned map.
+     */
+    public static Map<BazelPackageLocation, ProjectStructure> computePackageSourceCodePaths(
+            Collection<BazelPackageLocation> packageNodes, BazelWorkspace bazelWorkspace,
+            BazelCommandManager bazelCommandManager) {
+        BazelWorkspaceCommandRunner commandRunner = bazelCommandManager.getWorkspaceCommandRunner(bazelWorkspace);
 
-            // TODO derive the list of active targets, this isnt right, we should be honoring the list we already have,
-            // also these targets do not belong in the structure object
-            String packagePath = packageNode.getBazelPackageFSRelativePath();
-            String labelPath = packagePath.replace(FSPathHelper.WINDOWS_BACKSLASH, BazelLabel.BAZEL_SLASH); // convert Windows style paths to Bazel label paths
-            for (String target : BazelConstants.DEFAULT_PACKAGE_TARGETS) {
-                result.bazelTargets.add(new BazelLabel(labelPath, target));
-            }
+        Map<BazelPackageLocation, ProjectStructure> results =
+                ProjectStructureStrategy.determineProjectStructures(bazelWorkspace, packageNodes, commandRunner);
+        for (Map.Entry<BazelPackageLocation, ProjectStructure> result : results.entrySet()) {
+            addPackageDetails(result.getKey(), result.getValue());
         }
+        return results;
+    }
 
-        return result;
+    private static void addPackageDetails(BazelPackageLocation packageNode, ProjectStructure result) {
+        File workspaceRootDir = packageNode.getWorkspaceRootDirectory();
+        String bazelPackageFSRelativePath = packageNode.getBazelPackageFSRelativePath();
+        File packageDir = new File(workspaceRootDir, bazelPackageFSRelativePath);
+
+        // we dont do much for proto files (at least, not currently, see #60) so only
+        // check for proto files if we already have other source files
+        //   https://github.com/salesforce/bazel-eclipse/issues/60
+        // proto files are generally in the toplevel folder (not a Maven convention, but common), lets check for those now
+        // eventually we should use bazel query for these as well
+        // TODO I don't think we need this anymore, we now surface all files in the root of package automatically
+        if (packageDir.list(new ProtoFileFilter()).length > 0) {
+            result.mainResourceDirFSPaths.add(packageNode.getBazelPackageFSRelativePath());
+        }
+
+        // TODO derive the list of active targets, this isnt right, we should be honoring the list we already have,
+        // also these targets do not belong in the structure object
+        String packagePath = packageNode.getBazelPackageFSRelativePath();
+        String labelPath = packagePath.replace(FSPathHelper.WINDOWS_BACKSLASH, BazelLabel.BAZEL_SLASH); // convert Windows style paths to Bazel label paths
+        for (String target : BazelConstants.DEFAULT_PACKAGE_TARGETS) {
+            result.bazelTargets.add(new BazelLabel(labelPath, target));
+        }
     }
 
     private static class ProtoFileFilter implements FilenameFilter {
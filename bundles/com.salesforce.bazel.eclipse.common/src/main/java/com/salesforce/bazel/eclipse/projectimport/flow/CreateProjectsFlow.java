@@ -81,7 +81,10 @@ public class CreateProjectsFlow extends AbstractImportFlowStep {
         List<IProject> currentImportedProjects = ctx.getImportedProjects();
         List<IProject> existingImportedProjects =
                 Arrays.asList(resourceHelper.getProjectsForBazelWorkspace(bazelWorkspace));
-        
+
+        // batches the Bazel queries of the structure analysis, instead of running them as each project is created
+        ctx.computeProjectStructures(orderedModules, bazelWorkspace, getCommandManager());
+
         for (BazelPackageLocation packageLocation : orderedModules) {
             List<BazelLabel> bazelTargets = ctx.getPackageLocationToTargets().get(packageLocation);
 
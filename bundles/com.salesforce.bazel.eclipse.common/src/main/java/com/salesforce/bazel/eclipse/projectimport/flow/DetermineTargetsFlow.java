@@ -33,6 +33,7 @@
  */
 package com.salesforce.bazel.eclipse.projectimport.flow;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -74,6 +75,16 @@ public class DetermineTargetsFlow extends AbstractImportFlowStep {
     @Override
     public void run(ImportContext ctx, SubMonitor progressMonitor) {
         Map<BazelPackageLocation, List<BazelLabel>> packageLocationToTargets = new HashMap<>();
+
+        // the structure of the packages without explicit targets is computed in one go
+        List<BazelPackageLocation> packagesWithoutTargets = new ArrayList<>();
+        for (BazelPackageLocation packageLocation : ctx.getSelectedBazelPackages()) {
+            if (packageLocation.getBazelTargets() == null) {
+                packagesWithoutTargets.add(packageLocation);
+            }
+        }
+        ctx.computeProjectStructures(packagesWithoutTargets, getBazelWorkspace(), getCommandManager());
+
         for (BazelPackageLocation packageLocation : ctx.getSelectedBazelPackages()) {
             List<BazelLabel> targets = packageLocation.getBazelTargets();
             if (targets == null) {
@@ -205,7 +205,8 @@ public class ImportContext {
         String cacheKey = packageNode.getBazelPackageFSRelativePath();
         ProjectStructure structure = ProjectSourceStructureCache.get(cacheKey);
 
-        if (structure == null) {
+        // a package without a recognizable structure is cached as null
+        if ((structure == null) && !ProjectSourceStructureCache.containsKey(cacheKey)) {
             structure = EclipseProjectStructureInspector.computePackageSourceCodePaths(packageNode, bazelWorkspace,
                 bazelCommandManager);
             ProjectSourceStructureCache.put(cacheKey, structure);
@@ -214,6 +215,29 @@ public class ImportContext {
         return structure;
     }
 
+    /**
+     * Computes the structure of the packages that are not cached yet in one go, so that the Bazel queries of the
+     * structure analysis are batched instead of being run one package at a time by getProjectStructure().
+     */
+    public void computeProjectStructures(Iterable<BazelPackageLocation> packageNodes, BazelWorkspace bazelWorkspace,
+            BazelCommandManager bazelCommandManager) {
+        List<BazelPackageLocation> uncachedPackageNodes = new ArrayList<>();
+        for (BazelPackageLocation packageNode : packageNodes) {
+            if (!ProjectSourceStructureCache.containsKey(packageNode.getBazelPackageFSRelativePath())) {
+                uncachedPackageNodes.add(packageNode);
+            }
+        }
+        if (uncachedPackageNodes.isEmpty()) {
+            return;
+        }
+
+        Map<BazelPackageLocation, ProjectStructure> structures = EclipseProjectStructureInspector
+                .computePackageSourceCodePaths(uncachedPackageNodes, bazelWorkspace, bazelCommandManager);
+        for (BazelPackageLocation packageNode : uncachedPackageNodes) {
+            ProjectSourceStructureCache.put(packageNode.getBazelPackageFSRelativePath(), structures.get(packageNode));
+        }
+    }
+
     protected EclipseProjectCreator buildEclipseProjectCreator(File bazelWorkspaceRootDirectory,
             BazelProjectManager bazelProjectManager, ResourceHelper resourceHelper,
             BazelCommandManager bazelCommandManager) {
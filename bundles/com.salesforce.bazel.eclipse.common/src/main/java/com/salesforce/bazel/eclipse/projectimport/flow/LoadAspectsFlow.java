@@ -32,6 +32,7 @@ import java.util.Set;
 import org.eclipse.core.runtime.SubMonitor;
 
 import com.salesforce.bazel.eclipse.runtime.api.ResourceHelper;
+import com.salesforce.bazel.sdk.aspect.AspectOutputMode;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfos;
 import com.salesforce.bazel.sdk.command.BazelCommandManager;
@@ -88,10 +89,11 @@ public class LoadAspectsFlow extends AbstractImportFlowStep {
             }
         }
 
-        // run the aspect for specified targets and get an AspectTargetInfo for each
+        // run the aspect for specified targets and get an AspectTargetInfo for each; the import only needs the
+        // structure here, the jars are built later when the classpath containers ask for them
         try {
             Map<BazelLabel, Set<AspectTargetInfo>> targetInfos =
-                    bazelWorkspaceCmdRunner.getAspectTargetInfos(labels, "importWorkspace");
+                    bazelWorkspaceCmdRunner.getAspectTargetInfos(labels, "importWorkspace", AspectOutputMode.STRUCTURE);
 
             if (targetInfos.isEmpty()) {
                 closeBazelWorkspace();
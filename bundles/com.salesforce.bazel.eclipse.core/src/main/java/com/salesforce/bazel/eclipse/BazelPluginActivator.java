@@ -53,6 +53,7 @@ import com.salesforce.bazel.eclipse.runtime.impl.EclipseConsole;
 import com.salesforce.bazel.eclipse.runtime.impl.EclipseJavaCoreHelper;
 import com.salesforce.bazel.sdk.command.CommandBuilder;
 import com.salesforce.bazel.sdk.command.shell.ShellCommandBuilder;
+import com.salesforce.bazel.sdk.command.shell.StreamPumpExecutor;
 import com.salesforce.bazel.sdk.console.CommandConsoleFactory;
 import com.salesforce.bazel.sdk.init.BazelJavaSDKInit;
 import com.salesforce.bazel.sdk.init.JvmRuleInit;
@@ -139,6 +140,11 @@ public class BazelPluginActivator extends AbstractUIPlugin {
 
     @Override
     public void stop(BundleContext context) throws Exception {
+        // stop pinging the Bazel server, save the aspect cache, and release the threads that pump the output of Bazel
+        // commands
+        EclipseBazelWorkspaceContext.getInstance().stopServerWarmer();
+        EclipseBazelWorkspaceContext.getInstance().savePersistentCaches();
+        StreamPumpExecutor.getShared().shutdown();
         super.stop(context);
     }
 
@@ -36,16 +36,27 @@
 package com.salesforce.bazel.eclipse.preferences;
 
 import java.io.File;
+import java.util.Map;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.DirectoryFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.FileFieldEditor;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
 import com.salesforce.bazel.eclipse.BazelPluginActivator;
+import com.salesforce.bazel.eclipse.component.EclipseBazelWorkspaceContext;
+import com.salesforce.bazel.sdk.aspect.AspectCacheMetrics;
+import com.salesforce.bazel.sdk.aspect.AspectParseMetrics;
+import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
 
 /**
  * Page to configure the Bazel Eclipse plugin. See BazelPreferenceInitializer for how this preference is initialized
@@ -149,6 +160,55 @@ public class BazelPreferencePage extends FieldEditorPreferencePage implements IW
         addField(new ProjectStructureOptimizationEnabledFieldEditor(getFieldEditorParent()));
     }
 
+    @Override
+    protected Control createContents(Composite parent) {
+        Control fieldEditors = super.createContents(parent);
+        createAspectCacheDiagnostics(parent);
+        return fieldEditors;
+    }
+
+    /**
+     * Read only view of the aspect cache statistics of the imported workspace, useful for capacity planning.
+     */
+    private void createAspectCacheDiagnostics(Composite parent) {
+        BazelWorkspaceCommandRunner commandRunner =
+                EclipseBazelWorkspaceContext.getInstance().getWorkspaceCommandRunner();
+        if (commandRunner == null) {
+            // no workspace has been imported yet
+            return;
+        }
+        AspectCacheMetrics metrics = commandRunner.getAspectCacheMetrics();
+        AspectParseMetrics parseMetrics = metrics.getParseMetrics();
+
+        StringBuilder text = new StringBuilder();
+        text.append("Cache hits/misses: ").append(metrics.getHits()).append(" / ").append(metrics.getMisses())
+                .append("\n");
+        for (Map.Entry<String, AspectCacheMetrics.CallerCounts> caller : metrics.getCountsByCaller().entrySet()) {
+            text.append("    ").append(caller.getKey()).append(": ").append(caller.getValue().getHits())
+                    .append(" / ").append(caller.getValue().getMisses()).append("\n");
+        }
+        text.append("Bazel invocations: ").append(metrics.getInvocationCount()).append(" for ")
+                .append(metrics.getInvocationTargetCount()).append(" targets, ")
+                .append(metrics.getTotalInvocationMillis()).append(" ms total, ")
+                .append(metrics.getMaxInvocationMillis()).append(" ms max\n");
+        text.append("Aspect data parsed: ").append(parseMetrics.getFilesParsed()).append(" files, ")
+                .append(parseMetrics.getBytesParsed() / 1024).append(" KB, ")
+                .append(parseMetrics.getTotalParseMillis()).append(" ms\n");
+        text.append("Fallbacks to last good data: ").append(metrics.getLastGoodFallbacks()).append("\n");
+        text.append("Cache entries: ").append(metrics.getCurrentCacheEntries()).append(" (~")
+                .append(metrics.getCurrentCacheHeapBytes() / 1024).append(" KB), last good ")
+                .append(metrics.getLastGoodCacheEntries()).append(" (~")
+                .append(metrics.getLastGoodCacheHeapBytes() / 1024).append(" KB)");
+
+        Group group = new Group(parent, SWT.NONE);
+        group.setText("Aspect cache diagnostics");
+        group.setLayout(new GridLayout());
+        group.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+        Text diagnostics = new Text(group, SWT.MULTI | SWT.READ_ONLY | SWT.WRAP);
+        diagnostics.setText(text.toString());
+        diagnostics.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
+    }
+
     @Override
     public void init(IWorkbench workbench) {
         setPreferenceStore(BazelPluginActivator.getInstance().getPreferenceStore());
@@ -94,9 +94,10 @@ public class InitImportFlow extends AbstractImportFlowStep {
 
     private static void warmupCaches(BazelWorkspace bazelWorkspace) {
         // these are cached - initialize them now so we do not incur the cost of determining these locations
-        // later when creating projects
+        // later when creating projects; a single 'bazel info' invocation provides all of them
         bazelWorkspace.getBazelOutputBaseDirectory();
         bazelWorkspace.getBazelExecRootDirectory();
+        bazelWorkspace.getBazelBinDirectory();
     }
 
     private static void validateInitialState(ImportContext ctx, File importBazelWorkspaceRootDirectory) {
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+public class AspectBatchingStrategyTest {
+
+    @Test
+    public void testFixedSize() {
+        List<List<BazelLabel>> batches =
+                new FixedSizeAspectBatchingStrategy(25).createBatches(createLabels(60, false), Collections.emptyList());
+        assertEquals(3, batches.size());
+        assertEquals(25, batches.get(0).size());
+        assertEquals(10, batches.get(2).size());
+    }
+
+    @Test
+    public void testAdaptiveGroupsWildcardLabels() {
+        List<BazelLabel> targets = new ArrayList<>();
+        targets.add(new BazelLabel("//a/b:c"));
+        targets.add(new BazelLabel("//a/b:*"));
+        targets.add(new BazelLabel("//d/e:f"));
+        targets.add(new BazelLabel("//d/e:*"));
+
+        List<List<BazelLabel>> batches =
+                new AdaptiveAspectBatchingStrategy().createBatches(targets, Collections.emptyList());
+
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(new BazelLabel("//a/b:*"), new BazelLabel("//d/e:*")), batches.get(0));
+        assertEquals(Arrays.asList(new BazelLabel("//a/b:c"), new BazelLabel("//d/e:f")), batches.get(1));
+    }
+
+    @Test
+    public void testAdaptiveUsesObservedTimePerTarget() {
+        // 10s per batch at an assumed 100ms per target gives 100 targets per batch
+        AdaptiveAspectBatchingStrategy strategy = new AdaptiveAspectBatchingStrategy(10000, 100, 1000, 100000);
+        List<BazelLabel> targets = createLabels(300, false);
+        List<List<BazelLabel>> batches = strategy.createBatches(targets, Collections.emptyList());
+        assertEquals(3, batches.size());
+
+        // the previous run turned out to take 1s per target, so next time batches are 10 targets
+        strategy.batchCompleted(batches.get(0), 100000);
+        batches = strategy.createBatches(targets, Collections.emptyList());
+        assertEquals(30, batches.size());
+        assertEquals(10, batches.get(0).size());
+    }
+
+    @Test
+    public void testAdaptiveHonorsCommandLineLength() {
+        AdaptiveAspectBatchingStrategy strategy = new AdaptiveAspectBatchingStrategy(10000, 1, 1000, 200);
+        List<BazelLabel> targets = createLabels(100, false);
+        List<String> fixedArgs = Arrays.asList("build", "--some_option");
+        List<List<BazelLabel>> batches = strategy.createBatches(targets, fixedArgs);
+
+        int total = 0;
+        for (List<BazelLabel> batch : batches) {
+            int length = "build --some_option ".length();
+            for (BazelLabel label : batch) {
+                length += label.toString().length() + 1;
+            }
+            assertTrue(length <= 200);
+            total += batch.size();
+        }
+        assertEquals(100, total);
+    }
+
+    @Test
+    public void testTargetPatternFile() throws Exception {
+        TargetPatternFileAspectBatchingStrategy strategy = new TargetPatternFileAspectBatchingStrategy();
+        List<BazelLabel> targets = createLabels(3, true);
+        List<List<BazelLabel>> batches = strategy.createBatches(targets, Collections.emptyList());
+        assertEquals(1, batches.size());
+
+        List<String> args = strategy.getTargetArgs(batches.get(0));
+        assertEquals(1, args.size());
+        assertTrue(args.get(0).startsWith("--target_pattern_file="));
+        File patternFile = new File(args.get(0).substring("--target_pattern_file=".length()));
+        assertEquals(Arrays.asList("//pkg0:*", "//pkg1:*", "//pkg2:*"), Files.readAllLines(patternFile.toPath()));
+
+        // the file is removed when the batch is released, which also happens if the invocation failed
+        strategy.batchReleased(batches.get(0));
+        assertFalse(patternFile.exists());
+    }
+
+    private static List<BazelLabel> createLabels(int count, boolean wildcard) {
+        List<BazelLabel> labels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            labels.add(new BazelLabel("//pkg" + i + (wildcard ? ":*" : ":target")));
+        }
+        return labels;
+    }
+}
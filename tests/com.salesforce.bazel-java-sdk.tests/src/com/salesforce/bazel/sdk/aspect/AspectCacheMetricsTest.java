@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectCacheMetricsTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        AspectCacheMetrics metrics = new AspectCacheMetrics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            String caller = "caller" + (i % 2);
+            executor.execute(() -> {
+                metrics.recordHit(caller);
+                metrics.recordMiss(caller);
+                metrics.recordHit(caller);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+
+        assertEquals(2000, metrics.getHits());
+        assertEquals(1000, metrics.getMisses());
+        assertEquals(500, metrics.getCountsByCaller().get("caller0").getMisses());
+        assertEquals(1000, metrics.getCountsByCaller().get("caller1").getHits());
+    }
+
+    @Test
+    public void testInvocations() {
+        AspectCacheMetrics metrics = new AspectCacheMetrics();
+        metrics.recordInvocation(10, 200);
+        metrics.recordInvocation(5, 50);
+        metrics.recordLastGoodFallback();
+
+        assertEquals(2, metrics.getInvocationCount());
+        assertEquals(15, metrics.getInvocationTargetCount());
+        assertEquals(250, metrics.getTotalInvocationMillis());
+        assertEquals(200, metrics.getMaxInvocationMillis());
+        assertEquals(50, metrics.getLastInvocationMillis());
+        assertEquals(5, metrics.getLastInvocationTargetCount());
+        assertEquals(1, metrics.getLastGoodFallbacks());
+
+        metrics.reset();
+        assertEquals(0, metrics.getInvocationCount());
+        assertEquals(0, metrics.getMaxInvocationMillis());
+        assertEquals(0, metrics.getLastGoodFallbacks());
+    }
+
+    @Test
+    public void testSharedValuesAreEstimatedOnce() throws Exception {
+        Set<AspectTargetInfo> shared = createInfos(0, 3);
+        Set<AspectTargetInfo> other = createInfos(10, 1);
+
+        long heapBytes = AspectCacheMetrics.estimateHeapBytes(Arrays.asList(shared, shared, other));
+
+        // three entries, but the elements of the shared value are only counted once
+        long expected = 3 * AspectLastGoodCache.ENTRY_WEIGHT_BYTES;
+        for (AspectTargetInfo info : shared) {
+            expected += AspectLastGoodCache.weigh(info);
+        }
+        expected += AspectLastGoodCache.weigh(other.iterator().next());
+        assertEquals(expected, heapBytes);
+    }
+
+    private Set<AspectTargetInfo> createInfos(int first, int count) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = first; i < (first + count); i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+                "lib" + i, new ArrayList<>(), Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        return new HashSet<>(AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths).values());
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectOutputJarSet;
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectTargetInfo;
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectCompactFormatTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testCompactMatchesJson() throws Exception {
+        List<String> jsonPaths = createJsonAspectFiles(10);
+        Map<String, AspectTargetInfo> jsonInfos = AspectTargetInfoFactory.loadAspectFilePaths(jsonPaths);
+        Map<String, AspectTargetInfo> compactInfos =
+                AspectTargetInfoFactory.loadAspectFilePaths(writeCompactAspectFiles(jsonInfos));
+
+        assertEquals(jsonInfos.keySet(), compactInfos.keySet());
+        for (String label : jsonInfos.keySet()) {
+            JVMAspectTargetInfo jsonInfo = (JVMAspectTargetInfo) jsonInfos.get(label);
+            JVMAspectTargetInfo compactInfo = (JVMAspectTargetInfo) compactInfos.get(label);
+            assertEquals(jsonInfo.getKind(), compactInfo.getKind());
+            assertEquals(jsonInfo.getWorkspaceRelativePath(), compactInfo.getWorkspaceRelativePath());
+            assertEquals(jsonInfo.getDeps(), compactInfo.getDeps());
+            assertEquals(jsonInfo.getSources(), compactInfo.getSources());
+            assertEquals(jsonInfo.getMainClass(), compactInfo.getMainClass());
+            assertJarsEqual(jsonInfo.getJars(), compactInfo.getJars());
+            assertJarsEqual(jsonInfo.getGeneratedJars(), compactInfo.getGeneratedJars());
+            assertTrue(AspectTargetInfoFactory.isAspectFile(compactInfo.getAspectDataFile().getName()));
+        }
+    }
+
+    @Test
+    public void testJarRootsAndMissingJars() throws Exception {
+        File compactFile = tmpFolder.newFile("lib" + AspectTargetInfoFactory.COMPACT_ASPECT_FILENAME_SUFFIX);
+        String content = AspectTargetInfoFactory.COMPACT_FORMAT_HEADER + "\n" //
+                + "L\t//a/b:lib\n" //
+                + "K\tjava_binary\n" //
+                + "J\tbazel-out/bin\ta/b/lib.jar\t\t\t\ta/b/lib-src.jar\n" //
+                + "X\tignored field of a newer aspect\n" //
+                + "M\tcom.example.Main\n";
+        Files.write(compactFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        JVMAspectTargetInfo info = (JVMAspectTargetInfo) AspectTargetInfoFactory.loadAspectFile(compactFile);
+        assertEquals("//a/b:lib", info.getLabelPath());
+        assertEquals("java_binary", info.getKind());
+        assertEquals("com.example.Main", info.getMainClass());
+        assertEquals(0, info.getDeps().size());
+        assertEquals(1, info.getJars().size());
+        JVMAspectOutputJarSet jarSet = info.getJars().get(0);
+        assertEquals("bazel-out/bin" + File.separator + "a/b/lib.jar", jarSet.getJar());
+        assertNull(jarSet.getInterfaceJar());
+        assertEquals("a/b/lib-src.jar", jarSet.getSrcJar());
+    }
+
+    @Test
+    public void testMissingHeaderIsRejected() throws Exception {
+        File compactFile = tmpFolder.newFile("bad" + AspectTargetInfoFactory.COMPACT_ASPECT_FILENAME_SUFFIX);
+        Files.write(compactFile.toPath(), "{ \"key\": {} }".getBytes(StandardCharsets.UTF_8));
+        try {
+            AspectTargetInfoFactory.loadAspectFile(compactFile);
+            fail("Expected the missing header to be rejected");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    /**
+     * Compares the bytes on disk, and the bytes allocated while decoding, for the same targets in both formats. The
+     * file contents are read up front so that only the decoding is measured.
+     */
+    @Test
+    public void testCompactFormatBenchmark() throws Exception {
+        List<String> jsonPaths = createJsonAspectFiles(300);
+        List<String> compactPaths = writeCompactAspectFiles(AspectTargetInfoFactory.loadAspectFilePaths(jsonPaths));
+        List<String> jsonContents = readContents(jsonPaths);
+        List<String> compactContents = readContents(compactPaths);
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+        File dataFile = new File(jsonPaths.get(0));
+
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        JSONParser jsonParser = new JSONParser();
+        for (String content : jsonContents) {
+            AspectTargetInfoFactory.loadAspectFromJson(dataFile, (JSONObject) jsonParser.parse(content), jsonParser);
+        }
+        long jsonAllocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (String content : compactContents) {
+            AspectTargetInfoFactory.loadAspectFromCompact(dataFile, content);
+        }
+        long compactAllocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(totalLength(compactContents) < (totalLength(jsonContents) / 2));
+        assertTrue(compactAllocated < (jsonAllocated / 10));
+    }
+
+    // HELPERS
+
+    private List<String> createJsonAspectFiles(int count) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            List<String> deps = new ArrayList<>();
+            for (int d = Math.max(0, i - 5); d < i; d++) {
+                deps.add("//projects/libs/lib" + d + ":lib" + d);
+            }
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+                "lib" + i, deps, Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        return aspectFilePaths;
+    }
+
+    /**
+     * Writes what the aspect would write in compact mode for the passed infos. The jar roots are not known anymore
+     * after the JSON load joined them, so the full jar paths are written as relative paths.
+     */
+    private List<String> writeCompactAspectFiles(Map<String, AspectTargetInfo> infos) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> compactPaths = new ArrayList<>();
+        int i = 0;
+        for (AspectTargetInfo info : infos.values()) {
+            JVMAspectTargetInfo jvmInfo = (JVMAspectTargetInfo) info;
+            StringBuilder sb = new StringBuilder(AspectTargetInfoFactory.COMPACT_FORMAT_HEADER).append("\n");
+            sb.append("L\t").append(jvmInfo.getLabelPath()).append("\n");
+            sb.append("K\t").append(jvmInfo.getKind()).append("\n");
+            for (String dep : jvmInfo.getDeps()) {
+                sb.append("D\t").append(dep).append("\n");
+            }
+            for (String source : jvmInfo.getSources()) {
+                sb.append("S\t").append(source).append("\n");
+            }
+            appendJars(sb, "J", jvmInfo.getJars());
+            appendJars(sb, "G", jvmInfo.getGeneratedJars());
+            if (jvmInfo.getMainClass() != null) {
+                sb.append("M\t").append(jvmInfo.getMainClass()).append("\n");
+            }
+            File compactFile = new File(outputBase, "lib" + i++ + AspectTargetInfoFactory.COMPACT_ASPECT_FILENAME_SUFFIX);
+            Files.write(compactFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            compactPaths.add(compactFile.getAbsolutePath());
+        }
+        return compactPaths;
+    }
+
+    private static void appendJars(StringBuilder sb, String tag, List<JVMAspectOutputJarSet> jarSets) {
+        for (JVMAspectOutputJarSet jarSet : jarSets) {
+            sb.append(tag);
+            for (String path : new String[] { jarSet.getJar(), jarSet.getInterfaceJar(), jarSet.getSrcJar() }) {
+                sb.append("\t\t").append(path != null ? path : "");
+            }
+            sb.append("\n");
+        }
+    }
+
+    private static void assertJarsEqual(List<JVMAspectOutputJarSet> expected, List<JVMAspectOutputJarSet> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getJar(), actual.get(i).getJar());
+            assertEquals(expected.get(i).getInterfaceJar(), actual.get(i).getInterfaceJar());
+            assertEquals(expected.get(i).getSrcJar(), actual.get(i).getSrcJar());
+        }
+    }
+
+    private static List<String> readContents(List<String> paths) throws Exception {
+        List<String> contents = new ArrayList<>();
+        for (String path : paths) {
+            contents.add(new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8));
+        }
+        return contents;
+    }
+
+    private static long totalLength(List<String> contents) {
+        long length = 0;
+        for (String content : contents) {
+            length += content.length();
+        }
+        return length;
+    }
+}
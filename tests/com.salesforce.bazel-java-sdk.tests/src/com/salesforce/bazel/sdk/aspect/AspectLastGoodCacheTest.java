@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectLastGoodCacheTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByEntries() throws Exception {
+        AspectLastGoodCache cache = new AspectLastGoodCache(2, Long.MAX_VALUE);
+        cache.put(label(0), createInfos(0, 1));
+        cache.put(label(1), createInfos(1, 1));
+        cache.get(label(0)); // makes label 1 the eldest
+        cache.put(label(2), createInfos(2, 1));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(label(0)));
+        assertNull(cache.get(label(1)));
+        assertNotNull(cache.get(label(2)));
+    }
+
+    @Test
+    public void testEvictsByWeight() throws Exception {
+        Set<AspectTargetInfo> infos0 = createInfos(10, 3);
+        Set<AspectTargetInfo> infos1 = createInfos(20, 3);
+        Set<AspectTargetInfo> infos2 = createInfos(30, 3);
+        // the infos differ a little in content, leave some slack so that the third entry evicts only one
+        long maxWeight = weightOf(infos0) + weightOf(infos1) + 100;
+        AspectLastGoodCache cache = new AspectLastGoodCache(100, maxWeight);
+        cache.put(label(0), infos0);
+        cache.put(label(1), infos1);
+        assertEquals(2, cache.size());
+        assertEquals(weightOf(infos0) + weightOf(infos1), cache.getWeightBytes());
+
+        cache.put(label(2), infos2);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(label(0)));
+
+        // replacing an entry must not count its old weight
+        Set<AspectTargetInfo> infos3 = createInfos(40, 3);
+        cache.put(label(2), infos3);
+        assertEquals(weightOf(infos1) + weightOf(infos3), cache.getWeightBytes());
+
+        // an entry that is over the limit on its own is still kept
+        cache.put(label(3), createInfos(50, 10));
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(label(3)));
+    }
+
+    @Test
+    public void testLargeInfosEvictBeforeEntryLimit() throws Exception {
+        long maxWeight = 128 * 1024;
+        AspectLastGoodCache cache = new AspectLastGoodCache(1000, maxWeight);
+        for (int i = 0; i < 40; i++) {
+            cache.put(label(i), createInfos(i, 1));
+        }
+        assertEquals(40, cache.size());
+        assertTrue(cache.getWeightBytes() < maxWeight);
+
+        // a target with a couple of hundred sources and deps, as found in larger monorepos
+        Set<AspectTargetInfo> large = createLargeInfos(100, 200);
+        AspectTargetInfo largeInfo = large.iterator().next();
+        assertTrue(AspectLastGoodCache.weigh(largeInfo) > (200 * largeInfo.getSources().get(0).length()));
+
+        cache.put(label(100), large);
+        cache.put(label(101), createLargeInfos(101, 200));
+        // far below the entry limit, but the weight of the large entries pushed out the oldest small ones
+        assertTrue(cache.size() < 42);
+        assertTrue(cache.getWeightBytes() <= maxWeight);
+        assertNull(cache.get(label(0)));
+        assertNotNull(cache.get(label(39)));
+        assertNotNull(cache.get(label(100)));
+        assertNotNull(cache.get(label(101)));
+    }
+
+    @Test
+    public void testSpillAndReload() throws Exception {
+        File spillDir = tmpFolder.newFolder();
+        AspectLastGoodCache cache = new AspectLastGoodCache(1, Long.MAX_VALUE);
+        cache.setSpillDirectory(spillDir);
+
+        Set<AspectTargetInfo> infos0 = createInfos(0, 3);
+        cache.put(label(0), infos0);
+        cache.put(label(1), createInfos(10, 2));
+        cache.waitForSpills();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.spilledSize());
+
+        Set<AspectTargetInfo> reloaded = cache.get(label(0));
+        assertNotNull(reloaded);
+        assertEquals(labelPaths(infos0), labelPaths(reloaded));
+        for (AspectTargetInfo info : reloaded) {
+            // the reloaded info still points at the original aspect file
+            assertEquals(findByLabel(infos0, info.getLabelPath()).getAspectDataFile(), info.getAspectDataFile());
+        }
+        // the reload promoted label 0 back, which spilled label 1
+        cache.waitForSpills();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.spilledSize());
+        assertNotNull(cache.get(label(1)));
+    }
+
+    @Test
+    public void testSpillSurvivesDeletedAspectFiles() throws Exception {
+        AspectLastGoodCache cache = new AspectLastGoodCache(1, Long.MAX_VALUE);
+        cache.setSpillDirectory(tmpFolder.newFolder());
+
+        Set<AspectTargetInfo> infos0 = createInfos(0, 2);
+        cache.put(label(0), infos0);
+        cache.put(label(1), createInfos(10, 1));
+        cache.waitForSpills();
+        // Bazel cleans its output tree, the copies in the spill directory are used instead
+        for (AspectTargetInfo info : infos0) {
+            info.getAspectDataFile().delete();
+        }
+
+        Set<AspectTargetInfo> reloaded = cache.get(label(0));
+        assertNotNull(reloaded);
+        assertEquals(labelPaths(infos0), labelPaths(reloaded));
+    }
+
+    @Test
+    public void testUnchangedAspectFilesAreNotCopiedAgain() throws Exception {
+        File spillDir = tmpFolder.newFolder();
+        AspectLastGoodCache cache = new AspectLastGoodCache(1, Long.MAX_VALUE);
+        cache.setSpillDirectory(spillDir);
+
+        cache.put(label(0), createInfos(0, 3));
+        cache.put(label(1), createInfos(10, 2));
+        cache.waitForSpills();
+        for (File targetFile : spillDir.listFiles((dir, name) -> name.startsWith("target-"))) {
+            targetFile.setLastModified(1000L);
+        }
+
+        // label 0 is loaded back and spilled again, its aspect files have not changed
+        assertNotNull(cache.get(label(0)));
+        cache.put(label(2), createInfos(20, 1));
+        cache.waitForSpills();
+        assertEquals(2, cache.spilledSize());
+
+        File[] targetFiles = spillDir.listFiles((dir, name) -> name.startsWith("target-"));
+        // the copies of label 0, and those of label 1 that was spilled when label 0 came back
+        assertEquals(5, targetFiles.length);
+        int untouched = 0;
+        for (File targetFile : targetFiles) {
+            if (targetFile.lastModified() == 1000L) {
+                untouched++;
+            }
+        }
+        assertEquals(3, untouched);
+    }
+
+    @Test
+    public void testSharedInfosAreWeighedOnce() throws Exception {
+        AspectLastGoodCache cache = new AspectLastGoodCache(100, Long.MAX_VALUE);
+        Set<AspectTargetInfo> infos = createInfos(0, 3);
+        // wildcard entries share the same closure, and other closures share the same infos
+        cache.put(label(0), infos);
+        cache.put(label(1), infos);
+        cache.put(label(2), new HashSet<>(infos));
+        assertEquals((2 * AspectLastGoodCache.ENTRY_WEIGHT_BYTES) + weightOf(infos), cache.getWeightBytes());
+
+        Set<AspectTargetInfo> infos10 = createInfos(10, 1);
+        Set<AspectTargetInfo> infos20 = createInfos(20, 1);
+        Set<AspectTargetInfo> infos30 = createInfos(30, 1);
+        cache.put(label(0), infos10);
+        cache.put(label(1), infos20);
+        cache.put(label(2), infos30);
+        assertEquals(weightOf(infos10) + weightOf(infos20) + weightOf(infos30), cache.getWeightBytes());
+    }
+
+    @Test
+    public void testEvictionWithoutSpillDirectoryDrops() throws Exception {
+        AspectLastGoodCache cache = new AspectLastGoodCache(1, Long.MAX_VALUE);
+        cache.put(label(0), createInfos(0, 1));
+        cache.put(label(1), createInfos(10, 1));
+        assertEquals(0, cache.spilledSize());
+        assertNull(cache.get(label(0)));
+    }
+
+    private static BazelLabel label(int i) {
+        return new BazelLabel("//projects/libs/lib" + i + ":*");
+    }
+
+    private Set<AspectTargetInfo> createInfos(int first, int count) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = first; i < (first + count); i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+                "lib" + i, new ArrayList<>(), Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        return new HashSet<>(AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths).values());
+    }
+
+    private Set<AspectTargetInfo> createLargeInfos(int i, int sourceCount) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+        List<String> deps = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        for (int j = 0; j < sourceCount; j++) {
+            deps.add("//projects/libs/dep" + j + ":dep" + j); // $SLASH_OK bazel path
+            sources.add(packagePath + "/src/main/java/com/salesforce/foo/bar/SomeLongerClassName" + j + ".java");
+        }
+        String aspectFilePath = TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+            "lib" + i, deps, sources, true, false);
+        return new HashSet<>(
+                AspectTargetInfoFactory.loadAspectFilePaths(Collections.singletonList(aspectFilePath)).values());
+    }
+
+    private static long weightOf(Set<AspectTargetInfo> infos) {
+        long weight = AspectLastGoodCache.ENTRY_WEIGHT_BYTES;
+        for (AspectTargetInfo info : infos) {
+            weight += AspectLastGoodCache.weigh(info);
+        }
+        return weight;
+    }
+
+    private static Set<String> labelPaths(Set<AspectTargetInfo> infos) {
+        Set<String> labelPaths = new HashSet<>();
+        for (AspectTargetInfo info : infos) {
+            labelPaths.add(info.getLabelPath());
+        }
+        return labelPaths;
+    }
+
+    private static AspectTargetInfo findByLabel(Set<AspectTargetInfo> infos, String labelPath) {
+        for (AspectTargetInfo info : infos) {
+            if (info.getLabelPath().equals(labelPath)) {
+                return info;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectOutputJarSet;
+import com.salesforce.bazel.sdk.aspect.jvm.JVMAspectTargetInfo;
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectStringTableTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @After
+    public void resetStringTable() {
+        AspectTargetInfoFactory.getStringTable().setEnabled(true);
+        AspectTargetInfoFactory.getStringTable().clear();
+    }
+
+    @Test
+    public void testIntern() {
+        AspectStringTable table = new AspectStringTable();
+        String first = new String("//a/b:c");
+        String second = new String("//a/b:c");
+        assertSame(first, table.intern(first));
+        assertSame(first, table.intern(second));
+        assertEquals(1, table.size());
+        assertEquals(null, table.intern(null));
+
+        table.clear();
+        assertSame(second, table.intern(second));
+
+        table.setEnabled(false);
+        assertSame(first, table.intern(first));
+    }
+
+    @Test
+    public void testUnreferencedStringsAreDropped() throws Exception {
+        AspectStringTable table = new AspectStringTable();
+        String kept = table.intern(new String("//a/b:kept"));
+        table.intern(new String("//a/b:dropped"));
+
+        for (int i = 0; (i < 100) && (table.size() > 1); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, table.size());
+        assertSame(kept, table.intern(new String("//a/b:kept")));
+    }
+
+    @Test
+    public void testLoadedInfosShareStrings() throws Exception {
+        List<String> aspectFilePaths = createAspectFiles(20, 5);
+        Map<String, AspectTargetInfo> infos = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths);
+
+        AspectTargetInfo lib0 = infos.get("//projects/libs/lib0:lib0");
+        AspectTargetInfo lib1 = infos.get("//projects/libs/lib1:lib1");
+        assertSame(lib0.getKind(), lib1.getKind());
+        assertTrue(lib1.getDeps().contains(lib0.getLabelPath()));
+        for (String dep : lib1.getDeps()) {
+            if (dep.equals(lib0.getLabelPath())) {
+                assertSame(lib0.getLabelPath(), dep);
+            }
+        }
+    }
+
+    /**
+     * Heap footprint benchmark: loads a graph of targets with and without interning, and compares the retained size of
+     * the strings referenced by the infos. Each target depends on the previous few targets, as in a typical workspace
+     * where labels are repeated in the deps of many targets.
+     */
+    @Test
+    public void testHeapFootprint() throws Exception {
+        List<String> aspectFilePaths = createAspectFiles(500, 20);
+
+        AspectTargetInfoFactory.getStringTable().setEnabled(false);
+        Collection<AspectTargetInfo> plainInfos = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths).values();
+        long plainBytes = estimateRetainedStringBytes(plainInfos);
+
+        AspectTargetInfoFactory.getStringTable().setEnabled(true);
+        Collection<AspectTargetInfo> internedInfos =
+                AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths).values();
+        long internedBytes = estimateRetainedStringBytes(internedInfos);
+
+        assertTrue(internedBytes < (plainBytes / 2));
+
+        // interning must not change the loaded data
+        assertEquals(plainInfos.size(), internedInfos.size());
+        for (AspectTargetInfo internedInfo : internedInfos) {
+            AspectTargetInfo plainInfo = findByLabel(plainInfos, internedInfo.getLabelPath());
+            assertNotSame(plainInfo.getLabelPath(), internedInfo.getLabelPath());
+            assertEquals(plainInfo.getDeps(), internedInfo.getDeps());
+            assertEquals(plainInfo.getSources(), internedInfo.getSources());
+        }
+    }
+
+    // HELPERS
+
+    private List<String> createAspectFiles(int count, int depCount) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            List<String> deps = new ArrayList<>();
+            for (int d = Math.max(0, i - depCount); d < i; d++) {
+                deps.add("//projects/libs/lib" + d + ":lib" + d);
+            }
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+                "lib" + i, deps, Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        return aspectFilePaths;
+    }
+
+    private static AspectTargetInfo findByLabel(Collection<AspectTargetInfo> infos, String labelPath) {
+        for (AspectTargetInfo info : infos) {
+            if (info.getLabelPath().equals(labelPath)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts each distinct String instance once, at the size of a compact (latin1) String: 24 bytes of header and
+     * fields, plus a 16 byte array header and one byte per char.
+     */
+    private static long estimateRetainedStringBytes(Collection<AspectTargetInfo> infos) {
+        Map<String, Boolean> seen = new IdentityHashMap<>();
+        for (AspectTargetInfo info : infos) {
+            seen.put(info.getLabelPath(), true);
+            seen.put(info.getKind(), true);
+            for (String dep : info.getDeps()) {
+                seen.put(dep, true);
+            }
+            for (String source : info.getSources()) {
+                seen.put(source, true);
+            }
+            if (info instanceof JVMAspectTargetInfo) {
+                for (JVMAspectOutputJarSet jarSet : ((JVMAspectTargetInfo) info).getJars()) {
+                    seen.put(jarSet.getJar(), true);
+                    seen.put(jarSet.getInterfaceJar(), true);
+                    seen.put(jarSet.getSrcJar(), true);
+                }
+            }
+        }
+        long bytes = 0;
+        for (String value : seen.keySet()) {
+            if (value != null) {
+                bytes += 40 + value.length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectTargetInfoFactoryTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final int originalParallelism = AspectTargetInfoFactory.getParallelism();
+
+    @After
+    public void restoreParallelism() {
+        AspectTargetInfoFactory.setParallelism(originalParallelism);
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequentialLoad() throws Exception {
+        File outputBase = tmpFolder.newFolder("outputbase");
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            List<String> deps = new ArrayList<>();
+            if (i > 0) {
+                deps.add("//projects/libs/lib" + (i - 1)); // $SLASH_OK bazel path
+            }
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath,
+                "lib" + i, "lib" + i, deps, Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        // the same label twice; the last file in the list must win in both modes
+        aspectFilePaths.add(aspectFilePaths.get(3));
+
+        AspectTargetInfoFactory.setParallelism(1);
+        Map<String, AspectTargetInfo> sequential = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths);
+        AspectTargetInfoFactory.setParallelism(4);
+        long parsedBefore = AspectTargetInfoFactory.getParseMetrics().getFilesParsed();
+        Map<String, AspectTargetInfo> parallel = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths);
+
+        assertEquals(100, sequential.size());
+        assertEquals(sequential.keySet(), parallel.keySet());
+        for (String label : sequential.keySet()) {
+            AspectTargetInfo expected = sequential.get(label);
+            AspectTargetInfo actual = parallel.get(label);
+            assertEquals(expected.getAspectDataFile(), actual.getAspectDataFile());
+            assertEquals(expected.getKind(), actual.getKind());
+            assertEquals(expected.getDeps(), actual.getDeps());
+            assertEquals(expected.getSources(), actual.getSources());
+        }
+        assertTrue(AspectTargetInfoFactory.getParseMetrics().getFilesParsed() >= parsedBefore + 101);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        AspectTargetInfoFactory.setParallelism(0);
+    }
+}
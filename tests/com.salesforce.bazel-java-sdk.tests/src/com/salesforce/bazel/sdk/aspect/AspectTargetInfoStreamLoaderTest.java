@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.workspace.test.TestAspectFileCreator;
+
+public class AspectTargetInfoStreamLoaderTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testStreamedLoadMatchesBulkLoad() throws Exception {
+        List<String> aspectFilePaths = createAspectFiles(50);
+
+        // a small queue so that submitters block on the workers
+        AspectTargetInfoStreamLoader loader = new AspectTargetInfoStreamLoader(3, 4);
+        for (String aspectFilePath : aspectFilePaths) {
+            loader.submit(aspectFilePath);
+        }
+        // resubmitting the full list, as the processor does after each command, must be harmless
+        for (String aspectFilePath : aspectFilePaths) {
+            loader.submit(aspectFilePath);
+        }
+        Map<String, AspectTargetInfo> streamed = loader.finish();
+        Map<String, AspectTargetInfo> bulk = AspectTargetInfoFactory.loadAspectFilePaths(aspectFilePaths);
+
+        assertEquals(50, streamed.size());
+        assertEquals(bulk.keySet(), streamed.keySet());
+        for (String label : bulk.keySet()) {
+            assertEquals(bulk.get(label).getAspectDataFile(), streamed.get(label).getAspectDataFile());
+            assertEquals(bulk.get(label).getDeps(), streamed.get(label).getDeps());
+        }
+    }
+
+    @Test
+    public void testParseFailureIsRethrown() throws Exception {
+        List<String> aspectFilePaths = createAspectFiles(5);
+        File badFile = tmpFolder.newFile("bad" + AspectTargetInfoFactory.ASPECT_FILENAME_SUFFIX);
+        Files.write(badFile.toPath(), "{ not json".getBytes());
+
+        AspectTargetInfoStreamLoader loader = new AspectTargetInfoStreamLoader(2, 10);
+        for (String aspectFilePath : aspectFilePaths) {
+            loader.submit(aspectFilePath);
+        }
+        loader.submit(badFile.getAbsolutePath());
+        try {
+            loader.finish();
+            fail("Expected the parse failure to be rethrown");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        AspectTargetInfoStreamLoader loader = new AspectTargetInfoStreamLoader(2, 10);
+        for (String aspectFilePath : createAspectFiles(5)) {
+            loader.submit(aspectFilePath);
+        }
+        loader.cancel();
+        try {
+            loader.submit("foo");
+            fail("Expected submit to fail after cancel");
+        } catch (IllegalStateException expected) {}
+    }
+
+    private List<String> createAspectFiles(int count) throws Exception {
+        File outputBase = tmpFolder.newFolder();
+        List<String> aspectFilePaths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String packagePath = "projects/libs/lib" + i; // $SLASH_OK bazel path
+            aspectFilePaths.add(TestAspectFileCreator.createJavaLibraryAspectFile(outputBase, packagePath, "lib" + i,
+                "lib" + i, new ArrayList<>(), Collections.singletonList(packagePath + "/Foo.java"), true, false));
+        }
+        return aspectFilePaths;
+    }
+}
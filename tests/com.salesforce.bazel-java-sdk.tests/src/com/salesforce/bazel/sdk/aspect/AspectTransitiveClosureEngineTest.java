@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.salesforce.bazel.sdk.model.BazelLabel;
+
+public class AspectTransitiveClosureEngineTest {
+    private static final int SYNTHETIC_PACKAGES = 500;
+    private static final int SYNTHETIC_TARGETS_PER_PACKAGE = 20;
+
+    // the benchmark only runs when this system property is true
+    private static final String BENCHMARK_PROPERTY = "bazel.sdk.benchmark";
+    private static final int BENCHMARK_WARMUP_ROUNDS = 3;
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    @Test
+    public void testClosures() {
+        Map<BazelLabel, AspectTargetInfo> graph = new LinkedHashMap<>();
+        // a -> b -> c, b -> d (no aspect), cycle e <-> f, f -> a, self edge on g
+        add(graph, "//p:a", "java_library", "//p:b");
+        add(graph, "//p:b", "java_library", "//p:c", "//q:d");
+        add(graph, "//p:c", "java_library");
+        add(graph, "//q:e", "java_library", "//q:f");
+        add(graph, "//q:f", "java_library", "//q:e", "//p:a");
+        add(graph, "//q:g", "java_library", "//q:g", "//p:c");
+        add(graph, "//q:t", "java_test", "//p:a");
+        add(graph, "//q:i", "java_import");
+
+        AspectTransitiveClosureEngine engine = new AspectTransitiveClosureEngine(graph);
+
+        assertEquals(labels("//p:b", "//p:c"), labelsOf(engine.getTransitiveClosure(info(graph, "//p:a"))));
+        assertEquals(labels(), labelsOf(engine.getTransitiveClosure(info(graph, "//p:c"))));
+        assertEquals(labels("//q:f", "//p:a", "//p:b", "//p:c"),
+            labelsOf(engine.getTransitiveClosure(info(graph, "//q:e"))));
+        assertEquals(labels("//q:e", "//p:a", "//p:b", "//p:c"),
+            labelsOf(engine.getTransitiveClosure(info(graph, "//q:f"))));
+        assertEquals(labels("//p:c"), labelsOf(engine.getTransitiveClosure(info(graph, "//q:g"))));
+        assertEquals(labels("//q:t", "//p:a", "//p:b", "//p:c"),
+            labelsOf(engine.getTransitiveClosure(info(graph, "//q:t"))));
+        assertEquals(labels("//q:i"), labelsOf(engine.getTransitiveClosure(info(graph, "//q:i"))));
+
+        // memoized
+        assertSame(engine.getTransitiveClosure(info(graph, "//p:a")),
+            engine.getTransitiveClosure(info(graph, "//p:a")));
+
+        for (AspectTargetInfo ati : graph.values()) {
+            assertEquals(referenceClosure(ati, graph), engine.getTransitiveClosure(ati));
+        }
+
+        assertSame(info(graph, "//p:b"), engine.getTargetInfo(new BazelLabel("//p:b")));
+        assertNull(engine.getTargetInfo(new BazelLabel("//q:d")));
+        assertEquals(5, engine.getTargetInfosInPackage("q").size());
+        assertEquals(8, engine.getAllTargetInfos().size());
+    }
+
+    /**
+     * Compares the engine against the per label BFS it replaced, on a synthetic graph of 10k targets in 500 packages.
+     * The closures for the targets of the 5 top level packages are requested, as for 5 wildcard labels.
+     */
+    @Test
+    public void testSyntheticGraphMatchesReference() {
+        Map<BazelLabel, AspectTargetInfo> graph = createSyntheticGraph();
+        List<AspectTargetInfo> requested = topLevelTargets(graph);
+
+        Map<AspectTargetInfo, Set<AspectTargetInfo>> expected = new HashMap<>();
+        for (AspectTargetInfo ati : requested) {
+            expected.put(ati, referenceClosure(ati, graph));
+        }
+
+        AspectTransitiveClosureEngine engine = new AspectTransitiveClosureEngine(graph);
+        Map<AspectTargetInfo, Set<AspectTargetInfo>> actual = new HashMap<>();
+        for (AspectTargetInfo ati : requested) {
+            actual.put(ati, engine.getTransitiveClosure(ati));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Times the engine against the per label BFS on the synthetic graph, once for the targets of the top level packages
+     * and once for a target of each package, and prints the ratio. Only runs when -Dbazel.sdk.benchmark=true is set,
+     * as the timings mean nothing on a loaded build machine. Each round builds a new engine, so that its setup is part
+     * of the time.
+     */
+    @Test
+    public void benchmarkSyntheticGraphAgainstReference() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+
+        Map<BazelLabel, AspectTargetInfo> graph = createSyntheticGraph();
+        benchmark("top level packages", graph, topLevelTargets(graph));
+        // the per label BFS over all 10k targets takes minutes, one target of each package shows the same trend
+        List<AspectTargetInfo> onePerPackage = new ArrayList<>();
+        for (int p = 0; p < SYNTHETIC_PACKAGES; p++) {
+            onePerPackage.add(info(graph, "//pkg" + p + ":t0"));
+        }
+        benchmark("one target per package", graph, onePerPackage);
+    }
+
+    private static void benchmark(String name, Map<BazelLabel, AspectTargetInfo> graph,
+            List<AspectTargetInfo> requested) {
+        long referenceNanos = Long.MAX_VALUE;
+        long engineNanos = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < (BENCHMARK_WARMUP_ROUNDS + BENCHMARK_ROUNDS); round++) {
+            long start = System.nanoTime();
+            for (AspectTargetInfo ati : requested) {
+                checksum += referenceClosure(ati, graph).size();
+            }
+            long referenceRound = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            AspectTransitiveClosureEngine engine = new AspectTransitiveClosureEngine(graph);
+            for (AspectTargetInfo ati : requested) {
+                checksum -= engine.getTransitiveClosure(ati).size();
+            }
+            long engineRound = System.nanoTime() - start;
+
+            if (round >= BENCHMARK_WARMUP_ROUNDS) {
+                referenceNanos = Math.min(referenceNanos, referenceRound);
+                engineNanos = Math.min(engineNanos, engineRound);
+            }
+        }
+        // both sides computed the same closure sizes, which also keeps the JIT from dropping the work
+        assertEquals(0, checksum);
+
+        System.out.println(String.format("%s (%d of %d targets): per label BFS %.1f ms, engine %.1f ms, ratio %.1fx",
+            name, requested.size(), graph.size(), referenceNanos / 1e6, engineNanos / 1e6,
+            (double) referenceNanos / Math.max(1L, engineNanos)));
+    }
+
+    /**
+     * Synthetic graph of 10k targets in 500 packages. Each target depends on 3 targets in the 20 packages below its own
+     * package, on a sibling, which creates some cycles within packages, and on a label that is not in the graph.
+     */
+    private static Map<BazelLabel, AspectTargetInfo> createSyntheticGraph() {
+        Random random = new Random(42);
+        Map<BazelLabel, AspectTargetInfo> graph = new LinkedHashMap<>();
+        for (int p = 0; p < SYNTHETIC_PACKAGES; p++) {
+            for (int t = 0; t < SYNTHETIC_TARGETS_PER_PACKAGE; t++) {
+                List<String> deps = new ArrayList<>();
+                if (p > 0) {
+                    for (int d = 0; d < 3; d++) {
+                        int depPackage = Math.max(0, p - 1 - random.nextInt(20));
+                        deps.add("//pkg" + depPackage + ":t" + random.nextInt(SYNTHETIC_TARGETS_PER_PACKAGE));
+                    }
+                }
+                deps.add("//pkg" + p + ":t" + random.nextInt(SYNTHETIC_TARGETS_PER_PACKAGE));
+                deps.add("@maven//:not_in_graph");
+                add(graph, "//pkg" + p + ":t" + t, "java_library", deps.toArray(new String[0]));
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * The targets of the 5 top level packages of the synthetic graph, as requested for 5 wildcard labels.
+     */
+    private static List<AspectTargetInfo> topLevelTargets(Map<BazelLabel, AspectTargetInfo> graph) {
+        List<AspectTargetInfo> requested = new ArrayList<>();
+        for (int p = SYNTHETIC_PACKAGES - 5; p < SYNTHETIC_PACKAGES; p++) {
+            for (int t = 0; t < SYNTHETIC_TARGETS_PER_PACKAGE; t++) {
+                requested.add(info(graph, "//pkg" + p + ":t" + t));
+            }
+        }
+        return requested;
+    }
+
+    // the per label BFS that was used before the engine, kept as the reference for the expected results
+    private static Set<AspectTargetInfo> referenceClosure(AspectTargetInfo aspectTargetInfo,
+            Map<BazelLabel, AspectTargetInfo> depNameToTargetInfo) {
+        Set<AspectTargetInfo> allDeps = new HashSet<>();
+        List<AspectTargetInfo> queue = new ArrayList<>();
+        Set<String> skippedLabels = new HashSet<>();
+        Set<String> visitedLabels = new HashSet<>();
+        queue.add(aspectTargetInfo);
+        while (!queue.isEmpty()) {
+            AspectTargetInfo ati = queue.remove(0);
+            String thisLabel = ati.getLabelPath();
+            if (!visitedLabels.add(thisLabel)) {
+                continue;
+            }
+            if (ati != aspectTargetInfo) {
+                allDeps.add(ati);
+            }
+            for (String label : ati.getDeps()) {
+                if (skippedLabels.contains(label) || visitedLabels.contains(label)) {
+                    continue;
+                }
+                AspectTargetInfo dep = depNameToTargetInfo.get(new BazelLabel(label));
+                if (dep == null) {
+                    skippedLabels.add(label);
+                } else {
+                    queue.add(dep);
+                }
+            }
+        }
+        if ("java_test".equals(aspectTargetInfo.getKind()) || "java_import".equals(aspectTargetInfo.getKind())) {
+            allDeps.add(aspectTargetInfo);
+        }
+        return allDeps;
+    }
+
+    private static void add(Map<BazelLabel, AspectTargetInfo> graph, String label, String kind, String... deps) {
+        graph.put(new BazelLabel(label), new AspectTargetInfo(new File(""), "some/path", kind, label,
+                new ArrayList<>(Arrays.asList(deps)), Collections.emptyList()));
+    }
+
+    private static AspectTargetInfo info(Map<BazelLabel, AspectTargetInfo> graph, String label) {
+        return graph.get(new BazelLabel(label));
+    }
+
+    private static Set<String> labels(String... labels) {
+        return new HashSet<>(Arrays.asList(labels));
+    }
+
+    private static Set<String> labelsOf(Set<AspectTargetInfo> infos) {
+        Set<String> labels = new HashSet<>();
+        for (AspectTargetInfo info : infos) {
+            labels.add(info.getLabelPath());
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.aspect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.command.internal.BazelWorkspaceAspectProcessor;
+import com.salesforce.bazel.sdk.command.test.TestBazelCommandEnvironmentFactory;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceDescriptor;
+import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
+import com.salesforce.bazel.sdk.workspace.test.TestOptions;
+
+public class BazelAspectPersistentCacheTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntrySurvivesRestart() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("restart");
+        File cacheDir = tmpFolder.newFolder("cache-restart");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.enablePersistentCache(cacheDir);
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+
+        List<BazelLabel> targets = Collections.singletonList(label);
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap = aspectHelper.getAspectTargetInfos(targets, "test");
+        Set<AspectTargetInfo> loaded = aspectMap.get(label);
+        assertNotNull(loaded);
+        // the tool saves the cache when it shuts down
+        env.bazelWorkspaceCommandRunner.savePersistentAspectCache();
+        assertTrue(new File(cacheDir, BazelAspectPersistentCache.CACHE_FILENAME).exists());
+
+        // simulate a restart with a fresh cache reading the same file
+        BazelAspectPersistentCache restarted = createCache(env, cacheDir);
+        Set<AspectTargetInfo> cached = restarted.get(label);
+        assertNotNull(cached);
+        assertEquals(loaded.size(), cached.size());
+    }
+
+    @Test
+    public void testBuildFileChangeInvalidatesEntry() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("digest");
+        File cacheDir = tmpFolder.newFolder("cache-digest");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.enablePersistentCache(cacheDir);
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        aspectHelper.getAspectTargetInfos(Collections.singletonList(label), "test");
+        env.bazelWorkspaceCommandRunner.savePersistentAspectCache();
+
+        // change the BUILD file of the package
+        File buildFile = new File(env.bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory(),
+                "projects/libs/javalib0/BUILD");
+        try (FileWriter writer = new FileWriter(buildFile, true)) {
+            writer.write("\n# a change\n");
+        }
+
+        BazelAspectPersistentCache restarted = createCache(env, cacheDir);
+        assertNull(restarted.get(label));
+    }
+
+    @Test
+    public void testNewBuildFileInvalidatesEntry() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("newbuild");
+        File cacheDir = tmpFolder.newFolder("cache-newbuild");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.enablePersistentCache(cacheDir);
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        aspectHelper.getAspectTargetInfos(Collections.singletonList(label), "test");
+        env.bazelWorkspaceCommandRunner.savePersistentAspectCache();
+
+        BazelAspectPersistentCache restarted = createCache(env, cacheDir);
+        assertNotNull(restarted.get(label));
+
+        // add a BUILD.bazel file next to the existing BUILD file, which did not exist when the digest was computed
+        File newBuildFile = new File(env.bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory(),
+                "projects/libs/javalib0/BUILD.bazel");
+        try (FileWriter writer = new FileWriter(newBuildFile)) {
+            writer.write("# a new build file\n");
+        }
+
+        assertNull(restarted.get(label));
+    }
+
+    @Test
+    public void testScheduledSaveWritesInBackground() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("background");
+        File cacheDir = tmpFolder.newFolder("cache-background");
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        Set<AspectTargetInfo> loaded = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper()
+                .getAspectTargetInfos(Collections.singletonList(label), "test").get(label);
+
+        BazelAspectPersistentCache cache = createCache(env, cacheDir);
+        cache.put(label, loaded);
+        // repeated requests while the first is pending are merged
+        cache.scheduleSave();
+        cache.scheduleSave();
+        // a lookup while the write may still be pending sees the entry
+        assertEquals(loaded.size(), cache.get(label).size());
+        cache.waitForSave();
+
+        BazelAspectPersistentCache restarted = createCache(env, cacheDir);
+        assertEquals(loaded.size(), restarted.get(label).size());
+    }
+
+    // INTERNAL
+
+    private BazelAspectPersistentCache createCache(TestBazelCommandEnvironmentFactory env, File cacheDir) {
+        return new BazelAspectPersistentCache(new File(cacheDir, BazelAspectPersistentCache.CACHE_FILENAME),
+                env.bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory(),
+                BazelAspectPersistentCache.computeAspectVersion(env.bazelAspectLocation));
+    }
+
+    private TestBazelCommandEnvironmentFactory createEnv(String testKey) throws Exception {
+        File testDir = tmpFolder.newFolder();
+        File workspaceDir = new File(testDir, "bazelws-" + testKey);
+        workspaceDir.mkdirs();
+        File outputbaseDir = new File(testDir, "obase-" + testKey);
+        outputbaseDir.mkdirs();
+
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(1);
+
+        TestBazelWorkspaceDescriptor descriptor =
+                new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
+        TestBazelWorkspaceFactory workspace = new TestBazelWorkspaceFactory(descriptor);
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+
+        workspace.build();
+        env.createTestEnvironment(workspace, testDir, testOptions);
+
+        return env;
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.bep;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.bep.event.BEPEvent;
+import com.salesforce.bazel.sdk.bep.event.BEPNamedSetEvent;
+import com.salesforce.bazel.sdk.bep.event.BEPTargetCompletedEvent;
+
+public class BazelBuildEventsTailingFileStreamTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static final String NAMED_SET_EVENT = "{\"id\":{\"namedSet\":{\"id\":\"0\"}},\"namedSetOfFiles\":"
+            + "{\"files\":[{\"name\":\"foo/foo.jar\",\"uri\":\"file:///tmp/foo/foo.jar\"}]}}\n";
+    private static final String COMPLETED_EVENT =
+            "{\"id\":{\"targetCompleted\":{\"label\":\"//foo:foo\"}},\"completed\":{\"success\":true}}\n";
+
+    @Test
+    public void testReadsOnlyAppendedLines() throws Exception {
+        File bepFile = tmpFolder.newFile("bep.json");
+        List<BEPEvent> events = new ArrayList<>();
+        BazelBuildEventsTailingFileStream stream = new BazelBuildEventsTailingFileStream(bepFile);
+        stream.subscribe(events::add);
+
+        append(bepFile, NAMED_SET_EVENT);
+        assertEquals(1, stream.readNewEvents());
+        assertEquals(0, stream.readNewEvents());
+
+        // a partial line is held back until Bazel finishes writing it
+        int half = COMPLETED_EVENT.length() / 2;
+        append(bepFile, COMPLETED_EVENT.substring(0, half));
+        assertEquals(0, stream.readNewEvents());
+        append(bepFile, COMPLETED_EVENT.substring(half));
+        assertEquals(1, stream.readNewEvents());
+
+        assertEquals(2, events.size());
+        assertEquals("foo.jar", ((BEPNamedSetEvent) events.get(0)).getFiles().get(0).getFile().getName());
+        assertEquals("//foo:foo", ((BEPTargetCompletedEvent) events.get(1)).getLabel());
+    }
+
+    @Test
+    public void testRestartsAfterTruncation() throws Exception {
+        File bepFile = tmpFolder.newFile("bep.json");
+        List<BEPEvent> events = new ArrayList<>();
+        BazelBuildEventsTailingFileStream stream = new BazelBuildEventsTailingFileStream(bepFile);
+        stream.subscribe(events::add);
+
+        append(bepFile, NAMED_SET_EVENT + COMPLETED_EVENT);
+        assertEquals(2, stream.readNewEvents());
+
+        // a new build truncates the file
+        Files.write(bepFile.toPath(), Collections.singletonList(NAMED_SET_EVENT.trim()));
+        assertEquals(1, stream.readNewEvents());
+        assertEquals(3, events.size());
+    }
+
+    @Test
+    public void testCloseReadsRemainingEvents() throws Exception {
+        File bepFile = new File(tmpFolder.getRoot(), "bep.json");
+        List<BEPEvent> events = Collections.synchronizedList(new ArrayList<>());
+        BazelBuildEventsTailingFileStream stream = new BazelBuildEventsTailingFileStream(bepFile, 10);
+        stream.subscribe(events::add);
+        stream.activateStream();
+
+        // the file does not exist until Bazel starts writing it
+        Thread.sleep(50);
+        append(bepFile, NAMED_SET_EVENT + COMPLETED_EVENT);
+        stream.closeStream();
+
+        assertEquals(2, events.size());
+    }
+
+    private void append(File bepFile, String content) throws Exception {
+        Files.write(bepFile.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+    }
+}
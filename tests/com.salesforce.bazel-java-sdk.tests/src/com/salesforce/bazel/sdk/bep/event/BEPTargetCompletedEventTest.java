@@ -36,6 +36,7 @@ public class BEPTargetCompletedEventTest {
         assertFalse(event.isLastMessage());
         assertFalse(event.isProcessed());
         assertEquals("targetCompleted", event.getEventType());
+        assertEquals("//foo:foo", event.getLabel());
 
         BEPFileUri uri = event.getImportantOutput().get(0);
         assertEquals("foo/foo.jar", uri.getId());
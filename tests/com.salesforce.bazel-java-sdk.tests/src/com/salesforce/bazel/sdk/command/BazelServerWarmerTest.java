@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.command.internal.BazelCommandScheduler;
+import com.salesforce.bazel.sdk.command.test.TestBazelCommandEnvironmentFactory;
+import com.salesforce.bazel.sdk.command.test.type.MockInfoCommand;
+import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceDescriptor;
+import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
+import com.salesforce.bazel.sdk.workspace.test.TestOptions;
+
+public class BazelServerWarmerTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testWarmupLoadsPackages() throws Exception {
+        BazelWorkspaceCommandRunner runner = createEnv("warmup").bazelWorkspaceCommandRunner;
+        assertEquals(MockInfoCommand.SERVER_PID, runner.pingBazelServer());
+
+        BazelServerWarmer warmer = new BazelServerWarmer(runner);
+        List<BazelLabel> packages =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0")); // $SLASH_OK bazel path
+        warmer.warmup(packages);
+        assertEquals(1, warmer.getPingCount());
+        assertEquals(3, runner.getCommandScheduler().getScheduledCount());
+
+        // the packages were loaded, so the first real request for them does not need Bazel
+        runner.queryBazelTargetsInBuildFile(
+            Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*"))); // $SLASH_OK bazel path
+        assertEquals(3, runner.getCommandScheduler().getScheduledCount());
+    }
+
+    @Test
+    @SuppressWarnings("try") // the priority scope is only entered and closed
+    public void testQueuedBackgroundQueryDoesNotBlockRunner() throws Exception {
+        BazelWorkspaceCommandRunner runner = createEnv("nolock").bazelWorkspaceCommandRunner;
+        BazelCommandScheduler scheduler = runner.getCommandScheduler();
+        List<BazelLabel> labels =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*")); // $SLASH_OK bazel path
+        CountDownLatch buildStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuild = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            // a build holds the Bazel server
+            Future<?> build = callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//foo"), laneArgs -> {
+                buildStarted.countDown();
+                releaseBuild.await();
+                return null;
+            }));
+            assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+
+            // the query of a warmup waits for the server in the background
+            Future<?> warmupQuery = callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+                    return runner.queryBazelTargetsInBuildFile(labels);
+                }
+            });
+            while ((scheduler.getQueueDepth(BazelCommandPriority.BACKGROUND) < 1) && !warmupQuery.isDone()) {
+                Thread.sleep(1);
+            }
+            assertFalse(warmupQuery.isDone());
+
+            // meanwhile the runner and its query cache stay available
+            callers.submit(() -> runner.flushQueryCache(labels.get(0))).get(10, TimeUnit.SECONDS);
+            Future<?> interactiveQuery = callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.INTERACTIVE.enter()) {
+                    return runner.queryBazelTargetsInBuildFile(labels);
+                }
+            });
+            while ((scheduler.getQueueDepth(BazelCommandPriority.INTERACTIVE) < 1) && !interactiveQuery.isDone()) {
+                Thread.sleep(1);
+            }
+            assertFalse(interactiveQuery.isDone());
+
+            releaseBuild.countDown();
+            build.get(10, TimeUnit.SECONDS);
+            interactiveQuery.get(10, TimeUnit.SECONDS);
+            warmupQuery.get(10, TimeUnit.SECONDS);
+        } finally {
+            releaseBuild.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testKeepAlivePingsIdleServer() throws Exception {
+        BazelWorkspaceCommandRunner runner = createEnv("keepalive").bazelWorkspaceCommandRunner;
+        BazelServerWarmer warmer = new BazelServerWarmer(runner);
+        try {
+            warmer.setKeepAliveInterval(20, TimeUnit.MILLISECONDS);
+            long deadlineMS = System.currentTimeMillis() + 10000;
+            while ((warmer.getPingCount() < 2) && (System.currentTimeMillis() < deadlineMS)) {
+                Thread.sleep(10);
+            }
+            assertTrue(warmer.getPingCount() >= 2);
+
+            // turned off, no more pings
+            warmer.setKeepAliveInterval(0, TimeUnit.MILLISECONDS);
+            int pingCount = warmer.getPingCount();
+            Thread.sleep(100);
+            assertTrue(warmer.getPingCount() <= (pingCount + 1));
+        } finally {
+            warmer.stop();
+        }
+    }
+
+    // HELPERS
+
+    private TestBazelCommandEnvironmentFactory createEnv(String key) throws Exception {
+        File testDir = tmpFolder.newFolder();
+        File workspaceDir = new File(testDir, "bazelws-" + key);
+        workspaceDir.mkdirs();
+        File outputbaseDir = new File(testDir, "obase-" + key);
+        outputbaseDir.mkdirs();
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(1);
+        TestBazelWorkspaceDescriptor descriptor =
+                new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
+        TestBazelWorkspaceFactory workspace = new TestBazelWorkspaceFactory(descriptor);
+        workspace.build();
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        env.createTestEnvironment(workspace, testDir, testOptions);
+        return env;
+    }
+}
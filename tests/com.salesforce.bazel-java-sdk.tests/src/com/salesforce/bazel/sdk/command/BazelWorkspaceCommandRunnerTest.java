@@ -24,8 +24,15 @@
 package com.salesforce.bazel.sdk.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -36,8 +43,12 @@ import org.junit.rules.TemporaryFolder;
 
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
 import com.salesforce.bazel.sdk.command.test.MockWorkProgressMonitor;
+import com.salesforce.bazel.sdk.command.internal.BazelCommandTelemetry;
+import com.salesforce.bazel.sdk.command.internal.BazelWorkspaceInfoService;
 import com.salesforce.bazel.sdk.command.test.TestBazelCommandEnvironmentFactory;
 import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.model.BazelWorkspace;
+import com.salesforce.bazel.sdk.model.test.MockOperatingEnvironmentDetectionStrategy;
 import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceDescriptor;
 import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
 import com.salesforce.bazel.sdk.workspace.test.TestOptions;
@@ -126,4 +137,202 @@ public class BazelWorkspaceCommandRunnerTest {
         // run a clean, should not throw an exception
         workspaceRunner.runBazelClean(new MockWorkProgressMonitor());
     }
+
+    // WORKSPACE INFO
+
+    @Test
+    public void testWorkspaceRunner_singleInfoRoundTrip() throws Exception {
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        TestOptions testOptions = new TestOptions().uniqueKey("info");
+        env.createTestEnvironment(tmpFolder.newFolder(), testOptions);
+        TestBazelWorkspaceDescriptor descriptor = env.testWorkspace.workspaceDescriptor;
+        File stateDir = tmpFolder.newFolder();
+
+        BazelWorkspaceCommandRunner runner = env.bazelWorkspaceCommandRunner;
+        runner.enablePersistentWorkspaceInfo(stateDir);
+        assertEquals(descriptor.dirExecRoot.getCanonicalFile(), runner.computeBazelWorkspaceExecRoot());
+        assertEquals(descriptor.outputBaseDirectory.getCanonicalFile(), runner.computeBazelWorkspaceOutputBase());
+        assertEquals(descriptor.dirBazelBin.getCanonicalFile(), runner.computeBazelWorkspaceBin());
+        assertEquals("release 1.0.0", runner.getWorkspaceInfoService().getValues().get("release"));
+        // all of the above came from one 'bazel info'
+        assertEquals(1, runner.getCommandScheduler().getScheduledCount());
+        assertTrue(new File(stateDir, BazelWorkspaceInfoService.INFO_FILENAME).exists());
+
+        // after a restart the persisted copy is used
+        BazelWorkspaceCommandRunner restartedRunner = newWorkspaceRunner(env);
+        restartedRunner.enablePersistentWorkspaceInfo(stateDir);
+        assertEquals(descriptor.outputBaseDirectory.getCanonicalFile(),
+            restartedRunner.computeBazelWorkspaceOutputBase());
+        assertEquals(descriptor.dirBazelBin.getCanonicalFile(), restartedRunner.computeBazelWorkspaceBin());
+        assertEquals(0, restartedRunner.getCommandScheduler().getScheduledCount());
+    }
+
+    @Test
+    public void testWorkspaceRunner_persistedInfoCheckedAgainstOutputBase() throws Exception {
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        TestOptions testOptions = new TestOptions().uniqueKey("infostale");
+        env.createTestEnvironment(tmpFolder.newFolder(), testOptions);
+        TestBazelWorkspaceDescriptor descriptor = env.testWorkspace.workspaceDescriptor;
+        File stateDir = tmpFolder.newFolder();
+        env.bazelWorkspaceCommandRunner.enablePersistentWorkspaceInfo(stateDir);
+        env.bazelWorkspaceCommandRunner.computeBazelWorkspaceExecRoot();
+
+        // simulate a 'bazel clean --expunge' while the tool was not running
+        File movedExecRoot = new File(descriptor.dirExecRoot.getParentFile(), "moved");
+        assertTrue(descriptor.dirExecRoot.renameTo(movedExecRoot));
+        BazelWorkspaceCommandRunner restartedRunner = newWorkspaceRunner(env);
+        restartedRunner.enablePersistentWorkspaceInfo(stateDir);
+        restartedRunner.computeBazelWorkspaceOutputBase();
+        assertEquals(1, restartedRunner.getCommandScheduler().getScheduledCount());
+    }
+
+    @Test
+    public void testWorkspaceRunner_persistedInfoCheckedAgainstWorkspaceConfig() throws Exception {
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        TestOptions testOptions = new TestOptions().uniqueKey("infostamp");
+        env.createTestEnvironment(tmpFolder.newFolder(), testOptions);
+        File stateDir = tmpFolder.newFolder();
+        env.bazelWorkspaceCommandRunner.enablePersistentWorkspaceInfo(stateDir);
+        env.bazelWorkspaceCommandRunner.computeBazelWorkspaceExecRoot();
+
+        // a new startup option in the rc file can move the output base
+        File bazelrc = new File(env.testWorkspace.workspaceDescriptor.workspaceRootDirectory, ".bazelrc");
+        Files.write(bazelrc.toPath(), "startup --output_user_root=/tmp/elsewhere\n".getBytes()); // $SLASH_OK bazel path
+        BazelWorkspaceCommandRunner restartedRunner = newWorkspaceRunner(env);
+        restartedRunner.enablePersistentWorkspaceInfo(stateDir);
+        restartedRunner.computeBazelWorkspaceOutputBase();
+        assertEquals(1, restartedRunner.getCommandScheduler().getScheduledCount());
+    }
+
+    @Test
+    public void testWorkspaceRunner_bazelPathChangeInvalidatesInfo() throws Exception {
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        TestOptions testOptions = new TestOptions().uniqueKey("infopath");
+        env.createTestEnvironment(tmpFolder.newFolder(), testOptions);
+        File stateDir = tmpFolder.newFolder();
+        BazelWorkspaceCommandRunner runner = env.bazelWorkspaceCommandRunner;
+        runner.enablePersistentWorkspaceInfo(stateDir);
+        runner.getWorkspaceInfoService().getValues();
+        assertTrue(new File(stateDir, BazelWorkspaceInfoService.INFO_FILENAME).exists());
+
+        // the preference page sets the path, the new binary may be a different Bazel version
+        env.bazelCommandManager.setBazelExecutablePath(env.bazelExecutable.bazelExecutableFile.getAbsolutePath());
+        assertFalse(new File(stateDir, BazelWorkspaceInfoService.INFO_FILENAME).exists());
+        runner.getWorkspaceInfoService().getValues();
+        assertEquals(2, runner.getCommandScheduler().getScheduledCount());
+    }
+
+    @Test
+    public void testParseInfoLines() {
+        Map<String, String> values = BazelWorkspaceInfoService.parseInfoLines(Arrays.asList(
+            "INFO: Invocation ID: 1234", "bazel-bin: /obase/execroot/ws/bazel-out/k8-fastbuild/bin",
+            "character-encoding: file.encoding = ISO-8859-1, defaultCharset = ISO-8859-1", "no separator"));
+        assertEquals(2, values.size());
+        assertEquals("/obase/execroot/ws/bazel-out/k8-fastbuild/bin", values.get("bazel-bin"));
+        assertEquals("file.encoding = ISO-8859-1, defaultCharset = ISO-8859-1", values.get("character-encoding"));
+    }
+
+    // QUERY RESULT CACHE
+
+    @Test
+    public void testWorkspaceRunner_queryResultsCachedUntilBuildFileChanges() throws Exception {
+        File testDir = tmpFolder.newFolder();
+        File workspaceDir = new File(testDir, "bazelws-querycache");
+        workspaceDir.mkdirs();
+        File outputbaseDir = new File(testDir, "obase-querycache");
+        outputbaseDir.mkdirs();
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(1);
+        TestBazelWorkspaceDescriptor descriptor =
+                new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
+        TestBazelWorkspaceFactory workspace = new TestBazelWorkspaceFactory(descriptor);
+        workspace.build();
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        env.createTestEnvironment(workspace, testDir, testOptions);
+        BazelWorkspaceCommandRunner runner = env.bazelWorkspaceCommandRunner;
+        String query = "kind(rule, set(//projects/libs/javalib0:*))"; // $SLASH_OK bazel path
+
+        List<String> results = runner.computeBazelQuery(query);
+        assertEquals(results, runner.computeBazelQuery(query));
+        assertEquals(1, runner.getCommandScheduler().getScheduledCount());
+        // the result depends on globbed source files, so it is not kept (or persisted) by the result cache
+        assertEquals(0, runner.getCommandResultCache().getSize());
+
+        // the tool is told about the BUILD file change, the query runs again
+        File buildFile = new File(env.testWorkspace.workspaceDescriptor.workspaceRootDirectory,
+                "projects/libs/javalib0/" + env.testWorkspace.workspaceDescriptor.buildFilename);
+        assertTrue(buildFile.setLastModified(buildFile.lastModified() + 10000));
+        runner.flushQueryCache(new BazelLabel("//projects/libs/javalib0")); // $SLASH_OK bazel path
+        assertEquals(results, runner.computeBazelQuery(query));
+        assertEquals(2, runner.getCommandScheduler().getScheduledCount());
+    }
+
+    // TELEMETRY
+
+    @Test
+    public void testWorkspaceRunner_telemetryNamesCallerOutsideCommandPackage() throws Exception {
+        File testDir = tmpFolder.newFolder();
+        File workspaceDir = new File(testDir, "bazelws-telemetry");
+        workspaceDir.mkdirs();
+        File outputbaseDir = new File(testDir, "obase-telemetry");
+        outputbaseDir.mkdirs();
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(1);
+        TestBazelWorkspaceDescriptor descriptor =
+                new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
+        TestBazelWorkspaceFactory workspace = new TestBazelWorkspaceFactory(descriptor);
+        workspace.build();
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        env.createTestEnvironment(workspace, testDir, testOptions);
+        BazelWorkspaceCommandRunner runner = env.bazelWorkspaceCommandRunner;
+        BazelWorkspace bazelWorkspace = new BazelWorkspace("test", runner.getBazelWorkspaceRootDirectory(),
+                new MockOperatingEnvironmentDetectionStrategy("linux"), runner);
+
+        // the query goes through the runner and the executor, the caller is the model code that asked for it
+        bazelWorkspace.getTargetsForBazelQuery("kind(rule, set(//projects/libs/javalib0:*))"); // $SLASH_OK bazel path
+
+        List<BazelCommandTelemetry.Record> records = runner.getCommandTelemetry().getRecords();
+        BazelCommandTelemetry.Record record = records.get(records.size() - 1);
+        assertEquals("query", record.verb);
+        assertEquals("BazelWorkspace.getTargetsForBazelQuery", record.caller);
+    }
+
+    // SOURCE FILE QUERIES
+
+    @Test
+    public void testWorkspaceRunner_sourceFilesForPackagesInOneQuery() throws Exception {
+        File testDir = tmpFolder.newFolder();
+        File workspaceDir = new File(testDir, "bazelws-sourcefiles");
+        workspaceDir.mkdirs();
+        File outputbaseDir = new File(testDir, "obase-sourcefiles");
+        outputbaseDir.mkdirs();
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(2);
+        TestBazelWorkspaceDescriptor descriptor =
+                new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
+        TestBazelWorkspaceFactory workspace = new TestBazelWorkspaceFactory(descriptor);
+        workspace.build();
+        TestBazelCommandEnvironmentFactory env = new TestBazelCommandEnvironmentFactory();
+        env.createTestEnvironment(workspace, testDir, testOptions);
+        BazelWorkspaceCommandRunner runner = env.bazelWorkspaceCommandRunner;
+        BazelLabel package0 = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        BazelLabel package1 = new BazelLabel("//projects/libs/javalib1:*"); // $SLASH_OK bazel path
+
+        Map<BazelLabel, Collection<String>> sourceFiles =
+                runner.querySourceFilesForPackages(workspaceDir, Arrays.asList(package0, package1));
+        assertEquals(1, runner.getCommandScheduler().getScheduledCount());
+
+        // each package gets the same files as from its own query, and none of the other package
+        assertEquals(2, sourceFiles.size());
+        assertEquals(new HashSet<>(runner.querySourceFilesForTarget(workspaceDir, package0)),
+            new HashSet<>(sourceFiles.get(package0)));
+        assertEquals(new HashSet<>(runner.querySourceFilesForTarget(workspaceDir, package1)),
+            new HashSet<>(sourceFiles.get(package1)));
+        assertTrue(sourceFiles.get(package0).stream().anyMatch(path -> path.contains("0")));
+        assertTrue(sourceFiles.get(package0).stream().noneMatch(path -> path.contains("1")));
+        assertTrue(sourceFiles.get(package1).stream().noneMatch(path -> path.contains("0")));
+    }
+
+    private BazelWorkspaceCommandRunner newWorkspaceRunner(TestBazelCommandEnvironmentFactory env) {
+        return new BazelWorkspaceCommandRunner(env.bazelExecutable.bazelExecutableFile, env.bazelAspectLocation,
+                env.commandBuilder, env.commandConsole,
+                env.testWorkspace.workspaceDescriptor.workspaceRootDirectory);
+    }
 }
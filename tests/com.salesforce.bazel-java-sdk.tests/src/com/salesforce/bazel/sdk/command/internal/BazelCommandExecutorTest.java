@@ -24,6 +24,7 @@
 package com.salesforce.bazel.sdk.command.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -93,6 +94,38 @@ public class BazelCommandExecutorTest {
         assertEquals("result line 2", result.get(1));
     }
 
+    @Test
+    public void testTelemetry() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("telemetry");
+
+        List<String> emptyLines = new ArrayList<>();
+        List<String> outputLines = new ArrayList<>();
+        outputLines.add("result line 1");
+        outputLines.add("result line 2");
+        env.commandBuilder.addSimulatedOutput("testcommand1", outputLines, emptyLines);
+
+        List<String> args = new ArrayList<>();
+        args.add("fake");
+        args.add("//projects/libs/javalib0"); // $SLASH_OK bazel path
+
+        BazelCommandExecutor executor =
+                new BazelCommandExecutor(env.bazelExecutable.bazelExecutableFile, env.commandBuilder);
+        executor.runBazelAndGetOutputLines(env.bazelWorkspaceCommandRunner.getBazelWorkspaceRootDirectory(),
+            new MockWorkProgressMonitor(), args, t -> t, 0);
+
+        List<BazelCommandTelemetry.Record> records = executor.getTelemetry().getRecords();
+        assertEquals(1, records.size());
+        BazelCommandTelemetry.Record record = records.get(0);
+        assertEquals("fake", record.verb);
+        assertEquals(1, record.targetCount);
+        assertEquals(0, record.exitCode);
+        assertEquals(28, record.stdoutBytes);
+        assertEquals(0, record.stderrBytes);
+        // this test is in the command package, which is skipped when looking for the caller, see
+        // BazelWorkspaceCommandRunnerTest.testWorkspaceRunner_telemetryNamesCallerOutsideCommandPackage
+        assertFalse(record.caller.startsWith("BazelCommand"));
+    }
+
     @Test
     public void testStripInfo() {
         List<String> outputLines = new ArrayList<>();
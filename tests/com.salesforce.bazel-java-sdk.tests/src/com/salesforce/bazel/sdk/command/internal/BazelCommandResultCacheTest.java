@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BazelCommandResultCacheTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static final List<String> QUERY_ARGS = Arrays.asList("query", "//projects/libs/..."); // $SLASH_OK
+    private static final List<String> QUERY_LINES = Arrays.asList("//projects/libs/a:a", "//projects/libs/b:b"); // $SLASH_OK
+
+    @Test
+    public void testIsCacheable() {
+        assertTrue(BazelCommandResultCache.isCacheable(QUERY_ARGS));
+        assertTrue(BazelCommandResultCache.isCacheable(Arrays.asList("--output_base=/tmp/q", "cquery", "//a:a"))); // $SLASH_OK
+        assertTrue(BazelCommandResultCache.isCacheable(Arrays.asList("info", "execution_root")));
+        assertFalse(BazelCommandResultCache.isCacheable(Arrays.asList("build", "//a:a"))); // $SLASH_OK
+        assertFalse(BazelCommandResultCache.isCacheable(Arrays.asList("--batch")));
+    }
+
+    @Test
+    public void testEntryInvalidatedByBuildFileChange() throws Exception {
+        File workspaceDir = createWorkspace();
+        BazelCommandResultCache cache = newCache(workspaceDir);
+
+        assertNull(cache.get(QUERY_ARGS));
+        cache.put(QUERY_ARGS, cache.getWorkspaceFingerprint().getFingerprint(), QUERY_LINES);
+        assertEquals(QUERY_LINES, cache.get(QUERY_ARGS));
+
+        // a source file does not matter
+        File sourceFile = new File(workspaceDir, "a/Foo.java");
+        Files.write(sourceFile.toPath(), "class Foo {}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(QUERY_LINES, cache.get(QUERY_ARGS));
+
+        // but a BUILD file does
+        File buildFile = new File(workspaceDir, "a/BUILD");
+        assertTrue(buildFile.setLastModified(buildFile.lastModified() + 10000));
+        assertNull(cache.get(QUERY_ARGS));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testNewBzlFileChangesFingerprint() throws Exception {
+        File workspaceDir = createWorkspace();
+        BazelWorkspaceFingerprint fingerprint = new BazelWorkspaceFingerprint(workspaceDir);
+        fingerprint.setMaxAgeMS(0);
+        String before = fingerprint.getFingerprint();
+        assertEquals(before, fingerprint.getFingerprint());
+
+        Files.write(new File(workspaceDir, "tools/defs.bzl").toPath(), new byte[0]);
+        assertNotEquals(before, fingerprint.getFingerprint());
+
+        // the convenience links of Bazel are not walked
+        String withBzl = fingerprint.getFingerprint();
+        File bazelOut = new File(workspaceDir, "bazel-out/external/foo");
+        assertTrue(bazelOut.mkdirs());
+        Files.write(new File(bazelOut, "BUILD").toPath(), new byte[0]);
+        assertEquals(withBzl, fingerprint.getFingerprint());
+    }
+
+    @Test
+    public void testFingerprintRememberedUntilInvalidated() throws Exception {
+        File workspaceDir = createWorkspace();
+        BazelWorkspaceFingerprint fingerprint = new BazelWorkspaceFingerprint(workspaceDir);
+        fingerprint.setMaxAgeMS(60000);
+        String before = fingerprint.getFingerprint();
+
+        File buildFile = new File(workspaceDir, "a/BUILD");
+        assertTrue(buildFile.setLastModified(buildFile.lastModified() + 10000));
+        assertEquals(before, fingerprint.getFingerprint());
+        assertEquals(1, fingerprint.getComputeCount());
+
+        fingerprint.invalidate();
+        assertNotEquals(before, fingerprint.getFingerprint());
+        assertEquals(2, fingerprint.getComputeCount());
+    }
+
+    @Test
+    public void testFingerprintStatsKnownFilesWithoutWalking() throws Exception {
+        File workspaceDir = createWorkspace();
+        BazelWorkspaceFingerprint fingerprint = new BazelWorkspaceFingerprint(workspaceDir);
+        fingerprint.setMaxAgeMS(0);
+        String before = fingerprint.getFingerprint();
+        assertEquals(before, fingerprint.getFingerprint());
+
+        // an edit of a known file is found by its stat, the workspace is not walked again
+        File buildFile = new File(workspaceDir, "a/BUILD");
+        assertTrue(buildFile.setLastModified(buildFile.lastModified() + 10000));
+        assertNotEquals(before, fingerprint.getFingerprint());
+        assertEquals(3, fingerprint.getComputeCount());
+        assertEquals(1, fingerprint.getWalkCount());
+    }
+
+    @Test
+    public void testFingerprintSkipsIgnoredDirectories() throws Exception {
+        File workspaceDir = createWorkspace();
+        Files.write(new File(workspaceDir, ".bazelignore").toPath(),
+            "# generated\nweb/dist\n".getBytes(StandardCharsets.UTF_8));
+        BazelWorkspaceFingerprint fingerprint = new BazelWorkspaceFingerprint(workspaceDir);
+        fingerprint.setMaxAgeMS(0);
+        String before = fingerprint.getFingerprint();
+
+        File distDir = new File(workspaceDir, "web/dist");
+        File nodeModulesDir = new File(workspaceDir, "web/node_modules/lib");
+        assertTrue(distDir.mkdirs());
+        assertTrue(nodeModulesDir.mkdirs());
+        Files.write(new File(distDir, "BUILD").toPath(), new byte[0]);
+        Files.write(new File(nodeModulesDir, "BUILD.bazel").toPath(), new byte[0]);
+        assertEquals(before, fingerprint.getFingerprint());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        BazelCommandResultCache cache = newCache(createWorkspace());
+        cache.setMaxEntries(2);
+        String fingerprint = cache.getWorkspaceFingerprint().getFingerprint();
+        List<String> argsA = Arrays.asList("query", "a");
+        List<String> argsB = Arrays.asList("query", "b");
+        List<String> argsC = Arrays.asList("query", "c");
+
+        cache.put(argsA, fingerprint, QUERY_LINES);
+        cache.put(argsB, fingerprint, QUERY_LINES);
+        // touching A makes B the least recently used
+        cache.get(argsA);
+        cache.put(argsC, fingerprint, QUERY_LINES);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(QUERY_LINES, cache.get(argsA));
+        assertNull(cache.get(argsB));
+        assertEquals(QUERY_LINES, cache.get(argsC));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        File workspaceDir = createWorkspace();
+        File stateDir = tmpFolder.newFolder();
+        BazelCommandResultCache cache = newCache(workspaceDir);
+        cache.enablePersistence(stateDir);
+        cache.put(QUERY_ARGS, cache.getWorkspaceFingerprint().getFingerprint(), QUERY_LINES);
+        // written by the persist thread
+        cache.waitForPersist();
+        assertTrue(new File(stateDir, BazelCommandResultCache.CACHE_FILENAME).exists());
+
+        // a new session for the same workspace picks up the entry
+        BazelCommandResultCache restartedCache = newCache(workspaceDir);
+        restartedCache.enablePersistence(stateDir);
+        assertEquals(QUERY_LINES, restartedCache.get(QUERY_ARGS));
+
+        // but not for another workspace
+        BazelCommandResultCache otherCache = newCache(createWorkspace());
+        otherCache.enablePersistence(stateDir);
+        assertEquals(0, otherCache.getSize());
+
+        restartedCache.invalidate();
+        assertFalse(new File(stateDir, BazelCommandResultCache.CACHE_FILENAME).exists());
+    }
+
+    @Test
+    public void testInvalidateWinsOverPendingPersist() throws Exception {
+        File workspaceDir = createWorkspace();
+        File stateDir = tmpFolder.newFolder();
+        BazelCommandResultCache cache = newCache(workspaceDir);
+        cache.enablePersistence(stateDir);
+        cache.put(QUERY_ARGS, cache.getWorkspaceFingerprint().getFingerprint(), QUERY_LINES);
+        cache.invalidate();
+
+        cache.waitForPersist();
+        assertFalse(new File(stateDir, BazelCommandResultCache.CACHE_FILENAME).exists());
+    }
+
+    // HELPERS
+
+    private File createWorkspace() throws Exception {
+        File workspaceDir = tmpFolder.newFolder();
+        new File(workspaceDir, "a").mkdirs();
+        new File(workspaceDir, "tools").mkdirs();
+        Files.write(new File(workspaceDir, "WORKSPACE").toPath(), new byte[0]);
+        Files.write(new File(workspaceDir, "a/BUILD").toPath(),
+            "java_library(name = \"a\")\n".getBytes(StandardCharsets.UTF_8));
+        return workspaceDir;
+    }
+
+    private BazelCommandResultCache newCache(File workspaceDir) {
+        BazelWorkspaceFingerprint fingerprint = new BazelWorkspaceFingerprint(workspaceDir);
+        fingerprint.setMaxAgeMS(0);
+        return new BazelCommandResultCache(workspaceDir, fingerprint);
+    }
+}
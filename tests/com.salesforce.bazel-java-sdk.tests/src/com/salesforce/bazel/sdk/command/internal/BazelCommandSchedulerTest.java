@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+
+public class BazelCommandSchedulerTest {
+    // the threads that hold the server lane, and what they failed with
+    private final List<Thread> laneHolders = new ArrayList<>();
+    private final List<Throwable> laneHolderFailures = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void checkLaneHolders() throws Exception {
+        for (Thread laneHolder : laneHolders) {
+            laneHolder.join(10000);
+            assertFalse(laneHolder.isAlive());
+        }
+        assertEquals(Collections.emptyList(), laneHolderFailures);
+    }
+
+    @Test
+    public void testBuildsRunOneAtATime() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 8; i++) {
+            callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//foo"), laneArgs -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        callers.shutdown();
+        assertTrue(callers.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(1, maxRunning.get());
+        assertEquals(8, scheduler.getScheduledCount());
+        assertEquals(0, scheduler.getQueueDepth());
+        assertTrue(scheduler.getTotalWaitMillis() > 0);
+    }
+
+    @Test
+    public void testQueryRunsAlongsideBuildWithSecondOutputBase() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        File queryOutputBase = new File("/tmp/query_obase");
+        scheduler.setQueryOutputBase(queryOutputBase);
+
+        CountDownLatch buildStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuild = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        Future<Object> build = callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//foo"), laneArgs -> {
+            buildStarted.countDown();
+            releaseBuild.await();
+            return null;
+        }));
+        assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+
+        // the query completes while the build holds the workspace server
+        List<String> queryArgs = scheduler.schedule(Arrays.asList("query", "//foo:*"), laneArgs -> laneArgs);
+        assertEquals(BazelCommandScheduler.OUTPUT_BASE_OPTION + queryOutputBase.getAbsolutePath(), queryArgs.get(0));
+        assertEquals("query", queryArgs.get(1));
+        assertFalse(build.isDone());
+
+        releaseBuild.countDown();
+        build.get(10, TimeUnit.SECONDS);
+        callers.shutdown();
+    }
+
+    @Test
+    public void testQueryWaitsWithoutSecondOutputBase() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        CountDownLatch buildStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuild = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//foo"), laneArgs -> {
+            buildStarted.countDown();
+            releaseBuild.await();
+            return null;
+        }));
+        assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+
+        Future<List<String>> query =
+                callers.submit(() -> scheduler.schedule(Arrays.asList("query", "//foo:*"), laneArgs -> laneArgs));
+        while (scheduler.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse(query.isDone());
+        assertEquals(1, scheduler.getRunningCount());
+
+        releaseBuild.countDown();
+        assertEquals(Arrays.asList("query", "//foo:*"), query.get(10, TimeUnit.SECONDS));
+        callers.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("try") // the priority scope is only entered and closed
+    public void testInteractiveRunsBeforeQueuedBackground() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        CountDownLatch releaseBuild = holdServerLane(scheduler);
+        List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+
+        for (String target : Arrays.asList("//index1", "//index2")) {
+            callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+                    return scheduler.schedule(Arrays.asList("build", target), laneArgs -> runOrder.add(target));
+                }
+            });
+            awaitQueueDepth(scheduler, BazelCommandPriority.BACKGROUND, target.equals("//index1") ? 1 : 2);
+        }
+        Future<Boolean> interactive = callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//editor"),
+            BazelCommandPriority.INTERACTIVE, laneArgs -> runOrder.add("//editor")));
+        awaitQueueDepth(scheduler, BazelCommandPriority.INTERACTIVE, 1);
+
+        releaseBuild.countDown();
+        interactive.get(10, TimeUnit.SECONDS);
+        callers.shutdown();
+        assertTrue(callers.awaitTermination(10, TimeUnit.SECONDS));
+
+        // the background work was postponed, and kept its own order
+        assertEquals(Arrays.asList("//editor", "//index1", "//index2"), runOrder);
+        assertEquals(0, scheduler.getCancelledCount());
+        assertEquals(BazelCommandPriority.BUILD, BazelCommandPriority.current());
+    }
+
+    @Test
+    public void testInteractiveCancelsQueuedBackground() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        scheduler.setCancelBackgroundOnInteractive(true);
+        CountDownLatch releaseBuild = holdServerLane(scheduler);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+
+        Future<String> background = callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//index"),
+            BazelCommandPriority.BACKGROUND, laneArgs -> "indexed"));
+        awaitQueueDepth(scheduler, BazelCommandPriority.BACKGROUND, 1);
+        Future<String> interactive = callers.submit(() -> scheduler.schedule(Arrays.asList("build", "//editor"),
+            BazelCommandPriority.INTERACTIVE, laneArgs -> "classpath"));
+
+        try {
+            background.get(10, TimeUnit.SECONDS);
+            fail("the queued background command was not cancelled");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof CancellationException);
+        }
+        releaseBuild.countDown();
+        assertEquals("classpath", interactive.get(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getCancelledCount());
+        assertEquals(0, scheduler.getQueueDepth());
+        callers.shutdown();
+    }
+
+    @Test
+    public void testFailuresReachTheCaller() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        try {
+            scheduler.schedule(Collections.singletonList("info"), laneArgs -> {
+                throw new IOException("bazel not found");
+            });
+            fail("the failure of the command was not rethrown");
+        } catch (IOException expected) {
+            assertEquals("bazel not found", expected.getMessage());
+        }
+        // the lane was released
+        assertEquals("ok", scheduler.schedule(Collections.singletonList("info"), laneArgs -> "ok"));
+    }
+
+    @Test
+    public void testIdenticalConcurrentWorkIsCoalesced() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        List<String> args = Arrays.asList("query", "//foo:*");
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(callers.submit(() -> scheduler.coalesce(args, () -> scheduler.schedule(args, laneArgs -> {
+                    runs.incrementAndGet();
+                    release.await();
+                    return Collections.singletonList("//foo:foo");
+                }))));
+            }
+            // one caller runs the query, the other three attach to it
+            while (scheduler.getCoalescedCount() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<List<String>> result : results) {
+                assertEquals(Collections.singletonList("//foo:foo"), result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, runs.get());
+            assertEquals(1, scheduler.getScheduledCount());
+
+            // once the run is over, the next call runs again
+            scheduler.coalesce(args, () -> scheduler.schedule(args, laneArgs -> runs.incrementAndGet()));
+            assertEquals(2, runs.get());
+            assertEquals(3, scheduler.getCoalescedCount());
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try") // the priority scope is only entered and closed
+    public void testInteractiveWorkNotCoalescedWithQueuedBackground() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        CountDownLatch releaseBuild = holdServerLane(scheduler);
+        List<String> runOrder = Collections.synchronizedList(new ArrayList<>());
+        List<String> args = Arrays.asList("query", "//foo:*");
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            Future<Boolean> background = callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+                    return scheduler.coalesce(args, () -> scheduler.schedule(args, laneArgs -> runOrder.add("index")));
+                }
+            });
+            awaitQueueDepth(scheduler, BazelCommandPriority.BACKGROUND, 1);
+
+            // the interactive caller queues its own run, ahead of the background one
+            Future<Boolean> interactive = callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.INTERACTIVE.enter()) {
+                    return scheduler.coalesce(args, () -> scheduler.schedule(args, laneArgs -> runOrder.add("editor")));
+                }
+            });
+            while ((scheduler.getQueueDepth(BazelCommandPriority.INTERACTIVE) < 1)
+                    && (scheduler.getCoalescedCount() == 0)) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, scheduler.getCoalescedCount());
+
+            // a less urgent caller may attach to the interactive run
+            Future<Boolean> follower = callers.submit(() -> {
+                try (BazelCommandPriority.Scope scope = BazelCommandPriority.BACKGROUND.enter()) {
+                    return scheduler.coalesce(args, () -> scheduler.schedule(args, laneArgs -> runOrder.add("other")));
+                }
+            });
+            while (scheduler.getCoalescedCount() < 1) {
+                Thread.sleep(1);
+            }
+
+            releaseBuild.countDown();
+            assertTrue(interactive.get(10, TimeUnit.SECONDS));
+            assertTrue(background.get(10, TimeUnit.SECONDS));
+            assertTrue(follower.get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("editor", "index"), runOrder);
+        } finally {
+            releaseBuild.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalescedFailureReachesAllCallers() throws Exception {
+        BazelCommandScheduler scheduler = new BazelCommandScheduler();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> args = Collections.singletonList("info");
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(callers.submit(() -> scheduler.coalesce(args, () -> {
+                    release.await();
+                    throw new IOException("bazel not found");
+                })));
+            }
+            while (scheduler.getCoalescedCount() < 1) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    fail("the failure of the coalesced work was not rethrown");
+                } catch (ExecutionException expected) {
+                    assertEquals("bazel not found", expected.getCause().getMessage());
+                }
+            }
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBazelCommandSkipsStartupOptions() {
+        assertEquals("build", BazelCommandScheduler.getBazelCommand(Arrays.asList("--batch", "build", "//foo")));
+    }
+
+    // HELPERS
+
+    /**
+     * Starts a build that holds the server lane until the returned latch is released.
+     */
+    private CountDownLatch holdServerLane(BazelCommandScheduler scheduler) throws InterruptedException {
+        CountDownLatch buildStarted = new CountDownLatch(1);
+        CountDownLatch releaseBuild = new CountDownLatch(1);
+        Thread laneHolder = new Thread(() -> {
+            try {
+                scheduler.schedule(Arrays.asList("build", "//foo"), laneArgs -> {
+                    buildStarted.countDown();
+                    releaseBuild.await();
+                    return null;
+                });
+            } catch (Exception anyE) {
+                laneHolderFailures.add(anyE);
+            }
+        });
+        laneHolders.add(laneHolder);
+        laneHolder.start();
+        assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+        return releaseBuild;
+    }
+
+    private void awaitQueueDepth(BazelCommandScheduler scheduler, BazelCommandPriority priority, int depth)
+            throws InterruptedException {
+        while (scheduler.getQueueDepth(priority) < depth) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.command.BazelCommandPriority;
+
+public class BazelCommandTelemetryTest {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testRingIsBounded() {
+        BazelCommandTelemetry telemetry = new BazelCommandTelemetry();
+        telemetry.setCapacity(2);
+        telemetry.add(createRecord("build", "caller1"));
+        telemetry.add(createRecord("query", "caller2"));
+        telemetry.add(createRecord("info", "caller3"));
+
+        List<BazelCommandTelemetry.Record> records = telemetry.getRecords();
+        assertEquals(2, records.size());
+        assertEquals("query", records.get(0).verb);
+        assertEquals("info", records.get(1).verb);
+        assertEquals(3, telemetry.getRecordedCount());
+
+        telemetry.setCapacity(1);
+        assertEquals(1, telemetry.getRecords().size());
+        assertEquals("info", telemetry.getRecords().get(0).verb);
+    }
+
+    @Test
+    public void testCountTargets() {
+        assertEquals(0, BazelCommandTelemetry.countTargets(Arrays.asList("info", "server_pid")));
+        assertEquals(2, BazelCommandTelemetry.countTargets(
+            Arrays.asList("--nohome_rc", "build", "--keep_going", "//a:a", "//b/..."))); // $SLASH_OK bazel path
+        assertEquals(2, BazelCommandTelemetry.countTargets(
+            Arrays.asList("query", "kind(rule, set(//a:* //b:*))"))); // $SLASH_OK bazel path
+    }
+
+    @Test
+    public void testCountTargetsInPatternFile() throws Exception {
+        File patternFile = new File(tmpFolder.newFolder(), "targets.txt");
+        List<String> patterns = Arrays.asList("//a:a", "", "# a comment", "//b:b", "//c/..."); // $SLASH_OK bazel path
+        Files.write(patternFile.toPath(), patterns, StandardCharsets.UTF_8);
+
+        assertEquals(3, BazelCommandTelemetry.countTargets(
+            Arrays.asList("build", "--keep_going", "--target_pattern_file=" + patternFile.getAbsolutePath())));
+        // a file that is gone is not an error
+        assertEquals(0, BazelCommandTelemetry.countTargets(Arrays.asList("build",
+            "--target_pattern_file=" + new File(patternFile.getParentFile(), "missing.txt").getAbsolutePath())));
+    }
+
+    @Test
+    public void testExportCsv() {
+        BazelCommandTelemetry telemetry = new BazelCommandTelemetry();
+        telemetry.add(createRecord("build", "Runner.build"));
+        telemetry.add(createRecord("query", "odd,\"caller\""));
+
+        String[] lines = telemetry.exportCsv().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals(BazelCommandTelemetry.CSV_HEADER, lines[0]);
+        assertEquals("1000,build,3,BACKGROUND,20,300,0,4000,50,Runner.build", lines[1]);
+        assertEquals("1000,query,3,BACKGROUND,20,300,0,4000,50,\"odd,\"\"caller\"\"\"", lines[2]);
+    }
+
+    @Test
+    public void testExportJson() throws Exception {
+        BazelCommandTelemetry telemetry = new BazelCommandTelemetry();
+        telemetry.add(createRecord("build", "Runner.build"));
+
+        File reportFile = new File(tmpFolder.newFolder(), "telemetry.json");
+        telemetry.writeReport(reportFile);
+        String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+
+        JSONArray recordsArray = (JSONArray) new JSONParser().parse(report);
+        assertEquals(1, recordsArray.size());
+        JSONObject recordObject = (JSONObject) recordsArray.get(0);
+        assertEquals("build", recordObject.get("verb"));
+        assertEquals("BACKGROUND", recordObject.get("priority"));
+        assertEquals(20L, recordObject.get("queueWaitMillis"));
+        assertEquals(300L, recordObject.get("executionMillis"));
+        assertEquals(4000L, recordObject.get("stdoutBytes"));
+        assertEquals("Runner.build", recordObject.get("caller"));
+    }
+
+    @Test
+    public void testZeroCapacityRecordsNothing() {
+        BazelCommandTelemetry telemetry = new BazelCommandTelemetry();
+        telemetry.setCapacity(0);
+        telemetry.add(createRecord("build", "caller1"));
+
+        assertTrue(telemetry.getRecords().isEmpty());
+        assertEquals("[]", telemetry.exportJson());
+    }
+
+    // INTERNAL
+
+    private static BazelCommandTelemetry.Record createRecord(String verb, String caller) {
+        return new BazelCommandTelemetry.Record(1000L, verb, 3, BazelCommandPriority.BACKGROUND, 20L, 300L, 0, 4000L,
+                50L, caller);
+    }
+}
@@ -24,22 +24,43 @@
 package com.salesforce.bazel.sdk.command.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.salesforce.bazel.sdk.aspect.AspectCacheMetrics;
+import com.salesforce.bazel.sdk.aspect.AspectOutputMode;
 import com.salesforce.bazel.sdk.aspect.AspectTargetInfo;
+import com.salesforce.bazel.sdk.aspect.FixedSizeAspectBatchingStrategy;
+import com.salesforce.bazel.sdk.aspect.SingleInvocationAspectBatchingStrategy;
+import com.salesforce.bazel.sdk.command.BazelCommandLineToolConfigurationException;
 import com.salesforce.bazel.sdk.command.test.TestBazelCommandEnvironmentFactory;
 import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.util.WorkProgressMonitor;
 import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceDescriptor;
 import com.salesforce.bazel.sdk.workspace.test.TestBazelWorkspaceFactory;
 import com.salesforce.bazel.sdk.workspace.test.TestOptions;
@@ -155,16 +176,289 @@ public class BazelWorkspaceAspectHelperTest {
         assertEquals(1, aspectHelper.numberCacheHits); // the entries all came from cache
     }
 
+    @Test
+    public void testAspectCacheFlushWithPersistentCache() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("persistent");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.enablePersistentCache(tmpFolder.newFolder("aspectcache"));
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+
+        List<BazelLabel> targets = Collections.singletonList(label);
+        aspectHelper.getAspectTargetInfos(targets, "testAspectLoading");
+        assertEquals(0, aspectHelper.numberCacheHits);
+
+        // flush the in-memory cache, the BUILD file has not changed so the entry comes back from disk
+        aspectHelper.flushAspectInfoCache();
+        assertEquals(0, aspectHelper.aspectInfoCache_current.size());
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap =
+                aspectHelper.getAspectTargetInfos(targets, "testAspectLoading");
+        assertEquals(1, aspectMap.size());
+        assertEquals(1, aspectHelper.numberCacheHits);
+    }
+
+    @Test
+    public void testConcurrentMissesShareInvocations() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("concurrent");
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger invocations = new AtomicInteger();
+        BazelCommandExecutor executor =
+                new BazelCommandExecutor(env.bazelExecutable.bazelExecutableFile, env.commandBuilder) {
+                    @Override
+                    public int runBazelAndStreamErrorLines(ConsoleType consoleType, File directory,
+                            WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector,
+                            Consumer<String> lineConsumer, long timeoutMS)
+                            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+                        if (invocations.incrementAndGet() == 1) {
+                            // hold the first invocation until the other callers have queued up behind it
+                            release.await();
+                        }
+                        return super.runBazelAndStreamErrorLines(consoleType, directory, progressMonitor, args,
+                            selector, lineConsumer, timeoutMS);
+                    }
+                };
+        BazelWorkspaceAspectProcessor aspectHelper =
+                new BazelWorkspaceAspectProcessor(env.bazelWorkspaceCommandRunner, env.bazelAspectLocation, executor);
+        aspectHelper.setBatchingStrategy(new SingleInvocationAspectBatchingStrategy());
+        BazelLabel wildcardLabel = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        BazelLabel concreteLabel = new BazelLabel("//projects/libs/javalib0:javalib0"); // $SLASH_OK bazel path
+
+        ExecutorService threads = Executors.newFixedThreadPool(5);
+        try {
+            Future<Map<BazelLabel, Set<AspectTargetInfo>>> first = threads.submit(() -> aspectHelper
+                    .getAspectTargetInfos(Collections.singletonList(wildcardLabel), "testConcurrent"));
+            while (invocations.get() == 0) {
+                Thread.sleep(10);
+            }
+            // the same label joins the running invocation, another label waits for the next one
+            Future<Map<BazelLabel, Set<AspectTargetInfo>>> sameLabel = threads.submit(() -> aspectHelper
+                    .getAspectTargetInfos(Collections.singletonList(wildcardLabel), "testConcurrent"));
+            Future<Map<BazelLabel, Set<AspectTargetInfo>>> otherLabel1 = threads.submit(() -> aspectHelper
+                    .getAspectTargetInfos(Collections.singletonList(concreteLabel), "testConcurrent"));
+            Future<Map<BazelLabel, Set<AspectTargetInfo>>> otherLabel2 = threads.submit(() -> aspectHelper
+                    .getAspectTargetInfos(Collections.singletonList(concreteLabel), "testConcurrent"));
+            while (!aspectHelper.inFlightLoads.containsKey(concreteLabel)) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Set<AspectTargetInfo> wildcardInfos = first.get(30, TimeUnit.SECONDS).get(wildcardLabel);
+            assertNotNull(wildcardInfos);
+            assertSame(wildcardInfos, sameLabel.get(30, TimeUnit.SECONDS).get(wildcardLabel));
+            assertNotNull(otherLabel1.get(30, TimeUnit.SECONDS).get(concreteLabel));
+            assertNotNull(otherLabel2.get(30, TimeUnit.SECONDS).get(concreteLabel));
+            assertEquals(2, invocations.get());
+            assertEquals(0, aspectHelper.inFlightLoads.size());
+        } finally {
+            release.countDown();
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStructureModeDefersJarResolution() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("structure");
+        List<String> outputGroups = new ArrayList<>();
+        BazelCommandExecutor executor =
+                new BazelCommandExecutor(env.bazelExecutable.bazelExecutableFile, env.commandBuilder) {
+                    @Override
+                    public int runBazelAndStreamErrorLines(ConsoleType consoleType, File directory,
+                            WorkProgressMonitor progressMonitor, List<String> args, Function<String, String> selector,
+                            Consumer<String> lineConsumer, long timeoutMS)
+                            throws IOException, InterruptedException, BazelCommandLineToolConfigurationException {
+                        String option = BazelWorkspaceAspectProcessor.OUTPUT_GROUPS_OPTION;
+                        for (String arg : args) {
+                            if (arg.startsWith(option)) {
+                                outputGroups.add(arg.substring(option.length()));
+                            }
+                        }
+                        return super.runBazelAndStreamErrorLines(consoleType, directory, progressMonitor, args,
+                            selector, lineConsumer, timeoutMS);
+                    }
+                };
+        BazelWorkspaceAspectProcessor aspectHelper =
+                new BazelWorkspaceAspectProcessor(env.bazelWorkspaceCommandRunner, env.bazelAspectLocation, executor);
+        List<BazelLabel> targets =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*")); // $SLASH_OK bazel path
+
+        // the structure is enough for another structure request
+        Map<BazelLabel, Set<AspectTargetInfo>> structureMap =
+                aspectHelper.getAspectTargetInfos(targets, "testStructure", AspectOutputMode.STRUCTURE);
+        aspectHelper.getAspectTargetInfos(targets, "testStructure", AspectOutputMode.STRUCTURE);
+        assertEquals(Collections.singletonList(AspectOutputMode.STRUCTURE.getOutputGroups()), outputGroups);
+        assertEquals(1, aspectHelper.numberCacheHits);
+
+        // but a full request has to build the jars
+        Map<BazelLabel, Set<AspectTargetInfo>> fullMap =
+                aspectHelper.getAspectTargetInfos(targets, "testStructure", AspectOutputMode.FULL);
+        assertEquals(2, outputGroups.size());
+        assertEquals(AspectOutputMode.FULL.getOutputGroups(), outputGroups.get(1));
+        assertEquals(structureMap.get(targets.get(0)).size(), fullMap.get(targets.get(0)).size());
+        assertEquals(0, aspectHelper.unresolvedLabels.size());
+
+        // and a full result serves both modes
+        aspectHelper.getAspectTargetInfos(targets, "testStructure", AspectOutputMode.STRUCTURE);
+        aspectHelper.getAspectTargetInfos(targets, "testStructure");
+        assertEquals(2, outputGroups.size());
+        assertEquals(3, aspectHelper.numberCacheHits);
+    }
+
+    @Test
+    public void testCacheMetrics() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("metrics");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        List<BazelLabel> targets =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*")); // $SLASH_OK bazel path
+
+        aspectHelper.getAspectTargetInfos(targets, "first");
+        aspectHelper.getAspectTargetInfos(targets, "second");
+        aspectHelper.getAspectTargetInfos(targets, "second");
+
+        AspectCacheMetrics metrics = env.bazelWorkspaceCommandRunner.getAspectCacheMetrics();
+        assertEquals(1, metrics.getCountsByCaller().get("first").getMisses());
+        assertEquals(0, metrics.getCountsByCaller().get("first").getHits());
+        assertEquals(2, metrics.getCountsByCaller().get("second").getHits());
+        assertEquals(2, metrics.getHits());
+        assertEquals(1, metrics.getMisses());
+        assertEquals(1, metrics.getInvocationCount());
+        assertEquals(1, metrics.getInvocationTargetCount());
+        assertEquals(0, metrics.getLastGoodFallbacks());
+        assertEquals(3, metrics.getCurrentCacheEntries());
+        assertEquals(3, metrics.getLastGoodCacheEntries());
+        assertTrue(metrics.getCurrentCacheHeapBytes() > 0);
+
+        // the gauges follow the caches
+        aspectHelper.flushAspectInfoCache();
+        assertEquals(0, aspectHelper.getCacheMetrics().getCurrentCacheEntries());
+        assertEquals(0, aspectHelper.getCacheMetrics().getCurrentCacheHeapBytes());
+    }
+
+    @Test
+    public void testAspectLoadingFromBuildEvents() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("bep");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.setBuildEventOutputs(true);
+        BazelLabel label = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+
+        // the mock reports the aspect files only in the BEP file, not on stderr
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap =
+                aspectHelper.getAspectTargetInfos(Collections.singletonList(label), "testBuildEvents");
+        assertEquals(6, aspectMap.get(label).size());
+        assertEquals(3, aspectHelper.aspectInfoCache_current.size());
+    }
+
+    @Test
+    public void testFailedAspectBuildIsNotCached() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("failed");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        TestOptions testOptions = env.testWorkspace.workspaceDescriptor.testOptions;
+        List<BazelLabel> targets =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*")); // $SLASH_OK bazel path
+
+        // the mock still reports the aspect files, but they must not be used
+        testOptions.failAspectBuilds(true);
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap = aspectHelper.getAspectTargetInfos(targets, "failed");
+        assertNull(aspectMap.get(targets.get(0)));
+        assertEquals(0, aspectHelper.aspectInfoCache_current.size());
+        assertEquals(0, aspectHelper.aspectInfoCache_lastgood.size());
+
+        // once the build is fixed, the aspect runs again
+        testOptions.failAspectBuilds(false);
+        aspectMap = aspectHelper.getAspectTargetInfos(targets, "fixed");
+        assertEquals(6, aspectMap.get(targets.get(0)).size());
+        assertEquals(2, aspectHelper.getCacheMetrics().getInvocationCount());
+    }
+
+    @Test
+    public void testFailedAspectBuildFallsBackToLastGood() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("failedbep");
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.setBuildEventOutputs(true);
+        List<BazelLabel> targets =
+                Collections.singletonList(new BazelLabel("//projects/libs/javalib0:*")); // $SLASH_OK bazel path
+        aspectHelper.getAspectTargetInfos(targets, "good");
+        aspectHelper.flushAspectInfoCache();
+
+        env.testWorkspace.workspaceDescriptor.testOptions.failAspectBuilds(true);
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap = aspectHelper.getAspectTargetInfos(targets, "failed");
+        assertEquals(6, aspectMap.get(targets.get(0)).size());
+        assertEquals(1, aspectHelper.getCacheMetrics().getLastGoodFallbacks());
+        assertEquals(0, aspectHelper.aspectInfoCache_current.size());
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedInSmallerBatches() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("failedretry", 3);
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        aspectHelper.setBatchingStrategy(new FixedSizeAspectBatchingStrategy(3));
+        aspectHelper.failedBatchRetrySize = 1;
+        BazelLabel javalib0 = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        BazelLabel javalib1 = new BazelLabel("//projects/libs/javalib1:*"); // $SLASH_OK bazel path
+        BazelLabel javalib2 = new BazelLabel("//projects/libs/javalib2:*"); // $SLASH_OK bazel path
+        env.testWorkspace.workspaceDescriptor.testOptions.failAspectBuildsOfPackage("projects/libs/javalib1");
+
+        // [0 1 2] fails, then [0] succeeds, [1 2] fails, [1] fails and [2] succeeds
+        Map<BazelLabel, Set<AspectTargetInfo>> aspectMap =
+                aspectHelper.getAspectTargetInfos(Arrays.asList(javalib0, javalib1, javalib2), "failedRetry");
+        assertEquals(5, aspectHelper.getCacheMetrics().getInvocationCount());
+        assertNotNull(aspectMap.get(javalib0));
+        assertNotNull(aspectMap.get(javalib2));
+        // the packages that build get their aspect data, also the one that shared a batch with the broken package
+        Map<BazelLabel, Set<AspectTargetInfo>> cache = aspectHelper.aspectInfoCache_current;
+        assertTrue(cache.containsKey(new BazelLabel("//projects/libs/javalib0:javalib0"))); // $SLASH_OK bazel path
+        assertTrue(cache.containsKey(new BazelLabel("//projects/libs/javalib2:javalib2"))); // $SLASH_OK bazel path
+    }
+
+    @Test
+    public void testPackageFlushEvictsDependents() throws Exception {
+        TestBazelCommandEnvironmentFactory env = createEnv("dependents", 3);
+        BazelWorkspaceAspectProcessor aspectHelper = env.bazelWorkspaceCommandRunner.getBazelWorkspaceAspectHelper();
+        BazelLabel javalib0 = new BazelLabel("//projects/libs/javalib0:*"); // $SLASH_OK bazel path
+        BazelLabel javalib1 = new BazelLabel("//projects/libs/javalib1:*"); // $SLASH_OK bazel path
+        BazelLabel javalib2 = new BazelLabel("//projects/libs/javalib2:*"); // $SLASH_OK bazel path
+        aspectHelper.getAspectTargetInfos(Arrays.asList(javalib0, javalib1, javalib2), "testDependents");
+
+        // the libs are chained (javalib2 -> javalib1 -> javalib0), and all three are loaded by one aspect run
+        for (BazelLabel label : Arrays.asList(javalib0, javalib1, javalib2)) {
+            assertTrue(aspectHelper.dependentLabelsByPackage.get("projects/libs/javalib0").contains(label));
+        }
+        // a wildcard label is indexed by the closure of its own package, not by everything its load returned
+        assertFalse(aspectHelper.dependentLabelsByPackage.get("projects/libs/javalib1").contains(javalib0));
+        assertTrue(aspectHelper.dependentLabelsByPackage.get("projects/libs/javalib1").contains(javalib2));
+        assertFalse(aspectHelper.dependentLabelsByPackage.get("projects/libs/javalib2").contains(javalib1));
+
+        // nothing depends on javalib2, so a change to it only flushes its own entries
+        Set<BazelLabel> flushed = aspectHelper.flushAspectInfoCacheForPackage(javalib2);
+        assertTrue(flushed.contains(javalib2));
+        for (BazelLabel flushedLabel : flushed) {
+            assertEquals("projects/libs/javalib2", flushedLabel.getPackagePath());
+        }
+        assertTrue(aspectHelper.aspectInfoCache_current.containsKey(javalib0));
+        assertTrue(aspectHelper.aspectInfoCache_current.containsKey(javalib1));
+
+        // a change to javalib0 makes every closure that includes it stale, and only those are loaded again
+        Map<BazelLabel, Set<AspectTargetInfo>> reloaded =
+                aspectHelper.reloadAspectInfoCacheForPackage(javalib0, "testDependents");
+        assertTrue(reloaded.containsKey(javalib0));
+        assertTrue(reloaded.containsKey(javalib1));
+        assertFalse(reloaded.containsKey(javalib2));
+        assertTrue(aspectHelper.aspectInfoCache_current.containsKey(javalib1));
+        assertFalse(aspectHelper.aspectInfoCache_current.containsKey(javalib2));
+    }
+
     // INTERNAL
 
     private TestBazelCommandEnvironmentFactory createEnv(String testKey) throws Exception {
+        return createEnv(testKey, 1);
+    }
+
+    private TestBazelCommandEnvironmentFactory createEnv(String testKey, int numberOfJavaPackages) throws Exception {
         File testDir = tmpFolder.newFolder();
         File workspaceDir = new File(testDir, "bazelws-" + testKey);
         workspaceDir.mkdirs();
         File outputbaseDir = new File(testDir, "obase-" + testKey);
         outputbaseDir.mkdirs();
 
-        TestOptions testOptions = new TestOptions().numberOfJavaPackages(1);
+        TestOptions testOptions = new TestOptions().numberOfJavaPackages(numberOfJavaPackages);
 
         TestBazelWorkspaceDescriptor descriptor =
                 new TestBazelWorkspaceDescriptor(workspaceDir, outputbaseDir).testOptions(testOptions);
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.sdk.command.Command;
+import com.salesforce.bazel.sdk.command.CommandBuilder;
+import com.salesforce.bazel.sdk.command.test.ReplayCommandBuilder;
+
+public class RecordingCommandBuilderTest {
+
+    private static boolean isWindows = System.getProperty("os.name", "Linux").contains("Windows");
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        if (isWindows) {
+            return; // no bash on Windows
+        }
+        File recordWorkspace = tmpFolder.newFolder("recordws");
+        File fixtureDir = new File(tmpFolder.getRoot(), "fixtures");
+
+        RecordingCommandBuilder recorder = new RecordingCommandBuilder(new ShellCommandBuilder(null), fixtureDir);
+        Command recordedCmd = buildEchoCommand(recorder, recordWorkspace, t -> t.equals("out") ? t : null);
+        assertEquals(3, recordedCmd.run());
+        // the caller's selector still applies
+        assertEquals(Arrays.asList("out"), recordedCmd.getSelectedOutputLines());
+
+        List<File> fixtureFiles = RecordedCommand.listFixtureFiles(fixtureDir);
+        assertEquals(1, fixtureFiles.size());
+        RecordedCommand recording = RecordedCommand.read(fixtureFiles.get(0));
+        assertEquals(3, recording.exitCode);
+        assertEquals("-c", recording.args.get(0));
+        assertTrue(recording.args.get(1).startsWith("echo " + RecordedCommand.WORKSPACE_TOKEN + ";"));
+        // the output ends with a line break
+        assertEquals(Arrays.asList(RecordedCommand.WORKSPACE_TOKEN, "out", ""), recording.outputLines);
+        assertEquals(Arrays.asList("err", ""), recording.errorLines);
+
+        // the fixture is replayed against a workspace somewhere else
+        File replayWorkspace = tmpFolder.newFolder("replayws");
+        ReplayCommandBuilder replayer = new ReplayCommandBuilder(null, fixtureDir);
+        Command replayedCmd = buildEchoCommand(replayer, replayWorkspace, t -> t);
+        assertEquals(3, replayedCmd.run());
+        // the selected lines are the same as those of the recorded command
+        assertEquals(Arrays.asList(replayWorkspace.getAbsolutePath(), "out", ""),
+            replayedCmd.getSelectedOutputLines());
+        assertEquals(Arrays.asList("err", ""), replayedCmd.getSelectedErrorLines());
+        assertEquals(replayWorkspace.getAbsolutePath().length() + 5, replayedCmd.getOutputByteCount());
+
+        // streamed lines, the executable may differ from the recording
+        List<String> streamedLines = new ArrayList<>();
+        CommandBuilder builder = replayer.setDirectory(replayWorkspace).addArguments("bazel", "-c",
+            "echo " + replayWorkspace.getAbsolutePath() + "; echo out; echo err >&2; exit 3");
+        Command streamedCmd = builder.setStdoutLineConsumer(streamedLines::add).build();
+        streamedCmd.run();
+        assertEquals(2, streamedLines.size());
+        assertTrue(streamedCmd.getSelectedOutputLines().isEmpty());
+        assertEquals(2, replayer.getReplayedCount());
+    }
+
+    @Test
+    public void testReplayUnknownCommand() throws Exception {
+        File fixtureDir = tmpFolder.newFolder("fixtures");
+        new RecordedCommand(Arrays.asList("info", "release"), Arrays.asList("release 5.0.0"), new ArrayList<>(), 0,
+                10).write(new File(fixtureDir, RecordedCommand.getFixtureFileName(1)));
+
+        ReplayCommandBuilder replayer = new ReplayCommandBuilder(null, fixtureDir);
+        Command cmd = replayer.addArguments("/usr/bin/bazel", "info", "release").setStdoutLineSelector(t -> t).build();
+        assertEquals(0, cmd.run());
+        assertEquals(Arrays.asList("release 5.0.0"), cmd.getSelectedOutputLines());
+
+        try {
+            replayer.addArguments("/usr/bin/bazel", "info", "workspace").build();
+            fail("A command that was not recorded must not be replayed");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    @Test
+    public void testReplayTiming() throws Exception {
+        File fixtureDir = tmpFolder.newFolder("fixtures");
+        List<String> args = Arrays.asList("query", "//a:*"); // $SLASH_OK bazel path
+        new RecordedCommand(args, Arrays.asList("//a:a"), new ArrayList<>(), 0, 200) // $SLASH_OK bazel path
+                .write(new File(fixtureDir, RecordedCommand.getFixtureFileName(1)));
+
+        ReplayCommandBuilder replayer = new ReplayCommandBuilder(null, fixtureDir).setReplayTiming(true);
+        Command cmd = replayer.addArguments("bazel", "query", "//a:*").build(); // $SLASH_OK bazel path
+        long startTimeNanos = System.nanoTime();
+        cmd.run();
+        assertTrue((System.nanoTime() - startTimeNanos) >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    // INTERNAL
+
+    private static Command buildEchoCommand(CommandBuilder builder, File workspace,
+            Function<String, String> stdoutSelector) throws Exception {
+        // the first argument stands in for the Bazel executable, which is not recorded
+        return builder.setDirectory(workspace)
+                .addArguments("bash", "-c",
+                    "echo " + workspace.getAbsolutePath() + "; echo out; echo err >&2; exit 3")
+                .setStdoutLineSelector(stdoutSelector).setStderrLineSelector(t -> t).build();
+    }
+}
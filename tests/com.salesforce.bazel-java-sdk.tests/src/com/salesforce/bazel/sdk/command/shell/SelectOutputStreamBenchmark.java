@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Manual throughput harness for {@link SelectOutputStream}, not part of the unit suite. It pushes the same Bazel like
+ * output through the single byte {@link SelectOutputStream#write(int)} path, which is how every byte arrived before
+ * the bulk write was added, and through the bulk {@link SelectOutputStream#write(byte[], int, int)} path in 8 KB
+ * chunks, as the process output is copied, and prints MB/s for each.
+ * <p>
+ * Usage: <code>java -cp ... com.salesforce.bazel.sdk.command.shell.SelectOutputStreamBenchmark [megabytes]</code>,
+ * default is 512 MB per path.
+ */
+public class SelectOutputStreamBenchmark {
+    private static final int DEFAULT_MEGABYTES = 512;
+    private static final int WARMUP_MEGABYTES = 32;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    // selects the aspect file lines, as the aspect build does, everything else is progress output
+    private static final Function<String, String> ASPECT_LINES_SELECTOR =
+            line -> line.startsWith(">>>") ? line.substring(3) : null;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEGABYTES;
+        byte[] block = createOutputBlock();
+
+        run(block, WARMUP_MEGABYTES, false);
+        run(block, WARMUP_MEGABYTES, true);
+        report("single byte", megabytes, run(block, megabytes, false));
+        report("bulk", megabytes, run(block, megabytes, true));
+    }
+
+    /**
+     * About 1 MB of output, a mix of progress lines and aspect file lines of realistic lengths.
+     */
+    private static byte[] createOutputBlock() {
+        StringBuilder text = new StringBuilder();
+        int line = 0;
+        while (text.length() < (1024 * 1024)) {
+            if ((line % 4) == 0) {
+                text.append(">>>/private/var/tmp/_bazel_user/1a2b3c4d/execroot/__main__/"); // $SLASH_OK bazel path
+                text.append("bazel-out/darwin-fastbuild/bin/"); // $SLASH_OK bazel path
+                text.append("projects/libs/lib").append(line).append("/lib").append(line); // $SLASH_OK bazel path
+                text.append(".bzljavasdk-data.json\n");
+            } else {
+                text.append("INFO: From Compiling Java headers projects/libs/lib").append(line); // $SLASH_OK bazel path
+                text.append("/liblib").append(line).append("-hjar.jar (12 source files):\n"); // $SLASH_OK bazel path
+            }
+            line++;
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the block repeatedly until the passed number of megabytes went through, and returns the elapsed nanos.
+     */
+    private static long run(byte[] block, int megabytes, boolean bulk) throws IOException {
+        long total = (long) megabytes * 1024 * 1024;
+        long[] selectedLines = new long[1];
+        // the lines are consumed as they arrive, so that the harness does not hold hundreds of MB of strings
+        SelectOutputStream stream = new SelectOutputStream(null, ASPECT_LINES_SELECTOR, l -> selectedLines[0]++);
+        long start = System.nanoTime();
+        while (stream.getByteCount() < total) {
+            if (bulk) {
+                for (int offset = 0; offset < block.length; offset += CHUNK_SIZE) {
+                    stream.write(block, offset, Math.min(CHUNK_SIZE, block.length - offset));
+                }
+            } else {
+                for (byte b : block) {
+                    stream.write(b);
+                }
+            }
+        }
+        stream.close();
+        long elapsed = System.nanoTime() - start;
+        if (selectedLines[0] == 0) {
+            throw new IllegalStateException("no aspect lines were selected");
+        }
+        return elapsed;
+    }
+
+    private static void report(String path, int megabytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("%-12s %d MB in %.2f s, %.1f MB/s", path, megabytes, seconds,
+            megabytes / seconds));
+    }
+}
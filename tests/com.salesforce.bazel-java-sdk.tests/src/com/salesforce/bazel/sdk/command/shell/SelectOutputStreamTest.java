@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class SelectOutputStreamTest {
+
+    private static final Function<String, String> ERROR_LINES_SELECTOR = x -> x.startsWith("ERROR") ? x : null;
+
+    @Test
+    public void testLinesSplitAcrossWrites() throws Exception {
+        byte[] input = "INFO: one\nERROR: two\nINFO: three\nERROR: four".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        SelectOutputStream stream = new SelectOutputStream(console, ERROR_LINES_SELECTOR);
+
+        // odd chunk sizes, mixed with single byte writes, so that lines and line breaks straddle the writes
+        int offset = 0;
+        int chunk = 1;
+        while (offset < input.length) {
+            int length = Math.min(chunk, input.length - offset);
+            if (length == 1) {
+                stream.write(input[offset]);
+            } else {
+                stream.write(input, offset, length);
+            }
+            offset += length;
+            chunk = (chunk % 7) + 1;
+        }
+        stream.close();
+
+        assertEquals(Arrays.asList("ERROR: two", "ERROR: four"), stream.getLines());
+        assertEquals(Arrays.asList("INFO: one\n", "INFO: three\n"), stream.getOutputLines());
+        assertEquals("INFO: one\nINFO: three\n", console.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testMultiByteCharacterSplitAcrossWrites() throws Exception {
+        byte[] input = "ERROR: caf\u00e9 \u2603\nrest".getBytes(StandardCharsets.UTF_8);
+        SelectOutputStream stream = new SelectOutputStream(null, ERROR_LINES_SELECTOR);
+        // split in the middle of the two byte e-acute
+        int split = "ERROR: caf".length() + 1;
+        stream.write(input, 0, split);
+        stream.write(input, split, input.length - split);
+        stream.close();
+
+        assertEquals(Arrays.asList("ERROR: caf\u00e9 \u2603"), stream.getLines());
+        assertEquals(0, stream.getOutputLines().size());
+    }
+
+    @Test
+    public void testUnselectedBytesArePassedThrough() throws Exception {
+        byte[] input = "a\n\nb\r\nc".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        SelectOutputStream stream = new SelectOutputStream(console, null);
+        stream.write(input, 0, input.length);
+        stream.close();
+
+        assertArrayEquals(input, console.toByteArray());
+        assertEquals(Arrays.asList("a\n", "\n", "b\r\n", "c"), stream.getOutputLines());
+    }
+
+    @Test
+    public void testSelectedLinesArePushedToConsumer() throws Exception {
+        byte[] input = "INFO: one\nERROR: two\nERROR: three".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        List<String> consumed = new ArrayList<>();
+        SelectOutputStream stream = new SelectOutputStream(console, ERROR_LINES_SELECTOR, consumed::add);
+        stream.write(input, 0, input.length - 5);
+        // the complete lines are pushed as soon as they are written
+        assertEquals(Arrays.asList("ERROR: two"), consumed);
+        stream.write(input, input.length - 5, 5);
+        stream.close();
+
+        assertEquals(Arrays.asList("ERROR: two", "ERROR: three"), consumed);
+        assertEquals(0, stream.getLines().size());
+        assertEquals("INFO: one\n", console.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    public void testConsumerWithoutSelectorGetsAllLines() throws Exception {
+        byte[] input = "a\nb\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        List<String> consumed = new ArrayList<>();
+        SelectOutputStream stream = new SelectOutputStream(console, null, consumed::add);
+        stream.write(input, 0, input.length);
+        stream.close();
+
+        assertEquals(Arrays.asList("a", "b"), consumed);
+        assertEquals(0, console.size());
+    }
+
+    /**
+     * Pushes build output through the stream in the 4k chunks the process pump delivers, and checks that the bulk write
+     * selects the same lines as writing the same output a byte at a time (which is what every write amounted to before
+     * the bulk write was implemented).
+     */
+    @Test
+    public void testBulkWritesMatchSingleByteWrites() throws Exception {
+        StringBuilder sample = new StringBuilder();
+        int errorLineCount = 0;
+        for (int i = 0; sample.length() < (64 * 1024); i++) {
+            if ((i % 100) == 0) {
+                sample.append("ERROR: /ws/projects/libs/lib" + i + "/BUILD:12:13: compile failed\n");
+                errorLineCount++;
+            } else {
+                sample.append("INFO: From Compiling projects/libs/lib" + i + "/src/main/java/Foo" + i + ".java:\n");
+            }
+        }
+        byte[] sampleBytes = sample.toString().getBytes(StandardCharsets.UTF_8);
+        int repeats = 4;
+
+        List<String> bulkLines = pump(sampleBytes, repeats, true);
+        List<String> singleByteLines = pump(sampleBytes, repeats, false);
+
+        assertEquals(errorLineCount * repeats, bulkLines.size());
+        assertEquals(singleByteLines, bulkLines);
+    }
+
+    // HELPERS
+
+    private List<String> pump(byte[] sampleBytes, int repeats, boolean bulk) throws IOException {
+        SelectOutputStream stream = new SelectOutputStream(OutputStream.nullOutputStream(), ERROR_LINES_SELECTOR);
+        for (int r = 0; r < repeats; r++) {
+            // the same 4k chunks the process pump reads
+            for (int offset = 0; offset < sampleBytes.length; offset += 4096) {
+                int length = Math.min(4096, sampleBytes.length - offset);
+                if (bulk) {
+                    stream.write(sampleBytes, offset, length);
+                } else {
+                    for (int i = offset; i < (offset + length); i++) {
+                        stream.write(sampleBytes[i]);
+                    }
+                }
+            }
+        }
+        stream.close();
+        return new ArrayList<>(stream.getLines());
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2019, Salesforce.com, Inc. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ * following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.bazel.sdk.command.shell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StreamPumpExecutorTest {
+
+    @Test
+    public void testPumpThreadsAreReused() throws Exception {
+        StreamPumpExecutor pumps = new StreamPumpExecutor(false, 4);
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        byte[] data = new byte[(3 * StreamPumpExecutor.BUFFER_SIZE) + 17];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        for (int i = 0; i < 50; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    threadNames.add(Thread.currentThread().getName());
+                    super.write(b, off, len);
+                }
+            };
+            pumps.pump(new ByteArrayInputStream(data), out).get(10, TimeUnit.SECONDS);
+            assertArrayEquals(data, out.toByteArray());
+        }
+
+        // 50 pumps, but never more threads than the pool allows
+        assertTrue(threadNames.size() <= 4);
+        assertEquals(0, pumps.getDedicatedThreadCount());
+        pumps.shutdown();
+    }
+
+    @Test
+    public void testExhaustedPoolFallsBackToDedicatedThreads() throws Exception {
+        StreamPumpExecutor pumps = new StreamPumpExecutor(false, 1);
+        PipedOutputStream firstProcess = new PipedOutputStream();
+        PipedOutputStream secondProcess = new PipedOutputStream();
+        ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+
+        Future<Void> first = pumps.pump(new PipedInputStream(firstProcess), firstOut);
+        Future<Void> second = pumps.pump(new PipedInputStream(secondProcess), secondOut);
+        assertEquals(1, pumps.getDedicatedThreadCount());
+
+        // both pumps are live at the same time
+        secondProcess.write("second".getBytes());
+        secondProcess.close();
+        second.get(10, TimeUnit.SECONDS);
+        assertFalse(first.isDone());
+        firstProcess.write("first".getBytes());
+        firstProcess.close();
+        first.get(10, TimeUnit.SECONDS);
+
+        assertEquals("first", firstOut.toString());
+        assertEquals("second", secondOut.toString());
+        pumps.shutdown();
+    }
+
+    @Test
+    public void testPumpsStillRunAfterShutdown() throws Exception {
+        StreamPumpExecutor pumps = new StreamPumpExecutor(true, 2);
+        pumps.shutdown();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pumps.pump(new ByteArrayInputStream("late".getBytes()), out).get(10, TimeUnit.SECONDS);
+        assertEquals("late", out.toString());
+        assertEquals(1, pumps.getDedicatedThreadCount());
+    }
+
+    @Test
+    public void testFailingStreamEndsThePump() throws Exception {
+        StreamPumpExecutor pumps = new StreamPumpExecutor(false, 2);
+        InputStream brokenPipe = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Stream closed");
+            }
+        };
+        Future<Void> pump = pumps.pump(brokenPipe, OutputStream.nullOutputStream());
+        pump.get(10, TimeUnit.SECONDS);
+        assertTrue(pump.isDone());
+        pumps.shutdown();
+    }
+}
@@ -1,12 +1,16 @@
 package com.salesforce.bazel.sdk.project;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
@@ -17,6 +21,7 @@ import com.salesforce.bazel.sdk.command.BazelWorkspaceCommandRunner;
 import com.salesforce.bazel.sdk.graph.InMemoryPackageLocation;
 import com.salesforce.bazel.sdk.init.JvmRuleInit;
 import com.salesforce.bazel.sdk.model.BazelLabel;
+import com.salesforce.bazel.sdk.model.BazelPackageLocation;
 import com.salesforce.bazel.sdk.model.BazelWorkspace;
 import com.salesforce.bazel.sdk.path.FSPathHelper;
 import com.salesforce.bazel.sdk.path.FSTree;
@@ -122,6 +127,41 @@ public class BazelQueryProjectStructureStrategyTest {
         assertContains(structure.testResourceDirFSPaths, "projects/libs/apple/source/test/resources");
     }
 
+    @Test
+    public void testBatchedQuery() {
+        TestBazelQueryProjectStructureStrategy strategy = new TestBazelQueryProjectStructureStrategy();
+        addSourcePathForTest(strategy, "source/main/java");
+        addSimQueryResult(strategy, "source/main/java/com/salesforce/apple/api/Apple.java");
+
+        InMemoryPackageLocation applePackage = new InMemoryPackageLocation(FSPathHelper.osSeps("projects/libs/apple"));
+        InMemoryPackageLocation emptyPackage = new InMemoryPackageLocation(FSPathHelper.osSeps("projects/libs/empty"));
+        Map<BazelPackageLocation, ProjectStructure> structures = strategy.doStructureAnalysis(bazelWorkspace,
+            Arrays.asList(applePackage, emptyPackage), nullCommandRunner);
+
+        // one query for both packages, the package without source files has no structure
+        assertEquals(1, strategy.batchedQueryCount);
+        assertEquals(0, strategy.singleQueryCount);
+        assertEquals(1, structures.size());
+        assertContains(structures.get(applePackage).mainSourceDirFSPaths, "projects/libs/apple/source/main/java");
+    }
+
+    @Test
+    public void testBatchedQueryFailureFallsBackToSingleQueries() {
+        TestBazelQueryProjectStructureStrategy strategy = new TestBazelQueryProjectStructureStrategy();
+        strategy.failBatchedQuery = true;
+        addSourcePathForTest(strategy, "source/main/java");
+        addSimQueryResult(strategy, "source/main/java/com/salesforce/apple/api/Apple.java");
+
+        InMemoryPackageLocation applePackage = new InMemoryPackageLocation(FSPathHelper.osSeps("projects/libs/apple"));
+        InMemoryPackageLocation pearPackage = new InMemoryPackageLocation(FSPathHelper.osSeps("projects/libs/pear"));
+        Map<BazelPackageLocation, ProjectStructure> structures = strategy.doStructureAnalysis(bazelWorkspace,
+            Arrays.asList(applePackage, pearPackage), nullCommandRunner);
+
+        assertEquals(1, strategy.batchedQueryCount);
+        assertEquals(2, strategy.singleQueryCount);
+        assertEquals(2, structures.size());
+    }
+
     // INTERNALS
 
     private void addSourcePathForTest(TestBazelQueryProjectStructureStrategy strategy, String unixPath) {
@@ -156,6 +196,10 @@ public class BazelQueryProjectStructureStrategyTest {
         public List<String> mainResourcePathsForThisTest = new ArrayList<>();
         public List<String> testResourcePathsForThisTest = new ArrayList<>();
 
+        public int singleQueryCount = 0;
+        public int batchedQueryCount = 0;
+        public boolean failBatchedQuery = false;
+
         /**
          * Let the test set the expected Bazel query results, without running Bazel query.
          */
@@ -164,9 +208,28 @@ public class BazelQueryProjectStructureStrategyTest {
                 BazelWorkspaceCommandRunner commandRunner) {
             // for these tests, we do not want to invoke the Mock Bazel Query infrastructure, we just simulate
             // the response here
+            singleQueryCount++;
             return queryResults;
         }
 
+        /**
+         * The simulated results are those of the apple package, the other packages have no source files.
+         */
+        @Override
+        protected Map<BazelLabel, Collection<String>> runBazelQueryForSourceFiles(File workspaceRootDir,
+                Collection<BazelLabel> packageLabels, BazelWorkspaceCommandRunner commandRunner) {
+            batchedQueryCount++;
+            if (failBatchedQuery) {
+                return null;
+            }
+            Map<BazelLabel, Collection<String>> results = new HashMap<>();
+            for (BazelLabel packageLabel : packageLabels) {
+                boolean isApple = packageLabel.getPackagePath().endsWith("apple");
+                results.put(packageLabel, isApple ? queryResults : new ArrayList<>());
+            }
+            return results;
+        }
+
         @Override
         protected boolean doIgnoreFile(File packageDir, String srcPath) {
             // in the real class, this method does a File.exists() check, since we don't create files for these